@@ -0,0 +1,123 @@
+package playground.test.revo.api.v1.handler;
+
+import com.google.gson.Gson;
+import io.undertow.util.StatusCodes;
+import org.openjdk.jmh.annotations.*;
+import playground.test.revo.api.v1.dto.AccountDTO;
+import playground.test.revo.api.v1.dto.ErrorDTO;
+import playground.test.revo.api.v1.dto.TransactionDTO;
+import playground.test.revo.data.TxManager;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON encoding of controller responses: {@link JsonEncoder} into a direct buffer, the same path
+ * as {@link ApiV1Controller} uses, against Gson reflection, which it replaced, plus UTF-8 encoding.
+ *
+ * Run: ./gradlew jmh -Pjmh.include=ApiV1ControllerJsonBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApiV1ControllerJsonBenchmark {
+
+    @Param({"1000"})
+    int accounts;
+
+    private AccountDTO account;
+
+    private TransactionDTO transaction;
+
+    private ErrorDTO error;
+
+    private List<String> accountList;
+
+    private Gson gson;
+
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        account = AccountDTO.builder()
+                .id("account-1")
+                .balance(new BigDecimal("1234.56"))
+                .build();
+
+        transaction = TransactionDTO.builder()
+                .from("account-1")
+                .to("account-2")
+                .amount(new BigDecimal("10.50"))
+                .result(TxManager.TxResult.SUCCESS)
+                .build();
+
+        error = ErrorDTO.builder()
+                .responseCode(StatusCodes.CONFLICT)
+                .code(TxManager.TxResult.ERROR_INSUFFICIENT_AMOUNT.toString())
+                .cause("Transfer error")
+                .build();
+
+        gson = new Gson();
+        buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+        accountList = new ArrayList<>(accounts);
+        for (int i = 0; i < accounts; i++) {
+            accountList.add("account-" + i);
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer balance() {
+        buffer.clear();
+        JsonEncoder.account(buffer, account);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer transfer() {
+        buffer.clear();
+        JsonEncoder.transaction(buffer, transaction);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer error() {
+        buffer.clear();
+        JsonEncoder.error(buffer, error);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer accountList() {
+        buffer.clear();
+        JsonEncoder.strings(buffer, accountList);
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] balanceGson() {
+        return gson.toJson(account).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] transferGson() {
+        return gson.toJson(transaction).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] errorGson() {
+        return gson.toJson(error).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] accountListGson() {
+        return gson.toJson(accountList).getBytes(StandardCharsets.UTF_8);
+    }
+}
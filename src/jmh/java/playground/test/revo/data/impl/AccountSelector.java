@@ -0,0 +1,67 @@
+package playground.test.revo.data.impl;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks account indexes for benchmarks: "uniform", or "skewed" - Zipf distribution
+ * (exponent 0.99), where a few hot accounts get most of the operations.
+ */
+final class AccountSelector {
+    private static final int SAMPLES = 1 << 16;
+
+    private static final double EXPONENT = 0.99;
+
+    private final int accounts;
+
+    private final int[] samples;
+
+    AccountSelector(String selection, int accounts) {
+        this.accounts = accounts;
+
+        switch (selection) {
+            case "uniform":
+                samples = null;
+                break;
+
+            case "skewed":
+                samples = zipf(accounts);
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown selection: " + selection);
+        }
+    }
+
+    int next() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return samples == null ? random.nextInt(accounts) : samples[random.nextInt(SAMPLES)];
+    }
+
+    /**
+     * @return index, which differs from the given one
+     */
+    int nextOther(int index) {
+        int other = next();
+        return other != index ? other : (index + 1) % accounts;
+    }
+
+    private static int[] zipf(int accounts) {
+        double[] cdf = new double[accounts];
+        double sum = 0;
+        for (int i = 0; i < accounts; i++) {
+            sum += 1 / Math.pow(i + 1, EXPONENT);
+            cdf[i] = sum;
+        }
+
+        // Fixed seed: every run and every commit sees the same hot accounts
+        Random random = new Random(42);
+        int[] samples = new int[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            samples[i] = Math.min(index < 0 ? -index - 1 : index, accounts - 1);
+        }
+        return samples;
+    }
+}
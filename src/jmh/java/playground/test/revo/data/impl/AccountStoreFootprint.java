@@ -0,0 +1,74 @@
+package playground.test.revo.data.impl;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Retained heap of account stores after creating N accounts: {@link InMemoryAccountDAO} vs. {@link MappedAccountDAO}.
+ *
+ * Run: ./gradlew accountStoreFootprint
+ */
+public class AccountStoreFootprint {
+
+    private static final int[] ACCOUNTS = {0, 100_000, 1_000_000, 4_000_000};
+
+    public static void main(String[] args) throws IOException {
+        System.out.printf("%12s %16s %16s%n", "accounts", "in-memory, KB", "mapped, KB");
+
+        for (int accounts : ACCOUNTS) {
+            long inMemory = inMemory(accounts);
+            long mapped = mapped(accounts);
+            System.out.printf("%12d %16d %16d%n", accounts, inMemory / 1024, mapped / 1024);
+        }
+    }
+
+    private static long inMemory(int accounts) {
+        long before = usedHeap();
+
+        InMemoryAccountDAO dao = new InMemoryAccountDAO();
+        SimpleTxManager tx = new SimpleTxManager(dao);
+        for (int i = 0; i < accounts; i++) {
+            tx.deposit("account-" + i, BigDecimal.ONE);
+        }
+
+        long after = usedHeap();
+        touch(tx);
+        return after - before;
+    }
+
+    private static long mapped(int accounts) throws IOException {
+        Path file = Files.createTempFile("accounts", ".dat");
+        Files.delete(file);
+
+        try (MappedAccountDAO dao = new MappedAccountDAO(file, 8_000_000, 2)) {
+            long before = usedHeap();
+
+            SimpleTxManager tx = new SimpleTxManager(dao);
+            for (int i = 0; i < accounts; i++) {
+                tx.deposit("account-" + i, BigDecimal.ONE);
+            }
+
+            long after = usedHeap();
+            touch(tx);
+            return after - before;
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void touch(Object o) {
+        if (o.hashCode() == System.nanoTime()) {
+            System.out.println(o);
+        }
+    }
+}
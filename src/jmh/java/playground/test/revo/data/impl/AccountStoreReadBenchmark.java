@@ -0,0 +1,79 @@
+package playground.test.revo.data.impl;
+
+import org.openjdk.jmh.annotations.*;
+import playground.test.revo.data.PublicAccountDAO;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of balance(id) lookups over a populated store: heap maps vs. memory-mapped file.
+ *
+ * Run: ./gradlew jmh -Pjmh.include=AccountStoreReadBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class AccountStoreReadBenchmark {
+
+    @Param({"inMemory", "fixedPoint", "mapped"})
+    String store;
+
+    @Param({"1000000"})
+    int accounts;
+
+    private PublicAccountDAO dao;
+
+    private String[] ids;
+
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException {
+        ids = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            ids[i] = "account-" + i;
+        }
+
+        if ("mapped".equals(store)) {
+            file = Files.createTempFile("accounts", ".dat");
+            Files.delete(file);
+            MappedAccountDAO mapped = new MappedAccountDAO(file, accounts * 2L, 2);
+            for (String id : ids) {
+                mapped.createAndDepositUnits(id, 100);
+            }
+            dao = mapped;
+        } else {
+            InMemoryAccountDAO inMemory = new InMemoryAccountDAO();
+            FixedPointAccountDAO fixedPoint = new FixedPointAccountDAO(2);
+            for (String id : ids) {
+                if ("fixedPoint".equals(store)) {
+                    fixedPoint.createAndDepositUnits(id, 100);
+                } else {
+                    inMemory.createAndDeposit(id, BigDecimal.ONE);
+                }
+            }
+            dao = "fixedPoint".equals(store) ? fixedPoint : inMemory;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (dao instanceof MappedAccountDAO) {
+            ((MappedAccountDAO) dao).close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Benchmark
+    public BigDecimal balance() {
+        return dao.balance(ids[ThreadLocalRandom.current().nextInt(accounts)]);
+    }
+}
@@ -0,0 +1,70 @@
+package playground.test.revo.data.impl;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfer legs (reduce + deposit) of {@link InMemoryAccountDAO} vs. {@link FixedPointAccountDAO},
+ * through the BigDecimal interface and directly in minor units.
+ *
+ * Run with allocation profiler: ./gradlew jmh -Pjmh.include=FixedPointBenchmark -Pjmh.profilers=gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FixedPointBenchmark {
+
+    private static final String FROM = "from";
+    private static final String TO = "to";
+    private static final BigDecimal AMOUNT = BigDecimal.valueOf(3);
+    private static final BigDecimal INITIAL = BigDecimal.valueOf(1_000_000_000L);
+
+    private InMemoryAccountDAO decimal;
+
+    private FixedPointAccountDAO fixedPoint;
+
+    private long amountUnits;
+
+    @Setup
+    public void setup() {
+        decimal = new InMemoryAccountDAO();
+        fixedPoint = new FixedPointAccountDAO(2);
+
+        decimal.createAndDeposit(FROM, INITIAL);
+        decimal.createAndDeposit(TO, INITIAL);
+        fixedPoint.createAndDeposit(FROM, INITIAL);
+        fixedPoint.createAndDeposit(TO, INITIAL);
+
+        amountUnits = fixedPoint.fixedPoint().toUnits(AMOUNT);
+    }
+
+    @Benchmark
+    public BigDecimal bigDecimal() {
+        if (decimal.reduce(FROM, AMOUNT) == null) {
+            decimal.deposit(FROM, INITIAL);
+        }
+        return decimal.deposit(TO, AMOUNT);
+    }
+
+    @Benchmark
+    public BigDecimal fixedPointDecimal() {
+        if (fixedPoint.reduce(FROM, AMOUNT) == null) {
+            fixedPoint.deposit(FROM, INITIAL);
+        }
+        return fixedPoint.deposit(TO, AMOUNT);
+    }
+
+    @Benchmark
+    public long fixedPointUnits() {
+        long units = fixedPoint.fixedPoint().toUnits(AMOUNT);
+        if (fixedPoint.reduceUnits(FROM, units) == FixedPointAccountDAO.NONE) {
+            fixedPoint.depositUnits(FROM, amountUnits * 1_000_000L);
+        }
+        return fixedPoint.depositUnits(TO, units);
+    }
+}
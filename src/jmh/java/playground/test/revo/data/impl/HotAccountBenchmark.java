@@ -0,0 +1,62 @@
+package playground.test.revo.data.impl;
+
+import org.openjdk.jmh.annotations.*;
+import playground.test.revo.data.TxManager;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers from many payers to one collector account, every transfer credits the same balance.
+ * Without split all of them serialize on the collector's lock stripe, with {@link HotAccountDAO}
+ * they spread over its slots, so throughput should grow with threads (compare -t 1, 2, 4, 8).
+ *
+ * Run: ./gradlew jmh -Pjmh.include=HotAccountBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class HotAccountBenchmark {
+
+    private static final String COLLECTOR = "collector";
+
+    private static final BigDecimal AMOUNT = BigDecimal.ONE;
+
+    @Param({"false", "true"})
+    boolean split;
+
+    @Param({"10000"})
+    int payers;
+
+    private TxManager tx;
+
+    private String[] ids;
+
+    @Setup
+    public void setup() {
+        HotAccountDAO dao = new HotAccountDAO(new InMemoryAccountDAO(),
+                2 * Runtime.getRuntime().availableProcessors(), 0);
+        tx = new SimpleTxManager(dao);
+
+        ids = new String[payers];
+        for (int i = 0; i < payers; i++) {
+            ids[i] = "payer-" + i;
+            tx.deposit(ids[i], BigDecimal.valueOf(1_000_000_000L));
+        }
+        tx.deposit(COLLECTOR, BigDecimal.ZERO);
+
+        if (split) {
+            dao.mark(COLLECTOR);
+        }
+    }
+
+    @Benchmark
+    public TxManager.TxResult transfer() {
+        return tx.transfer(ids[ThreadLocalRandom.current().nextInt(payers)], COLLECTOR, AMOUNT);
+    }
+}
@@ -0,0 +1,61 @@
+package playground.test.revo.data.impl;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single operations of {@link InMemoryAccountDAO} without TX manager overhead.
+ *
+ * Run: ./gradlew jmh -Pjmh.include=InMemoryAccountDAOBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InMemoryAccountDAOBenchmark {
+
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"uniform", "skewed"})
+    String selection;
+
+    @Param({"100000"})
+    int accounts;
+
+    private InMemoryAccountDAO dao;
+
+    private AccountSelector selector;
+
+    private String[] ids;
+
+    @Setup
+    public void setup() {
+        dao = new InMemoryAccountDAO();
+        selector = new AccountSelector(selection, accounts);
+
+        ids = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            ids[i] = "account-" + i;
+            dao.createAndDeposit(ids[i], BigDecimal.valueOf(1_000_000_000L));
+        }
+    }
+
+    @Benchmark
+    public BigDecimal balance() {
+        return dao.balance(ids[selector.next()]);
+    }
+
+    @Benchmark
+    public BigDecimal deposit() {
+        return dao.deposit(ids[selector.next()], AMOUNT);
+    }
+
+    @Benchmark
+    public BigDecimal reduce() {
+        return dao.reduce(ids[selector.next()], AMOUNT);
+    }
+}
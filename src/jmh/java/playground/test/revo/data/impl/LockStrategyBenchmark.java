@@ -0,0 +1,69 @@
+package playground.test.revo.data.impl;
+
+import org.openjdk.jmh.annotations.*;
+import playground.test.revo.data.TxJournal;
+import playground.test.revo.data.TxManager;
+import playground.test.revo.metrics.MetricsRegistry;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers of {@link SimpleTxManager} with the fixed lock timeout vs. {@link AdaptiveLockStrategy},
+ * which spins, waits for the second stripe within its budget and backs off. "skewed" selection
+ * sends most transfers to a few hot accounts: throughput and sampled latency (see p0.99 and p0.9999
+ * in the SampleTime results).
+ *
+ * Run: ./gradlew jmh -Pjmh.include=LockStrategyBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class LockStrategyBenchmark {
+
+    private static final BigDecimal AMOUNT = BigDecimal.ONE;
+
+    private static final long LOCK_TIMEOUT_MS = 500;
+
+    @Param({"fixed", "adaptive"})
+    String strategy;
+
+    @Param({"skewed", "uniform"})
+    String selection;
+
+    @Param({"1000"})
+    int accounts;
+
+    private TxManager tx;
+
+    private AccountSelector selector;
+
+    private String[] ids;
+
+    @Setup
+    public void setup() {
+        LockStrategy lockStrategy = "fixed".equals(strategy)
+                ? LockStrategy.fixed(LOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                : LockStrategy.adaptive(LOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        tx = new SimpleTxManager(new InMemoryAccountDAO(), TxJournal.NONE, lockStrategy,
+                StripedLockTable.DEFAULT_STRIPES, new MetricsRegistry(), ForkJoinPool.commonPool());
+        selector = new AccountSelector(selection, accounts);
+
+        ids = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            ids[i] = "account-" + i;
+            tx.deposit(ids[i], BigDecimal.valueOf(1_000_000_000L));
+        }
+    }
+
+    @Benchmark
+    public TxManager.TxResult transfer() {
+        int from = selector.next();
+        return tx.transfer(ids[from], ids[selector.nextOther(from)], AMOUNT);
+    }
+}
@@ -0,0 +1,70 @@
+package playground.test.revo.data.impl;
+
+import playground.test.revo.data.TxManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Retained heap of account locks after touching N distinct account ids:
+ * striped lock table of {@link SimpleTxManager} vs. the former lock-per-account map.
+ *
+ * Run: ./gradlew lockTableFootprint
+ */
+public class LockTableFootprint {
+
+    private static final int[] ACCOUNTS = {0, 100_000, 1_000_000, 5_000_000};
+
+    public static void main(String[] args) {
+        System.out.printf("%12s %16s %16s%n", "accounts", "striped, KB", "per-account, KB");
+
+        for (int accounts : ACCOUNTS) {
+            long striped = striped(accounts);
+            long perAccount = perAccount(accounts);
+            System.out.printf("%12d %16d %16d%n", accounts, striped / 1024, perAccount / 1024);
+        }
+    }
+
+    private static long striped(int accounts) {
+        long before = usedHeap();
+
+        SimpleTxManager tx = new SimpleTxManager(null, 0L, StripedLockTable.DEFAULT_STRIPES);
+        for (int i = 0; i < accounts; i++) {
+            tx.runTx("account-" + i, () -> TxManager.DepositResult.SUCCESS);
+        }
+
+        long after = usedHeap();
+        touch(tx);
+        return after - before;
+    }
+
+    private static long perAccount(int accounts) {
+        long before = usedHeap();
+
+        Map<String, ReentrantLock> tx = new ConcurrentHashMap<>();
+        for (int i = 0; i < accounts; i++) {
+            ReentrantLock lock = tx.computeIfAbsent("account-" + i, id -> new ReentrantLock());
+            lock.lock();
+            lock.unlock();
+        }
+
+        long after = usedHeap();
+        touch(tx);
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void touch(Object o) {
+        if (o.hashCode() == System.nanoTime()) {
+            System.out.println(o);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package playground.test.revo.data.impl;
+
+import org.openjdk.jmh.annotations.*;
+import playground.test.revo.data.TxJournal;
+import playground.test.revo.data.TxManager;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Payroll-like fan-out: one payer credits (legs - 1) payees. Compares one multi-leg transaction
+ * with the same legs issued as separate transfers, without a journal and with {@link FileJournal},
+ * where the multi-leg transaction waits for one record instead of one per leg.
+ * Scores are transactions, i.e. whole payrolls, per time unit.
+ *
+ * Run: ./gradlew jmh -Pjmh.include=MultiLegBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class MultiLegBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+
+    private static final int PAYROLLS = 1024;
+
+    @Param({"2", "8", "32"})
+    int legs;
+
+    @Param({"false", "true"})
+    boolean journal;
+
+    private TxManager tx;
+
+    private FileJournal fileJournal;
+
+    private Path dir;
+
+    private String[] payers;
+
+    private String[][] payees;
+
+    private List<Map<String, BigDecimal>> payrolls;
+
+    @Setup
+    public void setup() throws IOException {
+        TxJournal txJournal = TxJournal.NONE;
+        if (journal) {
+            dir = Files.createTempDirectory("multi-leg");
+            fileJournal = new FileJournal(dir, 256, 100);
+            txJournal = fileJournal;
+        }
+
+        InMemoryAccountDAO dao = new InMemoryAccountDAO();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            dao.createAndDeposit("account-" + i, BigDecimal.valueOf(1_000_000_000L));
+        }
+        tx = new SimpleTxManager(dao, txJournal);
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        payers = new String[PAYROLLS];
+        payees = new String[PAYROLLS][];
+        payrolls = new ArrayList<>(PAYROLLS);
+        for (int i = 0; i < PAYROLLS; i++) {
+            String payer = "account-" + random.nextInt(ACCOUNTS);
+            Map<String, BigDecimal> payroll = new HashMap<>();
+            payroll.put(payer, BigDecimal.valueOf(1 - legs));
+
+            while (payroll.size() < legs) {
+                payroll.putIfAbsent("account-" + random.nextInt(ACCOUNTS), BigDecimal.ONE);
+            }
+            payers[i] = payer;
+            payees[i] = payroll.keySet().stream().filter(id -> !id.equals(payer)).toArray(String[]::new);
+            payrolls.add(payroll);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (fileJournal != null) {
+            fileJournal.close();
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Benchmark
+    public TxManager.TxResult multiLeg() {
+        return tx.transfer(payrolls.get(ThreadLocalRandom.current().nextInt(PAYROLLS)));
+    }
+
+    @Benchmark
+    public TxManager.TxResult oneByOne() {
+        int i = ThreadLocalRandom.current().nextInt(PAYROLLS);
+        TxManager.TxResult result = null;
+        for (String payee : payees[i]) {
+            result = tx.transfer(payers[i], payee, BigDecimal.ONE);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,68 @@
+package playground.test.revo.data.impl;
+
+import org.openjdk.jmh.annotations.*;
+import playground.test.revo.data.TxManager;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SimpleTxManager} transfers and deposits over a large set of accounts, picked uniformly
+ * or with a skew towards a few hot accounts. Nested classes repeat the benchmarks with more threads.
+ *
+ * Run: ./gradlew jmh -Pjmh.include=SimpleTxManagerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class SimpleTxManagerBenchmark {
+
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"uniform", "skewed"})
+    String selection;
+
+    @Param({"10000"})
+    int accounts;
+
+    private TxManager tx;
+
+    private AccountSelector selector;
+
+    private String[] ids;
+
+    @Setup
+    public void setup() {
+        tx = new SimpleTxManager(new InMemoryAccountDAO());
+        selector = new AccountSelector(selection, accounts);
+
+        ids = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            ids[i] = "account-" + i;
+            tx.deposit(ids[i], BigDecimal.valueOf(1_000_000_000L));
+        }
+    }
+
+    @Benchmark
+    public TxManager.TxResult transfer() {
+        int from = selector.next();
+        return tx.transfer(ids[from], ids[selector.nextOther(from)], AMOUNT);
+    }
+
+    @Benchmark
+    public TxManager.DepositResult deposit() {
+        return tx.deposit(ids[selector.next()], AMOUNT);
+    }
+
+    @Threads(4)
+    public static class Threads4 extends SimpleTxManagerBenchmark {
+    }
+
+    @Threads(Threads.MAX)
+    public static class ThreadsMax extends SimpleTxManagerBenchmark {
+    }
+}
@@ -0,0 +1,105 @@
+package playground.test.revo.data.impl;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Time to rebuild balances on startup: replay of the full journal vs. the newest snapshot
+ * plus the journal tail after it.
+ *
+ * History: a deposit to every account, then transfersPerAccount transfers per account,
+ * then a snapshot, then 1% more transfers.
+ *
+ * Run: ./gradlew jmh -Pjmh.include=StartupBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx4g", "-XX:+UseParallelGC"})
+public class StartupBenchmark {
+
+    @Param({"10000000"})
+    int accounts;
+
+    @Param({"1"})
+    int transfersPerAccount;
+
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("startup");
+
+        InMemoryAccountDAO dao = new InMemoryAccountDAO();
+        try (FileJournal journal = new FileJournal(dir, 8192, 0)) {
+            SimpleTxManager tx = new SimpleTxManager(dao, journal, 500, 4096);
+            Random random = new Random(42);
+
+            for (int i = 0; i < accounts; i++) {
+                String id = id(i);
+                dao.createAndDeposit(id, BigDecimal.valueOf(100));
+                journal.deposit(id, BigDecimal.valueOf(100), new CompletableFuture<>());
+            }
+
+            transfer(dao, journal, random, (long) accounts * transfersPerAccount);
+            journal.sync().get();
+
+            new SnapshotStore(journal, dao, tx, 0).write();
+
+            transfer(dao, journal, random, accounts / 100);
+            journal.sync().get();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long fullReplay() throws IOException {
+        InMemoryAccountDAO dao = new InMemoryAccountDAO();
+        try (FileJournal journal = new FileJournal(dir, 256, 0)) {
+            return journal.replay(dao) + dao.allAccounts().size();
+        }
+    }
+
+    @Benchmark
+    public long snapshotAndTail() throws IOException {
+        InMemoryAccountDAO dao = new InMemoryAccountDAO();
+        try (FileJournal journal = new FileJournal(dir, 256, 0)) {
+            SimpleTxManager tx = new SimpleTxManager(dao, journal, 500, 4096);
+            return new SnapshotStore(journal, dao, tx, 0).recover(dao) + dao.allAccounts().size();
+        }
+    }
+
+    private void transfer(InMemoryAccountDAO dao, FileJournal journal, Random random, long count)
+            throws ExecutionException, InterruptedException {
+        for (long i = 0; i < count; i++) {
+            String from = id(random.nextInt(accounts));
+            String to = id(random.nextInt(accounts));
+            if (!from.equals(to) && dao.reduce(from, BigDecimal.ONE) != null) {
+                dao.deposit(to, BigDecimal.ONE);
+                journal.transfer(from, to, BigDecimal.ONE, new CompletableFuture<>());
+            }
+        }
+    }
+
+    private static String id(int i) {
+        return "account-" + i;
+    }
+}
@@ -0,0 +1,73 @@
+package playground.test.revo.data.impl;
+
+import org.openjdk.jmh.annotations.*;
+import playground.test.revo.data.TxManager;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers between a small set of accounts, all threads contend for the same balances.
+ * Compares lock-based {@link SimpleTxManager}, lock-free {@link OptimisticTxManager} and
+ * single-writer {@link ShardedTxManager}: throughput and sampled latency (see p0.99 in the SampleTime results).
+ *
+ * Run: ./gradlew jmh -Pjmh.include=TxManagerContentionBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class TxManagerContentionBenchmark {
+
+    private static final BigDecimal AMOUNT = BigDecimal.ONE;
+
+    @Param({"simple", "optimistic", "sharded"})
+    String engine;
+
+    @Param({"4"})
+    int accounts;
+
+    private TxManager tx;
+
+    private String[] ids;
+
+    @Setup
+    public void setup() {
+        if ("optimistic".equals(engine)) {
+            tx = new OptimisticTxManager(new VersionedAccountDAO());
+        } else if ("sharded".equals(engine)) {
+            tx = new ShardedTxManager(new ShardedAccountDAO());
+        } else {
+            tx = new SimpleTxManager(new InMemoryAccountDAO());
+        }
+
+        ids = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            ids[i] = "account-" + i;
+            tx.deposit(ids[i], BigDecimal.valueOf(1_000_000_000L));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (tx instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) tx).close();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Benchmark
+    public TxManager.TxResult transfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(accounts);
+        int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+        return tx.transfer(ids[from], ids[to], AMOUNT);
+    }
+}
@@ -0,0 +1,876 @@
+package playground.test.revo.load;
+
+import io.undertow.client.ClientCallback;
+import io.undertow.client.ClientConnection;
+import io.undertow.client.ClientExchange;
+import io.undertow.client.ClientRequest;
+import io.undertow.client.UndertowClient;
+import io.undertow.server.DefaultByteBufferPool;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import io.undertow.util.StringReadChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.OptionMap;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSinkChannel;
+import playground.test.revo.api.binary.BinaryClient;
+import playground.test.revo.api.v1.ApiV1;
+import playground.test.revo.core.ApiServer;
+import playground.test.revo.util.Histogram;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Open-loop HTTP load generator for API v1.
+ *
+ * Requests are scheduled at a fixed rate, independent of responses. Latency is measured from
+ * the time a request was scheduled to be sent, not from the time it was sent, so a stalled
+ * server is charged for every request it delayed (no coordinated omission).
+ *
+ * Run: ./gradlew loadTest -Pload.args="--rate=2000 --duration=30 --mix=balance:60,deposit:20,transfer:20"
+ *
+ * Options: --url (default: start the server in-process, see "revo.engine"), --rate (req/s),
+ * --duration and --warmup (s), --connections, --accounts, --mix.
+ *
+ * The in-process server may be run in several execution modes one after another, with a summary
+ * at the end: --modes=io,worker,virtual --io-threads=2 --workers=16 --queue=1024.
+ * Contended transfers: --accounts=8 --mix=transfer:100
+ *
+ * Protocols and connection counts are swept the same way, every protocol with every count:
+ * --protocols=http1,pipelined,h2c --connections=1,8,64 --depth=16. With "http1" a connection has one
+ * request in flight, so the rate it sustains is bound by the latency; "pipelined" writes HTTP/1.1
+ * requests without waiting for responses and "h2c" multiplexes them as HTTP/2 streams (prior
+ * knowledge), both with up to --depth requests in flight per connection. "binary" sends the same
+ * operations by BinaryClient to the binary listener of the server (--binary-port with --url), also
+ * with up to --depth requests in flight, as a baseline without HTTP and JSON.
+ */
+public class LoadHarness {
+
+    private static final Pattern ERROR_CODE = Pattern.compile("\"code\":\"([A-Z_]+)\"");
+
+    private static final String AMOUNT = "0.01";
+
+    private static final List<String> OPERATIONS = Arrays.asList("balance", "deposit", "transfer");
+
+    public enum Protocol {
+        HTTP1, PIPELINED, H2C, BINARY
+    }
+
+    private final Options options;
+
+    private final String url;
+
+    private final Protocol protocol;
+
+    private final int connections;
+
+    private final Map<String, Histogram> latency = new LinkedHashMap<>();
+
+    private final Map<String, Map<String, LongAdder>> results = new LinkedHashMap<>();
+
+    private final AtomicLong next = new AtomicLong();
+
+    private final AtomicLong lastCompletion = new AtomicLong();
+
+    private long measureFrom;
+
+    private long measured;
+
+    public LoadHarness(Options options, String url) {
+        this(options, url, options.protocols.get(0), options.connections.get(0));
+    }
+
+    public LoadHarness(Options options, String url, Protocol protocol, int connections) {
+        this.options = options;
+        this.url = url;
+        this.protocol = protocol;
+        this.connections = connections;
+
+        for (String operation : options.mix.keySet()) {
+            latency.put(operation, new Histogram());
+            results.put(operation, new ConcurrentHashMap<>());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        System.setProperty("http.maxConnections", String.valueOf(Collections.max(options.connections)));
+
+        List<Run> runs = new ArrayList<>();
+        if (options.url != null) {
+            sweep(options, options.url, "-", runs);
+            if (runs.size() > 1) {
+                summary(runs, System.out);
+            }
+            return;
+        }
+
+        for (ApiServer.Execution mode : options.modes) {
+            int port = freePort();
+            ApiServer server = ApiServer.server()
+                    .bind("localhost", port)
+                    .baseApiPath("api")
+                    .enableApiV1(ApiV1.prefix())
+                    .execution(mode)
+                    .ioThreads(options.ioThreads)
+                    .workerThreads(options.workers)
+                    .workerQueue(options.queue)
+                    .maxConnections(Math.max(1024, 2 * Collections.max(options.connections)));
+            if (options.protocols.contains(Protocol.H2C)) {
+                server.enableHttp2().maxConcurrentStreams(Math.max(100, options.depth));
+            }
+            if (options.protocols.contains(Protocol.PIPELINED)) {
+                server.enablePipelining();
+            }
+            if (options.protocols.contains(Protocol.BINARY)) {
+                server.enableBinary(0);
+            }
+
+            try {
+                server.start();
+            } catch (IllegalStateException e) {
+                System.out.println("Skipping " + mode + ": " + e.getMessage());
+                continue;
+            }
+
+            try {
+                System.out.println("Execution mode " + mode);
+                options.binaryPort = server.binaryPort();
+                sweep(options, "http://localhost:" + port + "/api/v1", mode.name().toLowerCase(), runs);
+            } finally {
+                server.stop();
+            }
+        }
+
+        if (runs.size() > 1) {
+            summary(runs, System.out);
+        }
+    }
+
+    private static void sweep(Options options, String url, String mode, List<Run> runs)
+            throws InterruptedException, IOException {
+        for (Protocol protocol : options.protocols) {
+            for (int connections : options.connections) {
+                LoadHarness harness = new LoadHarness(options, url, protocol, connections).run();
+                harness.report(System.out);
+                runs.add(new Run(mode, harness));
+            }
+        }
+    }
+
+    private static void summary(List<Run> runs, PrintStream out) {
+        out.println("Summary:");
+        out.printf("%-10s %-10s %11s %10s %10s %10s%n", "mode", "protocol", "connections", "req/s", "p99 ms", "errors");
+        for (Run run : runs) {
+            LoadHarness harness = run.harness;
+            long p99 = harness.latency.values().stream().mapToLong(h -> h.percentile(0.99)).max().orElse(0);
+            long errors = harness.results.values().stream()
+                    .mapToLong(codes -> codes.entrySet().stream()
+                            .filter(code -> code.getKey().equals("IO_ERROR") || code.getKey().startsWith("HTTP_"))
+                            .mapToLong(code -> code.getValue().sum())
+                            .sum())
+                    .sum();
+            out.printf("%-10s %-10s %11d %10.1f %10.3f %10d%n", run.mode, harness.protocol.name().toLowerCase(),
+                    harness.connections, harness.throughput(), p99 / 1e3, errors);
+        }
+    }
+
+    public LoadHarness run() throws InterruptedException, IOException {
+        for (int i = 0; i < options.accounts; i++) {
+            if (send("/deposit/" + account(i) + "/1000000") != 200) {
+                throw new IOException("Can not create account " + account(i));
+            }
+        }
+
+        long interval = TimeUnit.SECONDS.toNanos(1) / options.rate;
+        long total = (long) options.rate * (options.warmup + options.duration);
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(options.warmup);
+
+        XnioWorker xnio = protocol == Protocol.H2C ? Xnio.getInstance().createWorker(OptionMap.EMPTY) : null;
+        try {
+            List<Connection> connections = new ArrayList<>();
+            for (int i = 0; i < this.connections; i++) {
+                connections.add(connect(xnio));
+            }
+
+            // A thread per connection sends requests in turn as they are due
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < this.connections; i++) {
+                Connection connection = connections.get(i);
+                Thread worker = new Thread(() -> work(connection, start, interval, total, measureFrom), "load-" + i);
+                worker.start();
+                workers.add(worker);
+            }
+
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            for (Connection connection : connections) {
+                connection.close();
+            }
+        } finally {
+            if (xnio != null) {
+                xnio.shutdown();
+            }
+        }
+
+        this.measureFrom = measureFrom;
+        this.measured = latency.values().stream().mapToLong(Histogram::count).sum();
+        return this;
+    }
+
+    /**
+     * @return completed requests per second after warmup
+     */
+    public double throughput() {
+        return measured / ((lastCompletion.get() - measureFrom) / 1e9);
+    }
+
+    public void report(PrintStream out) {
+        out.printf("Target %d req/s, achieved %.1f req/s over %d s, %s, %d connections, %s%n",
+                options.rate, throughput(), options.duration, protocol.name().toLowerCase(), connections, url);
+        out.printf("%-10s %10s %10s %10s %10s %10s%n", "operation", "count", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+
+        latency.forEach((operation, histogram) -> out.printf("%-10s %10d %10.3f %10.3f %10.3f %10.3f%n",
+                operation, histogram.count(),
+                histogram.percentile(0.5) / 1e3, histogram.percentile(0.99) / 1e3,
+                histogram.percentile(0.999) / 1e3, histogram.max() / 1e3));
+
+        out.println("Results:");
+        results.forEach((operation, codes) -> {
+            Map<String, Long> sorted = new TreeMap<>();
+            codes.forEach((code, adder) -> sorted.put(code, adder.sum()));
+            out.printf("%-10s %s%n", operation, sorted);
+        });
+    }
+
+    public Map<String, Histogram> latency() {
+        return latency;
+    }
+
+    public Map<String, Map<String, LongAdder>> results() {
+        return results;
+    }
+
+    private Connection connect(XnioWorker xnio) throws IOException {
+        switch (protocol) {
+            case HTTP1:
+                return new Http1Connection();
+            case PIPELINED:
+                return new PipelinedConnection(URI.create(url), options.depth);
+            case H2C:
+                return new Http2Connection(URI.create(url), xnio, options.depth);
+            case BINARY:
+                return new BinaryConnection(URI.create(url).getHost(), options.binaryPort, options.depth);
+            default:
+                throw new IllegalArgumentException("Unknown protocol: " + protocol);
+        }
+    }
+
+    private void work(Connection connection, long start, long interval, long total, long measureFrom) {
+        long i;
+        while ((i = next.getAndIncrement()) < total) {
+            long intended = start + i * interval;
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+            }
+
+            Call call = call(options.pick());
+            try {
+                connection.send(call, result -> complete(call.operation, intended, measureFrom, result));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void complete(String operation, long intended, long measureFrom, String result) {
+        long end = System.nanoTime();
+        if (intended >= measureFrom) {
+            latency.get(operation).record(TimeUnit.NANOSECONDS.toMicros(end - intended));
+            results.get(operation).computeIfAbsent(result, code -> new LongAdder()).increment();
+            lastCompletion.accumulateAndGet(end, Math::max);
+        }
+    }
+
+    /**
+     * @param response null on IO error
+     * @return TxResult / DepositResult code, SUCCESS, HTTP_status or IO_ERROR
+     */
+    private static String result(Response response) {
+        if (response == null) {
+            return "IO_ERROR";
+        }
+        if (response.status == 200) {
+            return "SUCCESS";
+        }
+
+        Matcher matcher = ERROR_CODE.matcher(response.body);
+        return matcher.find() ? matcher.group(1) : "HTTP_" + response.status;
+    }
+
+    private Call call(String operation) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(options.accounts);
+        if (!operation.equals("transfer")) {
+            return new Call(operation, account(from), null);
+        }
+
+        int to = random.nextInt(options.accounts - 1);
+        return new Call(operation, account(from), account(to >= from ? to + 1 : to));
+    }
+
+    private int send(String path) throws IOException {
+        return request(path).status;
+    }
+
+    private Response request(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(30000);
+
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+
+        // The body is read to the end, so the connection is reused
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (in != null) {
+            try {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    body.write(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return new Response(status, new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static String account(int i) {
+        return "load-" + i;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static final class Response {
+        private final int status;
+        private final String body;
+
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Operation with random accounts
+     */
+    private static final class Call {
+        private final String operation;
+        private final String from;
+        private final String to;
+
+        private Call(String operation, String from, String to) {
+            this.operation = operation;
+            this.from = from;
+            this.to = to;
+        }
+
+        String path() {
+            switch (operation) {
+                case "balance":
+                    return "/accounts/" + from;
+                case "deposit":
+                    return "/deposit/" + from + "/" + AMOUNT;
+                case "transfer":
+                    return "/transfer/" + from + "/" + to + "/" + AMOUNT;
+                default:
+                    throw new IllegalArgumentException("Unknown operation: " + operation);
+            }
+        }
+    }
+
+    private static final class Run {
+        private final String mode;
+        private final LoadHarness harness;
+
+        private Run(String mode, LoadHarness harness) {
+            this.mode = mode;
+            this.harness = harness;
+        }
+    }
+
+    /**
+     * Connection to the server, used by one thread
+     */
+    private interface Connection extends Closeable {
+        /**
+         * Sends the request, blocks while the connection has no room for it
+         *
+         * @param done called with the result, see {@link #result}, possibly on another thread
+         */
+        void send(Call call, Consumer<String> done) throws InterruptedException;
+
+        /**
+         * Waits for responses to the requests sent
+         */
+        @Override
+        void close() throws IOException;
+    }
+
+    /**
+     * Request by request, over a kept-alive connection of HttpURLConnection per thread
+     */
+    private final class Http1Connection implements Connection {
+        @Override
+        public void send(Call call, Consumer<String> done) {
+            Response response;
+            try {
+                response = request(call.path());
+            } catch (IOException e) {
+                response = null;
+            }
+            done.accept(result(response));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * HTTP/1.1 requests written without waiting for responses, which are read in order by another thread
+     */
+    private static final class PipelinedConnection implements Connection {
+        private static final Consumer<Response> CLOSE = response -> {
+        };
+
+        private final Socket socket;
+        private final OutputStream out;
+        private final InputStream in;
+        private final String host;
+        private final String basePath;
+        private final BlockingQueue<Consumer<Response>> inFlight;
+        private final Thread reader;
+        private volatile boolean broken;
+
+        PipelinedConnection(URI uri, int depth) throws IOException {
+            host = uri.getHost();
+            basePath = uri.getRawPath();
+            socket = new Socket(host, uri.getPort());
+            socket.setTcpNoDelay(true);
+            out = new BufferedOutputStream(socket.getOutputStream());
+            in = new BufferedInputStream(socket.getInputStream());
+            inFlight = new ArrayBlockingQueue<>(depth);
+            reader = new Thread(this::read, "load-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        @Override
+        public void send(Call call, Consumer<String> done) throws InterruptedException {
+            if (broken) {
+                done.accept(result(null));
+                return;
+            }
+
+            inFlight.put(response -> done.accept(result(response)));
+            try {
+                out.write(("GET " + basePath + call.path() + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            } catch (IOException e) {
+                // The reader fails the requests in flight
+                broken = true;
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                inFlight.put(CLOSE);
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                socket.close();
+            }
+        }
+
+        private void read() {
+            try {
+                Consumer<Response> done;
+                while ((done = inFlight.take()) != CLOSE) {
+                    Response response = null;
+                    if (!broken) {
+                        try {
+                            response = readResponse();
+                        } catch (IOException | RuntimeException e) {
+                            broken = true;
+                        }
+                    }
+                    done.accept(response);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private Response readResponse() throws IOException {
+            String status = readLine();
+            int length = 0;
+            boolean chunked = false;
+            String line;
+            while (!(line = readLine()).isEmpty()) {
+                String header = line.toLowerCase();
+                if (header.startsWith("content-length:")) {
+                    length = Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
+                } else if (header.startsWith("transfer-encoding:") && header.contains("chunked")) {
+                    chunked = true;
+                }
+            }
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            if (chunked) {
+                int chunk;
+                while ((chunk = Integer.parseInt(readLine().trim(), 16)) > 0) {
+                    readBody(body, chunk);
+                    readLine();
+                }
+                readLine();
+            } else {
+                readBody(body, length);
+            }
+            return new Response(Integer.parseInt(status.split(" ")[1]),
+                    new String(body.toByteArray(), StandardCharsets.UTF_8));
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c == -1) {
+                    throw new IOException("Connection closed");
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+
+        private void readBody(ByteArrayOutputStream body, int length) throws IOException {
+            byte[] buffer = new byte[Math.min(length, 4096)];
+            while (length > 0) {
+                int read = in.read(buffer, 0, Math.min(length, buffer.length));
+                if (read < 0) {
+                    throw new IOException("Connection closed");
+                }
+                body.write(buffer, 0, read);
+                length -= read;
+            }
+        }
+    }
+
+    /**
+     * HTTP/2 cleartext with prior knowledge, requests are sent as streams on the IO thread of the connection
+     */
+    private static final class Http2Connection implements Connection {
+        private final ClientConnection connection;
+        private final String host;
+        private final String basePath;
+        private final Semaphore streams;
+        private final int depth;
+
+        Http2Connection(URI uri, XnioWorker worker, int depth) throws IOException {
+            host = uri.getHost();
+            basePath = uri.getRawPath();
+            connection = UndertowClient.getInstance().connect(
+                    URI.create("h2c-prior://" + host + ":" + uri.getPort()), worker,
+                    new DefaultByteBufferPool(false, 8192), OptionMap.EMPTY).get();
+            streams = new Semaphore(depth);
+            this.depth = depth;
+        }
+
+        @Override
+        public void send(Call call, Consumer<String> done) throws InterruptedException {
+            streams.acquire();
+            Consumer<Response> release = response -> {
+                streams.release();
+                done.accept(result(response));
+            };
+
+            ClientRequest request = new ClientRequest().setMethod(Methods.GET).setPath(basePath + call.path());
+            request.getRequestHeaders().put(Headers.HOST, host);
+            connection.getIoThread().execute(() -> connection.sendRequest(request, new ClientCallback<ClientExchange>() {
+                @Override
+                public void completed(ClientExchange exchange) {
+                    exchange.setResponseListener(new ClientCallback<ClientExchange>() {
+                        @Override
+                        public void completed(ClientExchange result) {
+                            new StringReadChannelListener(connection.getBufferPool()) {
+                                @Override
+                                protected void stringDone(String body) {
+                                    release.accept(new Response(result.getResponse().getResponseCode(), body));
+                                }
+
+                                @Override
+                                protected void error(IOException e) {
+                                    release.accept(null);
+                                }
+                            }.setup(result.getResponseChannel());
+                        }
+
+                        @Override
+                        public void failed(IOException e) {
+                            release.accept(null);
+                        }
+                    });
+
+                    // No request body
+                    try {
+                        StreamSinkChannel channel = exchange.getRequestChannel();
+                        channel.shutdownWrites();
+                        if (!channel.flush()) {
+                            channel.getWriteSetter().set(ChannelListeners.flushingChannelListener(null, null));
+                            channel.resumeWrites();
+                        }
+                    } catch (IOException e) {
+                        release.accept(null);
+                    }
+                }
+
+                @Override
+                public void failed(IOException e) {
+                    release.accept(null);
+                }
+            }));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                streams.acquire(depth);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Binary protocol, up to depth requests in flight
+     */
+    private static final class BinaryConnection implements Connection {
+        private static final BigDecimal AMOUNT_VALUE = new BigDecimal(AMOUNT);
+
+        private final BinaryClient client;
+
+        BinaryConnection(String host, int port, int depth) throws IOException {
+            if (port < 0) {
+                throw new IllegalArgumentException("Binary port is not set, use --binary-port");
+            }
+            client = BinaryClient.connect(host, port, depth);
+        }
+
+        @Override
+        public void send(Call call, Consumer<String> done) {
+            CompletableFuture<String> result;
+            switch (call.operation) {
+                case "balance":
+                    result = client.balance(call.from).thenApply(balance -> balance == null ? "HTTP_404" : "SUCCESS");
+                    break;
+                case "deposit":
+                    result = client.deposit(call.from, AMOUNT_VALUE).thenApply(r -> r.name());
+                    break;
+                case "transfer":
+                    result = client.transfer(call.from, call.to, AMOUNT_VALUE).thenApply(r -> r.name());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operation: " + call.operation);
+            }
+            result.whenComplete((code, e) -> done.accept(e == null ? code : "IO_ERROR"));
+        }
+
+        @Override
+        public void close() throws IOException {
+            while (client.inFlight() > 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            client.close();
+        }
+    }
+
+    /**
+     * Command line options, --name=value
+     */
+    public static final class Options {
+        String url;
+        int rate = 1000;
+        int duration = 30;
+        int warmup = 5;
+        List<Integer> connections = new ArrayList<>();
+        List<Protocol> protocols = new ArrayList<>();
+        int depth = 16;
+        int binaryPort = -1;
+        int accounts = 1000;
+        int ioThreads = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+        int workers = ioThreads * 8;
+        int queue = 1024;
+        List<ApiServer.Execution> modes = new ArrayList<>();
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        private int weights;
+
+        public static Options parse(String... args) {
+            Options options = new Options();
+            String mix = "balance:60,deposit:20,transfer:20";
+            String modes = ApiServer.Execution.fromSystemProperty().name();
+            String connections = "64";
+            String protocols = "http1";
+
+            for (String arg : args) {
+                if (!arg.startsWith("--") || !arg.contains("=")) {
+                    throw new IllegalArgumentException("Expected --name=value: " + arg);
+                }
+
+                String name = arg.substring(2, arg.indexOf('='));
+                String value = arg.substring(arg.indexOf('=') + 1);
+                switch (name) {
+                    case "url":
+                        options.url = value;
+                        break;
+                    case "rate":
+                        options.rate = Integer.parseInt(value);
+                        break;
+                    case "duration":
+                        options.duration = Integer.parseInt(value);
+                        break;
+                    case "warmup":
+                        options.warmup = Integer.parseInt(value);
+                        break;
+                    case "connections":
+                        connections = value;
+                        break;
+                    case "protocols":
+                        protocols = value;
+                        break;
+                    case "depth":
+                        options.depth = Integer.parseInt(value);
+                        break;
+                    case "binary-port":
+                        options.binaryPort = Integer.parseInt(value);
+                        break;
+                    case "accounts":
+                        options.accounts = Integer.parseInt(value);
+                        break;
+                    case "mix":
+                        mix = value;
+                        break;
+                    case "modes":
+                        modes = value;
+                        break;
+                    case "io-threads":
+                        options.ioThreads = Integer.parseInt(value);
+                        break;
+                    case "workers":
+                        options.workers = Integer.parseInt(value);
+                        break;
+                    case "queue":
+                        options.queue = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + name);
+                }
+            }
+
+            for (String part : mix.split(",")) {
+                String[] weight = part.split(":");
+                if (!OPERATIONS.contains(weight[0])) {
+                    throw new IllegalArgumentException("Unknown operation: " + weight[0]);
+                }
+                options.mix.put(weight[0], Integer.parseInt(weight[1]));
+                options.weights += Integer.parseInt(weight[1]);
+            }
+
+            for (String mode : modes.split(",")) {
+                options.modes.add(ApiServer.Execution.valueOf(mode.trim().toUpperCase()));
+            }
+
+            for (String count : connections.split(",")) {
+                options.connections.add(Integer.parseInt(count.trim()));
+            }
+
+            for (String protocol : protocols.split(",")) {
+                options.protocols.add(Protocol.valueOf(protocol.trim().toUpperCase()));
+            }
+
+            if (options.rate <= 0 || options.accounts < 2 || options.weights <= 0) {
+                throw new IllegalArgumentException("Rate, accounts (at least 2) and mix weights should be positive");
+            }
+            if (options.depth <= 0 || options.connections.stream().anyMatch(count -> count <= 0)) {
+                throw new IllegalArgumentException("Connections and depth should be positive");
+            }
+            return options;
+        }
+
+        String pick() {
+            int value = ThreadLocalRandom.current().nextInt(weights);
+            for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+                value -= entry.getValue();
+                if (value < 0) {
+                    return entry.getKey();
+                }
+            }
+            throw new IllegalStateException();
+        }
+    }
+}
@@ -6,13 +6,41 @@ import playground.test.revo.core.ApiServer;
 public class Application {
 
     public static void main(String[] args) {
-        ApiServer.server()
+        ApiServer server = ApiServer.server()
                 .bind("localhost", 8080)
                 .baseApiPath("api")
                 .enableApiV1(ApiV1.prefix())
-                .start();
+                .enableMetrics("/metrics");
+
+        // Binary protocol for high-frequency callers, off by default
+        int binaryPort = Integer.getInteger("revo.binary.port", -1);
+        if (binaryPort >= 0) {
+            server.enableBinary(binaryPort);
+        }
+
+        // A primary streams transactions to followers, a follower serves reads from the primary
+        int replicationPort = Integer.getInteger("revo.replication.port", -1);
+        if (replicationPort >= 0) {
+            server.enableReplication(replicationPort);
+        }
+        String primary = System.getProperty("revo.replication.follow");
+        if (primary != null) {
+            int separator = primary.lastIndexOf(':');
+            server.follow(primary.substring(0, separator), Integer.parseInt(primary.substring(separator + 1)));
+        }
+        server.start();
 
         System.out.println("Server started at http://127.0.0.1:8080/api/v1");
+        System.out.println("Metrics at http://127.0.0.1:8080/metrics");
+        if (binaryPort >= 0) {
+            System.out.println("Binary protocol at 127.0.0.1:" + server.binaryPort());
+        }
+        if (replicationPort >= 0) {
+            System.out.println("Replication at 127.0.0.1:" + server.replicationPort());
+        }
+        if (primary != null) {
+            System.out.println("Following the primary at " + primary + ", writes are rejected");
+        }
         System.out.println("Hit Ctrl^C to exit");
     }
 }
@@ -0,0 +1,279 @@
+package playground.test.revo.api.binary;
+
+import playground.test.revo.data.TxManager;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client of {@link BinaryServer} over one connection, which is safe to share between threads.
+ *
+ * Calls return without waiting for the response, so many requests are in flight at once. A caller
+ * blocks only while "maxInFlight" requests are waiting for responses. Requests of concurrent callers
+ * are written together: the caller, which finds no write in progress, writes everything added
+ * meanwhile. Responses are read by a thread of the client, which completes the futures, so
+ * dependent stages should not block.
+ *
+ * Once the connection fails, requests in flight and new ones complete exceptionally with IOException.
+ */
+public class BinaryClient implements Closeable {
+
+    private final SocketChannel channel;
+
+    private final Semaphore inFlight;
+
+    private final AtomicLong correlation = new AtomicLong();
+
+    private final Map<Long, CompletableFuture<Object>> requests = new ConcurrentHashMap<>();
+
+    private final Thread reader;
+
+    // Guarded by this
+    private ByteBuffer pending = ByteBuffer.allocate(16 * 1024);
+
+    private ByteBuffer writing = ByteBuffer.allocate(16 * 1024);
+
+    private boolean writer;
+
+    private volatile IOException failure;
+
+    private BinaryClient(SocketChannel channel, int maxInFlight) {
+        this.channel = channel;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.reader = new Thread(this::read, "binary-client-" + channel.socket().getLocalPort());
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    public static BinaryClient connect(String hostname, int port) throws IOException {
+        return connect(hostname, port, 1024);
+    }
+
+    /**
+     * @param maxInFlight max requests waiting for responses
+     */
+    public static BinaryClient connect(String hostname, int port, int maxInFlight) throws IOException {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Incorrect number of requests in flight: " + maxInFlight);
+        }
+
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(hostname, port));
+        channel.socket().setTcpNoDelay(true);
+        return new BinaryClient(channel, maxInFlight);
+    }
+
+    /**
+     * @return balance, null if the account is not found
+     */
+    public CompletableFuture<BigDecimal> balance(String id) {
+        byte[] account = BinaryProtocol.id(id);
+        return send(BinaryProtocol.BALANCE, BinaryProtocol.idSize(account), buffer -> BinaryProtocol.putId(buffer, account));
+    }
+
+    public CompletableFuture<TxManager.DepositResult> deposit(String id, BigDecimal amount) {
+        byte[] account = BinaryProtocol.id(id);
+        byte[] unscaled = BinaryProtocol.unscaled(amount);
+        return send(BinaryProtocol.DEPOSIT, BinaryProtocol.idSize(account) + BinaryProtocol.amountSize(unscaled),
+                buffer -> {
+                    BinaryProtocol.putId(buffer, account);
+                    BinaryProtocol.putAmount(buffer, amount.scale(), unscaled);
+                });
+    }
+
+    public CompletableFuture<TxManager.TxResult> transfer(String from, String to, BigDecimal amount) {
+        byte[] fromAccount = BinaryProtocol.id(from);
+        byte[] toAccount = BinaryProtocol.id(to);
+        byte[] unscaled = BinaryProtocol.unscaled(amount);
+        return send(BinaryProtocol.TRANSFER, BinaryProtocol.idSize(fromAccount) + BinaryProtocol.idSize(toAccount)
+                + BinaryProtocol.amountSize(unscaled), buffer -> {
+            BinaryProtocol.putId(buffer, fromAccount);
+            BinaryProtocol.putId(buffer, toAccount);
+            BinaryProtocol.putAmount(buffer, amount.scale(), unscaled);
+        });
+    }
+
+    /**
+     * @return requests waiting for responses
+     */
+    public int inFlight() {
+        return requests.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface Fields {
+        void put(ByteBuffer buffer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> send(byte operation, int size, Fields fields) {
+        CompletableFuture<Object> response = new CompletableFuture<>();
+        int length = 8 + 1 + size;
+        if (length > BinaryProtocol.MAX_FRAME) {
+            response.completeExceptionally(new IllegalArgumentException("Request is too large: " + length + " bytes"));
+            return (CompletableFuture<T>) response;
+        }
+
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.completeExceptionally(e);
+            return (CompletableFuture<T>) response;
+        }
+
+        long id = correlation.incrementAndGet();
+        requests.put(id, response);
+        // The reader may have failed the requests before this one was added
+        if (failure != null) {
+            fail(id, failure);
+            return (CompletableFuture<T>) response;
+        }
+
+        synchronized (this) {
+            if (pending.remaining() < BinaryProtocol.LENGTH + length) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * pending.capacity(),
+                        pending.position() + BinaryProtocol.LENGTH + length));
+                pending.flip();
+                grown.put(pending);
+                pending = grown;
+            }
+            pending.putInt(length);
+            pending.putLong(id);
+            pending.put(operation);
+            fields.put(pending);
+
+            if (writer) {
+                return (CompletableFuture<T>) response;
+            }
+            writer = true;
+        }
+
+        write();
+        return (CompletableFuture<T>) response;
+    }
+
+    /**
+     * Writes requests until none are added meanwhile
+     */
+    private void write() {
+        while (true) {
+            ByteBuffer buffer;
+            synchronized (this) {
+                if (pending.position() == 0) {
+                    writer = false;
+                    return;
+                }
+                buffer = pending;
+                pending = writing;
+                writing = buffer;
+            }
+
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                // The reader fails the requests in flight
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            buffer.clear();
+        }
+    }
+
+    private void read() {
+        ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        try {
+            while (true) {
+                if (channel.read(in) < 0) {
+                    throw new EOFException("Connection closed");
+                }
+
+                in.flip();
+                while (in.remaining() >= BinaryProtocol.LENGTH
+                        && in.remaining() >= BinaryProtocol.LENGTH + in.getInt(in.position())) {
+                    int end = in.position() + BinaryProtocol.LENGTH + in.getInt();
+                    complete(in);
+                    in.position(end);
+                }
+                in.compact();
+            }
+        } catch (IOException e) {
+            failure = e;
+            for (Long id : requests.keySet()) {
+                fail(id, e);
+            }
+        } catch (RuntimeException e) {
+            failure = new IOException("Incorrect response", e);
+            for (Long id : requests.keySet()) {
+                fail(id, failure);
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void complete(ByteBuffer in) throws IOException {
+        long id = in.getLong();
+        byte operation = in.get();
+        byte code = in.get();
+        if (code == BinaryProtocol.MALFORMED) {
+            throw new IOException("Request " + id + " is rejected as malformed");
+        }
+        if (code == BinaryProtocol.ERROR) {
+            throw new IOException("Request " + id + " has failed on the server");
+        }
+
+        CompletableFuture<Object> response = requests.remove(id);
+        if (response == null) {
+            return;
+        }
+        inFlight.release();
+
+        switch (operation) {
+            case BinaryProtocol.BALANCE:
+                response.complete(code == BinaryProtocol.SUCCESS ? BinaryProtocol.getAmount(in) : null);
+                break;
+            case BinaryProtocol.DEPOSIT:
+                response.complete(TxManager.DepositResult.values()[code]);
+                break;
+            case BinaryProtocol.TRANSFER:
+                response.complete(TxManager.TxResult.values()[code]);
+                break;
+            default:
+                response.completeExceptionally(new IOException("Unknown operation " + operation));
+        }
+    }
+
+    private void fail(Long id, IOException e) {
+        CompletableFuture<Object> response = requests.remove(id);
+        if (response != null) {
+            inFlight.release();
+            response.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package playground.test.revo.api.binary;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frames of the binary protocol, all numbers are big-endian.
+ *
+ * Request:  int length, long correlation id, byte operation, operation fields
+ * Response: int length, long correlation id, byte operation, byte code, balance if BALANCE succeeds
+ *
+ * The length counts the bytes after it. Fields of operations:
+ * BALANCE id, DEPOSIT id amount, TRANSFER from to amount. An id is an unsigned short length and
+ * UTF-8 bytes, an amount is a byte scale, a byte length and the bytes of the unscaled value
+ * in two's complement.
+ *
+ * The code of DEPOSIT and TRANSFER is the ordinal of DepositResult and TxResult, BALANCE has
+ * {@link #SUCCESS} or {@link #NOT_FOUND}. A request, which can not be decoded, is answered with
+ * {@link #MALFORMED} and the connection is closed, so is a request, which fails on the server,
+ * answered with {@link #ERROR}. Amounts are limited to what the frame encodes, see {@link #isEncodable}.
+ * Responses may come in any order, a client matches them to requests by the correlation id.
+ */
+public final class BinaryProtocol {
+
+    public static final byte BALANCE = 1;
+
+    public static final byte DEPOSIT = 2;
+
+    public static final byte TRANSFER = 3;
+
+    public static final byte SUCCESS = 0;
+
+    public static final byte NOT_FOUND = 1;
+
+    public static final byte MALFORMED = -1;
+
+    public static final byte ERROR = -2;
+
+    /**
+     * Bytes of the frame length
+     */
+    public static final int LENGTH = 4;
+
+    /**
+     * Max length of a frame after the length
+     */
+    public static final int MAX_FRAME = 64 * 1024;
+
+    private static final int MAX_ID = 0xFFFF;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * @return bytes of the id and its length
+     */
+    static int idSize(byte[] id) {
+        return 2 + id.length;
+    }
+
+    static byte[] id(String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_ID) {
+            throw new IllegalArgumentException("Account id is too long: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    static void putId(ByteBuffer buffer, byte[] id) {
+        buffer.putShort((short) id.length);
+        buffer.put(id);
+    }
+
+    /**
+     * @throws BufferUnderflowException if the frame ends before the id
+     */
+    static String getId(ByteBuffer buffer) {
+        int length = buffer.getShort() & MAX_ID;
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String id = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return id;
+    }
+
+    /**
+     * @return if the scale and the unscaled value of the amount fit into a byte each
+     */
+    static boolean isEncodable(BigDecimal amount) {
+        return amount.scale() >= Byte.MIN_VALUE && amount.scale() <= Byte.MAX_VALUE
+                && amount.unscaledValue().bitLength() / 8 + 1 <= Byte.MAX_VALUE;
+    }
+
+    /**
+     * @return bytes of the unscaled value
+     * @throws IllegalArgumentException if the amount is not {@link #isEncodable}
+     */
+    static byte[] unscaled(BigDecimal amount) {
+        if (!isEncodable(amount)) {
+            throw new IllegalArgumentException("Amount can not be encoded: " + amount);
+        }
+        return amount.unscaledValue().toByteArray();
+    }
+
+    static int amountSize(byte[] unscaled) {
+        return 2 + unscaled.length;
+    }
+
+    static void putAmount(ByteBuffer buffer, int scale, byte[] unscaled) {
+        buffer.put((byte) scale);
+        buffer.put((byte) unscaled.length);
+        buffer.put(unscaled);
+    }
+
+    static void putAmount(ByteBuffer buffer, BigDecimal amount) {
+        putAmount(buffer, amount.scale(), unscaled(amount));
+    }
+
+    /**
+     * @throws BufferUnderflowException if the frame ends before the amount
+     * @throws NumberFormatException    if the amount has no bytes
+     */
+    static BigDecimal getAmount(ByteBuffer buffer) {
+        int scale = buffer.get();
+        int length = buffer.get();
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] unscaled = new byte[Math.max(length, 0)];
+        buffer.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+}
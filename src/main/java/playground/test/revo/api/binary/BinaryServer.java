@@ -0,0 +1,477 @@
+package playground.test.revo.api.binary;
+
+import com.google.inject.Inject;
+import playground.test.revo.data.PublicAccountDAO;
+import playground.test.revo.data.TxManager;
+import playground.test.revo.metrics.MetricsRegistry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Listener of {@link BinaryProtocol} for callers, which make many small transactions, so they
+ * skip HTTP parsing, routing and JSON. It calls the same TX manager and account store as API v1,
+ * without idempotency keys and admission control.
+ *
+ * Connections are spread over event loops, each with its own selector thread. A loop reads every
+ * frame received, starts its transaction and goes on without waiting, so a connection may have up
+ * to "revo.binary.inFlight" requests in flight. Transactions, which complete in the loop, are
+ * answered in the same pass, others hand their response over to the loop. Responses of a pass
+ * are written together. Reading of a connection pauses while its requests in flight or its
+ * unwritten responses are over the limits.
+ */
+public class BinaryServer implements Closeable {
+
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("revo.binary.inFlight", 4096);
+
+    private static final int MAX_BUFFERED = 1024 * 1024;
+
+    private static final int RESPONSE_SIZE = BinaryProtocol.LENGTH + 8 + 2;
+
+    private final TxManager txManager;
+
+    private final PublicAccountDAO accounts;
+
+    private final LongAdder[] requests = new LongAdder[BinaryProtocol.TRANSFER + 1];
+
+    private final LongAdder malformed;
+
+    private final LongAdder failed;
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private final List<EventLoop> loops = new ArrayList<>();
+
+    private volatile ServerSocketChannel server;
+
+    private Thread acceptor;
+
+    @Inject
+    public BinaryServer(TxManager txManager, PublicAccountDAO accounts, MetricsRegistry metrics) {
+        this.txManager = txManager;
+        this.accounts = accounts;
+
+        String help = "Requests of the binary protocol by operation";
+        requests[BinaryProtocol.BALANCE] = metrics.counter("revo_binary_requests_total", help, "operation", "balance");
+        requests[BinaryProtocol.DEPOSIT] = metrics.counter("revo_binary_requests_total", help, "operation", "deposit");
+        requests[BinaryProtocol.TRANSFER] = metrics.counter("revo_binary_requests_total", help, "operation", "transfer");
+        malformed = metrics.counter("revo_binary_requests_total", help, "operation", "malformed");
+        failed = metrics.counter("revo_binary_requests_total", help, "operation", "failed");
+        metrics.gauge("revo_binary_connections", "Open connections of the binary protocol", connections::get);
+    }
+
+    /**
+     * @param port    0 to bind any free port, see {@link #port()}
+     * @param threads number of event loops
+     */
+    public synchronized void start(String hostname, int port, int threads) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Binary server is already started");
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Incorrect number of binary IO threads: " + threads);
+        }
+
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(hostname, port));
+        for (int i = 0; i < threads; i++) {
+            EventLoop loop = new EventLoop(Selector.open(), "binary-io-" + i);
+            loops.add(loop);
+            loop.thread.start();
+        }
+
+        acceptor = new Thread(this::accept, "binary-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return bound port
+     */
+    public int port() {
+        try {
+            return ((InetSocketAddress) server.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            throw new IllegalStateException("Binary server is not started", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server == null) {
+            return;
+        }
+
+        try {
+            server.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        for (EventLoop loop : loops) {
+            loop.stop();
+        }
+        loops.clear();
+        server = null;
+    }
+
+    private void accept() {
+        int next = 0;
+        ServerSocketChannel server = this.server;
+        while (server.isOpen()) {
+            try {
+                SocketChannel channel = server.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                loops.get(next++ % loops.size()).register(channel);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                // The connection is lost, the next one is accepted
+            }
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+
+        private final Thread thread;
+
+        private final Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+
+        // Connections with responses added by other threads
+        private final Queue<Connection> completed = new ConcurrentLinkedQueue<>();
+
+        // Connections with responses added by this thread in the current pass
+        private final List<Connection> written = new ArrayList<>();
+
+        private volatile boolean running = true;
+
+        EventLoop(Selector selector, String name) {
+            this.selector = selector;
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        void register(SocketChannel channel) {
+            registrations.add(channel);
+            selector.wakeup();
+        }
+
+        void stop() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+
+                    SocketChannel channel;
+                    while ((channel = registrations.poll()) != null) {
+                        Connection connection = new Connection(this, channel);
+                        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                        connections.incrementAndGet();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (RuntimeException e) {
+                            // Only the connection is lost, the loop serves the others
+                            connection.close();
+                        }
+                    }
+
+                    Connection connection;
+                    while ((connection = completed.poll()) != null) {
+                        synchronized (connection) {
+                            connection.scheduled = false;
+                        }
+                        connection.flush();
+                    }
+                    for (Connection writer : written) {
+                        writer.flush();
+                    }
+                    written.clear();
+                }
+            } catch (IOException e) {
+                // The selector is broken, connections of the loop are closed
+            } finally {
+                SocketChannel channel;
+                while ((channel = registrations.poll()) != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        // Ignore
+                    }
+                }
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private final class Connection {
+        private final EventLoop loop;
+
+        private final SocketChannel channel;
+
+        private SelectionKey key;
+
+        private final ByteBuffer in = ByteBuffer.allocate(BinaryProtocol.LENGTH + BinaryProtocol.MAX_FRAME);
+
+        // Responses in write mode, guarded by this
+        private ByteBuffer out = ByteBuffer.allocate(16 * 1024);
+
+        // Guarded by this, if the connection is in the completed queue of the loop
+        private boolean scheduled;
+
+        private boolean pending;
+
+        private boolean closing;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        Connection(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        void read() {
+            int read;
+            try {
+                read = channel.read(in);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (read < 0) {
+                close();
+                return;
+            }
+
+            in.flip();
+            while (!closing && in.remaining() >= BinaryProtocol.LENGTH) {
+                int length = in.getInt(in.position());
+                if (length <= 0 || length > BinaryProtocol.MAX_FRAME) {
+                    malformed(0, (byte) 0);
+                    break;
+                }
+                if (in.remaining() < BinaryProtocol.LENGTH + length) {
+                    break;
+                }
+
+                int end = in.position() + BinaryProtocol.LENGTH + length;
+                in.position(in.position() + BinaryProtocol.LENGTH);
+                ByteBuffer frame = in.slice();
+                frame.limit(length);
+                in.position(end);
+                handle(frame);
+            }
+            in.compact();
+            updateInterest();
+        }
+
+        private void handle(ByteBuffer frame) {
+            long correlation = 0;
+            byte operation = 0;
+            try {
+                correlation = frame.getLong();
+                operation = frame.get();
+                switch (operation) {
+                    case BinaryProtocol.BALANCE: {
+                        String id = BinaryProtocol.getId(frame);
+                        requests[operation].increment();
+                        BigDecimal balance = accounts.balance(id);
+                        respond(correlation, operation, balance == null ? BinaryProtocol.NOT_FOUND : BinaryProtocol.SUCCESS,
+                                balance);
+                        break;
+                    }
+
+                    case BinaryProtocol.DEPOSIT: {
+                        String id = BinaryProtocol.getId(frame);
+                        BigDecimal amount = BinaryProtocol.getAmount(frame);
+                        requests[operation].increment();
+                        complete(correlation, operation, txManager.depositAsync(id, amount),
+                                TxManager.DepositResult.ERROR_UNKNOWN);
+                        break;
+                    }
+
+                    case BinaryProtocol.TRANSFER: {
+                        String from = BinaryProtocol.getId(frame);
+                        String to = BinaryProtocol.getId(frame);
+                        BigDecimal amount = BinaryProtocol.getAmount(frame);
+                        requests[operation].increment();
+                        complete(correlation, operation, txManager.transferAsync(from, to, amount),
+                                TxManager.TxResult.ERROR_UNKNOWN);
+                        break;
+                    }
+
+                    default:
+                        malformed(correlation, operation);
+                }
+            } catch (BufferUnderflowException | NumberFormatException e) {
+                malformed(correlation, operation);
+            } catch (RuntimeException e) {
+                failed(correlation, operation);
+            }
+        }
+
+        private <T extends Enum<T>> void complete(long correlation, byte operation, CompletableFuture<T> result,
+                                                  T error) {
+            inFlight.incrementAndGet();
+            result.whenComplete((value, e) -> {
+                inFlight.decrementAndGet();
+                respond(correlation, operation, (byte) (value == null ? error : value).ordinal(), null);
+            });
+        }
+
+        private void malformed(long correlation, byte operation) {
+            malformed.increment();
+            respond(correlation, operation, BinaryProtocol.MALFORMED, null);
+            closing = true;
+        }
+
+        private void failed(long correlation, byte operation) {
+            failed.increment();
+            respond(correlation, operation, BinaryProtocol.ERROR, null);
+            closing = true;
+        }
+
+        /**
+         * Adds the response, which is written by the loop
+         */
+        private void respond(long correlation, byte operation, byte code, BigDecimal balance) {
+            byte[] unscaled = balance == null ? null : BinaryProtocol.unscaled(balance);
+            int size = RESPONSE_SIZE + (unscaled == null ? 0 : BinaryProtocol.amountSize(unscaled));
+
+            boolean schedule;
+            synchronized (this) {
+                if (out.remaining() < size) {
+                    ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * out.capacity(), out.position() + size));
+                    out.flip();
+                    grown.put(out);
+                    out = grown;
+                }
+                out.putInt(size - BinaryProtocol.LENGTH);
+                out.putLong(correlation);
+                out.put(operation);
+                out.put(code);
+                if (unscaled != null) {
+                    BinaryProtocol.putAmount(out, balance.scale(), unscaled);
+                }
+
+                schedule = !scheduled && Thread.currentThread() != loop.thread;
+                if (schedule) {
+                    scheduled = true;
+                }
+            }
+
+            if (schedule) {
+                loop.completed.add(this);
+                loop.selector.wakeup();
+            } else if (Thread.currentThread() == loop.thread && !pending) {
+                pending = true;
+                loop.written.add(this);
+            }
+        }
+
+        /**
+         * Writes the responses in the loop, the rest is written once the channel is writable
+         */
+        void flush() {
+            pending = false;
+            if (!channel.isOpen()) {
+                return;
+            }
+
+            boolean drained;
+            synchronized (this) {
+                out.flip();
+                try {
+                    channel.write(out);
+                } catch (IOException e) {
+                    out.clear();
+                    close();
+                    return;
+                } finally {
+                    out.compact();
+                }
+                drained = out.position() == 0;
+            }
+
+            if (drained && closing) {
+                close();
+                return;
+            }
+            updateInterest();
+        }
+
+        private void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+
+            int buffered;
+            synchronized (this) {
+                buffered = out.position();
+            }
+            int ops = 0;
+            if (!closing && inFlight.get() < MAX_IN_FLIGHT && buffered < MAX_BUFFERED) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (buffered > 0) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+
+        void close() {
+            if (key != null && key.isValid()) {
+                key.cancel();
+                connections.decrementAndGet();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
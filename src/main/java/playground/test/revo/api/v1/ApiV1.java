@@ -2,8 +2,10 @@ package playground.test.revo.api.v1;
 
 import com.google.inject.Inject;
 import io.undertow.Handlers;
+import io.undertow.server.HttpHandler;
 import io.undertow.server.RoutingHandler;
 import playground.test.revo.api.v1.handler.ApiV1Controller;
+import playground.test.revo.core.AdmissionControl;
 
 public class ApiV1 {
     public static String prefix() {
@@ -12,26 +14,65 @@ public class ApiV1 {
 
     private ApiV1Controller handler;
 
+    private AdmissionControl admission;
+
     @Inject
-    public ApiV1(ApiV1Controller handler) {
+    public ApiV1(ApiV1Controller handler, AdmissionControl admission) {
         this.handler = handler;
+        this.admission = admission;
     }
 
     /**
      * As far, as we are not running in production, we do not case about:
-     * 1. Metric collection
-     * 2. Correct exception handling
-     * 3. Rate limiting
-     * 4. etc
+     * 1. Correct exception handling
+     * 2. etc
+     *
+     * Route latency is recorded by the server under the path templates below, see ApiServer.enableMetrics()
+     *
+     * Writes pass admission control first, limited per account by the accounts of the path
      *
      * @return route configuration for APU V1 handler
      */
     public RoutingHandler routes() {
         return Handlers.routing()
-                .get("/accounts", handler::listAccounts)
+                .get("/accounts", blocking(handler::listAccounts))
+                .get("/accounts/{id}", handler::showBalance)
+                .get("/deposit/{id}/{amount}", admission.write(handler::makeDeposit, "id"))
+                .get("/transfer/{from}/{to}/{amount}", admission.write(handler::makeTransfer, "from", "to"))
+                .post("/transfers", admission.write(handler::makeBatchTransfer))
+                .post("/transactions", admission.write(handler::makeTransaction))
+                .get("/aggregates", handler::showAggregates)
+                .get("/aggregates/top", blocking(handler::showTopAccounts))
+                .setFallbackHandler(ApiV1Controller::notFound);
+    }
+
+    /**
+     * Routes of a follower, which serves balances replicated from the primary, see ApiServer.follow().
+     * Writes are rejected, aggregates are not maintained without the TX manager.
+     */
+    public RoutingHandler readOnlyRoutes() {
+        return Handlers.routing()
+                .get("/accounts", blocking(handler::listAccounts))
                 .get("/accounts/{id}", handler::showBalance)
-                .get("/deposit/{id}/{amount}", handler::makeDeposit)
-                .get("/transfer/{from}/{to}/{amount}", handler::makeTransfer)
+                .get("/deposit/{id}/{amount}", ApiV1Controller::readOnly)
+                .get("/transfer/{from}/{to}/{amount}", ApiV1Controller::readOnly)
+                .post("/transfers", ApiV1Controller::readOnly)
+                .post("/transactions", ApiV1Controller::readOnly)
                 .setFallbackHandler(ApiV1Controller::notFound);
     }
+
+    /**
+     * Moves a handler, which may take long (e.g. scans all accounts), off the IO thread
+     * to the dispatch executor of the server. Deposits, transfers and multi-leg transactions
+     * complete asynchronously and the batch endpoint dispatches itself.
+     */
+    private static HttpHandler blocking(HttpHandler handler) {
+        return exchange -> {
+            if (exchange.isInIoThread()) {
+                exchange.dispatch(handler);
+            } else {
+                handler.handleRequest(exchange);
+            }
+        };
+    }
 }
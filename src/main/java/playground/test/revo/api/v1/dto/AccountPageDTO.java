@@ -0,0 +1,13 @@
+package playground.test.revo.api.v1.dto;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+
+@Getter
+@Builder
+public class AccountPageDTO {
+    List<String> accounts;
+    String next;
+}
@@ -0,0 +1,14 @@
+package playground.test.revo.api.v1.dto;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+
+@Getter
+@Builder
+public class AggregatesDTO {
+    BigDecimal total;
+    long accounts;
+    long violations;
+}
@@ -0,0 +1,13 @@
+package playground.test.revo.api.v1.dto;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+
+@Getter
+@Builder
+public class LegDTO {
+    String id;
+    BigDecimal amount;
+}
@@ -0,0 +1,14 @@
+package playground.test.revo.api.v1.dto;
+
+import lombok.Builder;
+import lombok.Getter;
+import playground.test.revo.data.TxManager;
+
+import java.util.List;
+
+@Getter
+@Builder
+public class MultiLegTransactionDTO {
+    List<LegDTO> legs;
+    TxManager.TxResult result;
+}
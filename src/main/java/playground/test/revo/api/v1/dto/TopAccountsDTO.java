@@ -0,0 +1,12 @@
+package playground.test.revo.api.v1.dto;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+
+@Getter
+@Builder
+public class TopAccountsDTO {
+    List<AccountDTO> accounts;
+}
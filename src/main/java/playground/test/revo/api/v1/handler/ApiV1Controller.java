@@ -1,37 +1,301 @@
 package playground.test.revo.api.v1.handler;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import com.google.inject.Inject;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.SameThreadExecutor;
 import io.undertow.util.StatusCodes;
 import playground.test.revo.api.v1.dto.AccountDTO;
+import playground.test.revo.api.v1.dto.AccountPageDTO;
+import playground.test.revo.api.v1.dto.AggregatesDTO;
 import playground.test.revo.api.v1.dto.ErrorDTO;
+import playground.test.revo.api.v1.dto.LegDTO;
+import playground.test.revo.api.v1.dto.MultiLegTransactionDTO;
+import playground.test.revo.api.v1.dto.TopAccountsDTO;
 import playground.test.revo.api.v1.dto.TransactionDTO;
+import playground.test.revo.data.AccountAggregates;
+import playground.test.revo.data.AccountSnapshot;
 import playground.test.revo.data.PublicAccountDAO;
 import playground.test.revo.data.TxManager;
+import playground.test.revo.metrics.MeteredTxManager;
+import playground.test.revo.metrics.MetricsRegistry;
+import playground.test.revo.util.IdempotencyCache;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.math.BigDecimal;
-import java.util.Collection;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 public class ApiV1Controller {
-    private static Gson gson = new Gson();
+    private static final String JSON = "application/json";
+
+    private static final int TRANSFER_BATCH_SIZE = 256;
+
+    private static final int TRANSFER_BATCHES_IN_FLIGHT = 4;
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private static final int STREAM_CHUNK_SIZE = 16 * 1024;
+
+    private static final int MAX_LEGS = 1000;
+
+    private static final int DEFAULT_TOP_SIZE = 10;
+
+    private static final long MAX_TRANSACTION_SIZE = 1 << 20;
+
+    private static final HttpString IDEMPOTENCY_KEY = new HttpString("Idempotency-Key");
+
+    private static final HttpString IDEMPOTENT_REPLAYED = new HttpString("Idempotent-Replayed");
+
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
+    private static final Comparator<AccountDTO> LARGEST_FIRST = Comparator.comparing(AccountDTO::getBalance)
+            .reversed()
+            .thenComparing(AccountDTO::getId);
+
+    // Parses request bodies only, responses are encoded by JsonEncoder
+    private static final Gson gson = new Gson();
+
+    // Constant responses are encoded once, every send writes a duplicate of the buffer
+    private static final ByteBuffer NOT_FOUND = JsonEncoder.encode(ErrorDTO.builder()
+            .responseCode(StatusCodes.NOT_FOUND)
+            .cause("API v1: page not found").build());
+
+    private static final ByteBuffer[] TRANSFER_ERRORS = transferErrors();
+
+    private static final ByteBuffer TRANSFER_ERROR = transferError(null);
+
+    private static final ByteBuffer[] DEPOSIT_ERRORS = depositErrors();
+
+    private static final ByteBuffer DEPOSIT_ERROR = depositError(null);
+
+    private static final ByteBuffer INCORRECT_LIMIT = JsonEncoder.encode(ErrorDTO.builder()
+            .responseCode(StatusCodes.BAD_REQUEST)
+            .cause("Incorrect page limit, should be 1 to " + MAX_PAGE_SIZE)
+            .build());
+
+    private static final ByteBuffer INCORRECT_CURSOR = JsonEncoder.encode(ErrorDTO.builder()
+            .responseCode(StatusCodes.BAD_REQUEST)
+            .cause("Incorrect page cursor")
+            .build());
+
+    private static final ByteBuffer INCORRECT_TRANSACTION = JsonEncoder.encode(ErrorDTO.builder()
+            .responseCode(StatusCodes.BAD_REQUEST)
+            .cause("Incorrect transaction, should have 1 to " + MAX_LEGS + " legs with amounts")
+            .build());
+
+    private static final ByteBuffer INCORRECT_IDEMPOTENCY_KEY = JsonEncoder.encode(ErrorDTO.builder()
+            .responseCode(StatusCodes.BAD_REQUEST)
+            .cause("Incorrect idempotency key, should have 1 to " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters")
+            .build());
+
+    private static final ByteBuffer IDEMPOTENCY_KEY_REUSED = JsonEncoder.encode(ErrorDTO.builder()
+            .responseCode(StatusCodes.UNPROCESSABLE_ENTITY)
+            .cause("Idempotency key is already used by another request")
+            .build());
+
+    private static final ByteBuffer AGGREGATES_NOT_MAINTAINED = JsonEncoder.encode(ErrorDTO.builder()
+            .responseCode(StatusCodes.NOT_IMPLEMENTED)
+            .cause("Aggregates are not maintained by the transaction engine")
+            .build());
+
+    private static final ByteBuffer BALANCE_RETRIEVAL_ERROR = JsonEncoder.encode(ErrorDTO.builder()
+            .responseCode(StatusCodes.CONFLICT)
+            .cause("Account balance retrieval error")
+            .build());
+
+    private static final ByteBuffer READ_ONLY = JsonEncoder.encode(ErrorDTO.builder()
+            .responseCode(StatusCodes.FORBIDDEN)
+            .cause("Follower is read-only, writes go to the primary")
+            .build());
 
     private TxManager txManager;
 
     private PublicAccountDAO publicAccountDAO;
 
+    private TransferStream transferStream;
+
+    private IdempotencyCache<Object> idempotencyCache;
+
+    private LongAdder idempotentHits;
+
+    private LongAdder idempotentMisses;
+
+    private LongAdder idempotentConflicts;
+
+    /**
+     * Transactions of single and batch endpoints are counted by result in the registry.
+     * Idempotency keys are kept for "revo.idempotency.ttl" seconds, at most "revo.idempotency.keys" of them.
+     */
     @Inject
-    public ApiV1Controller(TxManager txManager, PublicAccountDAO publicAccountDAO) {
-        this.txManager = txManager;
+    public ApiV1Controller(TxManager txManager, PublicAccountDAO publicAccountDAO, MetricsRegistry metrics) {
+        this.txManager = new MeteredTxManager(txManager, metrics);
         this.publicAccountDAO = publicAccountDAO;
+        this.transferStream = new TransferStream(this.txManager, batchExecutor(),
+                TRANSFER_BATCH_SIZE, TRANSFER_BATCHES_IN_FLIGHT);
+
+        // A timeout applied nothing, so its retry runs again
+        this.idempotencyCache = new IdempotencyCache<>(Integer.getInteger("revo.idempotency.keys", 100_000),
+                Long.getLong("revo.idempotency.ttl", 600), TimeUnit.SECONDS,
+                result -> result != TxManager.TxResult.ERROR_TIMEOUT && result != TxManager.DepositResult.ERROR_TIMEOUT);
+
+        idempotentHits = metrics.counter("revo_idempotency_total", "Requests with an idempotency key by result",
+                "result", "hit");
+        idempotentMisses = metrics.counter("revo_idempotency_total", "Requests with an idempotency key by result",
+                "result", "miss");
+        idempotentConflicts = metrics.counter("revo_idempotency_total", "Requests with an idempotency key by result",
+                "result", "conflict");
+        metrics.gauge("revo_idempotency_keys", "Idempotency keys cached", idempotencyCache::size);
+        metrics.gauge("revo_idempotency_evictions", "Idempotency keys dropped before expiration",
+                idempotencyCache::evictions);
+    }
+
+    /**
+     * With "limit" and / or "cursor" query parameters returns one page of accounts and the cursor
+     * of the next page, which is absent on the last one. Otherwise streams all accounts as one array
+     * in chunks, so memory does not depend on the number of accounts. Both block on the DAO.
+     */
+    public void listAccounts(HttpServerExchange exchange) throws IOException {
+        Map<String, Deque<String>> params = exchange.getQueryParameters();
+        if (params.containsKey("limit") || params.containsKey("cursor")) {
+            sendAccountPage(exchange);
+        } else {
+            streamAccounts(exchange);
+        }
+    }
+
+    private void sendAccountPage(HttpServerExchange exchange) {
+        int limit = exchange.getQueryParameters().containsKey("limit")
+                ? parseLimit(parseParameter(exchange, "limit"))
+                : DEFAULT_PAGE_SIZE;
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            sendError(exchange, StatusCodes.BAD_REQUEST, INCORRECT_LIMIT);
+            return;
+        }
+
+        Iterator<String> accounts;
+        try {
+            accounts = publicAccountDAO.accounts(parseCursor(exchange));
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, StatusCodes.BAD_REQUEST, INCORRECT_CURSOR);
+            return;
+        }
+
+        List<String> page = new ArrayList<>(Math.min(limit, DEFAULT_PAGE_SIZE));
+        while (page.size() < limit && accounts.hasNext()) {
+            page.add(accounts.next());
+        }
+
+        sendJson(exchange, AccountPageDTO.builder()
+                .accounts(page)
+                .next(accounts.hasNext() ? cursor(page.get(page.size() - 1)) : null)
+                .build(), JsonEncoder::accountPage);
+    }
+
+    private void streamAccounts(HttpServerExchange exchange) throws IOException {
+        exchange.startBlocking();
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, JSON);
+
+        ByteBuffer chunk = ByteBuffer.allocate(STREAM_CHUNK_SIZE);
+        try (OutputStream out = exchange.getOutputStream()) {
+            chunk.put((byte) '[');
+
+            Iterator<String> accounts = publicAccountDAO.accounts(null);
+            for (boolean first = true; accounts.hasNext(); first = false) {
+                String id = accounts.next();
+
+                int size = 3 + JsonEncoder.MAX_BYTES_PER_CHAR * id.length();
+                if (chunk.remaining() < size) {
+                    flush(out, chunk);
+                }
+
+                if (!first) {
+                    chunk.put((byte) ',');
+                }
+                if (chunk.remaining() < size) {
+                    // Longer than a chunk
+                    flush(out, chunk);
+                    ByteBuffer element = encode(id, JsonEncoder::string, size);
+                    out.write(element.array(), 0, element.limit());
+                } else {
+                    JsonEncoder.string(chunk, id);
+                }
+            }
+
+            if (!chunk.hasRemaining()) {
+                flush(out, chunk);
+            }
+            chunk.put((byte) ']');
+            flush(out, chunk);
+        }
+    }
+
+    private static void flush(OutputStream out, ByteBuffer chunk) throws IOException {
+        out.write(chunk.array(), 0, chunk.position());
+        chunk.clear();
+    }
+
+    private static int parseLimit(String limit) {
+        try {
+            return limit == null ? -1 : Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
-    public void listAccounts(HttpServerExchange exchange) {
-        Collection<String> accounts = publicAccountDAO.allAccounts();
-        sendJson(exchange, accounts);
+    /**
+     * Cursor is the last account of the page, opaque for clients
+     */
+    private static String cursor(String id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return account to start after, null for the first page
+     * @throws IllegalArgumentException if the cursor is incorrect
+     */
+    private static String parseCursor(HttpServerExchange exchange) {
+        if (!exchange.getQueryParameters().containsKey("cursor")) {
+            return null;
+        }
+
+        String cursor = parseParameter(exchange, "cursor");
+        if (cursor == null || cursor.isEmpty()) {
+            throw new IllegalArgumentException("Incorrect cursor");
+        }
+        return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
     }
 
     public void showBalance(HttpServerExchange exchange) {
@@ -48,57 +312,292 @@ public class ApiV1Controller {
             sendJson(exchange, AccountDTO.builder()
                     .id(id)
                     .balance(balance)
+                    .build(), JsonEncoder::account);
+        }
+    }
+
+    /**
+     * Total of balances, number of accounts and transfers, which have not kept the total
+     */
+    public void showAggregates(HttpServerExchange exchange) {
+        AccountAggregates aggregates = txManager.aggregates();
+        if (aggregates == null) {
+            sendError(exchange, StatusCodes.NOT_IMPLEMENTED, AGGREGATES_NOT_MAINTAINED);
+            return;
+        }
+
+        sendJson(exchange, AggregatesDTO.builder()
+                .total(aggregates.total())
+                .accounts(aggregates.count())
+                .violations(aggregates.violations())
+                .build(), JsonEncoder::aggregates);
+    }
+
+    /**
+     * Accounts with the largest balances, largest first. "limit" query parameter is up to the number
+     * of top accounts kept. May block, while top accounts are refilled from the store.
+     * Versioned balances of the accounts are read from one snapshot, so they are consistent.
+     */
+    public void showTopAccounts(HttpServerExchange exchange) {
+        AccountAggregates aggregates = txManager.aggregates();
+        if (aggregates == null) {
+            sendError(exchange, StatusCodes.NOT_IMPLEMENTED, AGGREGATES_NOT_MAINTAINED);
+            return;
+        }
+
+        int limit = exchange.getQueryParameters().containsKey("limit")
+                ? parseLimit(parseParameter(exchange, "limit"))
+                : Math.min(DEFAULT_TOP_SIZE, aggregates.topSize());
+        if (limit <= 0 || limit > aggregates.topSize()) {
+            sendError(exchange, ErrorDTO.builder()
+                    .responseCode(StatusCodes.BAD_REQUEST)
+                    .cause("Incorrect limit, should be 1 to " + aggregates.topSize())
                     .build());
+            return;
         }
+
+        List<Map.Entry<String, BigDecimal>> top = aggregates.top(limit);
+        List<AccountDTO> accounts = new ArrayList<>(top.size());
+        // Opened after the ranking, so every ranked account exists in it
+        try (AccountSnapshot snapshot = publicAccountDAO.snapshot()) {
+            for (Map.Entry<String, BigDecimal> account : top) {
+                accounts.add(AccountDTO.builder()
+                        .id(account.getKey())
+                        .balance(snapshot == null ? account.getValue() : snapshot.balance(account.getKey()))
+                        .build());
+            }
+            if (snapshot != null) {
+                // Balances may have changed since the accounts were ranked
+                accounts.sort(LARGEST_FIRST);
+            }
+        }
+        sendJson(exchange, TopAccountsDTO.builder().accounts(accounts).build(), JsonEncoder::topAccounts);
     }
 
+    /**
+     * Accepts an optional "Idempotency-Key" header. The balance is read once the deposit completes
+     * and cached with the result, so a replay responds with the same balance without reading the store.
+     */
     public void makeDeposit(HttpServerExchange exchange) {
         String id = parseParameter(exchange, "id");
         BigDecimal amount = parseAmountParameter(exchange);
 
-        TxManager.DepositResult result = txManager.deposit(id, amount);
-        BigDecimal balance = publicAccountDAO.balance(id);
+        completeIdempotent(exchange, request("deposit", id, String.valueOf(amount)),
+                () -> txManager.depositAsync(id, amount).thenApply(result -> new Deposit(result,
+                        result == TxManager.DepositResult.SUCCESS ? publicAccountDAO.balance(id) : null)),
+                (ex, deposit) -> sendDeposit(ex, id, deposit));
+    }
+
+    private static void sendDeposit(HttpServerExchange exchange, String id, Deposit deposit) {
+        TxManager.DepositResult result = deposit == null ? null : deposit.result;
+        BigDecimal balance = deposit == null ? null : deposit.balance;
 
         if (result == null || !result.equals(TxManager.DepositResult.SUCCESS)) {
-            sendError(exchange, ErrorDTO.builder()
-                    .responseCode(StatusCodes.CONFLICT)
-                    .code(result == null ? null : result.toString())
-                    .cause("Deposit error")
-                    .build());
+            sendError(exchange, StatusCodes.CONFLICT, result == null ? DEPOSIT_ERROR : DEPOSIT_ERRORS[result.ordinal()]);
         } else if (balance == null) {
-            sendError(exchange, ErrorDTO.builder()
-                    .responseCode(StatusCodes.CONFLICT)
-                    .cause("Account balance retrieval error")
-                    .build());
+            sendError(exchange, StatusCodes.CONFLICT, BALANCE_RETRIEVAL_ERROR);
         } else {
             sendJson(exchange, AccountDTO.builder()
                     .id(id)
                     .balance(balance)
-                    .build());
+                    .build(), JsonEncoder::account);
         }
     }
 
+    /**
+     * Accepts an optional "Idempotency-Key" header
+     */
     public void makeTransfer(HttpServerExchange exchange) {
         String from = parseParameter(exchange, "from");
         String to = parseParameter(exchange, "to");
         BigDecimal amount = parseAmountParameter(exchange);
 
-        TxManager.TxResult result = txManager.transfer(from, to, amount);
+        completeIdempotent(exchange, request("transfer", from, to, String.valueOf(amount)),
+                () -> txManager.transferAsync(from, to, amount),
+                (ex, result) -> sendTransfer(ex, from, to, amount, result));
+    }
 
+    private static void sendTransfer(HttpServerExchange exchange, String from, String to, BigDecimal amount,
+                                     TxManager.TxResult result) {
         if (result == null || !result.equals(TxManager.TxResult.SUCCESS)) {
-            sendError(exchange, ErrorDTO.builder()
-                    .responseCode(StatusCodes.CONFLICT)
-                    .code(result == null ? null : result.toString())
-                    .cause("Transfer error")
-                    .build());
+            sendError(exchange, StatusCodes.CONFLICT, result == null ? TRANSFER_ERROR : TRANSFER_ERRORS[result.ordinal()]);
         } else {
             sendJson(exchange, TransactionDTO.builder()
                     .from(from)
                     .to(to)
                     .amount(amount)
                     .result(result)
-                    .build());
+                    .build(), JsonEncoder::transaction);
+        }
+    }
+
+    /**
+     * POST body is {"legs":[{"id":"a","amount":-10},{"id":"b","amount":10}]}, a negative amount is
+     * a debit. Legs of the same account are summed up, all of them are applied or none. The body is
+     * received without blocking, the response repeats the legs with the result.
+     * Accepts an optional "Idempotency-Key" header.
+     */
+    public void makeTransaction(HttpServerExchange exchange) {
+        exchange.setMaxEntitySize(MAX_TRANSACTION_SIZE);
+        exchange.getRequestReceiver().receiveFullBytes((ex, body) -> {
+            MultiLegTransactionDTO request = parseTransaction(body);
+            Map<String, BigDecimal> legs = request == null ? null : sumLegs(request.getLegs());
+            if (legs == null) {
+                sendError(ex, StatusCodes.BAD_REQUEST, INCORRECT_TRANSACTION);
+                return;
+            }
+
+            completeIdempotent(ex, request(body), () -> txManager.transferAsync(legs),
+                    (e, result) -> sendTransaction(e, request.getLegs(), result));
+        });
+    }
+
+    private static MultiLegTransactionDTO parseTransaction(byte[] body) {
+        try {
+            return gson.fromJson(new String(body, StandardCharsets.UTF_8), MultiLegTransactionDTO.class);
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return account id to the sum of its legs, null if legs are incorrect
+     */
+    private static Map<String, BigDecimal> sumLegs(List<LegDTO> legs) {
+        if (legs == null || legs.isEmpty() || legs.size() > MAX_LEGS) {
+            return null;
+        }
+
+        Map<String, BigDecimal> sums = new HashMap<>(legs.size() * 2);
+        for (LegDTO leg : legs) {
+            if (leg == null || leg.getAmount() == null) {
+                return null;
+            }
+            sums.merge(leg.getId(), leg.getAmount(), BigDecimal::add);
+        }
+        return sums;
+    }
+
+    private static void sendTransaction(HttpServerExchange exchange, List<LegDTO> legs, TxManager.TxResult result) {
+        if (result == null || !result.equals(TxManager.TxResult.SUCCESS)) {
+            sendError(exchange, StatusCodes.CONFLICT, result == null ? TRANSFER_ERROR : TRANSFER_ERRORS[result.ordinal()]);
+        } else {
+            sendJson(exchange, MultiLegTransactionDTO.builder()
+                    .legs(legs)
+                    .result(result)
+                    .build(), JsonEncoder::multiLegTransaction);
+        }
+    }
+
+    /**
+     * POST body and response are newline-delimited JSON, see {@link TransferStream}
+     */
+    public void makeBatchTransfer(HttpServerExchange exchange) throws IOException {
+        // Reading the body blocks
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(this::makeBatchTransfer);
+            return;
+        }
+
+        exchange.startBlocking();
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/x-ndjson");
+
+        try (Reader in = new InputStreamReader(exchange.getInputStream(), StandardCharsets.UTF_8);
+             Writer out = new OutputStreamWriter(exchange.getOutputStream(), StandardCharsets.UTF_8)) {
+            transferStream.run(in, out);
+        }
+    }
+
+    /**
+     * Without an "Idempotency-Key" header same as {@link #completeAsync}. With it, the result is cached
+     * under the key: a retry gets the result of the first request with the "Idempotent-Replayed" header
+     * and does not reach the TX manager, while the key reused by another request is rejected.
+     *
+     * @param request identifies the request, so the key is not shared by different ones
+     */
+    @SuppressWarnings("unchecked")
+    private <T> void completeIdempotent(HttpServerExchange exchange, String request,
+                                        Supplier<CompletableFuture<T>> tx, BiConsumer<HttpServerExchange, T> send) {
+        String key = exchange.getRequestHeaders().getFirst(IDEMPOTENCY_KEY);
+        if (key == null) {
+            completeAsync(exchange, tx, send);
+            return;
+        }
+        if (key.isEmpty() || key.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+            sendError(exchange, StatusCodes.BAD_REQUEST, INCORRECT_IDEMPOTENCY_KEY);
+            return;
+        }
+
+        boolean[] started = new boolean[1];
+        CompletableFuture<T> result = (CompletableFuture<T>) idempotencyCache.call(key, request, () -> {
+            started[0] = true;
+            return (CompletableFuture<Object>) tx.get();
+        });
+
+        if (result == null) {
+            idempotentConflicts.increment();
+            sendError(exchange, StatusCodes.UNPROCESSABLE_ENTITY, IDEMPOTENCY_KEY_REUSED);
+            return;
+        }
+        if (started[0]) {
+            idempotentMisses.increment();
+        } else {
+            idempotentHits.increment();
+            exchange.getResponseHeaders().put(IDEMPOTENT_REPLAYED, "true");
         }
+        completeAsync(exchange, () -> result, send);
+    }
+
+    private static String request(String... parts) {
+        return String.join("\u0000", parts);
+    }
+
+    /**
+     * @return digest of the body, so a large request does not take the memory of the cache
+     */
+    private static String request(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return "transaction\u0000" + Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Starts the transaction once the handler returns and sends its result from the IO thread
+     * of the exchange, so no thread is blocked while the transaction waits for locks or the journal.
+     * A transaction, which has not waited, is answered right away in the same IO thread.
+     */
+    private static <T> void completeAsync(HttpServerExchange exchange, Supplier<CompletableFuture<T>> tx,
+                                          BiConsumer<HttpServerExchange, T> send) {
+        exchange.dispatch(SameThreadExecutor.INSTANCE, () -> tx.get().whenComplete((result, e) -> {
+            if (exchange.isInIoThread()) {
+                send(exchange, send, result);
+            } else {
+                exchange.getIoThread().execute(() -> send(exchange, send, result));
+            }
+        }));
+    }
+
+    private static <T> void send(HttpServerExchange exchange, BiConsumer<HttpServerExchange, T> send, T result) {
+        try {
+            send.accept(exchange, result);
+        } catch (Throwable e) {
+            if (!exchange.isResponseStarted()) {
+                exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+            }
+            exchange.endExchange();
+        }
+    }
+
+    private static ExecutorService batchExecutor() {
+        AtomicInteger index = new AtomicInteger();
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+            Thread thread = new Thread(task, "tx-batch-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     private BigDecimal parseAmountParameter(HttpServerExchange exchange) {
@@ -113,19 +612,103 @@ public class ApiV1Controller {
     }
 
     public static void notFound(HttpServerExchange exchange) {
-        sendError(exchange, ErrorDTO.builder()
-                .responseCode(StatusCodes.NOT_FOUND)
-                .cause("API v1: page not found").build());
+        sendError(exchange, StatusCodes.NOT_FOUND, NOT_FOUND);
     }
 
-    private static void sendJson(HttpServerExchange exchange, Object response) {
-        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
-        exchange.getResponseSender().send(gson.toJson(response));
+    public static void readOnly(HttpServerExchange exchange) {
+        sendError(exchange, StatusCodes.FORBIDDEN, READ_ONLY);
+    }
+
+    /**
+     * Encodes the response right into a pooled buffer of the connection, which is released once
+     * it is written. A response, which does not fit into it, is encoded into a heap buffer.
+     */
+    private static <T> void sendJson(HttpServerExchange exchange, T response, BiConsumer<ByteBuffer, T> encoder) {
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, JSON);
+
+        PooledByteBuffer pooled = exchange.getConnection().getByteBufferPool().allocate();
+        ByteBuffer buffer = pooled.getBuffer();
+        try {
+            buffer.clear();
+            encoder.accept(buffer, response);
+        } catch (BufferOverflowException e) {
+            pooled.close();
+            exchange.getResponseSender().send(encode(response, encoder, buffer.capacity() * 2));
+            return;
+        }
+
+        buffer.flip();
+        exchange.getResponseSender().send(buffer, new IoCallback() {
+            @Override
+            public void onComplete(HttpServerExchange exchange, Sender sender) {
+                pooled.close();
+                IoCallback.END_EXCHANGE.onComplete(exchange, sender);
+            }
+
+            @Override
+            public void onException(HttpServerExchange exchange, Sender sender, IOException exception) {
+                pooled.close();
+                IoCallback.END_EXCHANGE.onException(exchange, sender, exception);
+            }
+        });
+    }
+
+    static <T> ByteBuffer encode(T response, BiConsumer<ByteBuffer, T> encoder, int capacity) {
+        while (true) {
+            ByteBuffer buffer = ByteBuffer.allocate(capacity);
+            try {
+                encoder.accept(buffer, response);
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                capacity *= 2;
+            }
+        }
     }
 
     private static void sendError(HttpServerExchange exchange, ErrorDTO response) {
         exchange.setStatusCode(response.getResponseCode());
-        sendJson(exchange, response);
+        sendJson(exchange, response, JsonEncoder::error);
+    }
+
+    private static void sendError(HttpServerExchange exchange, int responseCode, ByteBuffer response) {
+        exchange.setStatusCode(responseCode);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, JSON);
+        exchange.getResponseSender().send(response.duplicate());
+    }
+
+    private static ByteBuffer[] transferErrors() {
+        TxManager.TxResult[] results = TxManager.TxResult.values();
+        ByteBuffer[] errors = new ByteBuffer[results.length];
+        for (TxManager.TxResult result : results) {
+            errors[result.ordinal()] = transferError(result);
+        }
+        return errors;
+    }
+
+    private static ByteBuffer transferError(TxManager.TxResult result) {
+        return JsonEncoder.encode(ErrorDTO.builder()
+                .responseCode(StatusCodes.CONFLICT)
+                .code(result == null ? null : result.toString())
+                .cause("Transfer error")
+                .build());
+    }
+
+    private static ByteBuffer[] depositErrors() {
+        TxManager.DepositResult[] results = TxManager.DepositResult.values();
+        ByteBuffer[] errors = new ByteBuffer[results.length];
+        for (TxManager.DepositResult result : results) {
+            errors[result.ordinal()] = depositError(result);
+        }
+        return errors;
+    }
+
+    private static ByteBuffer depositError(TxManager.DepositResult result) {
+        return JsonEncoder.encode(ErrorDTO.builder()
+                .responseCode(StatusCodes.CONFLICT)
+                .code(result == null ? null : result.toString())
+                .cause("Deposit error")
+                .build());
     }
 
     private static String parseParameter(HttpServerExchange exchange, String key) {
@@ -137,4 +720,17 @@ public class ApiV1Controller {
         }
         return id;
     }
+
+    /**
+     * Result of a deposit with the balance right after it, null unless it has succeeded
+     */
+    private static final class Deposit {
+        private final TxManager.DepositResult result;
+        private final BigDecimal balance;
+
+        private Deposit(TxManager.DepositResult result, BigDecimal balance) {
+            this.result = result;
+            this.balance = balance;
+        }
+    }
 }
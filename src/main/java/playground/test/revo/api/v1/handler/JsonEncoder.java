@@ -0,0 +1,356 @@
+package playground.test.revo.api.v1.handler;
+
+import playground.test.revo.api.v1.dto.AccountDTO;
+import playground.test.revo.api.v1.dto.AccountPageDTO;
+import playground.test.revo.api.v1.dto.AggregatesDTO;
+import playground.test.revo.api.v1.dto.ErrorDTO;
+import playground.test.revo.api.v1.dto.LegDTO;
+import playground.test.revo.api.v1.dto.MultiLegTransactionDTO;
+import playground.test.revo.api.v1.dto.TopAccountsDTO;
+import playground.test.revo.api.v1.dto.TransactionDTO;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * UTF-8 JSON encoder for API v1 DTOs, which writes straight into a byte buffer.
+ *
+ * The output is byte-for-byte the same as of default Gson plus UTF-8 encoding: fields in
+ * declaration order, null fields omitted, HTML-safe string escapes (e.g. '<' as a \\u escape),
+ * BigDecimal.toString() numbers, and '?' for an unpaired surrogate.
+ *
+ * Throws {@link java.nio.BufferOverflowException} if the buffer is too small, the caller retries
+ * with a larger one.
+ */
+public final class JsonEncoder {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] ACCOUNT_ID = bytes("\"id\":");
+    private static final byte[] ACCOUNT_BALANCE = bytes("\"balance\":");
+
+    private static final byte[] TX_FROM = bytes("\"from\":");
+    private static final byte[] TX_TO = bytes("\"to\":");
+    private static final byte[] TX_AMOUNT = bytes("\"amount\":");
+    private static final byte[] TX_RESULT = bytes("\"result\":");
+
+    private static final byte[] ERROR_RESPONSE_CODE = bytes("\"responseCode\":");
+    private static final byte[] ERROR_ACCOUNT_ID = bytes("\"accountId\":");
+    private static final byte[] ERROR_CODE = bytes("\"code\":");
+    private static final byte[] ERROR_CAUSE = bytes("\"cause\":");
+
+    private static final byte[] PAGE_ACCOUNTS = bytes("\"accounts\":");
+    private static final byte[] PAGE_NEXT = bytes("\"next\":");
+
+    private static final byte[] MULTI_LEG_LEGS = bytes("\"legs\":");
+
+    private static final byte[] AGGREGATES_TOTAL = bytes("\"total\":");
+    private static final byte[] AGGREGATES_ACCOUNTS = bytes("\"accounts\":");
+    private static final byte[] AGGREGATES_VIOLATIONS = bytes("\"violations\":");
+
+    private static final byte[] NULL = bytes("null");
+
+    /**
+     * Upper bound of encoded bytes per char, a unicode escape is the longest
+     */
+    static final int MAX_BYTES_PER_CHAR = 6;
+
+    private JsonEncoder() {
+    }
+
+    static void account(ByteBuffer out, AccountDTO account) {
+        out.put((byte) '{');
+        boolean first = string(out, true, ACCOUNT_ID, account.getId());
+        number(out, first, ACCOUNT_BALANCE, account.getBalance());
+        out.put((byte) '}');
+    }
+
+    static void transaction(ByteBuffer out, TransactionDTO transaction) {
+        out.put((byte) '{');
+        boolean first = string(out, true, TX_FROM, transaction.getFrom());
+        first = string(out, first, TX_TO, transaction.getTo());
+        first = number(out, first, TX_AMOUNT, transaction.getAmount());
+        string(out, first, TX_RESULT, transaction.getResult() == null ? null : transaction.getResult().name());
+        out.put((byte) '}');
+    }
+
+    static void error(ByteBuffer out, ErrorDTO error) {
+        out.put((byte) '{');
+        out.put(ERROR_RESPONSE_CODE);
+        integer(out, error.getResponseCode());
+        string(out, false, ERROR_ACCOUNT_ID, error.getAccountId());
+        string(out, false, ERROR_CODE, error.getCode());
+        string(out, false, ERROR_CAUSE, error.getCause());
+        out.put((byte) '}');
+    }
+
+    static void accountPage(ByteBuffer out, AccountPageDTO page) {
+        out.put((byte) '{');
+        boolean first = true;
+        if (page.getAccounts() != null) {
+            out.put(PAGE_ACCOUNTS);
+            strings(out, page.getAccounts());
+            first = false;
+        }
+        string(out, first, PAGE_NEXT, page.getNext());
+        out.put((byte) '}');
+    }
+
+    static void multiLegTransaction(ByteBuffer out, MultiLegTransactionDTO transaction) {
+        out.put((byte) '{');
+        boolean first = true;
+        List<LegDTO> legs = transaction.getLegs();
+        if (legs != null) {
+            out.put(MULTI_LEG_LEGS);
+            out.put((byte) '[');
+            for (int i = 0; i < legs.size(); i++) {
+                if (i > 0) {
+                    out.put((byte) ',');
+                }
+                leg(out, legs.get(i));
+            }
+            out.put((byte) ']');
+            first = false;
+        }
+        string(out, first, TX_RESULT, transaction.getResult() == null ? null : transaction.getResult().name());
+        out.put((byte) '}');
+    }
+
+    static void aggregates(ByteBuffer out, AggregatesDTO aggregates) {
+        out.put((byte) '{');
+        if (!number(out, true, AGGREGATES_TOTAL, aggregates.getTotal())) {
+            out.put((byte) ',');
+        }
+        out.put(AGGREGATES_ACCOUNTS);
+        integer(out, aggregates.getAccounts());
+        out.put((byte) ',');
+        out.put(AGGREGATES_VIOLATIONS);
+        integer(out, aggregates.getViolations());
+        out.put((byte) '}');
+    }
+
+    static void topAccounts(ByteBuffer out, TopAccountsDTO top) {
+        out.put((byte) '{');
+        List<AccountDTO> accounts = top.getAccounts();
+        if (accounts != null) {
+            out.put(PAGE_ACCOUNTS);
+            out.put((byte) '[');
+            for (int i = 0; i < accounts.size(); i++) {
+                if (i > 0) {
+                    out.put((byte) ',');
+                }
+                if (accounts.get(i) == null) {
+                    out.put(NULL);
+                } else {
+                    account(out, accounts.get(i));
+                }
+            }
+            out.put((byte) ']');
+        }
+        out.put((byte) '}');
+    }
+
+    private static void leg(ByteBuffer out, LegDTO leg) {
+        if (leg == null) {
+            out.put(NULL);
+            return;
+        }
+
+        out.put((byte) '{');
+        boolean first = string(out, true, ACCOUNT_ID, leg.getId());
+        number(out, first, TX_AMOUNT, leg.getAmount());
+        out.put((byte) '}');
+    }
+
+    static void strings(ByteBuffer out, Collection<String> values) {
+        out.put((byte) '[');
+        boolean first = true;
+        for (String value : values) {
+            if (!first) {
+                out.put((byte) ',');
+            }
+            first = false;
+
+            if (value == null) {
+                out.put(NULL);
+            } else {
+                string(out, value);
+            }
+        }
+        out.put((byte) ']');
+    }
+
+    /**
+     * @return read-only buffer with the encoded error, to be duplicated for every response
+     */
+    public static ByteBuffer encode(ErrorDTO error) {
+        ByteBuffer out = ByteBuffer.allocate(256 + length(error.getAccountId()) * 6
+                + length(error.getCode()) * 6 + length(error.getCause()) * 6);
+        error(out, error);
+        out.flip();
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(out.remaining());
+        direct.put(out);
+        direct.flip();
+        return direct.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return false, so the next field is preceded by a comma, if the value was written
+     */
+    private static boolean string(ByteBuffer out, boolean first, byte[] name, String value) {
+        if (value == null) {
+            return first;
+        }
+
+        if (!first) {
+            out.put((byte) ',');
+        }
+        out.put(name);
+        string(out, value);
+        return false;
+    }
+
+    private static boolean number(ByteBuffer out, boolean first, byte[] name, BigDecimal value) {
+        if (value == null) {
+            return first;
+        }
+
+        if (!first) {
+            out.put((byte) ',');
+        }
+        out.put(name);
+
+        String text = value.toString();
+        for (int i = 0; i < text.length(); i++) {
+            out.put((byte) text.charAt(i));
+        }
+        return false;
+    }
+
+    private static void integer(ByteBuffer out, long value) {
+        if (value < 0) {
+            out.put((byte) '-');
+            if (value == Long.MIN_VALUE) {
+                out.put(bytes("9223372036854775808"));
+                return;
+            }
+            value = -value;
+        }
+
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    /**
+     * Writes a quoted string, at most 2 + MAX_BYTES_PER_CHAR * value.length() bytes
+     */
+    static void string(ByteBuffer out, String value) {
+        out.put((byte) '"');
+
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+
+            if (c < 0x80) {
+                ascii(out, c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xc0 | c >> 6));
+                out.put((byte) (0x80 | c & 0x3f));
+            } else if (c == '\u2028' || c == '\u2029') {
+                unicode(out, c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.put((byte) (0xf0 | codePoint >> 18));
+                out.put((byte) (0x80 | codePoint >> 12 & 0x3f));
+                out.put((byte) (0x80 | codePoint >> 6 & 0x3f));
+                out.put((byte) (0x80 | codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // The same replacement, as String.getBytes(UTF_8) makes
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xe0 | c >> 12));
+                out.put((byte) (0x80 | c >> 6 & 0x3f));
+                out.put((byte) (0x80 | c & 0x3f));
+            }
+        }
+
+        out.put((byte) '"');
+    }
+
+    private static void ascii(ByteBuffer out, char c) {
+        switch (c) {
+            case '"':
+            case '\\':
+                out.put((byte) '\\');
+                out.put((byte) c);
+                return;
+
+            case '\t':
+                out.put((byte) '\\');
+                out.put((byte) 't');
+                return;
+
+            case '\b':
+                out.put((byte) '\\');
+                out.put((byte) 'b');
+                return;
+
+            case '\n':
+                out.put((byte) '\\');
+                out.put((byte) 'n');
+                return;
+
+            case '\r':
+                out.put((byte) '\\');
+                out.put((byte) 'r');
+                return;
+
+            case '\f':
+                out.put((byte) '\\');
+                out.put((byte) 'f');
+                return;
+
+            // HTML-safe escapes of Gson
+            case '<':
+            case '>':
+            case '&':
+            case '=':
+            case '\'':
+                unicode(out, c);
+                return;
+
+            default:
+                if (c < 0x20) {
+                    unicode(out, c);
+                } else {
+                    out.put((byte) c);
+                }
+        }
+    }
+
+    private static void unicode(ByteBuffer out, char c) {
+        out.put((byte) '\\');
+        out.put((byte) 'u');
+        out.put(HEX[c >> 12 & 0xf]);
+        out.put(HEX[c >> 8 & 0xf]);
+        out.put(HEX[c >> 4 & 0xf]);
+        out.put(HEX[c & 0xf]);
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
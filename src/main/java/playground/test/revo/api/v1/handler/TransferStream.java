@@ -0,0 +1,232 @@
+package playground.test.revo.api.v1.handler;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import playground.test.revo.api.v1.dto.TransactionDTO;
+import playground.test.revo.data.TxManager;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Newline-delimited JSON stream of transfers: {"from":"a","to":"b","amount":"1.5"} per line.
+ *
+ * Lines are read and parsed in batches, batches are applied one after another on the executor,
+ * while the caller reads the next batches and writes results of the previous ones. At most
+ * maxInFlight batches are read ahead, so the memory does not depend on the body size.
+ * Every input line gets a result line in the same order, malformed lines get ERROR_UNKNOWN.
+ */
+public class TransferStream {
+    private static final Gson gson = new Gson();
+
+    private static final int MAX_LINE_LENGTH = 1 << 16;
+
+    private final TxManager txManager;
+
+    private final Executor executor;
+
+    private final int batchSize;
+
+    private final int maxInFlight;
+
+    /**
+     * @param executor    executor to apply transfers, batches of one stream are never applied concurrently
+     * @param batchSize   max number of transfers in a batch
+     * @param maxInFlight max number of batches read ahead of the written results
+     */
+    public TransferStream(TxManager txManager, Executor executor, int batchSize, int maxInFlight) {
+        if (batchSize <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("Batch size and max in-flight batches should be positive");
+        }
+
+        this.txManager = txManager;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Applies all transfers from the input and writes their results
+     *
+     * @return number of transfers
+     */
+    public long run(Reader in, Writer out) throws IOException {
+        Deque<CompletableFuture<TransactionDTO[]>> inFlight = new ArrayDeque<>(maxInFlight + 1);
+        CompletableFuture<TransactionDTO[]> last = CompletableFuture.completedFuture(null);
+        LineReader lines = new LineReader(in);
+        long count = 0;
+
+        try {
+            while (true) {
+                TransactionDTO[] batch = read(lines);
+                if (batch.length == 0) {
+                    break;
+                }
+                count += batch.length;
+
+                last = last.thenApplyAsync(previous -> apply(batch), executor);
+                inFlight.add(last);
+
+                while (inFlight.size() > maxInFlight || (!inFlight.isEmpty() && inFlight.peek().isDone())) {
+                    write(inFlight.poll(), out);
+                }
+                out.flush();
+            }
+
+            while (!inFlight.isEmpty()) {
+                write(inFlight.poll(), out);
+            }
+            out.flush();
+        } finally {
+            // Queued batches are applied anyway, wait for them to keep the executor bounded
+            last.exceptionally(e -> null).join();
+        }
+        return count;
+    }
+
+    private TransactionDTO[] read(LineReader lines) throws IOException {
+        TransactionDTO[] batch = new TransactionDTO[batchSize];
+        int size = 0;
+
+        String line;
+        while (size < batchSize && (line = lines.next()) != null) {
+            if (lines.tooLong) {
+                batch[size++] = malformed();
+            } else if (!line.trim().isEmpty()) {
+                batch[size++] = parse(line);
+            }
+        }
+
+        if (size < batchSize) {
+            TransactionDTO[] tail = new TransactionDTO[size];
+            System.arraycopy(batch, 0, tail, 0, size);
+            return tail;
+        }
+        return batch;
+    }
+
+    /**
+     * @return parsed transfer, transfer with ERROR_UNKNOWN result if the line is malformed
+     */
+    private static TransactionDTO parse(String line) {
+        try {
+            TransactionDTO transfer = gson.fromJson(line, TransactionDTO.class);
+            if (transfer != null) {
+                return TransactionDTO.builder()
+                        .from(transfer.getFrom())
+                        .to(transfer.getTo())
+                        .amount(transfer.getAmount())
+                        .build();
+            }
+        } catch (JsonParseException e) {
+            // Reported below
+        }
+        return malformed();
+    }
+
+    private static TransactionDTO malformed() {
+        return TransactionDTO.builder()
+                .result(TxManager.TxResult.ERROR_UNKNOWN)
+                .build();
+    }
+
+    private TransactionDTO[] apply(TransactionDTO[] batch) {
+        for (int i = 0; i < batch.length; i++) {
+            TransactionDTO transfer = batch[i];
+            if (transfer.getResult() != null) {
+                continue;
+            }
+
+            TxManager.TxResult result = txManager.transfer(transfer.getFrom(), transfer.getTo(), transfer.getAmount());
+            batch[i] = TransactionDTO.builder()
+                    .from(transfer.getFrom())
+                    .to(transfer.getTo())
+                    .amount(transfer.getAmount())
+                    .result(result == null ? TxManager.TxResult.ERROR_UNKNOWN : result)
+                    .build();
+        }
+        return batch;
+    }
+
+    private static void write(CompletableFuture<TransactionDTO[]> batch, Writer out) throws IOException {
+        TransactionDTO[] results;
+        try {
+            results = batch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Transfer batch failed", e.getCause());
+        }
+
+        for (TransactionDTO result : results) {
+            gson.toJson(result, out);
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Reads lines of bounded length, longer lines are skipped
+     */
+    private static final class LineReader {
+        private final Reader in;
+        private final char[] buffer = new char[8192];
+        private final StringBuilder line = new StringBuilder();
+        private int position;
+        private int limit;
+        private boolean tooLong;
+
+        private LineReader(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * @return next line, empty if the line is longer than MAX_LINE_LENGTH (tooLong is set), null at the end
+         */
+        private String next() throws IOException {
+            line.setLength(0);
+            tooLong = false;
+
+            while (true) {
+                if (position == limit) {
+                    limit = in.read(buffer);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        if (line.length() == 0 && !tooLong) {
+                            return null;
+                        }
+                        break;
+                    }
+                }
+
+                int start = position;
+                while (position < limit && buffer[position] != '\n') {
+                    position++;
+                }
+
+                if (!tooLong) {
+                    line.append(buffer, start, position - start);
+                    if (line.length() > MAX_LINE_LENGTH) {
+                        tooLong = true;
+                        line.setLength(0);
+                    }
+                }
+
+                if (position < limit) {
+                    // Skip '\n'
+                    position++;
+                    break;
+                }
+            }
+
+            return line.toString();
+        }
+    }
+}
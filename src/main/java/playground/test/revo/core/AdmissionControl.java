@@ -0,0 +1,428 @@
+package playground.test.revo.core;
+
+import com.google.inject.Inject;
+import io.undertow.server.Connectors;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+import playground.test.revo.api.v1.dto.ErrorDTO;
+import playground.test.revo.api.v1.handler.JsonEncoder;
+import playground.test.revo.metrics.MetricsRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission of write requests, so a burst is answered right away instead of waiting for account locks
+ * until the TX manager times out.
+ *
+ * At most limit requests are in flight. Requests over the limit wait in a FIFO queue of up to
+ * "revo.admission.burst" requests, while their estimated wait fits into the latency budget of
+ * "revo.admission.budget" ms, and run in order as requests in flight complete. The wait is estimated
+ * with Little's law: requests queued ahead of this one times the average latency over the limit.
+ * Others get 503. A queued request holds no thread, its exchange is dispatched until it runs.
+ *
+ * Requests in flight or queued per account are limited by "revo.admission.account", so a hot account
+ * does not take the whole limit, others get 429. Accounts are counted in a fixed table by id hash,
+ * accounts sharing a slot share the limit. Rejections carry Retry-After.
+ *
+ * The limit starts at "revo.admission.limit" and adapts to latency (AIMD): once per window it is cut by
+ * a tenth if a request took longer than the budget, otherwise it grows by one if it was reached.
+ * It stays from 1 to 4 times the initial limit. "revo.admission" = false admits everything.
+ *
+ * A decision costs a few atomic updates and one small object per admitted request, which is released
+ * by the completion of the exchange. A queued request also costs a node of the queue.
+ */
+public class AdmissionControl {
+
+    private static final int ACCOUNT_SLOTS = 1024;
+
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final ByteBuffer OVERLOADED = JsonEncoder.encode(ErrorDTO.builder()
+            .responseCode(StatusCodes.SERVICE_UNAVAILABLE)
+            .cause("Server is overloaded, retry later").build());
+
+    private static final ByteBuffer ACCOUNT_OVERLOADED = JsonEncoder.encode(ErrorDTO.builder()
+            .responseCode(StatusCodes.TOO_MANY_REQUESTS)
+            .cause("Too many requests to the account, retry later").build());
+
+    private static final int QUEUED = 0;
+
+    private static final int RUNNING = 1;
+
+    private static final int DONE = 2;
+
+    private static final AtomicIntegerFieldUpdater<Ticket> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Ticket.class, "state");
+
+    /**
+     * Request, which holds its place until it completes
+     */
+    final class Ticket implements ExchangeCompletionListener {
+        private final int from;
+        private final int to;
+
+        // Updated by STATE
+        volatile int state;
+
+        // Since the request runs
+        private volatile long start;
+
+        // Guarded by this, runs the request once it leaves the queue
+        private Runnable resume;
+
+        private Ticket(int state, long start, int from, int to) {
+            this.state = state;
+            this.start = start;
+            this.from = from;
+            this.to = to;
+        }
+
+        boolean isQueued() {
+            return state == QUEUED;
+        }
+
+        /**
+         * Runs the request now, if it has left the queue already, otherwise once it leaves
+         */
+        synchronized void park(Runnable resume) {
+            if (state == QUEUED) {
+                this.resume = resume;
+            } else if (state == RUNNING) {
+                resume.run();
+            }
+        }
+
+        /**
+         * @return if the request was queued and runs now
+         */
+        private boolean run(long now) {
+            if (!STATE.compareAndSet(this, QUEUED, RUNNING)) {
+                return false;
+            }
+            start = now;
+            synchronized (this) {
+                if (resume != null) {
+                    resume.run();
+                    resume = null;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+            try {
+                complete(this, System.nanoTime());
+            } finally {
+                nextListener.proceed();
+            }
+        }
+    }
+
+    // Results of admit(), which reject the request
+    final Ticket serverBusy = new Ticket(DONE, 0, -1, -1);
+
+    final Ticket accountBusy = new Ticket(DONE, 0, -1, -1);
+
+    private final boolean enabled;
+
+    private final int maxLimit;
+
+    private final int burst;
+
+    private final int accountLimit;
+
+    private final long budget;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final Queue<Ticket> queue = new ConcurrentLinkedQueue<>();
+
+    // Tickets in the queue, which have not left it yet
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicIntegerArray accounts = new AtomicIntegerArray(ACCOUNT_SLOTS);
+
+    private volatile int limit;
+
+    // Average latency in nanos, updated racily: a lost sample does not matter
+    private volatile long latency;
+
+    private final AtomicLong windowEnd = new AtomicLong(System.nanoTime() + WINDOW_NANOS);
+
+    // Seen within the current window
+    private volatile boolean overloaded;
+
+    private volatile boolean saturated;
+
+    private final LongAdder rejectedOverload;
+
+    private final LongAdder rejectedBudget;
+
+    private final LongAdder rejectedAccount;
+
+    @Inject
+    public AdmissionControl(MetricsRegistry metrics) {
+        this(Boolean.parseBoolean(System.getProperty("revo.admission", "true")),
+                Integer.getInteger("revo.admission.limit", 256),
+                Integer.getInteger("revo.admission.burst", 1024),
+                Integer.getInteger("revo.admission.account", 64),
+                Long.getLong("revo.admission.budget", 250), metrics);
+    }
+
+    /**
+     * @param limit    initial number of requests in flight
+     * @param burst    max requests queued over the limit
+     * @param account  max requests in flight per account
+     * @param budgetMs max estimated wait of a request over the limit, a request taking longer shrinks the limit
+     */
+    AdmissionControl(boolean enabled, int limit, int burst, int account, long budgetMs, MetricsRegistry metrics) {
+        if (limit <= 0 || burst < 0 || account <= 0 || budgetMs <= 0) {
+            throw new IllegalArgumentException("Incorrect admission limits");
+        }
+        this.enabled = enabled;
+        this.limit = limit;
+        this.maxLimit = 4 * limit;
+        this.burst = burst;
+        this.accountLimit = account;
+        this.budget = TimeUnit.MILLISECONDS.toNanos(budgetMs);
+
+        String help = "Write requests rejected by admission control by reason";
+        rejectedOverload = metrics.counter("revo_admission_rejected_total", help, "reason", "overload");
+        rejectedBudget = metrics.counter("revo_admission_rejected_total", help, "reason", "budget");
+        rejectedAccount = metrics.counter("revo_admission_rejected_total", help, "reason", "account");
+        metrics.gauge("revo_admission_limit", "Adaptive limit of write requests in flight", () -> this.limit);
+        metrics.gauge("revo_admission_in_flight", "Admitted write requests in flight", inFlight::get);
+        metrics.gauge("revo_admission_queued", "Write requests queued over the limit", queued::get);
+    }
+
+    /**
+     * @param accounts path parameters with ids of the accounts, which the request writes to
+     * @return handler, which admits the request before the next one
+     */
+    public HttpHandler write(HttpHandler next, String... accounts) {
+        if (!enabled) {
+            return next;
+        }
+
+        String from = accounts.length > 0 ? accounts[0] : null;
+        String to = accounts.length > 1 ? accounts[1] : null;
+        return exchange -> {
+            Ticket ticket = admit(parameter(exchange, from), parameter(exchange, to));
+            if (ticket == serverBusy) {
+                reject(exchange, StatusCodes.SERVICE_UNAVAILABLE, OVERLOADED);
+            } else if (ticket == accountBusy) {
+                reject(exchange, StatusCodes.TOO_MANY_REQUESTS, ACCOUNT_OVERLOADED);
+            } else if (ticket.isQueued()) {
+                // Completes the ticket, even if the exchange ends before it leaves the queue
+                exchange.addExchangeCompleteListener(ticket);
+                exchange.dispatch(SameThreadExecutor.INSTANCE, () -> ticket.park(() -> exchange.getIoThread()
+                        .execute(() -> Connectors.executeRootHandler(next, exchange))));
+            } else {
+                exchange.addExchangeCompleteListener(ticket);
+                next.handleRequest(exchange);
+            }
+        };
+    }
+
+    /**
+     * @param from account id, null if unknown
+     * @param to   account id, null if unknown
+     * @return ticket to complete once the request is done, {@link Ticket#isQueued()} until it may run,
+     * {@link #serverBusy} or {@link #accountBusy} if the request is rejected
+     */
+    Ticket admit(String from, String to) {
+        int fromSlot = slot(from);
+        int toSlot = slot(to);
+        if (toSlot == fromSlot) {
+            toSlot = -1;
+        }
+        if (!acquire(fromSlot)) {
+            rejectedAccount.increment();
+            return accountBusy;
+        }
+        if (!acquire(toSlot)) {
+            release(fromSlot);
+            rejectedAccount.increment();
+            return accountBusy;
+        }
+
+        // Queued requests go first
+        int current = inFlight.get();
+        while (queued.get() == 0 && current < limit) {
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return new Ticket(RUNNING, System.nanoTime(), fromSlot, toSlot);
+            }
+            current = inFlight.get();
+        }
+
+        if (!saturated) {
+            saturated = true;
+        }
+        int waiting = queued.incrementAndGet();
+        if (waiting > burst) {
+            queued.decrementAndGet();
+            release(fromSlot);
+            release(toSlot);
+            rejectedOverload.increment();
+            return serverBusy;
+        }
+        if (waiting * latency / limit > budget) {
+            queued.decrementAndGet();
+            release(fromSlot);
+            release(toSlot);
+            rejectedBudget.increment();
+            return serverBusy;
+        }
+
+        Ticket ticket = new Ticket(QUEUED, 0, fromSlot, toSlot);
+        queue.add(ticket);
+        // Requests in flight may have completed before the ticket was queued
+        drain();
+        return ticket;
+    }
+
+    /**
+     * Releases the place of the request, adapts the limit to its latency and runs the next queued one
+     */
+    void complete(Ticket ticket, long now) {
+        int state = STATE.getAndSet(ticket, DONE);
+        if (state == DONE) {
+            return;
+        }
+
+        release(ticket.from);
+        release(ticket.to);
+        if (state == QUEUED) {
+            // The exchange has ended before the request ran
+            queue.remove(ticket);
+            queued.decrementAndGet();
+            return;
+        }
+        inFlight.decrementAndGet();
+        drain();
+
+        long sample = now - ticket.start;
+        latency += (sample - latency) >> 3;
+        if (sample > budget && !overloaded) {
+            overloaded = true;
+        }
+
+        long end = windowEnd.get();
+        if (now - end >= 0 && windowEnd.compareAndSet(end, now + WINDOW_NANOS)) {
+            adapt();
+        }
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    int queued() {
+        return queued.get();
+    }
+
+    /**
+     * @return seconds to wait before a retry, the estimated time to serve queued requests
+     */
+    long retryAfter() {
+        long wait = Math.max(1, queued.get()) * latency / limit;
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+
+    /**
+     * Runs queued requests in order, while requests in flight are under the limit
+     */
+    private void drain() {
+        while (!queue.isEmpty()) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return;
+            }
+            if (!inFlight.compareAndSet(current, current + 1)) {
+                continue;
+            }
+
+            // Tickets, whose exchange has ended, are skipped
+            Ticket next;
+            do {
+                next = queue.poll();
+            } while (next != null && !next.run(System.nanoTime()));
+
+            if (next == null) {
+                inFlight.decrementAndGet();
+            } else {
+                queued.decrementAndGet();
+            }
+        }
+    }
+
+    private void adapt() {
+        int limit = this.limit;
+        if (overloaded) {
+            limit = Math.max(1, limit - Math.max(1, limit / 10));
+        } else if (saturated) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        overloaded = false;
+        saturated = false;
+        this.limit = limit;
+    }
+
+    private boolean acquire(int slot) {
+        if (slot < 0) {
+            return true;
+        }
+        if (accounts.incrementAndGet(slot) > accountLimit) {
+            accounts.decrementAndGet(slot);
+            return false;
+        }
+        return true;
+    }
+
+    private void release(int slot) {
+        if (slot >= 0) {
+            accounts.decrementAndGet(slot);
+        }
+    }
+
+    private void reject(HttpServerExchange exchange, int responseCode, ByteBuffer response) {
+        exchange.setStatusCode(responseCode);
+        exchange.getResponseHeaders().put(Headers.RETRY_AFTER, retryAfter());
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseSender().send(response.duplicate());
+    }
+
+    private static int slot(String id) {
+        if (id == null) {
+            return -1;
+        }
+        int hash = id.hashCode();
+        return (hash ^ hash >>> 16) & (ACCOUNT_SLOTS - 1);
+    }
+
+    private static String parameter(HttpServerExchange exchange, String name) {
+        if (name == null) {
+            return null;
+        }
+        Deque<String> values = exchange.getQueryParameters().get(name);
+        return values == null ? null : values.peekFirst();
+    }
+}
@@ -1,47 +1,325 @@
 package playground.test.revo.core;
 
 import com.google.inject.*;
+import com.google.inject.util.Providers;
 import io.undertow.Handlers;
 import io.undertow.Undertow;
-import io.undertow.server.RoutingHandler;
+import io.undertow.UndertowOptions;
+import io.undertow.server.HttpHandler;
 import io.undertow.server.handlers.PathHandler;
+import org.xnio.Options;
+import playground.test.revo.api.binary.BinaryServer;
 import playground.test.revo.api.v1.ApiV1;
 import playground.test.revo.api.v1.handler.ApiV1Controller;
+import playground.test.revo.data.AccountAggregates;
 import playground.test.revo.data.PrivateAccountDAO;
 import playground.test.revo.data.PublicAccountDAO;
+import playground.test.revo.data.TxJournal;
 import playground.test.revo.data.TxManager;
+import playground.test.revo.data.impl.FileJournal;
+import playground.test.revo.data.impl.FixedPointAccountDAO;
+import playground.test.revo.data.impl.HotAccountDAO;
 import playground.test.revo.data.impl.InMemoryAccountDAO;
+import playground.test.revo.data.impl.MappedAccountDAO;
+import playground.test.revo.data.impl.MvccAccountDAO;
+import playground.test.revo.data.impl.OptimisticTxManager;
+import playground.test.revo.data.impl.ReplicationFollower;
+import playground.test.revo.data.impl.ReplicationLog;
+import playground.test.revo.data.impl.ReplicationPrimary;
+import playground.test.revo.data.impl.ShardedAccountDAO;
+import playground.test.revo.data.impl.ShardedTxManager;
 import playground.test.revo.data.impl.SimpleTxManager;
+import playground.test.revo.data.impl.SnapshotStore;
+import playground.test.revo.data.impl.VersionedAccountDAO;
+import playground.test.revo.metrics.MetricsRegistry;
 import playground.test.revo.util.StringUtils;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 public class ApiServer extends AbstractModule {
 
+    /**
+     * Transaction engine, selected with "revo.engine" system property by default.
+     * SIMPLE, FIXED_POINT and MVCC record transactions to {@link FileJournal} if "revo.journal.dir" is set,
+     * {@link SnapshotStore} writes snapshots to the same directory every "revo.snapshot.period" seconds.
+     * Engines with account locks replicate to followers, see {@link #enableReplication(int)}.
+     */
+    public enum Engine {
+        /**
+         * Account locks + {@link InMemoryAccountDAO}, hot accounts are split by {@link HotAccountDAO}
+         */
+        SIMPLE,
+
+        /**
+         * Account locks + {@link FixedPointAccountDAO}, "revo.scale" system property sets the scale,
+         * hot accounts are split by {@link HotAccountDAO}
+         */
+        FIXED_POINT,
+
+        /**
+         * Account locks + {@link MappedAccountDAO}, see its system properties
+         */
+        MAPPED,
+
+        /**
+         * Account locks + {@link MvccAccountDAO}, balances are versioned, top accounts are read from one snapshot
+         */
+        MVCC,
+
+        /**
+         * Lock-free compare-and-set + {@link VersionedAccountDAO}
+         */
+        OPTIMISTIC,
+
+        /**
+         * Single-writer shard threads + {@link ShardedAccountDAO}, "revo.shards" system property sets shard count
+         */
+        SHARDED;
+
+        public static Engine fromSystemProperty() {
+            String engine = System.getProperty("revo.engine");
+            return StringUtils.isNullOrEmpty(engine) ? SIMPLE : valueOf(engine.toUpperCase());
+        }
+    }
+
+    /**
+     * Threads, which run request handlers, selected with "revo.execution" system property by default
+     */
+    public enum Execution {
+        /**
+         * Handlers run on IO threads, routes which block are dispatched to worker threads
+         */
+        IO,
+
+        /**
+         * Every request is dispatched to worker threads
+         */
+        WORKER,
+
+        /**
+         * Every request runs on its own virtual thread, requires Java 21+ at runtime
+         */
+        VIRTUAL;
+
+        public static Execution fromSystemProperty() {
+            String execution = System.getProperty("revo.execution");
+            return StringUtils.isNullOrEmpty(execution) ? IO : valueOf(execution.toUpperCase());
+        }
+    }
+
+    private static final int DEFAULT_WORKER_QUEUE = 1024;
+
+    private final Engine engine;
+
     private String hostname;
     private int port;
     private String baseApiPath = "";
-    private Map<String, RoutingHandler> apis = new HashMap<>();
+    // Routes are taken at start, once the server is known to be a primary or a follower
+    private Map<String, Supplier<HttpHandler>> apis = new HashMap<>();
+    private String metricsPath;
+    private Execution execution = Execution.fromSystemProperty();
+    private int ioThreads = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+    private int workerThreads = ioThreads * 8;
+    private int workerQueue = DEFAULT_WORKER_QUEUE;
+    private boolean http2 = false;
+    private int maxConcurrentStreams = -1;
+    private boolean pipelining = false;
+    private long idleTimeout = -1;
+    private long noRequestTimeout = -1;
+    private int maxConnections = -1;
+    private int backlog = -1;
+    private int binaryPort = -1;
+    private int replicationPort = -1;
+    private String primaryHostname;
+    private int primaryPort = -1;
+    private long maxReplicationLag = Long.getLong("revo.replication.maxLag", 5000);
 
     @Inject
     private ApiV1 v1;
 
+    @Inject
+    private Provider<BinaryServer> binary;
+
+    @Inject
+    private MetricsRegistry metrics;
+
+    // Replication is bound for some engines only
+    @Inject
+    private Injector injector;
+
     private volatile Undertow undertow = null;
 
+    private volatile ExecutorService workers = null;
+
+    private volatile BinaryServer binaryServer = null;
+
+    private volatile ReplicationPrimary replicationPrimary = null;
+
+    private volatile ReplicationFollower replicationFollower = null;
+
+    private ApiServer(Engine engine) {
+        this.engine = engine;
+    }
+
     @Override
     protected void configure() {
-        bind(InMemoryAccountDAO.class).in(Scopes.SINGLETON);
-        bind(PublicAccountDAO.class).to(InMemoryAccountDAO.class);
-        bind(PrivateAccountDAO.class).to(InMemoryAccountDAO.class);
+        bind(ApiServer.class).toInstance(this);
+        bind(MetricsRegistry.class).in(Scopes.SINGLETON);
+
+        switch (engine) {
+            case FIXED_POINT:
+                bind(FixedPointAccountDAO.class).in(Scopes.SINGLETON);
+                bindHotAccounts(FixedPointAccountDAO.class);
 
-        bind(TxManager.class).to(SimpleTxManager.class).asEagerSingleton();
+                bindJournal();
+                bind(TxManager.class).to(SimpleTxManager.class).asEagerSingleton();
+                break;
+
+            case MAPPED:
+                bind(MappedAccountDAO.class).in(Scopes.SINGLETON);
+                bind(PublicAccountDAO.class).to(MappedAccountDAO.class);
+                bind(PrivateAccountDAO.class).to(MappedAccountDAO.class);
+
+                // Balances are stored in the file already
+                bindReplication(Providers.of(TxJournal.NONE));
+                bind(TxManager.class).to(SimpleTxManager.class).asEagerSingleton();
+                break;
+
+            case MVCC:
+                bind(MvccAccountDAO.class).in(Scopes.SINGLETON);
+                bind(PublicAccountDAO.class).to(MvccAccountDAO.class);
+                bind(PrivateAccountDAO.class).to(MvccAccountDAO.class);
+
+                bindJournal();
+                bind(TxManager.class).to(SimpleTxManager.class).asEagerSingleton();
+                break;
+
+            case OPTIMISTIC:
+                bind(VersionedAccountDAO.class).in(Scopes.SINGLETON);
+                bind(PublicAccountDAO.class).to(VersionedAccountDAO.class);
+                bind(PrivateAccountDAO.class).to(VersionedAccountDAO.class);
+
+                bind(TxManager.class).to(OptimisticTxManager.class).asEagerSingleton();
+                break;
+
+            case SHARDED:
+                bind(ShardedAccountDAO.class).in(Scopes.SINGLETON);
+                bind(PublicAccountDAO.class).to(ShardedAccountDAO.class);
+
+                bind(TxManager.class).to(ShardedTxManager.class).asEagerSingleton();
+                break;
+
+            default:
+                bind(InMemoryAccountDAO.class).in(Scopes.SINGLETON);
+                bindHotAccounts(InMemoryAccountDAO.class);
+
+                bindJournal();
+                bind(TxManager.class).to(SimpleTxManager.class).asEagerSingleton();
+        }
 
         bind(ApiV1Controller.class).in(Scopes.SINGLETON);
+        bind(AdmissionControl.class).in(Scopes.SINGLETON);
+        bind(BinaryServer.class).in(Scopes.SINGLETON);
+    }
+
+    /**
+     * Binds the account store decorated by {@link HotAccountDAO}. Slots live in memory only,
+     * so it is used with stores, whose balances are rebuilt from the journal.
+     */
+    private <T extends PublicAccountDAO & PrivateAccountDAO> void bindHotAccounts(Class<T> accountDAO) {
+        Provider<T> accounts = getProvider(accountDAO);
+        bind(HotAccountDAO.class).toProvider(new Provider<HotAccountDAO>() {
+            @Override
+            public HotAccountDAO get() {
+                return new HotAccountDAO(accounts.get());
+            }
+        }).in(Scopes.SINGLETON);
+
+        bind(PublicAccountDAO.class).to(HotAccountDAO.class);
+        bind(PrivateAccountDAO.class).to(HotAccountDAO.class);
+    }
+
+    private void bindJournal() {
+        if (StringUtils.isNullOrEmpty(System.getProperty("revo.journal.dir"))) {
+            bindReplication(Providers.of(TxJournal.NONE));
+        } else {
+            bind(FileJournal.class).in(Scopes.SINGLETON);
+            bindReplication(getProvider(FileJournal.class));
+            bind(SnapshotStore.class).in(Scopes.SINGLETON);
+        }
+    }
+
+    /**
+     * Binds the journal decorated by {@link ReplicationLog}, which keeps "revo.replication.log" last records
+     * for followers once replication is enabled
+     */
+    private void bindReplication(Provider<? extends TxJournal> journal) {
+        bind(ReplicationLog.class).toProvider(new Provider<ReplicationLog>() {
+            @Override
+            public ReplicationLog get() {
+                return new ReplicationLog(journal.get(), Integer.getInteger("revo.replication.log", 1 << 16));
+            }
+        }).in(Scopes.SINGLETON);
+        bind(TxJournal.class).to(ReplicationLog.class);
+        bind(ReplicationPrimary.class).in(Scopes.SINGLETON);
+
+        // Snapshots and followers read accounts under the locks of the same TX manager
+        bind(SimpleTxManager.class).in(Scopes.SINGLETON);
+    }
+
+    /**
+     * Rebuilds balances from the newest snapshot and the journal before the server accepts transactions
+     */
+    private static void recover(Injector injector) {
+        Binding<TxJournal> binding = injector.getExistingBinding(Key.get(TxJournal.class));
+        TxJournal journal = binding == null ? TxJournal.NONE : binding.getProvider().get();
+        if (journal instanceof ReplicationLog) {
+            journal = ((ReplicationLog) journal).journal();
+        }
+        if (!(journal instanceof FileJournal)) {
+            return;
+        }
+
+        try {
+            SnapshotStore snapshots = injector.getInstance(SnapshotStore.class);
+            snapshots.recover(injector.getInstance(PrivateAccountDAO.class));
+            snapshots.start();
+
+            // Balances have been recovered bypassing the TX manager
+            AccountAggregates aggregates = injector.getInstance(TxManager.class).aggregates();
+            if (aggregates != null) {
+                aggregates.rebuild();
+            }
+
+            FileJournal fileJournal = (FileJournal) journal;
+            MetricsRegistry metrics = injector.getInstance(MetricsRegistry.class);
+            metrics.histogram("revo_journal_batch_size", "Records per journal write", 1, fileJournal.batchSizes());
+            metrics.histogram("revo_journal_fsync_seconds", "Journal fsync time", 1e6, fileJournal.fsyncLatency());
+            metrics.gauge("revo_journal_deferred_records", "Records deferred, while the journal queue was full",
+                    fileJournal::deferred);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not recover balances", e);
+        }
     }
 
     public static ApiServer server() {
-        Injector injector = Guice.createInjector(new ApiServer());
+        return server(Engine.fromSystemProperty());
+    }
+
+    public static ApiServer server(Engine engine) {
+        Injector injector = Guice.createInjector(new ApiServer(engine));
+        recover(injector);
         return injector.getInstance(ApiServer.class);
     }
 
@@ -52,7 +330,9 @@ public class ApiServer extends AbstractModule {
     }
 
     public ApiServer enableApiV1(final String path) {
-        this.apis.put(path, v1.routes());
+        this.apis.put(path, () -> replicationFollower == null
+                ? v1.routes()
+                : FollowerHandler.build(v1.readOnlyRoutes(), replicationFollower, maxReplicationLag));
         return this;
     }
 
@@ -61,32 +341,341 @@ public class ApiServer extends AbstractModule {
         return this;
     }
 
+    /**
+     * Serves metrics in Prometheus text format at the path, outside of the base API path
+     */
+    public ApiServer enableMetrics(final String path) {
+        this.metricsPath = path;
+        return this;
+    }
+
+    public ApiServer execution(final Execution execution) {
+        this.execution = execution;
+        return this;
+    }
+
+    /**
+     * @param ioThreads number of non-blocking IO threads, which accept requests and run IO mode handlers
+     */
+    public ApiServer ioThreads(final int ioThreads) {
+        if (ioThreads <= 0) {
+            throw new IllegalArgumentException("Incorrect number of IO threads: " + ioThreads);
+        }
+        this.ioThreads = ioThreads;
+        return this;
+    }
+
+    /**
+     * @param workerThreads number of threads, which run dispatched requests in IO and WORKER modes
+     */
+    public ApiServer workerThreads(final int workerThreads) {
+        if (workerThreads <= 0) {
+            throw new IllegalArgumentException("Incorrect number of worker threads: " + workerThreads);
+        }
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    /**
+     * @param workerQueue max number of dispatched requests waiting for a worker thread, the rest get 503
+     */
+    public ApiServer workerQueue(final int workerQueue) {
+        if (workerQueue <= 0) {
+            throw new IllegalArgumentException("Incorrect worker queue size: " + workerQueue);
+        }
+        this.workerQueue = workerQueue;
+        return this;
+    }
+
+    /**
+     * Accepts HTTP/2 over cleartext (h2c) on the same port, both with prior knowledge and by upgrade
+     * from HTTP/1.1, so a client multiplexes concurrent requests over few connections
+     */
+    public ApiServer enableHttp2() {
+        this.http2 = true;
+        return this;
+    }
+
+    /**
+     * @param maxConcurrentStreams max requests in flight per HTTP/2 connection, advertised to clients
+     */
+    public ApiServer maxConcurrentStreams(final int maxConcurrentStreams) {
+        if (maxConcurrentStreams <= 0) {
+            throw new IllegalArgumentException("Incorrect number of concurrent streams: " + maxConcurrentStreams);
+        }
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        return this;
+    }
+
+    /**
+     * Pipelined HTTP/1.1 requests are always served in order; with this the responses are buffered
+     * and written together, one write per batch of requests read at once instead of one per request
+     */
+    public ApiServer enablePipelining() {
+        this.pipelining = true;
+        return this;
+    }
+
+    /**
+     * @param idleTimeout ms a connection may stay without reads and writes, e.g. a stalled client,
+     *                    before it is closed
+     */
+    public ApiServer idleTimeout(final long idleTimeout) {
+        if (idleTimeout <= 0) {
+            throw new IllegalArgumentException("Incorrect idle timeout: " + idleTimeout);
+        }
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    /**
+     * @param noRequestTimeout ms a kept-alive connection may wait for the next request before it is closed
+     */
+    public ApiServer noRequestTimeout(final long noRequestTimeout) {
+        if (noRequestTimeout <= 0) {
+            throw new IllegalArgumentException("Incorrect no request timeout: " + noRequestTimeout);
+        }
+        this.noRequestTimeout = noRequestTimeout;
+        return this;
+    }
+
+    /**
+     * @param maxConnections open connections, over which new ones are not accepted until some are closed
+     */
+    public ApiServer maxConnections(final int maxConnections) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("Incorrect number of connections: " + maxConnections);
+        }
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * @param backlog connections waiting to be accepted
+     */
+    public ApiServer backlog(final int backlog) {
+        if (backlog <= 0) {
+            throw new IllegalArgumentException("Incorrect backlog: " + backlog);
+        }
+        this.backlog = backlog;
+        return this;
+    }
+
+    /**
+     * Starts {@link BinaryServer} on the port of the same host alongside HTTP, with as many event loops
+     * as IO threads
+     *
+     * @param port 0 to bind any free port, see {@link #binaryPort()}
+     */
+    public ApiServer enableBinary(final int port) {
+        if (port < 0 || port > 0xFFFF) {
+            throw new IllegalArgumentException("Incorrect binary port: " + port);
+        }
+        this.binaryPort = port;
+        return this;
+    }
+
+    /**
+     * @return port of the started binary listener, -1 if it is not enabled
+     */
+    public int binaryPort() {
+        return binaryServer == null ? -1 : binaryServer.port();
+    }
+
+    /**
+     * Streams committed transactions to followers, see {@link ReplicationPrimary}. Engines with account
+     * locks only: snapshots for followers read accounts under the locks.
+     *
+     * @param port 0 to bind any free port, see {@link #replicationPort()}
+     */
+    public ApiServer enableReplication(final int port) {
+        if (port < 0 || port > 0xFFFF) {
+            throw new IllegalArgumentException("Incorrect replication port: " + port);
+        }
+        if (engine == Engine.OPTIMISTIC || engine == Engine.SHARDED) {
+            throw new IllegalStateException("Replication is not supported by " + engine + " engine");
+        }
+        this.replicationPort = port;
+        return this;
+    }
+
+    /**
+     * @return port of the started replication listener, -1 if it is not enabled
+     */
+    public int replicationPort() {
+        return replicationPrimary == null ? -1 : replicationPrimary.port();
+    }
+
+    /**
+     * Makes the server a read-only follower of the primary, see {@link ReplicationFollower}. The API serves
+     * accounts and balances, while the lag is at most "revo.replication.maxLag" ms, writes are rejected.
+     * The account store should be empty, it is updated by the primary only; with MAPPED engine
+     * the follower needs its own file, the file of the primary is refused.
+     */
+    public ApiServer follow(final String hostname, final int port) {
+        if (port <= 0 || port > 0xFFFF) {
+            throw new IllegalArgumentException("Incorrect primary port: " + port);
+        }
+        if (engine == Engine.SHARDED) {
+            throw new IllegalStateException("Replication is not supported by " + engine + " engine");
+        }
+        this.primaryHostname = hostname;
+        this.primaryPort = port;
+        return this;
+    }
+
+    /**
+     * @param maxReplicationLag ms a follower may lag behind the primary before it stops serving reads
+     */
+    public ApiServer maxReplicationLag(final long maxReplicationLag) {
+        if (maxReplicationLag <= 0) {
+            throw new IllegalArgumentException("Incorrect replication lag: " + maxReplicationLag);
+        }
+        this.maxReplicationLag = maxReplicationLag;
+        return this;
+    }
+
+    /**
+     * @return follower of the primary, null if the server is not one
+     */
+    public ReplicationFollower follower() {
+        return replicationFollower;
+    }
+
     private PathHandler routes() {
         PathHandler rootApi = Handlers.path();
 
         apis.forEach((prefix, handler) ->
-                rootApi.addPrefixPath(prefix, Handlers.disableCache(handler)));
+                rootApi.addPrefixPath(prefix, Handlers.disableCache(handler.get())));
 
-        if (StringUtils.isNullOrEmpty(baseApiPath)) {
-            return rootApi;
+        PathHandler root = StringUtils.isNullOrEmpty(baseApiPath)
+                ? rootApi
+                : Handlers.path().addPrefixPath(baseApiPath, rootApi);
+
+        if (metricsPath != null) {
+            root.addExactPath(metricsPath, Handlers.disableCache(MetricsHandler.export(metrics)));
         }
+        return root;
+    }
+
+    private DispatchHandler dispatch(PathHandler routes) {
+        if (execution == Execution.VIRTUAL) {
+            workers = virtualThreadExecutor();
+            return DispatchHandler.build(routes, workers, null, true);
+        }
+
+        AtomicInteger index = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workerQueue), task -> {
+            Thread thread = new Thread(task, "http-worker-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        workers = pool;
+        return DispatchHandler.build(routes, pool, pool.getQueue(), execution == Execution.WORKER);
+    }
 
-        return Handlers.path()
-                .addPrefixPath(baseApiPath, rootApi);
+    /**
+     * The build targets Java 8, so the Java 21 API is looked up at runtime
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Virtual threads require Java 21+, running on " +
+                    System.getProperty("java.version"), e);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Can not create virtual thread executor", e);
+        }
     }
 
     public void start() {
-        undertow = Undertow.builder()
+        if (replicationPort >= 0 && primaryPort > 0) {
+            throw new IllegalStateException("Follower can not be a primary");
+        }
+        if (engine == Engine.MAPPED && (replicationPort >= 0 || primaryPort > 0)
+                && !injector.getInstance(MappedAccountDAO.class).claimReplica()) {
+            throw new IllegalStateException("Account file is replicated by another server already, " +
+                    "a follower needs its own revo.data.file");
+        }
+        if (primaryPort > 0) {
+            replicationFollower = new ReplicationFollower(primaryHostname, primaryPort,
+                    injector.getInstance(PrivateAccountDAO.class), injector.getInstance(PublicAccountDAO.class),
+                    metrics);
+            replicationFollower.start();
+        }
+
+        Undertow.Builder builder = Undertow.builder()
                 .addHttpListener(port, hostname)
-                .setHandler(ErrorHandler.build(routes()))
-                .build();
+                .setIoThreads(ioThreads)
+                .setServerOption(UndertowOptions.RECORD_REQUEST_START_TIME, true)
+                .setServerOption(UndertowOptions.ENABLE_HTTP2, http2)
+                .setServerOption(UndertowOptions.BUFFER_PIPELINED_DATA, pipelining)
+                .setHandler(ErrorHandler.build(MetricsHandler.build(dispatch(routes()), metrics)));
+
+        // Undertow defaults are kept unless set
+        if (maxConcurrentStreams > 0) {
+            builder.setServerOption(UndertowOptions.HTTP2_SETTINGS_MAX_CONCURRENT_STREAMS, maxConcurrentStreams);
+        }
+        if (idleTimeout > 0) {
+            builder.setServerOption(UndertowOptions.IDLE_TIMEOUT, (int) Math.min(idleTimeout, Integer.MAX_VALUE));
+        }
+        if (noRequestTimeout > 0) {
+            builder.setServerOption(UndertowOptions.NO_REQUEST_TIMEOUT, (int) Math.min(noRequestTimeout, Integer.MAX_VALUE));
+        }
+        if (maxConnections > 0) {
+            builder.setSocketOption(Options.CONNECTION_HIGH_WATER, maxConnections)
+                    .setSocketOption(Options.CONNECTION_LOW_WATER, maxConnections);
+        }
+        if (backlog > 0) {
+            builder.setSocketOption(Options.BACKLOG, backlog);
+        }
 
+        undertow = builder.build();
         undertow.start();
+
+        if (binaryPort >= 0) {
+            try {
+                BinaryServer server = binary.get();
+                server.start(hostname, binaryPort, ioThreads);
+                binaryServer = server;
+            } catch (IOException e) {
+                undertow.stop();
+                throw new UncheckedIOException("Can not start binary listener", e);
+            }
+        }
+
+        if (replicationPort >= 0) {
+            try {
+                ReplicationPrimary primary = injector.getInstance(ReplicationPrimary.class);
+                primary.start(hostname, replicationPort);
+                replicationPrimary = primary;
+            } catch (IOException e) {
+                stop();
+                throw new UncheckedIOException("Can not start replication listener", e);
+            }
+        }
     }
 
     public void stop() {
+        if (replicationPrimary != null) {
+            replicationPrimary.close();
+        }
+
+        if (replicationFollower != null) {
+            replicationFollower.close();
+        }
+
+        if (binaryServer != null) {
+            binaryServer.close();
+        }
+
         if (undertow != null) {
             undertow.stop();
         }
+
+        if (workers != null) {
+            workers.shutdown();
+        }
     }
 }
@@ -0,0 +1,58 @@
+package playground.test.revo.core;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.StatusCodes;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs requests according to {@link ApiServer.Execution}.
+ *
+ * The executor is set as the dispatch executor of every exchange, so routes, which block,
+ * are moved off the IO thread with exchange.dispatch(handler). In WORKER and VIRTUAL modes
+ * every request is dispatched right away. A request, which finds the worker queue full,
+ * is answered with 503 instead of being queued.
+ */
+public class DispatchHandler implements HttpHandler {
+
+    private final HttpHandler next;
+
+    private final Executor executor;
+
+    private final BlockingQueue<?> queue;
+
+    private final boolean dispatchAll;
+
+    private DispatchHandler(HttpHandler next, Executor executor, BlockingQueue<?> queue, boolean dispatchAll) {
+        this.next = next;
+        this.executor = executor;
+        this.queue = queue;
+        this.dispatchAll = dispatchAll;
+    }
+
+    /**
+     * @param queue queue of the executor, null if it is unbounded
+     */
+    static DispatchHandler build(HttpHandler next, Executor executor, BlockingQueue<?> queue, boolean dispatchAll) {
+        return new DispatchHandler(next, executor, queue, dispatchAll);
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        if (!dispatchAll || !exchange.isInIoThread()) {
+            exchange.setDispatchExecutor(executor);
+            next.handleRequest(exchange);
+            return;
+        }
+
+        if (queue != null && queue.remainingCapacity() == 0) {
+            exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+            exchange.endExchange();
+            return;
+        }
+
+        exchange.dispatch(executor, next);
+    }
+}
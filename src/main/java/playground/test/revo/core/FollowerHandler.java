@@ -0,0 +1,61 @@
+package playground.test.revo.core;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.StatusCodes;
+import playground.test.revo.api.v1.dto.ErrorDTO;
+import playground.test.revo.api.v1.handler.JsonEncoder;
+import playground.test.revo.data.impl.ReplicationFollower;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serves requests of a follower while its lag is bounded: every response carries Replication-Lag
+ * with the lag in ms, a follower, which is not ready or lags more than the limit, answers 503
+ * with Retry-After, so clients go to another replica or the primary.
+ */
+public class FollowerHandler implements HttpHandler {
+
+    static final HttpString REPLICATION_LAG = new HttpString("Replication-Lag");
+
+    private static final ByteBuffer BEHIND = JsonEncoder.encode(ErrorDTO.builder()
+            .responseCode(StatusCodes.SERVICE_UNAVAILABLE)
+            .cause("Follower is behind the primary, retry later")
+            .build());
+
+    private final HttpHandler next;
+
+    private final ReplicationFollower follower;
+
+    private final long maxLag;
+
+    private FollowerHandler(HttpHandler next, ReplicationFollower follower, long maxLag) {
+        this.next = next;
+        this.follower = follower;
+        this.maxLag = maxLag;
+    }
+
+    /**
+     * @param maxLag ms
+     */
+    static FollowerHandler build(HttpHandler next, ReplicationFollower follower, long maxLag) {
+        return new FollowerHandler(next, follower, maxLag);
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        long lag = follower.lagMillis();
+        if (lag > maxLag) {
+            exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+            exchange.getResponseHeaders().put(Headers.RETRY_AFTER, 1);
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+            exchange.getResponseSender().send(BEHIND.duplicate());
+            return;
+        }
+
+        exchange.getResponseHeaders().put(REPLICATION_LAG, lag);
+        next.handleRequest(exchange);
+    }
+}
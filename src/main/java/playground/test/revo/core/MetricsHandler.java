@@ -0,0 +1,109 @@
+package playground.test.revo.core;
+
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.PathTemplateMatch;
+import playground.test.revo.metrics.MetricsRegistry;
+import playground.test.revo.util.Histogram;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records in-flight requests and per-route latency, from request start till the exchange completes.
+ *
+ * Routes are labelled with the matched path template, e.g. "/accounts/{id}", so ids do not
+ * create new series. Requests, which matched no route, share one series whatever the method is.
+ *
+ * The start time is recorded by Undertow (RECORD_REQUEST_START_TIME option) and the completion
+ * listener is shared, so a request allocates nothing here.
+ */
+public class MetricsHandler implements HttpHandler {
+
+    private final HttpHandler next;
+
+    private final MetricsRegistry metrics;
+
+    private final LongAdder inFlight = new LongAdder();
+
+    private final ConcurrentMap<HttpString, ConcurrentMap<String, Histogram>> latency = new ConcurrentHashMap<>();
+
+    private final Histogram unmatched;
+
+    private final ExchangeCompletionListener completion = this::complete;
+
+    private MetricsHandler(HttpHandler next, MetricsRegistry metrics) {
+        this.next = next;
+        this.metrics = metrics;
+
+        metrics.gauge("revo_http_requests_in_flight", "HTTP requests being processed", inFlight::sum);
+        this.unmatched = histogram("*", "unmatched");
+    }
+
+    static MetricsHandler build(HttpHandler next, MetricsRegistry metrics) {
+        return new MetricsHandler(next, metrics);
+    }
+
+    /**
+     * @return handler, which sends all metrics of the registry in Prometheus text format
+     */
+    static HttpHandler export(MetricsRegistry metrics) {
+        return exchange -> {
+            StringBuilder out = new StringBuilder(8192);
+            metrics.write(out);
+
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, MetricsRegistry.CONTENT_TYPE);
+            exchange.getResponseSender().send(out.toString());
+        };
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        inFlight.increment();
+        exchange.addExchangeCompleteListener(completion);
+        next.handleRequest(exchange);
+    }
+
+    private void complete(HttpServerExchange exchange, ExchangeCompletionListener.NextListener nextListener) {
+        try {
+            inFlight.decrement();
+
+            long start = exchange.getRequestStartTime();
+            if (start > 0) {
+                route(exchange).record(System.nanoTime() - start);
+            }
+        } finally {
+            nextListener.proceed();
+        }
+    }
+
+    private Histogram route(HttpServerExchange exchange) {
+        PathTemplateMatch match = exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY);
+        if (match == null) {
+            return unmatched;
+        }
+
+        String template = match.getMatchedTemplate();
+        HttpString method = exchange.getRequestMethod();
+
+        ConcurrentMap<String, Histogram> routes = latency.get(method);
+        if (routes == null) {
+            routes = latency.computeIfAbsent(method, key -> new ConcurrentHashMap<>());
+        }
+
+        Histogram histogram = routes.get(template);
+        if (histogram == null) {
+            histogram = routes.computeIfAbsent(template, key -> histogram(method.toString(), key));
+        }
+        return histogram;
+    }
+
+    private Histogram histogram(String method, String route) {
+        return metrics.histogram("revo_http_request_duration_seconds", "HTTP request latency by route", 1e9,
+                "method", method, "route", route);
+    }
+}
@@ -0,0 +1,347 @@
+package playground.test.revo.data;
+
+import java.math.BigDecimal;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates of all accounts, maintained by a TX manager as it commits transactions, so they are
+ * read without iterating accounts: the total of balances, the number of accounts and the accounts
+ * with the largest balances.
+ *
+ * Top accounts are a bounded ordered set of twice the size asked for, every account outside of it
+ * has no more than its smallest balance. A balance at or below it is skipped without a lock, so
+ * updates of ordinary accounts do not contend. An account, which falls below the set, leaves it;
+ * once the set is smaller than the size asked for, it is refilled from the store on the next read.
+ * The store is read without the lock, accounts updated meanwhile are only recorded, and read again
+ * once the refilled set is swapped in.
+ * Credits of a hot account, which run in parallel, only mark it to be read again on the next read.
+ *
+ * Every transfer is checked to keep the sum of balances of its accounts, a mismatch is counted
+ * as a violation. The check costs a balance read per account before and after the transfer.
+ */
+public class AccountAggregates {
+
+    private static final Comparator<Map.Entry<String, BigDecimal>> LARGEST_FIRST =
+            Comparator.<Map.Entry<String, BigDecimal>, BigDecimal>comparing(Map.Entry::getValue)
+                    .reversed()
+                    .thenComparing(Map.Entry::getKey);
+
+    private final PublicAccountDAO accounts;
+
+    private final int top;
+
+    private final int capacity;
+
+    private final AtomicReference<BigDecimal> total = new AtomicReference<>(BigDecimal.ZERO);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final LongAdder violations;
+
+    // Guarded by this, members are read without the lock
+    private final TreeSet<Map.Entry<String, BigDecimal>> largest = new TreeSet<>(LARGEST_FIRST);
+
+    private final Map<String, Map.Entry<String, BigDecimal>> members = new ConcurrentHashMap<>();
+
+    // Members credited in parallel, to be read again
+    private final Set<String> credited = ConcurrentHashMap.newKeySet();
+
+    // Accounts updated while the set is refilled, to be read again; guarded by this
+    private final Set<String> touched = new HashSet<>();
+
+    // Refills read the store one at a time, without the lock of the set
+    private final Object refills = new Object();
+
+    // If the set is being refilled, guarded by this
+    private boolean refilling;
+
+    // If every account is in the set
+    private boolean complete = true;
+
+    // Smallest balance of the set, null while every balance is taken
+    private volatile BigDecimal floor;
+
+    /**
+     * @param top        top accounts to keep
+     * @param violations counter of transfers, which have changed the sum of balances
+     */
+    public AccountAggregates(PublicAccountDAO accounts, int top, LongAdder violations) {
+        if (top <= 0) {
+            throw new IllegalArgumentException("Top size should be positive: " + top);
+        }
+        this.accounts = accounts;
+        this.top = top;
+        this.capacity = 2 * top;
+        this.violations = violations;
+    }
+
+    public BigDecimal total() {
+        return total.get();
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long violations() {
+        return violations.sum();
+    }
+
+    /**
+     * @return top accounts kept at most
+     */
+    public int topSize() {
+        return top;
+    }
+
+    /**
+     * @param limit 1 to {@link #topSize()}
+     * @return account id to balance, largest first
+     */
+    public List<Map.Entry<String, BigDecimal>> top(int limit) {
+        if (limit <= 0 || limit > top) {
+            throw new IllegalArgumentException("Limit should be 1 to " + top + ": " + limit);
+        }
+        synchronized (this) {
+            repositionCredited();
+            if (complete || largest.size() >= top) {
+                return first(limit);
+            }
+        }
+
+        refill();
+        synchronized (this) {
+            repositionCredited();
+            return first(limit);
+        }
+    }
+
+    private List<Map.Entry<String, BigDecimal>> first(int limit) {
+        List<Map.Entry<String, BigDecimal>> result = new ArrayList<>(Math.min(limit, largest.size()));
+        Iterator<Map.Entry<String, BigDecimal>> entries = largest.iterator();
+        while (result.size() < limit && entries.hasNext()) {
+            result.add(entries.next());
+        }
+        return result;
+    }
+
+    private void repositionCredited() {
+        for (String id : credited) {
+            credited.remove(id);
+            reposition(id);
+        }
+    }
+
+    /**
+     * Recounts everything from the store, e.g. after balances are recovered bypassing the TX manager
+     *
+     * @implNote call while no transactions run
+     */
+    public void rebuild() {
+        BigDecimal sum = BigDecimal.ZERO;
+        long accounts = 0;
+        for (String id : this.accounts.allAccounts()) {
+            BigDecimal balance = this.accounts.balance(id);
+            if (balance != null) {
+                sum = sum.add(balance);
+                accounts++;
+            }
+        }
+        total.set(sum);
+        count.set(accounts);
+        credited.clear();
+        refill();
+    }
+
+    /**
+     * @return sum of balances of the accounts, read before a transfer
+     *
+     * @implNote call under TX manager only, while the accounts are locked
+     */
+    public BigDecimal balances(Collection<String> ids) {
+        BigDecimal sum = BigDecimal.ZERO;
+        for (String id : ids) {
+            sum = sum.add(accounts.balance(id));
+        }
+        return sum;
+    }
+
+    public BigDecimal balances(String from, String to) {
+        return accounts.balance(from).add(accounts.balance(to));
+    }
+
+    /**
+     * Checks the sum of balances of the accounts and updates top accounts
+     *
+     * @param before sum of balances before the transfer, null to skip the check, e.g. if a balance
+     *               may be changed by other transactions meanwhile
+     * @implNote call under TX manager only, while the accounts are locked
+     */
+    public void transferred(Collection<String> ids, BigDecimal before) {
+        BigDecimal after = BigDecimal.ZERO;
+        for (String id : ids) {
+            BigDecimal balance = accounts.balance(id);
+            after = after.add(balance);
+            update(id, balance);
+        }
+        check(before, after);
+    }
+
+    public void transferred(String from, String to, BigDecimal before) {
+        BigDecimal fromBalance = accounts.balance(from);
+        BigDecimal toBalance = accounts.balance(to);
+        update(from, fromBalance);
+        update(to, toBalance);
+        check(before, fromBalance.add(toBalance));
+    }
+
+    /**
+     * Counts the money and the account, top accounts are updated separately
+     *
+     * @param created if the account has been created by the deposit
+     */
+    public void deposited(BigDecimal amount, boolean created) {
+        total.accumulateAndGet(amount, BigDecimal::add);
+        if (created) {
+            count.incrementAndGet();
+        }
+    }
+
+    /**
+     * Updates top accounts with the balance of the account
+     *
+     * @implNote call under TX manager only, while the account is locked
+     */
+    public void updated(String id) {
+        update(id, accounts.balance(id));
+    }
+
+    /**
+     * Updates top accounts after a credit, which runs in parallel with other credits of the account
+     */
+    public void credited(String id) {
+        if (members.containsKey(id)) {
+            credited.add(id);
+        } else {
+            update(id, accounts.balance(id));
+        }
+    }
+
+    private void check(BigDecimal before, BigDecimal after) {
+        if (before != null && before.compareTo(after) != 0) {
+            violations.increment();
+        }
+    }
+
+    /**
+     * @param balance balance read after the update, it is read again under the lock
+     */
+    private void update(String id, BigDecimal balance) {
+        // Most accounts are below the top
+        BigDecimal floor = this.floor;
+        if (floor != null && balance != null && balance.compareTo(floor) <= 0 && !members.containsKey(id)) {
+            return;
+        }
+
+        synchronized (this) {
+            reposition(id);
+        }
+    }
+
+    /**
+     * Reads the balance again, so the last update of an account is never overwritten by an earlier one
+     */
+    private void reposition(String id) {
+        if (refilling) {
+            touched.add(id);
+            return;
+        }
+
+        Map.Entry<String, BigDecimal> entry = members.remove(id);
+        if (entry != null) {
+            largest.remove(entry);
+        }
+
+        BigDecimal balance = accounts.balance(id);
+        // An account, which falls below the set, leaves it: other accounts may be larger
+        if (balance != null && (complete || largest.isEmpty() || balance.compareTo(largest.last().getValue()) >= 0)) {
+            add(id, balance);
+        }
+        updateFloor();
+    }
+
+    private void add(String id, BigDecimal balance) {
+        Map.Entry<String, BigDecimal> entry = new AbstractMap.SimpleImmutableEntry<>(id, balance);
+        largest.add(entry);
+        members.put(id, entry);
+
+        if (largest.size() > capacity) {
+            members.remove(largest.pollLast().getKey());
+            complete = false;
+        }
+    }
+
+    private void updateFloor() {
+        floor = complete || largest.isEmpty() ? null : largest.last().getValue();
+    }
+
+    /**
+     * Reads top accounts from the store without the lock, then swaps them in and reads again
+     * the accounts updated meanwhile
+     */
+    private void refill() {
+        synchronized (refills) {
+            synchronized (this) {
+                // Every update takes the lock and is recorded until the swap
+                refilling = true;
+                floor = null;
+            }
+
+            TreeSet<Map.Entry<String, BigDecimal>> read = new TreeSet<>(LARGEST_FIRST);
+            long existing = 0;
+            for (String id : accounts.allAccounts()) {
+                BigDecimal balance = accounts.balance(id);
+                if (balance == null) {
+                    continue;
+                }
+                existing++;
+                if (read.size() < capacity || balance.compareTo(read.last().getValue()) > 0) {
+                    read.add(new AbstractMap.SimpleImmutableEntry<>(id, balance));
+                    if (read.size() > capacity) {
+                        read.pollLast();
+                    }
+                }
+            }
+
+            synchronized (this) {
+                largest.clear();
+                members.clear();
+                for (Map.Entry<String, BigDecimal> entry : read) {
+                    largest.add(entry);
+                    members.put(entry.getKey(), entry);
+                }
+                complete = read.size() == existing;
+                refilling = false;
+
+                for (String id : touched) {
+                    reposition(id);
+                }
+                touched.clear();
+                updateFloor();
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package playground.test.revo.data;
+
+import java.math.BigDecimal;
+
+/**
+ * Consistent view of balances at one commit sequence: however many accounts are read,
+ * every transaction committed up to the sequence is seen completely and later ones are not seen at all.
+ * Balances of the sequence are kept until the snapshot is closed.
+ */
+public interface AccountSnapshot extends AutoCloseable {
+
+    /**
+     * @return sequence of the last transaction seen
+     */
+    long sequence();
+
+    /**
+     * @param id account id
+     * @return balance at the sequence, null if the account did not exist then
+     */
+    BigDecimal balance(String id);
+
+    /**
+     * Releases balances kept for the snapshot, it is not read afterwards
+     */
+    @Override
+    void close();
+}
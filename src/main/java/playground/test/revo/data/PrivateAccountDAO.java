@@ -36,6 +36,24 @@ public interface PrivateAccountDAO {
      */
     BigDecimal createAndDeposit(String id, BigDecimal amount);
 
+    /**
+     * Moves money between existing accounts, without reading the new balances
+     *
+     * @param from account id to reduce
+     * @param to account id to deposit to
+     * @param amount amount to move
+     * @return false if current balance of "from" is less than specified amount
+     *
+     * @implNote call under TX manager only
+     */
+    default boolean transfer(String from, String to, BigDecimal amount) {
+        if (reduce(from, amount) == null) {
+            return false;
+        }
+        deposit(to, amount);
+        return true;
+    }
+
     /**
      * Returns TRUE if account is available
      *
@@ -43,4 +61,14 @@ public interface PrivateAccountDAO {
      * @return if account is available
      */
     boolean exists(String id);
+
+    /**
+     * Returns FALSE if amount can not be stored, e.g. it is more precise than the storage allows
+     *
+     * @param amount amount to check
+     * @return if amount is acceptable
+     */
+    default boolean isValidAmount(BigDecimal amount) {
+        return true;
+    }
 }
@@ -2,6 +2,7 @@ package playground.test.revo.data;
 
 import java.math.BigDecimal;
 import java.util.Collection;
+import java.util.Iterator;
 
 public interface PublicAccountDAO {
     /**
@@ -11,6 +12,16 @@ public interface PublicAccountDAO {
      */
     Collection<String> allAccounts();
 
+    /**
+     * Iterate accounts in a stable order, which is not changed by new accounts, so iteration
+     * may be resumed from any account already returned
+     *
+     * @param after account id to start after, null to start from the beginning
+     * @return weakly consistent iterator, accounts added meanwhile may be missed
+     * @throws IllegalArgumentException if the order is not defined for the unknown account
+     */
+    Iterator<String> accounts(String after);
+
     /**
      * Get balance of specific account
      *
@@ -18,4 +29,13 @@ public interface PublicAccountDAO {
      * @return balance
      */
     BigDecimal balance(String id);
+
+    /**
+     * Open a consistent view of balances, see {@link AccountSnapshot}
+     *
+     * @return snapshot to close after reading, null if balances are not versioned
+     */
+    default AccountSnapshot snapshot() {
+        return null;
+    }
 }
@@ -0,0 +1,83 @@
+package playground.test.revo.data;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Log of committed transactions
+ */
+public interface TxJournal {
+
+    /**
+     * Journal which does not record anything, every record is durable immediately
+     */
+    TxJournal NONE = new TxJournal() {
+        @Override
+        public void transfer(String from, String to, BigDecimal amount, CompletableFuture<Long> durable) {
+            durable.complete(0L);
+        }
+
+        @Override
+        public void transfer(Map<String, BigDecimal> legs, CompletableFuture<Long> durable) {
+            durable.complete(0L);
+        }
+
+        @Override
+        public void deposit(String id, BigDecimal amount, CompletableFuture<Long> durable) {
+            durable.complete(0L);
+        }
+    };
+
+    /**
+     * Checks, that a transfer or deposit record can be stored, before the balances are changed,
+     * so a failed or closed journal never lets the balances get ahead of it
+     *
+     * @param from null for a deposit
+     *
+     * @implNote call under TX manager only, while the accounts are locked
+     */
+    default boolean accepts(String from, String to, BigDecimal amount) {
+        return true;
+    }
+
+    /**
+     * Checks, that a multi-leg record can be stored, before the balances are changed
+     *
+     * @implNote call under TX manager only, while all accounts are locked
+     */
+    default boolean accepts(Map<String, BigDecimal> legs) {
+        return true;
+    }
+
+    /**
+     * Records committed transfer
+     *
+     * @param durable completed with record sequence number when the record is durable,
+     *                completed exceptionally if it can not be stored
+     *
+     * @implNote call under TX manager only, while both accounts are locked
+     */
+    void transfer(String from, String to, BigDecimal amount, CompletableFuture<Long> durable);
+
+    /**
+     * Records committed multi-leg transaction as one record, so it is never replayed partially
+     *
+     * @param legs    account id to amount, negative for a debit
+     * @param durable completed with record sequence number when the record is durable,
+     *                completed exceptionally if it can not be stored
+     *
+     * @implNote call under TX manager only, while all accounts are locked
+     */
+    void transfer(Map<String, BigDecimal> legs, CompletableFuture<Long> durable);
+
+    /**
+     * Records committed deposit
+     *
+     * @param durable completed with record sequence number when the record is durable,
+     *                completed exceptionally if it can not be stored
+     *
+     * @implNote call under TX manager only, while the account is locked
+     */
+    void deposit(String id, BigDecimal amount, CompletableFuture<Long> durable);
+}
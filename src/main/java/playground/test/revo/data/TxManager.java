@@ -1,6 +1,8 @@
 package playground.test.revo.data;
 
 import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface TxManager {
     enum TxResult {
@@ -18,6 +20,16 @@ public interface TxManager {
 
     TxResult transfer(String from, String to, BigDecimal amount);
 
+    /**
+     * Applies all legs of a multi-leg transaction or none of them.
+     * Debit accounts are checked with ERROR_FROM_NOT_FOUND, credit ones with ERROR_TO_NOT_FOUND.
+     * ERROR_INCORRECT_AMOUNT is returned if debits and credits do not match or there are no debits.
+     *
+     * @param legs account id to amount, negative for a debit and positive for a credit,
+     *             must not be changed until the call returns
+     */
+    TxResult transfer(Map<String, BigDecimal> legs);
+
     /**
      * Result of the account deposit
      */
@@ -37,4 +49,35 @@ public interface TxManager {
      * @param amount amount of money to deposit
      */
     DepositResult deposit(String id, BigDecimal amount);
+
+    /**
+     * The same as {@link #transfer}, but the caller is not blocked while the transaction waits
+     * for locks. By default, the transfer is made synchronously by the calling thread.
+     */
+    default CompletableFuture<TxResult> transferAsync(String from, String to, BigDecimal amount) {
+        return CompletableFuture.completedFuture(transfer(from, to, amount));
+    }
+
+    /**
+     * The same as {@link #transfer(Map)}, but the caller is not blocked while the transaction waits
+     * for locks. By default, the transaction is made synchronously by the calling thread.
+     */
+    default CompletableFuture<TxResult> transferAsync(Map<String, BigDecimal> legs) {
+        return CompletableFuture.completedFuture(transfer(legs));
+    }
+
+    /**
+     * The same as {@link #deposit}, but the caller is not blocked while the transaction waits
+     * for locks. By default, the deposit is made synchronously by the calling thread.
+     */
+    default CompletableFuture<DepositResult> depositAsync(String id, BigDecimal amount) {
+        return CompletableFuture.completedFuture(deposit(id, amount));
+    }
+
+    /**
+     * @return aggregates of accounts maintained by the TX manager, null if it does not maintain them
+     */
+    default AccountAggregates aggregates() {
+        return null;
+    }
 }
@@ -0,0 +1,72 @@
+package playground.test.revo.data.impl;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts lock waits to the contention of every stripe, measured as its moving average wait.
+ *
+ * A transaction, which holds a stripe, waits for the next one a few average waits of it (but not less
+ * than {@link #MIN_BUDGET}), then gives way to others instead of keeping its stripe busy for nothing.
+ * A stripe, which is released within microseconds, is spun on before parking, unless there is
+ * a single CPU to spin on. Back-offs are random within an exponentially growing bound ("full jitter"),
+ * so transactions, which have backed off together, do not collide again.
+ *
+ * Averages are kept per stripe of a fixed table, updated without synchronization: a lost sample
+ * only delays the adaptation.
+ */
+final class AdaptiveLockStrategy implements LockStrategy {
+    static final long MIN_BUDGET = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private static final int BUDGET_WAITS = 4;
+
+    private static final int STRIPES = StripedLockTable.DEFAULT_STRIPES;
+
+    private static final long SPIN_WAIT = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 0;
+
+    private static final long MIN_BACKOFF = TimeUnit.MICROSECONDS.toNanos(20);
+
+    private static final long MAX_BACKOFF = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private final long timeout;
+
+    private final long[] waits = new long[STRIPES];
+
+    AdaptiveLockStrategy(long timeout, TimeUnit unit) {
+        this.timeout = unit.toNanos(timeout);
+    }
+
+    @Override
+    public long timeout() {
+        return timeout;
+    }
+
+    @Override
+    public long budget(int stripe) {
+        long budget = Math.max(MIN_BUDGET, BUDGET_WAITS * waits[stripe & (STRIPES - 1)]);
+        return Math.min(budget, timeout);
+    }
+
+    @Override
+    public int spins(int stripe) {
+        return waits[stripe & (STRIPES - 1)] < SPIN_WAIT ? SPINS : 0;
+    }
+
+    @Override
+    public long backoff(int attempt) {
+        long bound = attempt >= 16 ? MAX_BACKOFF : Math.min(MAX_BACKOFF, MIN_BACKOFF << attempt);
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    @Override
+    public void waited(int stripe, long nanos) {
+        int index = stripe & (STRIPES - 1);
+        waits[index] += (nanos - waits[index]) >> 3;
+    }
+
+    long average(int stripe) {
+        return waits[stripe & (STRIPES - 1)];
+    }
+}
@@ -0,0 +1,114 @@
+package playground.test.revo.data.impl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Volatile access to direct buffers, which ByteBuffer does not offer on Java 8 and VarHandle does only
+ * since Java 9. Methods of sun.misc.Unsafe are looked up once as method handles, so the code compiles
+ * without the internal API, and calls to them are inlined by the JIT like direct calls.
+ *
+ * Values are big-endian, the same as ByteBuffer writes them by default.
+ */
+final class DirectMemory {
+
+    private static final boolean SWAP = ByteOrder.nativeOrder() != ByteOrder.BIG_ENDIAN;
+
+    private static final MethodHandle GET_LONG_VOLATILE;
+
+    private static final MethodHandle PUT_LONG_ORDERED;
+
+    private static final MethodHandle GET_SHORT_VOLATILE;
+
+    private static final MethodHandle PUT_SHORT_VOLATILE;
+
+    private static final MethodHandle GET_LONG;
+
+    private static final long ADDRESS_OFFSET;
+
+    static {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            GET_LONG_VOLATILE = lookup.findVirtual(unsafeClass, "getLongVolatile",
+                    MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+            PUT_LONG_ORDERED = lookup.findVirtual(unsafeClass, "putOrderedLong",
+                    MethodType.methodType(void.class, Object.class, long.class, long.class)).bindTo(unsafe);
+            GET_SHORT_VOLATILE = lookup.findVirtual(unsafeClass, "getShortVolatile",
+                    MethodType.methodType(short.class, Object.class, long.class)).bindTo(unsafe);
+            PUT_SHORT_VOLATILE = lookup.findVirtual(unsafeClass, "putShortVolatile",
+                    MethodType.methodType(void.class, Object.class, long.class, short.class)).bindTo(unsafe);
+            GET_LONG = lookup.findVirtual(unsafeClass, "getLong",
+                    MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+
+            MethodHandle fieldOffset = lookup.findVirtual(unsafeClass, "objectFieldOffset",
+                    MethodType.methodType(long.class, Field.class)).bindTo(unsafe);
+            ADDRESS_OFFSET = (long) fieldOffset.invokeExact(Buffer.class.getDeclaredField("address"));
+        } catch (Throwable e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private DirectMemory() {
+    }
+
+    /**
+     * @return address of the first byte of a direct buffer
+     */
+    static long address(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("Buffer is not direct");
+        }
+        try {
+            return (long) GET_LONG.invokeExact((Object) buffer, ADDRESS_OFFSET);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static long getLongVolatile(long address) {
+        try {
+            long value = (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+            return SWAP ? Long.reverseBytes(value) : value;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Stores the value after all preceding writes, cheaper than a volatile write, as it does not wait for them
+     */
+    static void putLongOrdered(long address, long value) {
+        try {
+            PUT_LONG_ORDERED.invokeExact((Object) null, address, SWAP ? Long.reverseBytes(value) : value);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static short getShortVolatile(long address) {
+        try {
+            short value = (short) GET_SHORT_VOLATILE.invokeExact((Object) null, address);
+            return SWAP ? Short.reverseBytes(value) : value;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void putShortVolatile(long address, short value) {
+        try {
+            PUT_SHORT_VOLATILE.invokeExact((Object) null, address, SWAP ? Short.reverseBytes(value) : value);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,845 @@
+package playground.test.revo.data.impl;
+
+import com.google.inject.Inject;
+import playground.test.revo.data.PrivateAccountDAO;
+import playground.test.revo.data.TxJournal;
+import playground.test.revo.util.Histogram;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal in a directory of segment files, written by a dedicated thread.
+ *
+ * Records queued while the previous batch is being written are stored together with
+ * one write and one fsync (group commit). The writer waits up to max delay for more records
+ * unless the batch is full. Records are queued under account locks, so records of every
+ * account are stored in commit order and replay never observes a negative balance.
+ * Queueing never blocks, so it is safe on IO threads: while the bounded queue is full,
+ * records are deferred to an unbounded overflow, which the writer takes after the queue.
+ *
+ * Segment: 16 bytes header (magic, max sequence of all previous segments), then records:
+ * body length (int), CRC32 of body (int), body. A torn record ends the segment.
+ * A multi-leg transaction is one record, so it is replayed completely or not at all.
+ */
+public class FileJournal implements TxJournal, AutoCloseable {
+
+    private static final long MAGIC = 0x5245564f4a524e4cL;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int FRAME_SIZE = 8;
+
+    private static final int MAX_RECORD_SIZE = 1 << 16;
+
+    private static final int MAX_ID_LENGTH = 4096;
+
+    private static final int MAX_AMOUNT_BITS = 4096;
+
+    private static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private static final long POLL_MS = 100;
+
+    private static final String PREFIX = "journal-";
+
+    private static final String SUFFIX = ".log";
+
+    private static final byte DEPOSIT = 0;
+
+    private static final byte TRANSFER = 1;
+
+    private static final byte MULTI_LEG = 2;
+
+    private final Path dir;
+
+    private final int maxBatch;
+
+    private final long maxDelay;
+
+    private final long segmentSize;
+
+    private final AtomicLong sequence;
+
+    private final BlockingQueue<Entry> queue;
+
+    // Records, which have not fit into the queue, and the ones appended after them
+    private final Queue<Entry> overflow = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder deferred = new LongAdder();
+
+    private final Histogram batchSizes = new Histogram();
+
+    private final Histogram fsyncLatency = new Histogram();
+
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+    private volatile IOException failure;
+
+    private volatile long segmentIndex;
+
+    // Owned by the writer thread
+    private FileChannel channel;
+    private long segmentBytes;
+    private long maxWritten;
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    private final CRC32 crc = new CRC32();
+
+    @Inject
+    public FileJournal() {
+        this(Paths.get(System.getProperty("revo.journal.dir", "journal")),
+                Integer.getInteger("revo.journal.batch", 256),
+                Long.getLong("revo.journal.delay", 100));
+    }
+
+    /**
+     * Opens journal directory, new records are appended to a new segment
+     *
+     * @param maxBatch max number of records stored with one fsync
+     * @param maxDelay max time to wait for more records before fsync, microseconds
+     */
+    public FileJournal(Path dir, int maxBatch, long maxDelay) {
+        this(dir, maxBatch, maxDelay, DEFAULT_SEGMENT_SIZE);
+    }
+
+    FileJournal(Path dir, int maxBatch, long maxDelay, long segmentSize) {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("Max batch should be positive: " + maxBatch);
+        }
+
+        this.dir = dir;
+        this.maxBatch = maxBatch;
+        this.maxDelay = TimeUnit.MICROSECONDS.toNanos(maxDelay);
+        this.segmentSize = segmentSize;
+        this.queue = new LinkedBlockingQueue<>(maxBatch * 64);
+
+        try {
+            Files.createDirectories(dir);
+            this.maxWritten = recover();
+            this.sequence = new AtomicLong(maxWritten);
+            openSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not open journal " + dir, e);
+        }
+
+        this.writer = new Thread(this::writeLoop, "tx-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Committed transaction read from the journal
+     */
+    public static final class Record {
+        private final long sequence;
+        private final String from;
+        private final String to;
+        private final BigDecimal amount;
+        private final Map<String, BigDecimal> legs;
+
+        Record(long sequence, String from, String to, BigDecimal amount) {
+            this.sequence = sequence;
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+            this.legs = null;
+        }
+
+        Record(long sequence, Map<String, BigDecimal> legs) {
+            this.sequence = sequence;
+            this.from = null;
+            this.to = null;
+            this.amount = null;
+            this.legs = Collections.unmodifiableMap(legs);
+        }
+
+        public long sequence() {
+            return sequence;
+        }
+
+        /**
+         * @return source account of transfer, null for deposit
+         */
+        public String from() {
+            return from;
+        }
+
+        /**
+         * @return destination account of transfer or deposit, null for multi-leg transaction
+         */
+        public String to() {
+            return to;
+        }
+
+        public BigDecimal amount() {
+            return amount;
+        }
+
+        /**
+         * @return account id to amount (negative for a debit) of multi-leg transaction, null otherwise
+         */
+        public Map<String, BigDecimal> legs() {
+            return legs;
+        }
+
+        public boolean isTransfer() {
+            return from != null;
+        }
+
+        public boolean isMultiLeg() {
+            return legs != null;
+        }
+
+        /**
+         * Applies the transaction to account store
+         */
+        public void applyTo(PrivateAccountDAO accountDAO) {
+            applyTo(accountDAO, id -> 0);
+        }
+
+        /**
+         * Applies the transaction to accounts, which do not include it yet
+         *
+         * @param watermark max sequence already included into account balance
+         */
+        public void applyTo(PrivateAccountDAO accountDAO, ToLongFunction<String> watermark) {
+            if (legs != null) {
+                applyLegs(accountDAO, watermark);
+                return;
+            }
+
+            if (from == null) {
+                if (sequence > watermark.applyAsLong(to)) {
+                    accountDAO.createAndDeposit(to, amount);
+                }
+                return;
+            }
+
+            if (sequence > watermark.applyAsLong(from) && accountDAO.reduce(from, amount) == null) {
+                throw new IllegalStateException("Journal does not match account store at record " + sequence);
+            }
+
+            if (sequence > watermark.applyAsLong(to) && accountDAO.deposit(to, amount) == null) {
+                throw new IllegalStateException("Journal does not match account store at record " + sequence);
+            }
+        }
+
+        /**
+         * Debits first, the same as they were committed
+         */
+        private void applyLegs(PrivateAccountDAO accountDAO, ToLongFunction<String> watermark) {
+            for (Map.Entry<String, BigDecimal> leg : legs.entrySet()) {
+                if (leg.getValue().signum() < 0 && sequence > watermark.applyAsLong(leg.getKey())
+                        && accountDAO.reduce(leg.getKey(), leg.getValue().negate()) == null) {
+                    throw new IllegalStateException("Journal does not match account store at record " + sequence);
+                }
+            }
+
+            for (Map.Entry<String, BigDecimal> leg : legs.entrySet()) {
+                if (leg.getValue().signum() > 0 && sequence > watermark.applyAsLong(leg.getKey())
+                        && accountDAO.deposit(leg.getKey(), leg.getValue()) == null) {
+                    throw new IllegalStateException("Journal does not match account store at record " + sequence);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rejects every record once a write failed or the journal is closed, so it is fail-stop
+     */
+    @Override
+    public boolean accepts(String from, String to, BigDecimal amount) {
+        return failure == null && running && fits(from, to, amount);
+    }
+
+    @Override
+    public boolean accepts(Map<String, BigDecimal> legs) {
+        return failure == null && running && fits(legs);
+    }
+
+    @Override
+    public void transfer(String from, String to, BigDecimal amount, CompletableFuture<Long> durable) {
+        append(from, to, amount, durable);
+    }
+
+    @Override
+    public void transfer(Map<String, BigDecimal> legs, CompletableFuture<Long> durable) {
+        if (!fits(legs)) {
+            durable.completeExceptionally(new IOException("Record is too long"));
+            return;
+        }
+        enqueue(null, null, null, new LinkedHashMap<>(legs), durable);
+    }
+
+    @Override
+    public void deposit(String id, BigDecimal amount, CompletableFuture<Long> durable) {
+        append(null, id, amount, durable);
+    }
+
+    /**
+     * Completes when all records appended before the call are durable
+     */
+    public CompletableFuture<Long> sync() {
+        CompletableFuture<Long> durable = new CompletableFuture<>();
+        IOException error = failure;
+        if (error != null || !running) {
+            durable.completeExceptionally(error != null ? error : new IOException("Journal is closed"));
+            return durable;
+        }
+
+        offer(new Entry(sequence.get(), null, null, null, null, durable));
+        return durable;
+    }
+
+    /**
+     * Reads all stored records in the order they were written
+     *
+     * @param afterSequence records with this or lower sequence are skipped
+     * @return number of records passed to consumer
+     */
+    public long replay(long afterSequence, Consumer<Record> consumer) throws IOException {
+        List<Path> segments = segments();
+        long[] count = {0};
+        for (int i = 0; i < segments.size(); i++) {
+            // Whole segment is older
+            if (i + 1 < segments.size() && maxBefore(segments.get(i + 1)) <= afterSequence) {
+                continue;
+            }
+
+            read(segments.get(i), afterSequence, record -> {
+                consumer.accept(record);
+                count[0]++;
+            });
+        }
+        return count[0];
+    }
+
+    /**
+     * Rebuilds balances from all stored records
+     *
+     * @return number of applied records
+     */
+    public long replay(PrivateAccountDAO accountDAO) throws IOException {
+        return replay(0, record -> record.applyTo(accountDAO));
+    }
+
+    /**
+     * Deletes segments, which contain only records with this or lower sequence
+     */
+    public void truncate(long sequence) throws IOException {
+        List<Path> segments = segments();
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            Path segment = segments.get(i);
+            if (index(segment) >= segmentIndex || maxBefore(segments.get(i + 1)) > sequence) {
+                break;
+            }
+            Files.delete(segment);
+        }
+    }
+
+    /**
+     * @return max sequence of deleted records, 0 if nothing was deleted
+     */
+    public long truncated() throws IOException {
+        List<Path> segments = segments();
+        return segments.isEmpty() ? 0 : maxBefore(segments.get(0));
+    }
+
+    public Path dir() {
+        return dir;
+    }
+
+    /**
+     * @return last assigned sequence number
+     */
+    public long sequence() {
+        return sequence.get();
+    }
+
+    /**
+     * @return number of records stored by every fsync
+     */
+    public Histogram batchSizes() {
+        return batchSizes;
+    }
+
+    /**
+     * @return duration of every fsync, microseconds
+     */
+    public Histogram fsyncLatency() {
+        return fsyncLatency;
+    }
+
+    /**
+     * @return number of records deferred to the overflow, while the queue was full
+     */
+    public long deferred() {
+        return deferred.sum();
+    }
+
+    /**
+     * Stores queued records and closes the journal, records appended afterwards fail
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        fail(new IOException("Journal is closed"));
+        channel.close();
+    }
+
+    private void append(String from, String to, BigDecimal amount, CompletableFuture<Long> durable) {
+        if (!fits(from, to, amount)) {
+            durable.completeExceptionally(new IOException("Record is too long"));
+            return;
+        }
+        enqueue(from, to, amount, null, durable);
+    }
+
+    /**
+     * Keeps encoded record below MAX_RECORD_SIZE
+     */
+    private static boolean fits(String from, String to, BigDecimal amount) {
+        return (from == null || from.length() <= MAX_ID_LENGTH) && to.length() <= MAX_ID_LENGTH
+                && amount.unscaledValue().bitLength() <= MAX_AMOUNT_BITS;
+    }
+
+    /**
+     * Keeps encoded record below MAX_RECORD_SIZE, ids are at most 3 bytes per char
+     */
+    private static boolean fits(Map<String, BigDecimal> legs) {
+        long length = 8 + 1 + 2;
+        for (Map.Entry<String, BigDecimal> leg : legs.entrySet()) {
+            if (leg.getKey().length() > MAX_ID_LENGTH || leg.getValue().unscaledValue().bitLength() > MAX_AMOUNT_BITS) {
+                return false;
+            }
+            length += 2 + 3L * leg.getKey().length() + 4 + 2 + leg.getValue().unscaledValue().bitLength() / 8 + 1;
+        }
+        return length <= MAX_RECORD_SIZE;
+    }
+
+    private void enqueue(String from, String to, BigDecimal amount, Map<String, BigDecimal> legs,
+                         CompletableFuture<Long> durable) {
+        IOException error = failure;
+        if (error != null || !running) {
+            durable.completeExceptionally(error != null ? error : new IOException("Journal is closed"));
+            return;
+        }
+
+        offer(new Entry(sequence.incrementAndGet(), from, to, amount, legs, durable));
+    }
+
+    /**
+     * Once a record is deferred, the next ones follow it until the writer has taken the overflow,
+     * so records of an account, appended under its lock, keep their order
+     */
+    private void offer(Entry entry) {
+        if (!overflow.isEmpty() || !queue.offer(entry)) {
+            overflow.add(entry);
+            deferred.increment();
+        }
+
+        // Appended while the journal was closing, after the writer has stopped
+        if (!running && !writer.isAlive()) {
+            fail(new IOException("Journal is closed"));
+        }
+    }
+
+    /**
+     * Takes queued records first, the overflow holds only the ones appended after them
+     */
+    private void drain(List<Entry> batch) {
+        queue.drainTo(batch, maxBatch - batch.size());
+        while (batch.size() < maxBatch) {
+            Entry next = overflow.poll();
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty() || !overflow.isEmpty()) {
+            try {
+                drain(batch);
+                if (batch.isEmpty()) {
+                    // Records are deferred only while the queue is not empty
+                    Entry first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    drain(batch);
+                }
+
+                long deadline = System.nanoTime() + maxDelay;
+                while (batch.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    Entry next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    drain(batch);
+                }
+
+                write(batch);
+            } catch (InterruptedException e) {
+                // Never interrupted, close() stops the loop
+            } catch (Throwable e) {
+                // A dead writer would leave every caller waiting, the journal fails instead
+                IOException error = new IOException("Journal writer failed", e);
+                failure = error;
+                batch.forEach(entry -> entry.durable.completeExceptionally(error));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Entry> batch) {
+        if (failure != null) {
+            batch.forEach(entry -> entry.durable.completeExceptionally(failure));
+            return;
+        }
+
+        try {
+            buffer.clear();
+            for (Entry entry : batch) {
+                if (entry.legs != null) {
+                    encodeLegs(entry);
+                    maxWritten = Math.max(maxWritten, entry.sequence);
+                } else if (entry.to != null) {
+                    encode(entry);
+                    maxWritten = Math.max(maxWritten, entry.sequence);
+                }
+            }
+            buffer.flip();
+
+            segmentBytes += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            long start = System.nanoTime();
+            channel.force(false);
+            fsyncLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            batchSizes.record(batch.size());
+
+            for (Entry entry : batch) {
+                entry.durable.complete(entry.sequence);
+            }
+
+            if (segmentBytes >= segmentSize) {
+                channel.close();
+                openSegment();
+            }
+        } catch (IOException e) {
+            failure = e;
+            batch.forEach(entry -> entry.durable.completeExceptionally(e));
+        }
+    }
+
+    private void encode(Entry entry) {
+        byte[] from = entry.from == null ? null : entry.from.getBytes(StandardCharsets.UTF_8);
+        byte[] to = entry.to.getBytes(StandardCharsets.UTF_8);
+        byte[] unscaled = entry.amount.unscaledValue().toByteArray();
+
+        int length = 8 + 1 + (from == null ? 0 : 2 + from.length) + 2 + to.length + 4 + 2 + unscaled.length;
+        ensureCapacity(FRAME_SIZE + length);
+
+        int start = buffer.position();
+        buffer.putInt(length);
+        buffer.putInt(0);
+
+        buffer.putLong(entry.sequence);
+        buffer.put(from == null ? DEPOSIT : TRANSFER);
+        if (from != null) {
+            putBytes(from);
+        }
+        putBytes(to);
+        buffer.putInt(entry.amount.scale());
+        putBytes(unscaled);
+
+        crc.reset();
+        crc.update(buffer.array(), start + FRAME_SIZE, length);
+        buffer.putInt(start + 4, (int) crc.getValue());
+    }
+
+    private void encodeLegs(Entry entry) {
+        byte[][] ids = new byte[entry.legs.size()][];
+        byte[][] unscaled = new byte[ids.length][];
+
+        int length = 8 + 1 + 2;
+        int i = 0;
+        for (Map.Entry<String, BigDecimal> leg : entry.legs.entrySet()) {
+            ids[i] = leg.getKey().getBytes(StandardCharsets.UTF_8);
+            unscaled[i] = leg.getValue().unscaledValue().toByteArray();
+            length += 2 + ids[i].length + 4 + 2 + unscaled[i].length;
+            i++;
+        }
+        ensureCapacity(FRAME_SIZE + length);
+
+        int start = buffer.position();
+        buffer.putInt(length);
+        buffer.putInt(0);
+
+        buffer.putLong(entry.sequence);
+        buffer.put(MULTI_LEG);
+        buffer.putShort((short) ids.length);
+        i = 0;
+        for (BigDecimal amount : entry.legs.values()) {
+            putBytes(ids[i]);
+            buffer.putInt(amount.scale());
+            putBytes(unscaled[i]);
+            i++;
+        }
+
+        crc.reset();
+        crc.update(buffer.array(), start + FRAME_SIZE, length);
+        buffer.putInt(start + 4, (int) crc.getValue());
+    }
+
+    private void putBytes(byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void ensureCapacity(int size) {
+        if (buffer.remaining() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    private void openSegment() throws IOException {
+        segmentIndex++;
+        channel = FileChannel.open(dir.resolve(String.format("%s%010d%s", PREFIX, segmentIndex, SUFFIX)),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(MAGIC).putLong(maxWritten).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+        segmentBytes = HEADER_SIZE;
+    }
+
+    /**
+     * Cuts torn tail of the last segment
+     *
+     * @return max stored sequence
+     */
+    private long recover() throws IOException {
+        List<Path> segments = segments();
+        while (!segments.isEmpty()) {
+            Path last = segments.remove(segments.size() - 1);
+            Segment segment = read(last, Long.MAX_VALUE, record -> {
+            });
+
+            segmentIndex = index(last);
+            if (segment.length < HEADER_SIZE) {
+                // Crashed while creating the segment
+                Files.delete(last);
+                continue;
+            }
+
+            try (FileChannel file = FileChannel.open(last, StandardOpenOption.WRITE)) {
+                if (file.size() > segment.length) {
+                    file.truncate(segment.length);
+                    file.force(true);
+                }
+            }
+            return segment.maxSequence;
+        }
+        return 0;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static long maxBefore(Path segment) throws IOException {
+        try (FileChannel file = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            // Torn header means the segment has no records
+            return file.read(header, 0) < HEADER_SIZE ? Long.MAX_VALUE : header.getLong(8);
+        }
+    }
+
+    private static long index(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Reads valid records of the segment
+     */
+    private static Segment read(Path path, long afterSequence, Consumer<Record> consumer) throws IOException {
+        Segment segment = new Segment();
+        if (Files.size(path) < HEADER_SIZE) {
+            return segment;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), READ_BUFFER_SIZE))) {
+            if (in.readLong() != MAGIC) {
+                throw new IOException("Not a journal segment: " + path);
+            }
+
+            segment.maxSequence = in.readLong();
+            segment.length = HEADER_SIZE;
+
+            CRC32 crc = new CRC32();
+            byte[] body = new byte[256];
+            while (true) {
+                int length;
+                int checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_SIZE) {
+                        break;
+                    }
+
+                    if (body.length < length) {
+                        body = new byte[length];
+                    }
+                    in.readFully(body, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                Record record = decode(ByteBuffer.wrap(body, 0, length));
+                segment.length += FRAME_SIZE + length;
+                segment.maxSequence = Math.max(segment.maxSequence, record.sequence);
+
+                if (record.sequence > afterSequence) {
+                    consumer.accept(record);
+                }
+            }
+        }
+        return segment;
+    }
+
+    private static Record decode(ByteBuffer body) {
+        long sequence = body.getLong();
+        byte type = body.get();
+        if (type == MULTI_LEG) {
+            int count = body.getShort() & 0xffff;
+            Map<String, BigDecimal> legs = new LinkedHashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String id = getString(body);
+                legs.put(id, getAmount(body));
+            }
+            return new Record(sequence, legs);
+        }
+
+        String from = type == TRANSFER ? getString(body) : null;
+        String to = getString(body);
+        return new Record(sequence, from, to, getAmount(body));
+    }
+
+    private static BigDecimal getAmount(ByteBuffer body) {
+        int scale = body.getInt();
+        byte[] unscaled = new byte[body.getShort()];
+        body.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+
+    private static String getString(ByteBuffer body) {
+        byte[] bytes = new byte[body.getShort()];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Fails records left in the queue and the overflow, so no caller waits for them
+     */
+    private void fail(IOException e) {
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            entry.durable.completeExceptionally(e);
+        }
+        while ((entry = overflow.poll()) != null) {
+            entry.durable.completeExceptionally(e);
+        }
+    }
+
+    private static final class Segment {
+        private long length;
+        private long maxSequence;
+    }
+
+    private static final class Entry {
+        private final long sequence;
+        private final String from;
+        private final String to;
+        private final BigDecimal amount;
+        private final Map<String, BigDecimal> legs;
+        private final CompletableFuture<Long> durable;
+
+        private Entry(long sequence, String from, String to, BigDecimal amount, Map<String, BigDecimal> legs,
+                      CompletableFuture<Long> durable) {
+            this.sequence = sequence;
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+            this.legs = legs;
+            this.durable = durable;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package playground.test.revo.data.impl;
+
+import com.google.inject.Inject;
+import playground.test.revo.data.PrivateAccountDAO;
+import playground.test.revo.data.PublicAccountDAO;
+import playground.test.revo.util.FixedPoint;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Account store with balances kept as scaled long minor units ("revo.scale" system property, 2 by default).
+ * Balances are mutable cells, so updates in minor units allocate nothing.
+ * Amounts more precise than the scale are rejected, arithmetic is overflow-checked.
+ *
+ * NOTE: same as {@link InMemoryAccountDAO}, it relies on TX manager locks
+ */
+public class FixedPointAccountDAO implements PublicAccountDAO, PrivateAccountDAO {
+    /**
+     * Returned by unit operations instead of null
+     */
+    public static final long NONE = -1;
+
+    private final Map<String, Balance> balances = new ConcurrentHashMap<>();
+
+    // Ids in natural order for paging, accounts are never removed
+    private final NavigableSet<String> ids = new ConcurrentSkipListSet<>();
+
+    private final FixedPoint fixedPoint;
+
+    private static final class Balance {
+        private volatile long units;
+    }
+
+    @Inject
+    public FixedPointAccountDAO() {
+        this(Integer.getInteger("revo.scale", 2));
+    }
+
+    public FixedPointAccountDAO(int scale) {
+        this.fixedPoint = new FixedPoint(scale);
+    }
+
+    public FixedPoint fixedPoint() {
+        return fixedPoint;
+    }
+
+    @Override
+    public BigDecimal reduce(String id, BigDecimal amount) {
+        long balance = reduceUnits(id, fixedPoint.toUnits(amount));
+        return balance == NONE ? null : fixedPoint.toDecimal(balance);
+    }
+
+    @Override
+    public BigDecimal deposit(String id, BigDecimal amount) {
+        long balance = depositUnits(id, fixedPoint.toUnits(amount));
+        return balance == NONE ? null : fixedPoint.toDecimal(balance);
+    }
+
+    @Override
+    public BigDecimal createAndDeposit(String id, BigDecimal amount) {
+        return fixedPoint.toDecimal(createAndDepositUnits(id, fixedPoint.toUnits(amount)));
+    }
+
+    /**
+     * The amount is converted once, balances are updated in minor units
+     */
+    @Override
+    public boolean transfer(String from, String to, BigDecimal amount) {
+        long units = fixedPoint.toUnits(amount);
+        if (reduceUnits(from, units) == NONE) {
+            return false;
+        }
+        depositUnits(to, units);
+        return true;
+    }
+
+    @Override
+    public boolean exists(String id) {
+        return balances.containsKey(id);
+    }
+
+    @Override
+    public boolean isValidAmount(BigDecimal amount) {
+        return fixedPoint.isValid(amount);
+    }
+
+    @Override
+    public Collection<String> allAccounts() {
+        return balances.keySet();
+    }
+
+    @Override
+    public Iterator<String> accounts(String after) {
+        return (after == null ? ids : ids.tailSet(after, false)).iterator();
+    }
+
+    @Override
+    public BigDecimal balance(String id) {
+        long balance = balanceUnits(id);
+        return balance == NONE ? null : fixedPoint.toDecimal(balance);
+    }
+
+    /**
+     * @see PrivateAccountDAO#reduce(String, BigDecimal)
+     * @return NONE if current balance is less than specified amount, new balance otherwise
+     */
+    public long reduceUnits(String id, long amount) {
+        checkPositive(amount);
+
+        Balance balance = balances.get(id);
+
+        if (balance == null) {
+            throw new IllegalArgumentException("Account does not exist: " + id);
+        }
+
+        long current = balance.units;
+        if (current < amount) {
+            return NONE;
+        }
+
+        return balance.units = current - amount;
+    }
+
+    /**
+     * @see PrivateAccountDAO#deposit(String, BigDecimal)
+     * @return NONE if account is not present, new account balance otherwise
+     */
+    public long depositUnits(String id, long amount) {
+        checkPositive(amount);
+
+        Balance balance = balances.get(id);
+        return balance == null ? NONE : add(balance, amount);
+    }
+
+    /**
+     * @see PrivateAccountDAO#createAndDeposit(String, BigDecimal)
+     */
+    public long createAndDepositUnits(String id, long amount) {
+        checkPositive(amount);
+
+        Balance balance = balances.get(id);
+        if (balance == null) {
+            balance = balances.computeIfAbsent(id, i -> {
+                ids.add(id);
+                return new Balance();
+            });
+        }
+        return add(balance, amount);
+    }
+
+    /**
+     * @return NONE if account is not present, balance otherwise
+     */
+    public long balanceUnits(String id) {
+        Balance balance = balances.get(id);
+        return balance == null ? NONE : balance.units;
+    }
+
+    private static long add(Balance balance, long amount) {
+        return balance.units = Math.addExact(balance.units, amount);
+    }
+
+    private static void checkPositive(long amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Amount can not be negative");
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package playground.test.revo.data.impl;
+
+import playground.test.revo.data.PrivateAccountDAO;
+import playground.test.revo.data.PublicAccountDAO;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Account store decorator, which splits balances of hot (high fan-in) accounts into sub-balance slots.
+ *
+ * The balance of every account is the base balance in the decorated store plus, for a hot account,
+ * the sum of its slots. A credit of a hot account goes to any free slot under the lock of the slot
+ * only, so credits of the same account run in parallel. A debit runs under the account lock of
+ * {@link SimpleTxManager} and takes the base balance, slots are drained into it one by one when it
+ * runs short. Account operations of the decorated interfaces always work on the base balance.
+ *
+ * Accounts are marked hot explicitly or by {@link #contended(String)} once they have been found
+ * busy often enough. A hot account is never split back.
+ *
+ * Configuration: "revo.hot.accounts" (comma-separated ids), "revo.hot.slots" (number of slots,
+ * 2 x CPUs by default) and "revo.hot.threshold" (contended credits to mark an account hot,
+ * 0 disables detection) system properties.
+ */
+public class HotAccountDAO implements PublicAccountDAO, PrivateAccountDAO {
+
+    private static final int DEFAULT_THRESHOLD = 1000;
+
+    /**
+     * Contention counters are reset rather than growing with the number of accounts
+     */
+    private static final int MAX_CANDIDATES = 1024;
+
+    private final PublicAccountDAO publicDAO;
+
+    private final PrivateAccountDAO privateDAO;
+
+    private final int slots;
+
+    private final int threshold;
+
+    private final Map<String, Slots> hot = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicInteger> candidates = new ConcurrentHashMap<>();
+
+    public <T extends PublicAccountDAO & PrivateAccountDAO> HotAccountDAO(T accountDAO) {
+        this(accountDAO, Integer.getInteger("revo.hot.slots", 2 * Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("revo.hot.threshold", DEFAULT_THRESHOLD));
+
+        String accounts = System.getProperty("revo.hot.accounts", "");
+        for (String id : accounts.split(",")) {
+            if (!id.trim().isEmpty()) {
+                mark(id.trim());
+            }
+        }
+    }
+
+    /**
+     * @param slots number of sub-balances of a hot account
+     * @param threshold number of contended credits, which marks an account hot, 0 to mark explicitly only
+     */
+    public <T extends PublicAccountDAO & PrivateAccountDAO> HotAccountDAO(T accountDAO, int slots, int threshold) {
+        if (slots <= 0) {
+            throw new IllegalArgumentException("Incorrect number of slots: " + slots);
+        }
+
+        this.publicDAO = accountDAO;
+        this.privateDAO = accountDAO;
+        this.slots = slots;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Splits the account, it may be not created yet
+     *
+     * @return false if the account is hot already
+     */
+    public boolean mark(String id) {
+        if (hot.containsKey(id)) {
+            return false;
+        }
+        return hot.putIfAbsent(id, new Slots(slots)) == null;
+    }
+
+    public boolean isHot(String id) {
+        return hot.containsKey(id);
+    }
+
+    /**
+     * @return number of hot accounts
+     */
+    public int hotAccounts() {
+        return hot.size();
+    }
+
+    /**
+     * Records that a credit of the account has found it locked, marks the account hot after threshold ones
+     */
+    void contended(String id) {
+        if (threshold <= 0 || hot.containsKey(id)) {
+            return;
+        }
+
+        if (candidates.size() >= MAX_CANDIDATES) {
+            candidates.clear();
+        }
+
+        AtomicInteger count = candidates.computeIfAbsent(id, i -> new AtomicInteger());
+        if (count.incrementAndGet() >= threshold) {
+            mark(id);
+            candidates.remove(id);
+        }
+    }
+
+    /**
+     * @return slots of a hot account, null if it is not hot
+     */
+    Slots slots(String id) {
+        return hot.isEmpty() ? null : hot.get(id);
+    }
+
+    /**
+     * Adds the amount to the slot of an existing account, a new one is created in the base balance
+     * under the account lock
+     *
+     * @implNote call under the slot lock
+     */
+    void credit(Slots slots, int slot, BigDecimal amount) {
+        checkPositive(amount);
+        slots.add(slot, amount);
+    }
+
+    /**
+     * Takes the amount from the base balance, slots are drained into it while it is not enough
+     *
+     * @implNote call under TX manager account lock
+     */
+    @Override
+    public BigDecimal reduce(String id, BigDecimal amount) {
+        BigDecimal balance = privateDAO.reduce(id, amount);
+
+        Slots split = slots(id);
+        if (balance != null || split == null) {
+            return balance;
+        }
+
+        for (int i = 0; i < split.size() && balance == null; i++) {
+            BigDecimal drained = split.drain(i);
+            if (drained.signum() > 0) {
+                privateDAO.deposit(id, drained);
+                balance = privateDAO.reduce(id, amount);
+            }
+        }
+        return balance;
+    }
+
+    @Override
+    public BigDecimal deposit(String id, BigDecimal amount) {
+        return privateDAO.deposit(id, amount);
+    }
+
+    /**
+     * Transfers of the base balances, slots of a hot payer are drained only when its base balance is not enough
+     *
+     * @implNote call under TX manager account locks
+     */
+    @Override
+    public boolean transfer(String from, String to, BigDecimal amount) {
+        if (privateDAO.transfer(from, to, amount)) {
+            return true;
+        }
+        if (slots(from) == null || reduce(from, amount) == null) {
+            return false;
+        }
+        privateDAO.deposit(to, amount);
+        return true;
+    }
+
+    @Override
+    public BigDecimal createAndDeposit(String id, BigDecimal amount) {
+        return privateDAO.createAndDeposit(id, amount);
+    }
+
+    @Override
+    public boolean exists(String id) {
+        return privateDAO.exists(id);
+    }
+
+    @Override
+    public boolean isValidAmount(BigDecimal amount) {
+        return privateDAO.isValidAmount(amount);
+    }
+
+    @Override
+    public Collection<String> allAccounts() {
+        return publicDAO.allAccounts();
+    }
+
+    @Override
+    public Iterator<String> accounts(String after) {
+        return publicDAO.accounts(after);
+    }
+
+    /**
+     * Base balance plus all slots, every part is read without locks
+     */
+    @Override
+    public BigDecimal balance(String id) {
+        BigDecimal balance = publicDAO.balance(id);
+
+        Slots split = slots(id);
+        if (balance == null || split == null) {
+            return balance;
+        }
+        return balance.add(split.sum());
+    }
+
+    private static void checkPositive(BigDecimal amount) {
+        if (amount.compareTo(BigDecimal.ZERO) < 0) {
+            throw new IllegalArgumentException("Amount can not be negative");
+        }
+    }
+
+    /**
+     * Sub-balances of a hot account, every one is guarded by its own lock
+     */
+    static final class Slots {
+        private final TxLock[] locks;
+
+        private final Slot[] balances;
+
+        private Slots(int size) {
+            this.locks = new TxLock[size];
+            this.balances = new Slot[size];
+            for (int i = 0; i < size; i++) {
+                locks[i] = new TxLock();
+                balances[i] = new Slot();
+            }
+        }
+
+        int size() {
+            return locks.length;
+        }
+
+        TxLock lock(int slot) {
+            return locks[slot];
+        }
+
+        private void add(int slot, BigDecimal amount) {
+            Slot balance = balances[slot];
+            balance.amount = balance.amount.add(amount);
+        }
+
+        /**
+         * Empties the slot, waits for the credit holding it
+         *
+         * @return former balance of the slot
+         */
+        private BigDecimal drain(int slot) {
+            locks[slot].lock();
+            try {
+                Slot balance = balances[slot];
+                BigDecimal amount = balance.amount;
+                balance.amount = BigDecimal.ZERO;
+                return amount;
+            } finally {
+                locks[slot].unlock();
+            }
+        }
+
+        private BigDecimal sum() {
+            BigDecimal sum = BigDecimal.ZERO;
+            for (Slot balance : balances) {
+                sum = sum.add(balance.amount);
+            }
+            return sum;
+        }
+    }
+
+    private static final class Slot {
+        private volatile BigDecimal amount = BigDecimal.ZERO;
+    }
+}
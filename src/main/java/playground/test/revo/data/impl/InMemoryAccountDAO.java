@@ -5,8 +5,11 @@ import playground.test.revo.data.PublicAccountDAO;
 
 import java.math.BigDecimal;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * NOTE: it is not reallt thread safe
@@ -14,6 +17,9 @@ import java.util.concurrent.ConcurrentHashMap;
 public class InMemoryAccountDAO implements PublicAccountDAO, PrivateAccountDAO {
     private Map<String, BigDecimal> balances = new ConcurrentHashMap<>();
 
+    // Ids in natural order for paging, accounts are never removed
+    private final NavigableSet<String> ids = new ConcurrentSkipListSet<>();
+
     @Override
     public BigDecimal reduce(String id, BigDecimal amount) {
         checkPositive(amount);
@@ -46,8 +52,13 @@ public class InMemoryAccountDAO implements PublicAccountDAO, PrivateAccountDAO {
     public BigDecimal createAndDeposit(String id, BigDecimal amount) {
         checkPositive(amount);
 
-        return balances.compute(id, (i, balance) ->
-                balance == null ? amount : balance.add(amount));
+        return balances.compute(id, (i, balance) -> {
+            if (balance == null) {
+                ids.add(id);
+                return amount;
+            }
+            return balance.add(amount);
+        });
     }
 
     @Override
@@ -60,6 +71,11 @@ public class InMemoryAccountDAO implements PublicAccountDAO, PrivateAccountDAO {
         return balances.keySet();
     }
 
+    @Override
+    public Iterator<String> accounts(String after) {
+        return (after == null ? ids : ids.tailSet(after, false)).iterator();
+    }
+
     @Override
     public BigDecimal balance(String id) {
         return balances.get(id);
@@ -0,0 +1,98 @@
+package playground.test.revo.data.impl;
+
+import playground.test.revo.util.StringUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How {@link SimpleTxManager} waits for account lock stripes.
+ *
+ * A transaction waits for its first stripe up to {@link #timeout()}, for each next one up to
+ * {@link #budget(int)} while holding the previous ones. If a next stripe is not taken in time,
+ * the held ones are released and the transaction starts over after {@link #backoff(int)}; retries end
+ * once the timeout since the first back-off expires. A busy stripe is tried {@link #spins(int)} times
+ * before the thread is parked. Every wait is reported to {@link #waited(int, long)}.
+ *
+ * Strategies are shared by all transactions and called on every contended lock, so they never block.
+ */
+public interface LockStrategy {
+
+    /**
+     * @return nanos to wait for a stripe, while no other one is held
+     */
+    long timeout();
+
+    /**
+     * @return nanos to wait for the stripe, while other ones are held
+     */
+    long budget(int stripe);
+
+    /**
+     * @return times to try the busy stripe before parking the thread
+     */
+    int spins(int stripe);
+
+    /**
+     * @param attempt 0 for the first back-off of a transaction
+     * @return nanos to wait before the transaction starts over, negative to give up
+     */
+    long backoff(int attempt);
+
+    /**
+     * @param nanos time waited for the stripe, whether it has been taken or not
+     */
+    void waited(int stripe, long nanos);
+
+    /**
+     * Every stripe is waited for up to the timeout, no spins and no retries
+     */
+    static LockStrategy fixed(long timeout, TimeUnit unit) {
+        long nanos = unit.toNanos(timeout);
+        return new LockStrategy() {
+            @Override
+            public long timeout() {
+                return nanos;
+            }
+
+            @Override
+            public long budget(int stripe) {
+                return nanos;
+            }
+
+            @Override
+            public int spins(int stripe) {
+                return 0;
+            }
+
+            @Override
+            public long backoff(int attempt) {
+                return -1;
+            }
+
+            @Override
+            public void waited(int stripe, long nanos) {
+            }
+        };
+    }
+
+    /**
+     * @see AdaptiveLockStrategy
+     */
+    static LockStrategy adaptive(long timeout, TimeUnit unit) {
+        return new AdaptiveLockStrategy(timeout, unit);
+    }
+
+    /**
+     * @return strategy selected with "revo.lock.strategy" system property: "fixed" (default) or "adaptive"
+     */
+    static LockStrategy fromSystemProperty(long timeout, TimeUnit unit) {
+        String strategy = System.getProperty("revo.lock.strategy");
+        if (StringUtils.isNullOrEmpty(strategy) || "fixed".equalsIgnoreCase(strategy)) {
+            return fixed(timeout, unit);
+        }
+        if ("adaptive".equalsIgnoreCase(strategy)) {
+            return adaptive(timeout, unit);
+        }
+        throw new IllegalArgumentException("Unknown lock strategy: " + strategy);
+    }
+}
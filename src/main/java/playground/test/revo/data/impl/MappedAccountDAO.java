@@ -0,0 +1,505 @@
+package playground.test.revo.data.impl;
+
+import com.google.inject.Inject;
+import playground.test.revo.data.PrivateAccountDAO;
+import playground.test.revo.data.PublicAccountDAO;
+import playground.test.revo.util.FixedPoint;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Account store in a memory-mapped file, contents survive restarts. Heap usage does not depend on the number of accounts.
+ *
+ * The file is a header followed by an open-addressing (linear probing) table of fixed-width records:
+ * balance in minor units (8 bytes), id hash (4 bytes), id length (2 bytes), UTF-8 id (up to 50 bytes).
+ * Capacity is fixed when the file is created, the table accepts up to 75% of it.
+ *
+ * Configuration: "revo.data.file", "revo.data.capacity" and "revo.scale" system properties.
+ *
+ * NOTE: balances rely on TX manager locks, only account creation is synchronized here. Lock-free readers
+ * see a new record once its id length is published by a volatile write, and read balances with single
+ * volatile 8-byte reads, so they never see a half-written record or a torn balance, see {@link DirectMemory}.
+ */
+public class MappedAccountDAO implements PublicAccountDAO, PrivateAccountDAO, AutoCloseable {
+    /**
+     * Returned by unit operations instead of null
+     */
+    public static final long NONE = -1;
+
+    static final int MAX_ID_BYTES = 50;
+
+    private static final long MAGIC = 0x5245564f41434354L; // REVOACCT
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 4096;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 8;
+    private static final int SCALE_OFFSET = 12;
+    private static final int CAPACITY_OFFSET = 16;
+    private static final int COUNT_OFFSET = 24;
+
+    private static final int RECORD_SIZE = 64;
+    private static final int BALANCE_OFFSET = 0;
+    private static final int HASH_OFFSET = 8;
+    private static final int LENGTH_OFFSET = 12;
+    private static final int ID_OFFSET = 14;
+
+    /**
+     * 2^24 records = 1GB per mapped segment
+     */
+    private static final int MAX_SEGMENT_BITS = 24;
+
+    /**
+     * Byte past any record, locked by the server, which replicates the file
+     */
+    private static final long REPLICA_LOCK = Long.MAX_VALUE - 1;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer header;
+
+    private final MappedByteBuffer[] segments;
+
+    // Addresses of the segments for volatile access
+    private final long[] addresses;
+
+    private final int segmentBits;
+
+    private final long segmentMask;
+
+    private final long capacity;
+
+    private final long mask;
+
+    private final long maxCount;
+
+    private final FixedPoint fixedPoint;
+
+    private volatile long count;
+
+    @Inject
+    public MappedAccountDAO() {
+        this(Paths.get(System.getProperty("revo.data.file", "accounts.dat")),
+                Long.getLong("revo.data.capacity", 1 << 20),
+                Integer.getInteger("revo.scale", 2));
+    }
+
+    /**
+     * Opens existing file or creates a new one
+     *
+     * @param file     data file
+     * @param capacity number of records for a new file, rounded up to a power of two; ignored for existing file
+     * @param scale    scale of balances, should match the scale of existing file
+     */
+    public MappedAccountDAO(Path file, long capacity, int scale) {
+        this.fixedPoint = new FixedPoint(scale);
+
+        try {
+            boolean exists = file.toFile().length() > 0;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+            if (exists) {
+                if (header.getLong(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION) {
+                    throw new IllegalStateException("Not an account file: " + file);
+                }
+                if (header.getInt(SCALE_OFFSET) != scale) {
+                    throw new IllegalStateException("Account file scale is " + header.getInt(SCALE_OFFSET) + ", expected " + scale);
+                }
+                this.capacity = header.getLong(CAPACITY_OFFSET);
+                this.count = header.getLong(COUNT_OFFSET);
+            } else {
+                if (capacity <= 0 || capacity > (1L << 40)) {
+                    throw new IllegalArgumentException("Incorrect capacity: " + capacity);
+                }
+                long size = Long.highestOneBit(capacity);
+                this.capacity = size < capacity ? size << 1 : size;
+                this.count = 0;
+
+                header.putLong(MAGIC_OFFSET, MAGIC);
+                header.putInt(VERSION_OFFSET, VERSION);
+                header.putInt(SCALE_OFFSET, scale);
+                header.putLong(CAPACITY_OFFSET, this.capacity);
+                header.putLong(COUNT_OFFSET, 0);
+                header.force();
+            }
+
+            this.mask = this.capacity - 1;
+            this.maxCount = this.capacity - (this.capacity >>> 2);
+            this.segmentBits = Math.min(MAX_SEGMENT_BITS, Long.numberOfTrailingZeros(this.capacity));
+            this.segmentMask = (1L << segmentBits) - 1;
+
+            long segmentSize = (long) RECORD_SIZE << segmentBits;
+            this.segments = new MappedByteBuffer[(int) (this.capacity >>> segmentBits)];
+            this.addresses = new long[segments.length];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + i * segmentSize, segmentSize);
+                addresses[i] = DirectMemory.address(segments[i]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not open account file " + file, e);
+        }
+    }
+
+    public FixedPoint fixedPoint() {
+        return fixedPoint;
+    }
+
+    @Override
+    public BigDecimal reduce(String id, BigDecimal amount) {
+        long balance = reduceUnits(id, fixedPoint.toUnits(amount));
+        return balance == NONE ? null : fixedPoint.toDecimal(balance);
+    }
+
+    @Override
+    public BigDecimal deposit(String id, BigDecimal amount) {
+        long balance = depositUnits(id, fixedPoint.toUnits(amount));
+        return balance == NONE ? null : fixedPoint.toDecimal(balance);
+    }
+
+    @Override
+    public BigDecimal createAndDeposit(String id, BigDecimal amount) {
+        return fixedPoint.toDecimal(createAndDepositUnits(id, fixedPoint.toUnits(amount)));
+    }
+
+    /**
+     * The amount is converted once, balances are updated in minor units
+     */
+    @Override
+    public boolean transfer(String from, String to, BigDecimal amount) {
+        long units = fixedPoint.toUnits(amount);
+        if (reduceUnits(from, units) == NONE) {
+            return false;
+        }
+        depositUnits(to, units);
+        return true;
+    }
+
+    @Override
+    public boolean exists(String id) {
+        return find(id, hash(id)) != NONE;
+    }
+
+    @Override
+    public boolean isValidAmount(BigDecimal amount) {
+        return fixedPoint.isValid(amount);
+    }
+
+    @Override
+    public Collection<String> allAccounts() {
+        return new AllAccounts();
+    }
+
+    /**
+     * Accounts in the order of their records, records never move
+     */
+    @Override
+    public Iterator<String> accounts(String after) {
+        if (after == null) {
+            return new Records(-1);
+        }
+
+        long record = find(after, hash(after));
+        if (record == NONE) {
+            throw new IllegalArgumentException("Account does not exist: " + after);
+        }
+        return new Records(record);
+    }
+
+    @Override
+    public BigDecimal balance(String id) {
+        long balance = balanceUnits(id);
+        return balance == NONE ? null : fixedPoint.toDecimal(balance);
+    }
+
+    /**
+     * @see PrivateAccountDAO#reduce(String, BigDecimal)
+     * @return NONE if current balance is less than specified amount, new balance otherwise
+     */
+    public long reduceUnits(String id, long amount) {
+        checkPositive(amount);
+
+        long record = find(id, hash(id));
+
+        if (record == NONE) {
+            throw new IllegalArgumentException("Account does not exist: " + id);
+        }
+
+        long current = getBalance(record);
+        if (current < amount) {
+            return NONE;
+        }
+
+        return putBalance(record, current - amount);
+    }
+
+    /**
+     * @see PrivateAccountDAO#deposit(String, BigDecimal)
+     * @return NONE if account is not present, new account balance otherwise
+     */
+    public long depositUnits(String id, long amount) {
+        checkPositive(amount);
+
+        long record = find(id, hash(id));
+        return record == NONE ? NONE : putBalance(record, Math.addExact(getBalance(record), amount));
+    }
+
+    /**
+     * @see PrivateAccountDAO#createAndDeposit(String, BigDecimal)
+     * @throws IllegalStateException if the store is full
+     */
+    public long createAndDepositUnits(String id, long amount) {
+        checkPositive(amount);
+
+        int hash = hash(id);
+        long record = find(id, hash);
+        if (record == NONE) {
+            record = insert(id, hash);
+        }
+        return putBalance(record, Math.addExact(getBalance(record), amount));
+    }
+
+    /**
+     * @return NONE if account is not present, balance otherwise
+     */
+    public long balanceUnits(String id) {
+        long record = find(id, hash(id));
+        return record == NONE ? NONE : getBalance(record);
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    /**
+     * Claims the file for a replication primary or follower until it is closed, so a follower does not
+     * apply records of the primary to the file of the primary itself
+     *
+     * @return false if another store of this or another process has claimed the file
+     */
+    public boolean claimReplica() {
+        try {
+            return channel.tryLock(REPLICA_LOCK, 1, false) != null;
+        } catch (OverlappingFileLockException e) {
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not lock account file", e);
+        }
+    }
+
+    /**
+     * Writes changes to the storage device
+     */
+    public void flush() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        header.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    private long find(String id, int hash) {
+        long record = hash & mask;
+        while (true) {
+            // Read first: the hash and the id are written before the length
+            int length = length(record);
+            if (length == 0) {
+                return NONE;
+            }
+
+            MappedByteBuffer segment = segment(record);
+            int offset = offset(record);
+            if (segment.getInt(offset + HASH_OFFSET) == hash && matches(segment, offset + ID_OFFSET, length, id)) {
+                return record;
+            }
+
+            record = (record + 1) & mask;
+        }
+    }
+
+    private synchronized long insert(String id, int hash) {
+        long record = find(id, hash);
+        if (record != NONE) {
+            return record;
+        }
+
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0 || bytes.length > MAX_ID_BYTES) {
+            throw new IllegalArgumentException("Account id should be 1.." + MAX_ID_BYTES + " bytes long: " + id);
+        }
+
+        if (count >= maxCount) {
+            throw new IllegalStateException("Account store is full: " + count + " accounts");
+        }
+
+        record = hash & mask;
+        while (length(record) != 0) {
+            record = (record + 1) & mask;
+        }
+
+        MappedByteBuffer segment = segment(record);
+        int offset = offset(record);
+        segment.putLong(offset + BALANCE_OFFSET, 0);
+        segment.putInt(offset + HASH_OFFSET, hash);
+        for (int i = 0; i < bytes.length; i++) {
+            segment.put(offset + ID_OFFSET + i, bytes[i]);
+        }
+        // Length goes last: non-zero length marks the record as taken, published to lock-free readers
+        DirectMemory.putShortVolatile(address(record) + LENGTH_OFFSET, (short) bytes.length);
+
+        header.putLong(COUNT_OFFSET, ++count);
+        return record;
+    }
+
+    private long getBalance(long record) {
+        return DirectMemory.getLongVolatile(address(record) + BALANCE_OFFSET);
+    }
+
+    /**
+     * Writers are ordered by TX manager locks, so an ordered write is enough for lock-free readers
+     */
+    private long putBalance(long record, long balance) {
+        DirectMemory.putLongOrdered(address(record) + BALANCE_OFFSET, balance);
+        return balance;
+    }
+
+    private int length(long record) {
+        return DirectMemory.getShortVolatile(address(record) + LENGTH_OFFSET);
+    }
+
+    private long address(long record) {
+        return addresses[(int) (record >>> segmentBits)] + offset(record);
+    }
+
+    private MappedByteBuffer segment(long record) {
+        return segments[(int) (record >>> segmentBits)];
+    }
+
+    private int offset(long record) {
+        return (int) (record & segmentMask) * RECORD_SIZE;
+    }
+
+    private static int hash(String id) {
+        int h = id.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Compares stored UTF-8 id with the string, allocation-free for ASCII ids
+     */
+    private static boolean matches(MappedByteBuffer segment, int offset, int length, String id) {
+        int chars = id.length();
+        if (chars > length) {
+            // UTF-8 encoding is never shorter than the number of chars
+            return false;
+        }
+
+        if (chars == length) {
+            int i = 0;
+            for (; i < chars; i++) {
+                char c = id.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                if (segment.get(offset + i) != (byte) c) {
+                    return false;
+                }
+            }
+            if (i == chars) {
+                return true;
+            }
+        }
+
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (segment.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void checkPositive(long amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Amount can not be negative");
+        }
+    }
+
+    /**
+     * Live view over records, ids are decoded while iterating
+     */
+    private class AllAccounts extends AbstractCollection<String> {
+        @Override
+        public Iterator<String> iterator() {
+            return new Records(-1);
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(count, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Ids of taken records after the given one, decoded while iterating
+     */
+    private class Records implements Iterator<String> {
+        private long next;
+
+        private Records(long after) {
+            this.next = advance(after);
+        }
+
+        private long advance(long from) {
+            for (long r = from + 1; r < capacity; r++) {
+                if (length(r) != 0) {
+                    return r;
+                }
+            }
+            return NONE;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != NONE;
+        }
+
+        @Override
+        public String next() {
+            if (next == NONE) {
+                throw new NoSuchElementException();
+            }
+            long record = next;
+            next = advance(record);
+
+            MappedByteBuffer segment = segment(record);
+            int offset = offset(record);
+            byte[] bytes = new byte[length(record)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = segment.get(offset + ID_OFFSET + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package playground.test.revo.data.impl;
+
+import playground.test.revo.data.AccountSnapshot;
+import playground.test.revo.data.PrivateAccountDAO;
+import playground.test.revo.data.PublicAccountDAO;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Account store with multi-version balances, so readers see consistent balances of any number of
+ * accounts without blocking writers.
+ *
+ * Every account keeps a chain of balance versions, newest first. Updates between {@link #begin()}
+ * and {@link #commit(Tx)} are versions of one transaction, which get the next global commit sequence
+ * all at once; an update outside of a transaction is committed right away. A {@link #snapshot()} is
+ * opened at the last committed sequence and reads the newest version of an account committed up to it.
+ * {@link #balance(String)} reads the newest committed version.
+ *
+ * Versions are reclaimed by writers: an update cuts the chain of the account below the newest version,
+ * which the oldest open snapshot can see, so without open snapshots a chain holds two versions at most.
+ *
+ * Writes of an account are serialized by {@link SimpleTxManager}, which brackets every transaction.
+ */
+public class MvccAccountDAO implements PublicAccountDAO, PrivateAccountDAO {
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+    // Ids in natural order for paging, accounts are never removed
+    private final NavigableSet<String> ids = new ConcurrentSkipListSet<>();
+
+    private final ThreadLocal<Tx> current = new ThreadLocal<>();
+
+    // Sequences are assigned and snapshots are opened under it
+    private final Object commitLock = new Object();
+
+    private volatile long committed;
+
+    // Sequence of open snapshots to their number
+    private final ConcurrentNavigableMap<Long, Integer> snapshots = new ConcurrentSkipListMap<>();
+
+    /**
+     * Transaction of the current thread, its versions are not seen until it is committed
+     */
+    public static final class Tx {
+        private volatile long sequence;
+
+        private boolean updated;
+    }
+
+    private static final class Version {
+        final Tx tx;
+        final BigDecimal amount;
+        volatile Version previous;
+
+        Version(Tx tx, BigDecimal amount, Version previous) {
+            this.tx = tx;
+            this.amount = amount;
+            this.previous = previous;
+        }
+    }
+
+    private static final class Account {
+        volatile Version head;
+    }
+
+    /**
+     * Starts a transaction of the current thread
+     *
+     * @implNote call under TX manager only
+     */
+    public Tx begin() {
+        Tx tx = new Tx();
+        current.set(tx);
+        return tx;
+    }
+
+    /**
+     * Makes all updates of the transaction visible at once
+     *
+     * @return commit sequence, the last committed one if nothing was updated
+     */
+    public long commit(Tx tx) {
+        current.remove();
+        synchronized (commitLock) {
+            if (tx.updated) {
+                // The sequence is visible before the snapshots, which can see it
+                tx.sequence = committed + 1;
+                committed = tx.sequence;
+            }
+            return committed;
+        }
+    }
+
+    /**
+     * @return sequence of the last committed transaction
+     */
+    public long committed() {
+        return committed;
+    }
+
+    @Override
+    public AccountSnapshot snapshot() {
+        long sequence;
+        synchronized (commitLock) {
+            sequence = committed;
+            snapshots.merge(sequence, 1, Integer::sum);
+        }
+        return new Snapshot(sequence);
+    }
+
+    @Override
+    public BigDecimal reduce(String id, BigDecimal amount) {
+        checkPositive(amount);
+
+        Account account = accounts.get(id);
+
+        if (account == null) {
+            throw new IllegalArgumentException("Account does not exist: " + id);
+        }
+
+        BigDecimal newBalance = account.head.amount.subtract(amount);
+
+        if (newBalance.compareTo(BigDecimal.ZERO) < 0) {
+            return null;
+        }
+
+        return update(account, newBalance);
+    }
+
+    @Override
+    public BigDecimal deposit(String id, BigDecimal amount) {
+        checkPositive(amount);
+
+        Account account = accounts.get(id);
+        return account == null ? null : update(account, account.head.amount.add(amount));
+    }
+
+    @Override
+    public BigDecimal createAndDeposit(String id, BigDecimal amount) {
+        checkPositive(amount);
+
+        Account account = accounts.get(id);
+        if (account != null) {
+            return update(account, account.head.amount.add(amount));
+        }
+
+        Account created = new Account();
+        update(created, amount);
+        // The first version is set before the account is published
+        account = accounts.putIfAbsent(id, created);
+        if (account == null) {
+            ids.add(id);
+            return amount;
+        }
+        return update(account, account.head.amount.add(amount));
+    }
+
+    @Override
+    public boolean exists(String id) {
+        return accounts.containsKey(id);
+    }
+
+    @Override
+    public Collection<String> allAccounts() {
+        return accounts.keySet();
+    }
+
+    @Override
+    public Iterator<String> accounts(String after) {
+        return (after == null ? ids : ids.tailSet(after, false)).iterator();
+    }
+
+    @Override
+    public BigDecimal balance(String id) {
+        Account account = accounts.get(id);
+        return account == null ? null : read(account, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return versions in the chain of the account, 0 if it does not exist
+     */
+    int versions(String id) {
+        Account account = accounts.get(id);
+        int count = 0;
+        for (Version version = account == null ? null : account.head; version != null; version = version.previous) {
+            count++;
+        }
+        return count;
+    }
+
+    private BigDecimal update(Account account, BigDecimal amount) {
+        Tx tx = current.get();
+        boolean single = tx == null;
+        if (single) {
+            tx = new Tx();
+        }
+        tx.updated = true;
+
+        Version head = account.head;
+        // The transaction updates the same account again, its previous version was never seen
+        account.head = head != null && head.tx == tx
+                ? new Version(tx, amount, head.previous)
+                : new Version(tx, amount, head);
+
+        if (single) {
+            commit(tx);
+        }
+        reclaim(account.head);
+        return amount;
+    }
+
+    /**
+     * Cuts the chain below the newest version, which the oldest snapshot can see
+     */
+    private void reclaim(Version head) {
+        long oldest = oldest();
+        for (Version version = head; version != null; version = version.previous) {
+            long sequence = version.tx.sequence;
+            if (sequence != 0 && sequence <= oldest) {
+                version.previous = null;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return sequence of the oldest open snapshot, the last committed one if there are none
+     */
+    private long oldest() {
+        // Read before the snapshots: a snapshot opened after they are read is not older than it
+        long oldest = committed;
+        Map.Entry<Long, Integer> first = snapshots.firstEntry();
+        return first == null ? oldest : Math.min(oldest, first.getKey());
+    }
+
+    /**
+     * @return amount of the newest version committed up to the sequence, null if there is none
+     */
+    private static BigDecimal read(Account account, long sequence) {
+        for (Version version = account.head; version != null; version = version.previous) {
+            long committed = version.tx.sequence;
+            if (committed != 0 && committed <= sequence) {
+                return version.amount;
+            }
+        }
+        return null;
+    }
+
+    private static void checkPositive(BigDecimal amount) {
+        if (amount.compareTo(BigDecimal.ZERO) < 0) {
+            throw new IllegalArgumentException("Amount can not be negative");
+        }
+    }
+
+    private final class Snapshot implements AccountSnapshot {
+        private final long sequence;
+
+        private boolean closed;
+
+        Snapshot(long sequence) {
+            this.sequence = sequence;
+        }
+
+        @Override
+        public long sequence() {
+            return sequence;
+        }
+
+        @Override
+        public BigDecimal balance(String id) {
+            if (closed) {
+                throw new IllegalStateException("Snapshot is closed");
+            }
+            Account account = accounts.get(id);
+            return account == null ? null : read(account, sequence);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                snapshots.computeIfPresent(sequence, (key, count) -> count == 1 ? null : count - 1);
+            }
+        }
+    }
+}
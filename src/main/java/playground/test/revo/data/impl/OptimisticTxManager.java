@@ -0,0 +1,114 @@
+package playground.test.revo.data.impl;
+
+import com.google.inject.Inject;
+import playground.test.revo.data.TxManager;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import static playground.test.revo.util.StringUtils.isNullOrEmpty;
+
+/**
+ * Lock-free TX manager: balances are updated with compare-and-set, threads never park.
+ *
+ * Transfer debits the source first and credits the destination afterwards, so the
+ * balance can never go negative, but readers may observe the amount "in flight".
+ * A multi-leg transaction applies all debits first, the applied ones are returned if any balance
+ * is not enough. ERROR_TIMEOUT is never returned.
+ */
+public class OptimisticTxManager implements TxManager {
+
+    private final VersionedAccountDAO accountDAO;
+
+    @Inject
+    public OptimisticTxManager(VersionedAccountDAO accountDAO) {
+        this.accountDAO = accountDAO;
+    }
+
+    @Override
+    public TxResult transfer(String from, String to, BigDecimal amount) {
+        try {
+            if (isNullOrEmpty(from) || !accountDAO.exists(from)) {
+                return TxResult.ERROR_FROM_NOT_FOUND;
+            }
+
+            if (isNullOrEmpty(to) || !accountDAO.exists(to)) {
+                return TxResult.ERROR_TO_NOT_FOUND;
+            }
+
+            if (to.equals(from)) {
+                return TxResult.ERROR_SAME_FROM_TO;
+            }
+
+            if (amount == null || isNegative(amount)) {
+                return TxResult.ERROR_INCORRECT_AMOUNT;
+            }
+
+            if (accountDAO.reduce(from, amount) == null) {
+                return TxResult.ERROR_INSUFFICIENT_AMOUNT;
+            }
+        } catch (Throwable e) {
+            return TxResult.ERROR_UNKNOWN;
+        }
+
+        try {
+            accountDAO.deposit(to, amount);
+            return TxResult.SUCCESS;
+        } catch (Throwable e) {
+            compensate(from, amount);
+            return TxResult.ERROR_UNKNOWN;
+        }
+    }
+
+    @Override
+    public TxResult transfer(Map<String, BigDecimal> legs) {
+        try {
+            TxResult error = TxLegs.validate(legs, accountDAO::exists, amount -> true);
+            if (error != null) {
+                return error;
+            }
+
+            Map.Entry<String, BigDecimal>[] sorted = TxLegs.debitsFirst(legs);
+            if (!TxLegs.debit(accountDAO, sorted)) {
+                return TxResult.ERROR_INSUFFICIENT_AMOUNT;
+            }
+            TxLegs.credit(accountDAO, sorted);
+            return TxResult.SUCCESS;
+        } catch (Throwable e) {
+            return TxResult.ERROR_UNKNOWN;
+        }
+    }
+
+    @Override
+    public DepositResult deposit(String id, BigDecimal amount) {
+        try {
+            if (isNullOrEmpty(id)) {
+                return DepositResult.ERROR_NOT_FOUND;
+            }
+
+            if (amount == null || isNegative(amount)) {
+                return DepositResult.ERROR_INCORRECT_AMOUNT;
+            }
+
+            accountDAO.createAndDeposit(id, amount);
+            return DepositResult.SUCCESS;
+        } catch (Throwable e) {
+            return DepositResult.ERROR_UNKNOWN;
+        }
+    }
+
+    /**
+     * Returns debited amount back, accounts are never removed
+     */
+    private void compensate(String id, BigDecimal amount) {
+        try {
+            accountDAO.deposit(id, amount);
+        } catch (Throwable e) {
+            // Nothing else can be done here
+        }
+    }
+
+    private static boolean isNegative(BigDecimal amount) {
+        return amount.compareTo(BigDecimal.ZERO) < 0;
+    }
+}
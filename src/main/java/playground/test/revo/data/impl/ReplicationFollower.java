@@ -0,0 +1,294 @@
+package playground.test.revo.data.impl;
+
+import playground.test.revo.data.PrivateAccountDAO;
+import playground.test.revo.data.PublicAccountDAO;
+import playground.test.revo.metrics.MetricsRegistry;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Applies transactions streamed by {@link ReplicationPrimary} to the local account store, which
+ * is then read only. The follower is the only writer of the store, so records are applied without
+ * a TX manager, readers see every account change as it was committed by the primary.
+ *
+ * The follower reconnects with a backoff from 100 ms to 5 s and resumes after the last applied
+ * record, or loads a snapshot if the primary has not kept it. Snapshot balances replace local ones,
+ * records after the snapshot are applied to an account only above its watermark. Until the first
+ * snapshot is loaded the follower is not ready.
+ *
+ * Lag is reported in records, the distance to the last sequence of the primary, and in ms: the age
+ * of the newest primary state the store is known to include. It is the time of the last frame if
+ * everything the primary had by then is applied, otherwise the commit time of the last applied record.
+ * So lag grows while the primary is unreachable, comparing clocks of both hosts.
+ */
+public class ReplicationFollower implements AutoCloseable {
+
+    private static final long MIN_BACKOFF_MS = 100;
+
+    private static final long MAX_BACKOFF_MS = 5000;
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+
+    private static final int READ_TIMEOUT_MS = 10_000;
+
+    private final String hostname;
+
+    private final int port;
+
+    private final PrivateAccountDAO privateDAO;
+
+    private final PublicAccountDAO publicDAO;
+
+    private final LongAdder applied;
+
+    private final LongAdder reconnects;
+
+    private final LongAdder resyncs;
+
+    // Written by the replication thread only
+    private volatile long sequence;
+
+    private volatile long primarySequence;
+
+    private volatile long syncedAt;
+
+    private volatile boolean ready;
+
+    private long runId;
+
+    // Account id to sequence included into its snapshot balance, while records may be below it
+    private Map<String, Long> watermarks;
+
+    private long snapshotStart;
+
+    private long maxWatermark;
+
+    private volatile boolean running;
+
+    private volatile Socket socket;
+
+    private Thread thread;
+
+    public ReplicationFollower(String hostname, int port, PrivateAccountDAO privateDAO, PublicAccountDAO publicDAO,
+                               MetricsRegistry metrics) {
+        if (port <= 0 || port > 0xFFFF) {
+            throw new IllegalArgumentException("Incorrect primary port: " + port);
+        }
+        this.hostname = hostname;
+        this.port = port;
+        this.privateDAO = privateDAO;
+        this.publicDAO = publicDAO;
+
+        applied = metrics.counter("revo_replication_applied_records_total", "Records applied by the follower");
+        reconnects = metrics.counter("revo_replication_reconnects_total", "Connections of the follower to the primary");
+        resyncs = metrics.counter("revo_replication_resyncs_total", "Snapshots loaded by the follower");
+        metrics.gauge("revo_replication_lag_records", "Records committed by the primary, not applied by the follower",
+                this::lagRecords);
+        metrics.gauge("revo_replication_lag_ms", "Age of the newest primary state applied by the follower",
+                this::lagMillis);
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Follower is started already");
+        }
+        running = true;
+        thread = new Thread(this::run, "replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return if a snapshot of the primary has been loaded
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return sequence of the last applied record
+     */
+    public long sequence() {
+        return sequence;
+    }
+
+    public long lagRecords() {
+        return Math.max(0, primarySequence - sequence);
+    }
+
+    /**
+     * @return ms, Long.MAX_VALUE until the follower is ready
+     */
+    public long lagMillis() {
+        return ready ? Math.max(0, System.currentTimeMillis() - syncedAt) : Long.MAX_VALUE;
+    }
+
+    @Override
+    public synchronized void close() {
+        running = false;
+        closeQuietly(socket);
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        long backoff = MIN_BACKOFF_MS;
+        while (running) {
+            try (Socket socket = new Socket()) {
+                this.socket = socket;
+                socket.connect(new InetSocketAddress(hostname, port), CONNECT_TIMEOUT_MS);
+                socket.setTcpNoDelay(true);
+                // The primary sends heartbeats, silence means it is gone
+                socket.setSoTimeout(READ_TIMEOUT_MS);
+                reconnects.increment();
+
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+                if (follow(in, socket.getOutputStream())) {
+                    backoff = MIN_BACKOFF_MS;
+                }
+            } catch (IOException e) {
+                // The primary is not reachable, or has disconnected
+            } catch (RuntimeException e) {
+                // The store does not match the primary, loads a snapshot on reconnect
+                runId = 0;
+            }
+
+            if (running) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoff));
+                backoff = Math.min(MAX_BACKOFF_MS, 2 * backoff);
+            }
+        }
+    }
+
+    /**
+     * Applies frames until the connection fails
+     *
+     * @return if the handshake has succeeded
+     */
+    private boolean follow(DataInputStream in, OutputStream out) throws IOException {
+        ByteBuffer buffer = ReplicationProtocol.read(in, ByteBuffer.allocate(64 * 1024));
+        if (buffer.get() != ReplicationProtocol.HELLO) {
+            throw new IOException("Unexpected handshake of the primary");
+        }
+        long primaryRunId = buffer.getLong();
+        primarySequence = buffer.getLong();
+
+        ByteBuffer from = ByteBuffer.allocate(ReplicationProtocol.FRAME_HEADER + 16);
+        ReplicationProtocol.begin(from, ReplicationProtocol.FROM);
+        from.putLong(runId).putLong(sequence);
+        ReplicationProtocol.end(from, 0);
+        out.write(from.array(), 0, from.position());
+        out.flush();
+        runId = primaryRunId;
+
+        while (running) {
+            buffer = ReplicationProtocol.read(in, buffer);
+            byte type = buffer.get();
+            switch (type) {
+                case ReplicationProtocol.SNAPSHOT:
+                    snapshotStart = buffer.getLong();
+                    maxWatermark = snapshotStart;
+                    watermarks = new HashMap<>();
+                    break;
+
+                case ReplicationProtocol.ACCOUNTS:
+                    loadAccounts(buffer);
+                    break;
+
+                case ReplicationProtocol.SNAPSHOT_END:
+                    sequence = snapshotStart;
+                    if (maxWatermark <= snapshotStart) {
+                        watermarks = null;
+                    }
+                    resyncs.increment();
+                    ready = true;
+                    break;
+
+                case ReplicationProtocol.RECORDS:
+                    applyRecords(buffer);
+                    break;
+
+                default:
+                    throw new IOException("Unexpected frame " + type);
+            }
+        }
+        return true;
+    }
+
+    private void loadAccounts(ByteBuffer buffer) {
+        for (int count = buffer.getInt(); count > 0; count--) {
+            String id = ReplicationProtocol.getId(buffer);
+            BigDecimal balance = ReplicationProtocol.getAmount(buffer);
+            long watermark = buffer.getLong();
+
+            BigDecimal current = publicDAO.balance(id);
+            if (current == null) {
+                privateDAO.createAndDeposit(id, balance);
+            } else if (balance.compareTo(current) > 0) {
+                privateDAO.deposit(id, balance.subtract(current));
+            } else if (balance.compareTo(current) < 0) {
+                privateDAO.reduce(id, current.subtract(balance));
+            }
+
+            if (watermark > snapshotStart) {
+                watermarks.put(id, watermark);
+                maxWatermark = Math.max(maxWatermark, watermark);
+            }
+        }
+    }
+
+    private void applyRecords(ByteBuffer buffer) throws IOException {
+        long last = buffer.getLong();
+        long time = buffer.getLong();
+        int count = buffer.getInt();
+
+        long commitTime = -1;
+        for (int i = 0; i < count; i++) {
+            long sequence = buffer.getLong();
+            commitTime = buffer.getLong();
+            FileJournal.Record record = ReplicationProtocol.getRecord(buffer, sequence);
+            if (sequence != this.sequence + 1) {
+                throw new IOException("Record " + sequence + " does not follow " + this.sequence);
+            }
+
+            Map<String, Long> watermarks = this.watermarks;
+            record.applyTo(privateDAO, watermarks == null ? id -> 0 : id -> watermarks.getOrDefault(id, snapshotStart));
+            this.sequence = sequence;
+            if (watermarks != null && sequence >= maxWatermark) {
+                this.watermarks = null;
+            }
+        }
+        applied.add(count);
+
+        primarySequence = last;
+        if (sequence >= last) {
+            syncedAt = time;
+        } else if (commitTime >= 0) {
+            syncedAt = commitTime;
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // Closed already
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package playground.test.revo.data.impl;
+
+import playground.test.revo.data.TxJournal;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Journal decorator, which keeps the last committed transactions in memory for followers,
+ * see {@link ReplicationPrimary}.
+ *
+ * Records are numbered and stored in a ring in commit order: they are appended under account
+ * locks, so records of every account are in the order they were applied. A record is replaced
+ * by the one "capacity" records later, a follower, which has not read it by then, falls behind
+ * and is resynchronized. So appending never waits for followers, it costs a short critical section
+ * and one record object. Records are taken at commit, before the journal stores them.
+ *
+ * The log is inactive until {@link #activate()}, meanwhile records only pass to the journal.
+ */
+public class ReplicationLog implements TxJournal {
+
+    private final TxJournal journal;
+
+    private final FileJournal.Record[] records;
+
+    // Commit time of the records, ms
+    private final long[] times;
+
+    private final int mask;
+
+    private volatile boolean active;
+
+    // Written under the lock
+    private volatile long sequence;
+
+    /**
+     * @param capacity records kept, rounded up to a power of two
+     */
+    public ReplicationLog(TxJournal journal, int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Incorrect capacity: " + capacity);
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.journal = journal;
+        this.records = new FileJournal.Record[size];
+        this.times = new long[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * @return decorated journal
+     */
+    public TxJournal journal() {
+        return journal;
+    }
+
+    /**
+     * Starts keeping records, transactions committed before are seen by followers in snapshots only
+     */
+    public void activate() {
+        active = true;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * @return records kept
+     */
+    public int capacity() {
+        return records.length;
+    }
+
+    /**
+     * @return sequence of the last appended record, 0 if none
+     */
+    public long sequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the record, null if it is replaced already or not appended yet
+     */
+    FileJournal.Record get(long sequence) {
+        if (sequence <= 0 || sequence > this.sequence) {
+            return null;
+        }
+
+        FileJournal.Record record = records[(int) (sequence & mask)];
+        return record != null && record.sequence() == sequence ? record : null;
+    }
+
+    /**
+     * @return commit time of the record, ms, or -1 if it is replaced already; read racily, so it may
+     * be the time of a close record
+     */
+    long time(long sequence) {
+        long time = times[(int) (sequence & mask)];
+        return get(sequence) != null ? time : -1;
+    }
+
+    @Override
+    public boolean accepts(String from, String to, BigDecimal amount) {
+        return journal.accepts(from, to, amount);
+    }
+
+    @Override
+    public boolean accepts(Map<String, BigDecimal> legs) {
+        return journal.accepts(legs);
+    }
+
+    @Override
+    public void transfer(String from, String to, BigDecimal amount, CompletableFuture<Long> durable) {
+        if (active) {
+            synchronized (this) {
+                store(new FileJournal.Record(sequence + 1, from, to, amount));
+            }
+        }
+        journal.transfer(from, to, amount, durable);
+    }
+
+    @Override
+    public void transfer(Map<String, BigDecimal> legs, CompletableFuture<Long> durable) {
+        if (active) {
+            Map<String, BigDecimal> copy = new LinkedHashMap<>(legs);
+            synchronized (this) {
+                store(new FileJournal.Record(sequence + 1, copy));
+            }
+        }
+        journal.transfer(legs, durable);
+    }
+
+    @Override
+    public void deposit(String id, BigDecimal amount, CompletableFuture<Long> durable) {
+        if (active) {
+            synchronized (this) {
+                store(new FileJournal.Record(sequence + 1, null, id, amount));
+            }
+        }
+        journal.deposit(id, amount, durable);
+    }
+
+    /**
+     * The record is published by the sequence, call under the lock
+     */
+    private void store(FileJournal.Record record) {
+        int slot = (int) (record.sequence() & mask);
+        records[slot] = record;
+        times[slot] = System.currentTimeMillis();
+        sequence = record.sequence();
+    }
+}
@@ -0,0 +1,335 @@
+package playground.test.revo.data.impl;
+
+import com.google.inject.Inject;
+import playground.test.revo.data.PublicAccountDAO;
+import playground.test.revo.metrics.MetricsRegistry;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams committed transactions of {@link ReplicationLog} in commit order to followers over TCP,
+ * see {@link ReplicationProtocol} and {@link ReplicationFollower}.
+ *
+ * Every follower has its own sender thread, which reads the log from the position of the follower
+ * and writes records in batches: whatever has been committed since the last write, up to
+ * "revo.replication.batch" bytes per frame. While nothing new is committed, the sender polls the log
+ * every "revo.replication.linger" microseconds and writes a heartbeat every 100 ms, so the follower
+ * knows how far the primary is. The commit path never waits for a sender: a follower, which is slower
+ * than the primary for longer than the log capacity, loses its connection and gets a snapshot on reconnect.
+ *
+ * A snapshot is fuzzy, as one of {@link SnapshotStore}: every account is read under its lock with
+ * the sequence of the log at that moment, which the follower uses as a watermark of the account.
+ */
+public class ReplicationPrimary implements AutoCloseable {
+
+    private static final long HEARTBEAT_MS = 100;
+
+    private static final int HANDSHAKE_TIMEOUT_MS = 5000;
+
+    private final ReplicationLog log;
+
+    private final PublicAccountDAO accountDAO;
+
+    private final SimpleTxManager txManager;
+
+    // Followers, which have seen another run id, have state of another primary or its earlier run
+    private final long runId = new SecureRandom().nextLong();
+
+    private final long linger;
+
+    private final int batchSize;
+
+    private final Set<Socket> followers = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder sent;
+
+    private final LongAdder snapshots;
+
+    private final LongAdder overruns;
+
+    private volatile ServerSocket server;
+
+    private volatile boolean running;
+
+    @Inject
+    public ReplicationPrimary(ReplicationLog log, PublicAccountDAO accountDAO, SimpleTxManager txManager,
+                              MetricsRegistry metrics) {
+        this(log, accountDAO, txManager, Long.getLong("revo.replication.linger", 1000),
+                Integer.getInteger("revo.replication.batch", 64 * 1024), metrics);
+    }
+
+    /**
+     * @param lingerMicros pause of an idle sender before it reads the log again
+     * @param batchSize    bytes of records written at once
+     */
+    public ReplicationPrimary(ReplicationLog log, PublicAccountDAO accountDAO, SimpleTxManager txManager,
+                              long lingerMicros, int batchSize, MetricsRegistry metrics) {
+        if (lingerMicros <= 0 || batchSize < 1024 || batchSize > ReplicationProtocol.MAX_FRAME) {
+            throw new IllegalArgumentException("Incorrect replication batching");
+        }
+        this.log = log;
+        this.accountDAO = accountDAO;
+        this.txManager = txManager;
+        this.linger = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+        this.batchSize = batchSize;
+
+        sent = metrics.counter("revo_replication_sent_records_total", "Records sent to followers");
+        snapshots = metrics.counter("revo_replication_snapshots_total", "Snapshots sent to followers");
+        overruns = metrics.counter("revo_replication_overruns_total",
+                "Followers disconnected, because records they need are not kept anymore");
+        metrics.gauge("revo_replication_followers", "Connected followers", followers::size);
+        metrics.gauge("revo_replication_sequence", "Sequence of the last committed record", log::sequence);
+    }
+
+    /**
+     * Activates the log and accepts followers
+     *
+     * @param port 0 to bind any free port, see {@link #port()}
+     */
+    public synchronized void start(String hostname, int port) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Replication is started already");
+        }
+
+        ServerSocket server = new ServerSocket();
+        try {
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress(hostname, port));
+        } catch (IOException e) {
+            closeQuietly(server);
+            throw e;
+        }
+        log.activate();
+
+        this.server = server;
+        this.running = true;
+        Thread acceptor = new Thread(this::accept, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return bound port, -1 if not started
+     */
+    public int port() {
+        ServerSocket server = this.server;
+        return server == null ? -1 : server.getLocalPort();
+    }
+
+    public int followers() {
+        return followers.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        running = false;
+        closeQuietly(server);
+        for (Socket follower : followers) {
+            closeQuietly(follower);
+        }
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                followers.add(socket);
+
+                Thread sender = new Thread(() -> send(socket), "replication-sender-" + socket.getPort());
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (running) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves the follower until it disconnects or falls behind the log
+     */
+    private void send(Socket socket) {
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(batchSize + 1024);
+            OutputStream out = socket.getOutputStream();
+
+            int start = buffer.position();
+            ReplicationProtocol.begin(buffer, ReplicationProtocol.HELLO);
+            buffer.putLong(runId).putLong(log.sequence());
+            ReplicationProtocol.end(buffer, start);
+            write(out, buffer);
+
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            ByteBuffer from = ReplicationProtocol.read(in, ByteBuffer.allocate(64));
+            if (from.get() != ReplicationProtocol.FROM) {
+                throw new IOException("Unexpected handshake of " + socket);
+            }
+            long seenRunId = from.getLong();
+            long applied = from.getLong();
+
+            long next = applied + 1;
+            if (seenRunId != runId || applied < 0 || applied > log.sequence()
+                    || applied < log.sequence() && log.get(next) == null) {
+                next = snapshot(out, buffer) + 1;
+            }
+            stream(out, buffer, next);
+        } catch (IOException e) {
+            // The follower has disconnected, or is disconnected because of a malformed frame
+        } finally {
+            followers.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * @return sequence, which the snapshot starts from
+     */
+    private long snapshot(OutputStream out, ByteBuffer buffer) throws IOException {
+        long start = log.sequence();
+        int frame = buffer.position();
+        ReplicationProtocol.begin(buffer, ReplicationProtocol.SNAPSHOT);
+        buffer.putLong(start);
+        ReplicationProtocol.end(buffer, frame);
+        write(out, buffer);
+
+        Row row = new Row();
+        frame = beginAccounts(buffer);
+        int count = 0;
+        for (String id : accountDAO.allAccounts()) {
+            txManager.locked(id, () -> {
+                row.balance = accountDAO.balance(id);
+                row.watermark = log.sequence();
+            });
+            if (row.balance == null) {
+                continue;
+            }
+
+            int size = ReplicationProtocol.idSize(id) + ReplicationProtocol.amountSize(row.balance) + 8;
+            if (buffer.position() + size > batchSize && count > 0) {
+                endAccounts(out, buffer, frame, count);
+                frame = beginAccounts(buffer);
+                count = 0;
+            }
+            ReplicationProtocol.putId(buffer, id);
+            ReplicationProtocol.putAmount(buffer, row.balance);
+            buffer.putLong(row.watermark);
+            count++;
+        }
+        endAccounts(out, buffer, frame, count);
+
+        frame = buffer.position();
+        ReplicationProtocol.begin(buffer, ReplicationProtocol.SNAPSHOT_END);
+        ReplicationProtocol.end(buffer, frame);
+        write(out, buffer);
+
+        snapshots.increment();
+        return start;
+    }
+
+    private static int beginAccounts(ByteBuffer buffer) {
+        int frame = buffer.position();
+        ReplicationProtocol.begin(buffer, ReplicationProtocol.ACCOUNTS);
+        buffer.putInt(0);
+        return frame;
+    }
+
+    private static void endAccounts(OutputStream out, ByteBuffer buffer, int frame, int count) throws IOException {
+        buffer.putInt(frame + ReplicationProtocol.FRAME_HEADER, count);
+        ReplicationProtocol.end(buffer, frame);
+        write(out, buffer);
+    }
+
+    /**
+     * Writes records from the sequence on, returns once the follower has fallen behind the log
+     */
+    private void stream(OutputStream out, ByteBuffer buffer, long next) throws IOException {
+        long written = 0;
+        while (running) {
+            long last = log.sequence();
+            long now = System.currentTimeMillis();
+            if (next > last && now - written < HEARTBEAT_MS) {
+                LockSupport.parkNanos(linger);
+                continue;
+            }
+
+            int frame = buffer.position();
+            ReplicationProtocol.begin(buffer, ReplicationProtocol.RECORDS);
+            buffer.putLong(last).putLong(now).putInt(0);
+
+            int count = 0;
+            while (next <= last) {
+                FileJournal.Record record = log.get(next);
+                long time = log.time(next);
+                if (record == null || time < 0) {
+                    overruns.increment();
+                    return;
+                }
+
+                int size = ReplicationProtocol.recordSize(record);
+                if (count > 0 && buffer.position() + size > batchSize) {
+                    break;
+                }
+                if (buffer.remaining() < size) {
+                    buffer = grow(buffer, size);
+                }
+                ReplicationProtocol.putRecord(buffer, record, time);
+                next++;
+                count++;
+            }
+
+            // Records over the batch come in the next frame
+            buffer.putInt(frame + ReplicationProtocol.FRAME_HEADER + 16, count);
+            ReplicationProtocol.end(buffer, frame);
+            write(out, buffer);
+
+            sent.add(count);
+            written = now;
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int size) {
+        ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() + size);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private static void write(OutputStream out, ByteBuffer buffer) throws IOException {
+        out.write(buffer.array(), 0, buffer.position());
+        out.flush();
+        buffer.clear();
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // Closed already
+        }
+    }
+
+    private static final class Row {
+        private BigDecimal balance;
+        private long watermark;
+    }
+}
@@ -0,0 +1,181 @@
+package playground.test.revo.data.impl;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Frames between {@link ReplicationPrimary} and {@link ReplicationFollower}: int length of the rest,
+ * byte type, body. Numbers are big-endian, an id is a short length and UTF-8 bytes, an amount is
+ * an int scale, a short length and the unscaled value in two's complement, as in {@link FileJournal}.
+ *
+ * The primary starts with HELLO (run id, last sequence), the follower answers with FROM (run id
+ * it has seen, last applied sequence). Then the primary either streams records right after
+ * the applied one, or sends a snapshot first: SNAPSHOT (start sequence), ACCOUNTS (count, then id,
+ * balance and watermark of each) and SNAPSHOT_END. Records come in RECORDS frames (last sequence and
+ * time of the primary, count, then sequence, commit time, kind and fields of each). A frame without
+ * records is a heartbeat.
+ */
+final class ReplicationProtocol {
+
+    static final byte HELLO = 1;
+
+    static final byte FROM = 2;
+
+    static final byte SNAPSHOT = 3;
+
+    static final byte ACCOUNTS = 4;
+
+    static final byte SNAPSHOT_END = 5;
+
+    static final byte RECORDS = 6;
+
+    /**
+     * Bytes of the length and the type
+     */
+    static final int FRAME_HEADER = 5;
+
+    static final int MAX_FRAME = 16 << 20;
+
+    private static final byte DEPOSIT = 0;
+
+    private static final byte TRANSFER = 1;
+
+    private static final byte MULTI_LEG = 2;
+
+    private ReplicationProtocol() {
+    }
+
+    /**
+     * Starts a frame, its length is set by {@link #end}
+     */
+    static void begin(ByteBuffer buffer, byte type) {
+        buffer.putInt(0);
+        buffer.put(type);
+    }
+
+    static void end(ByteBuffer buffer, int start) {
+        buffer.putInt(start, buffer.position() - start - 4);
+    }
+
+    static int idSize(String id) {
+        // At most 3 bytes per char
+        return 2 + 3 * id.length();
+    }
+
+    static int amountSize(BigDecimal amount) {
+        return 4 + 2 + amount.unscaledValue().bitLength() / 8 + 1;
+    }
+
+    /**
+     * @return upper bound of the encoded record with its sequence and time
+     */
+    static int recordSize(FileJournal.Record record) {
+        int size = 8 + 8 + 1;
+        if (record.isMultiLeg()) {
+            size += 2;
+            for (Map.Entry<String, BigDecimal> leg : record.legs().entrySet()) {
+                size += idSize(leg.getKey()) + amountSize(leg.getValue());
+            }
+            return size;
+        }
+        return size + (record.from() == null ? 0 : idSize(record.from())) + idSize(record.to())
+                + amountSize(record.amount());
+    }
+
+    static void putRecord(ByteBuffer buffer, FileJournal.Record record, long time) {
+        buffer.putLong(record.sequence());
+        buffer.putLong(time);
+        if (record.isMultiLeg()) {
+            buffer.put(MULTI_LEG);
+            buffer.putShort((short) record.legs().size());
+            for (Map.Entry<String, BigDecimal> leg : record.legs().entrySet()) {
+                putId(buffer, leg.getKey());
+                putAmount(buffer, leg.getValue());
+            }
+        } else if (record.isTransfer()) {
+            buffer.put(TRANSFER);
+            putId(buffer, record.from());
+            putId(buffer, record.to());
+            putAmount(buffer, record.amount());
+        } else {
+            buffer.put(DEPOSIT);
+            putId(buffer, record.to());
+            putAmount(buffer, record.amount());
+        }
+    }
+
+    /**
+     * Reads the record after its sequence and time
+     */
+    static FileJournal.Record getRecord(ByteBuffer buffer, long sequence) throws IOException {
+        byte kind = buffer.get();
+        switch (kind) {
+            case DEPOSIT:
+                return new FileJournal.Record(sequence, null, getId(buffer), getAmount(buffer));
+            case TRANSFER:
+                return new FileJournal.Record(sequence, getId(buffer), getId(buffer), getAmount(buffer));
+            case MULTI_LEG:
+                int count = buffer.getShort() & 0xFFFF;
+                Map<String, BigDecimal> legs = new LinkedHashMap<>();
+                for (int i = 0; i < count; i++) {
+                    legs.put(getId(buffer), getAmount(buffer));
+                }
+                return new FileJournal.Record(sequence, legs);
+            default:
+                throw new IOException("Unknown record kind " + kind + " of record " + sequence);
+        }
+    }
+
+    static void putId(ByteBuffer buffer, String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    static String getId(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        String id = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return id;
+    }
+
+    static void putAmount(ByteBuffer buffer, BigDecimal amount) {
+        byte[] unscaled = amount.unscaledValue().toByteArray();
+        buffer.putInt(amount.scale());
+        buffer.putShort((short) unscaled.length);
+        buffer.put(unscaled);
+    }
+
+    static BigDecimal getAmount(ByteBuffer buffer) {
+        int scale = buffer.getInt();
+        byte[] unscaled = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+
+    /**
+     * Reads the next frame into the buffer, which is grown if needed
+     *
+     * @return buffer positioned after the type, limited by the end of the frame
+     */
+    static ByteBuffer read(DataInputStream in, ByteBuffer buffer) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_FRAME) {
+            throw new IOException("Incorrect frame length " + length);
+        }
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(Math.max(length, 2 * buffer.capacity()));
+        }
+
+        buffer.clear();
+        in.readFully(buffer.array(), 0, length);
+        buffer.limit(length);
+        return buffer;
+    }
+}
@@ -0,0 +1,178 @@
+package playground.test.revo.data.impl;
+
+import com.google.inject.Inject;
+import playground.test.revo.data.PublicAccountDAO;
+
+import java.math.BigDecimal;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+/**
+ * Accounts partitioned by hash across independent slices.
+ * Every slice is written by a single shard thread of {@link ShardedTxManager}, reads are lock-free.
+ */
+public class ShardedAccountDAO implements PublicAccountDAO {
+
+    private final InMemoryAccountDAO[] slices;
+
+    @Inject
+    public ShardedAccountDAO() {
+        this(Integer.getInteger("revo.shards", Runtime.getRuntime().availableProcessors()));
+    }
+
+    public ShardedAccountDAO(int shards) {
+        this(shards, InMemoryAccountDAO::new);
+    }
+
+    ShardedAccountDAO(int shards, Supplier<InMemoryAccountDAO> slice) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("Incorrect number of shards: " + shards);
+        }
+
+        this.slices = new InMemoryAccountDAO[shards];
+        for (int i = 0; i < shards; i++) {
+            slices[i] = slice.get();
+        }
+    }
+
+    int shards() {
+        return slices.length;
+    }
+
+    /**
+     * @param id account id
+     * @return shard index of the account
+     */
+    int shard(String id) {
+        int h = id.hashCode();
+        return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % slices.length;
+    }
+
+    /**
+     * @param shard shard index
+     * @return accounts of the shard, must be modified by the shard thread only
+     */
+    InMemoryAccountDAO slice(int shard) {
+        return slices[shard];
+    }
+
+    boolean exists(String id) {
+        return slices[shard(id)].exists(id);
+    }
+
+    @Override
+    public Collection<String> allAccounts() {
+        return new AllAccounts(slices);
+    }
+
+    /**
+     * Accounts of all slices merged in natural order, the same order as of a single {@link InMemoryAccountDAO}
+     */
+    @Override
+    public Iterator<String> accounts(String after) {
+        List<Iterator<String>> iterators = new ArrayList<>(slices.length);
+        for (InMemoryAccountDAO slice : slices) {
+            iterators.add(slice.accounts(after));
+        }
+        return new MergedAccounts(iterators);
+    }
+
+    @Override
+    public BigDecimal balance(String id) {
+        return slices[shard(id)].balance(id);
+    }
+
+    /**
+     * Merge of sorted iterators, slices are few, so the smallest head is found by a linear scan
+     */
+    private static class MergedAccounts implements Iterator<String> {
+        private final List<Iterator<String>> iterators;
+        private final String[] heads;
+
+        private MergedAccounts(List<Iterator<String>> iterators) {
+            this.iterators = iterators;
+            this.heads = new String[iterators.size()];
+            for (int i = 0; i < heads.length; i++) {
+                heads[i] = iterators.get(i).hasNext() ? iterators.get(i).next() : null;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            for (String head : heads) {
+                if (head != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String next() {
+            int min = -1;
+            for (int i = 0; i < heads.length; i++) {
+                if (heads[i] != null && (min < 0 || heads[i].compareTo(heads[min]) < 0)) {
+                    min = i;
+                }
+            }
+
+            if (min < 0) {
+                throw new NoSuchElementException();
+            }
+
+            String next = heads[min];
+            Iterator<String> iterator = iterators.get(min);
+            heads[min] = iterator.hasNext() ? iterator.next() : null;
+            return next;
+        }
+    }
+
+    /**
+     * Live view over accounts of all slices
+     */
+    private static class AllAccounts extends AbstractCollection<String> {
+        private final InMemoryAccountDAO[] slices;
+
+        private AllAccounts(InMemoryAccountDAO[] slices) {
+            this.slices = slices;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int slice = 0;
+                private Iterator<String> current = slices[0].allAccounts().iterator();
+
+                @Override
+                public boolean hasNext() {
+                    while (!current.hasNext() && slice + 1 < slices.length) {
+                        current = slices[++slice].allAccounts().iterator();
+                    }
+                    return current.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return current.next();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (InMemoryAccountDAO slice : slices) {
+                size += slice.allAccounts().size();
+            }
+            return size;
+        }
+    }
+}
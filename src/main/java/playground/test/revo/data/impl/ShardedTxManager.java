@@ -0,0 +1,380 @@
+package playground.test.revo.data.impl;
+
+import com.google.inject.Inject;
+import playground.test.revo.data.TxManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+import static playground.test.revo.util.StringUtils.isNullOrEmpty;
+
+/**
+ * Single-writer TX manager: every shard of {@link ShardedAccountDAO} is owned by one thread,
+ * which applies commands from its bounded queue one by one, so no account locks are needed.
+ *
+ * Transfers inside one shard are applied by a single command. Transfers across shards are
+ * a debit command on the source shard followed by a credit command on the destination shard.
+ * Submission blocks while the shard queue is full (backpressure); ERROR_TIMEOUT is returned
+ * if the debit could not be queued in time. Readers may observe the amount "in flight".
+ *
+ * A multi-leg transaction inside one shard is applied by a single command. Otherwise every shard
+ * with debits applies all of its debits or none by one command, in ascending shard order, then
+ * the credits are queued. If a debit command fails, the debits of the previous shards are returned.
+ *
+ * Once the manager is closed, commands still queued are answered with ERROR_UNKNOWN and new ones
+ * fail right away, so no caller waits for a stopped shard. A transfer across shards, which is
+ * stopped between its debit and credit, keeps the amount "in flight".
+ */
+public class ShardedTxManager implements TxManager, AutoCloseable {
+
+    private static final long DEFAULT_SUBMIT_TIMEOUT_MS = 500;
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private static final int SPINS = 128;
+
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final long BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private final ShardedAccountDAO accountDAO;
+
+    private final Shard[] shards;
+
+    private final long submitTimeout;
+
+    @Inject
+    public ShardedTxManager(ShardedAccountDAO accountDAO) {
+        this(accountDAO, DEFAULT_SUBMIT_TIMEOUT_MS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param submitTimeout max time to wait for a free slot in the source shard queue, ms
+     * @param queueCapacity capacity of every shard queue
+     */
+    public ShardedTxManager(ShardedAccountDAO accountDAO, long submitTimeout, int queueCapacity) {
+        this.accountDAO = accountDAO;
+        this.submitTimeout = TimeUnit.MILLISECONDS.toNanos(submitTimeout);
+        this.shards = new Shard[accountDAO.shards()];
+
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i, accountDAO.slice(i), queueCapacity);
+            shards[i].start();
+        }
+    }
+
+    @Override
+    public TxResult transfer(String from, String to, BigDecimal amount) {
+        try {
+            if (isNullOrEmpty(from) || !accountDAO.exists(from)) {
+                return TxResult.ERROR_FROM_NOT_FOUND;
+            }
+
+            if (isNullOrEmpty(to) || !accountDAO.exists(to)) {
+                return TxResult.ERROR_TO_NOT_FOUND;
+            }
+
+            if (to.equals(from)) {
+                return TxResult.ERROR_SAME_FROM_TO;
+            }
+
+            if (amount == null || isNegative(amount)) {
+                return TxResult.ERROR_INCORRECT_AMOUNT;
+            }
+
+            Shard source = shards[accountDAO.shard(from)];
+            Shard destination = shards[accountDAO.shard(to)];
+
+            if (source == destination) {
+                return call(source, true, TxResult.ERROR_TIMEOUT, TxResult.ERROR_UNKNOWN, dao -> {
+                    if (dao.reduce(from, amount) == null) {
+                        return TxResult.ERROR_INSUFFICIENT_AMOUNT;
+                    }
+                    dao.deposit(to, amount);
+                    return TxResult.SUCCESS;
+                });
+            }
+
+            TxResult debit = call(source, true, TxResult.ERROR_TIMEOUT, TxResult.ERROR_UNKNOWN, dao ->
+                    dao.reduce(from, amount) == null ? TxResult.ERROR_INSUFFICIENT_AMOUNT : TxResult.SUCCESS);
+
+            if (debit != TxResult.SUCCESS) {
+                return debit;
+            }
+
+            // Debit is applied, the credit has to be queued whatever it takes
+            TxResult credit = call(destination, false, null, TxResult.ERROR_UNKNOWN, dao -> {
+                dao.deposit(to, amount);
+                return TxResult.SUCCESS;
+            });
+
+            if (credit != TxResult.SUCCESS) {
+                call(source, false, null, TxResult.ERROR_UNKNOWN, dao -> {
+                    dao.deposit(from, amount);
+                    return TxResult.SUCCESS;
+                });
+            }
+            return credit;
+        } catch (Throwable e) {
+            return TxResult.ERROR_UNKNOWN;
+        }
+    }
+
+    @Override
+    public TxResult transfer(Map<String, BigDecimal> legs) {
+        try {
+            TxResult error = TxLegs.validate(legs, accountDAO::exists, amount -> true);
+            if (error != null) {
+                return error;
+            }
+
+            Map<Integer, Map<String, BigDecimal>> byShard = new TreeMap<>();
+            for (Map.Entry<String, BigDecimal> leg : legs.entrySet()) {
+                byShard.computeIfAbsent(accountDAO.shard(leg.getKey()), shard -> new HashMap<>())
+                        .put(leg.getKey(), leg.getValue());
+            }
+
+            if (byShard.size() == 1) {
+                Map.Entry<String, BigDecimal>[] sorted = TxLegs.debitsFirst(legs);
+                return call(shards[byShard.keySet().iterator().next()], true, TxResult.ERROR_TIMEOUT, TxResult.ERROR_UNKNOWN, dao -> {
+                    if (!TxLegs.debit(dao, sorted)) {
+                        return TxResult.ERROR_INSUFFICIENT_AMOUNT;
+                    }
+                    TxLegs.credit(dao, sorted);
+                    return TxResult.SUCCESS;
+                });
+            }
+
+            List<Shard> targets = new ArrayList<>(byShard.size());
+            List<Map.Entry<String, BigDecimal>[]> parts = new ArrayList<>(byShard.size());
+            for (Map.Entry<Integer, Map<String, BigDecimal>> part : byShard.entrySet()) {
+                targets.add(shards[part.getKey()]);
+                parts.add(TxLegs.debitsFirst(part.getValue()));
+            }
+
+            for (int i = 0; i < parts.size(); i++) {
+                Map.Entry<String, BigDecimal>[] sorted = parts.get(i);
+                if (sorted[0].getValue().signum() >= 0) {
+                    continue;
+                }
+
+                TxResult debit = call(targets.get(i), true, TxResult.ERROR_TIMEOUT, TxResult.ERROR_UNKNOWN, dao ->
+                        TxLegs.debit(dao, sorted) ? TxResult.SUCCESS : TxResult.ERROR_INSUFFICIENT_AMOUNT);
+
+                if (debit != TxResult.SUCCESS) {
+                    while (i-- > 0) {
+                        Map.Entry<String, BigDecimal>[] debited = parts.get(i);
+                        call(targets.get(i), false, null, TxResult.ERROR_UNKNOWN, dao -> {
+                            TxLegs.refund(dao, debited);
+                            return TxResult.SUCCESS;
+                        });
+                    }
+                    return debit;
+                }
+            }
+
+            // Debits are applied, the credits have to be queued whatever it takes
+            TxResult result = TxResult.SUCCESS;
+            for (int i = 0; i < parts.size(); i++) {
+                Map.Entry<String, BigDecimal>[] sorted = parts.get(i);
+                TxResult credit = call(targets.get(i), false, null, TxResult.ERROR_UNKNOWN, dao -> {
+                    TxLegs.credit(dao, sorted);
+                    return TxResult.SUCCESS;
+                });
+                if (credit != TxResult.SUCCESS) {
+                    result = credit;
+                }
+            }
+            return result;
+        } catch (Throwable e) {
+            return TxResult.ERROR_UNKNOWN;
+        }
+    }
+
+    @Override
+    public DepositResult deposit(String id, BigDecimal amount) {
+        try {
+            if (isNullOrEmpty(id)) {
+                return DepositResult.ERROR_NOT_FOUND;
+            }
+
+            if (amount == null || isNegative(amount)) {
+                return DepositResult.ERROR_INCORRECT_AMOUNT;
+            }
+
+            return call(shards[accountDAO.shard(id)], true, DepositResult.ERROR_TIMEOUT, DepositResult.ERROR_UNKNOWN, dao -> {
+                dao.createAndDeposit(id, amount);
+                return DepositResult.SUCCESS;
+            });
+        } catch (Throwable e) {
+            return DepositResult.ERROR_UNKNOWN;
+        }
+    }
+
+    /**
+     * Stops shard threads, pending commands are not applied, their callers get the failure result
+     */
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            shard.stop();
+        }
+    }
+
+    /**
+     * Runs function on the shard thread and waits for the result
+     *
+     * @param timed   give up if the command can not be queued in time
+     * @param timeout result if the command was not queued
+     * @param failure result if the function has thrown an exception
+     */
+    private <R> R call(Shard shard, boolean timed, R timeout, R failure, Function<InMemoryAccountDAO, R> func) {
+        Command<R> command = new Command<>(func, failure);
+
+        long deadline = System.nanoTime() + submitTimeout;
+        int spins = 0;
+        while (!shard.offer(command)) {
+            if (!shard.running) {
+                return failure;
+            }
+
+            if (timed && System.nanoTime() - deadline > 0) {
+                return timeout;
+            }
+
+            if (spins++ < SPINS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(this, BACKOFF_NANOS);
+            }
+        }
+
+        return command.await(shard);
+    }
+
+    private static boolean isNegative(BigDecimal amount) {
+        return amount.compareTo(BigDecimal.ZERO) < 0;
+    }
+
+    /**
+     * Function applied by the shard thread, the caller waits for its result
+     */
+    private static class Command<R> {
+        private final Function<InMemoryAccountDAO, R> func;
+        private final R failure;
+        private final Thread caller = Thread.currentThread();
+        private volatile R result;
+
+        private Command(Function<InMemoryAccountDAO, R> func, R failure) {
+            this.func = func;
+            this.failure = failure;
+        }
+
+        private void run(InMemoryAccountDAO dao) {
+            R value;
+            try {
+                value = func.apply(dao);
+            } catch (Throwable e) {
+                value = failure;
+            }
+
+            result = value == null ? failure : value;
+            LockSupport.unpark(caller);
+        }
+
+        private void fail() {
+            result = failure;
+            LockSupport.unpark(caller);
+        }
+
+        private R await(Shard shard) {
+            R value;
+            int spins = 0;
+            while ((value = result) == null) {
+                if (!shard.running) {
+                    // Queued after the shard has drained its queue, nobody answers it once the thread is gone
+                    while (shard.thread.isAlive() && result == null) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    value = result;
+                    return value == null ? failure : value;
+                }
+
+                if (spins++ >= SPINS) {
+                    LockSupport.park(this);
+                }
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Shard thread with its queue of commands
+     */
+    private static class Shard implements Runnable {
+        private final InMemoryAccountDAO dao;
+        private final RingBuffer<Command<?>> queue;
+        private final Thread thread;
+        private volatile boolean running = true;
+        private volatile boolean sleeping = false;
+
+        private Shard(int index, InMemoryAccountDAO dao, int queueCapacity) {
+            this.dao = dao;
+            this.queue = new RingBuffer<>(queueCapacity);
+            this.thread = new Thread(this, "tx-shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        private void start() {
+            thread.start();
+        }
+
+        private void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+        }
+
+        private boolean offer(Command<?> command) {
+            if (!running || !queue.offer(command)) {
+                return false;
+            }
+
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (running) {
+                Command<?> command = queue.poll();
+                if (command != null) {
+                    command.run(dao);
+                    idle = 0;
+                } else if (idle++ < SPINS) {
+                    Thread.yield();
+                } else {
+                    sleeping = true;
+                    if (queue.isEmpty()) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    sleeping = false;
+                }
+            }
+
+            // Callers of the commands left do not wait for a stopped shard
+            for (Command<?> command = queue.poll(); command != null; command = queue.poll()) {
+                command.fail();
+            }
+        }
+    }
+}
@@ -1,15 +1,28 @@
 package playground.test.revo.data.impl;
 
 import com.google.inject.Inject;
+import playground.test.revo.data.AccountAggregates;
 import playground.test.revo.data.PrivateAccountDAO;
+import playground.test.revo.data.PublicAccountDAO;
+import playground.test.revo.data.TxJournal;
 import playground.test.revo.data.TxManager;
+import playground.test.revo.metrics.MetricsRegistry;
+import playground.test.revo.util.Histogram;
 import playground.test.revo.util.StringUtils;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Supplier;
 
 import static playground.test.revo.util.StringUtils.isNullOrEmpty;
@@ -17,56 +30,180 @@ import static playground.test.revo.util.StringUtils.notNullOrEmpty;
 
 /**
  * Implementation limitations:
- * 1. TX map is constantly growing, use some eviction strategy to fix it
+ * 1. Accounts share a fixed number of lock stripes, so unrelated accounts may contend
  * 2. It is in-memory and single-server. So, "CA", without "P".
+ *
+ * Committed transactions are recorded to {@link TxJournal} under account locks, the result is
+ * returned once the record is durable. The journal is asked to accept the record before any balance
+ * is changed, so a failed or closed journal rejects transactions with ERROR_UNKNOWN and leaves the
+ * balances as they were. A record, which is not durable within the lock timeout or fails on write,
+ * returns ERROR_UNKNOWN, though in-memory balances are already updated.
+ *
+ * Async transfers and deposits never block: a busy stripe queues the transaction on its
+ * {@link TxLock}, which resumes it on the executor (common pool by default) when the lock is
+ * released, or fails it with ERROR_TIMEOUT from the shared timeout scheduler.
+ *
+ * Lock waits are recorded to "revo_lock_wait_seconds" histogram of {@link MetricsRegistry},
+ * an uncontended lock is recorded as 0 without reading the clock. How long a transaction waits for
+ * a stripe, while holding another one, and whether it backs off and retries is decided by
+ * {@link LockStrategy}, "revo.lock.strategy" system property selects it by default.
+ *
+ * With {@link HotAccountDAO} a credit of a hot account locks any free slot of it instead of its stripe,
+ * a debit still locks the stripe. A transfer to a hot account takes its amount under the stripe lock
+ * of the payer first and locks the slot afterwards, so a slot holder never waits for another lock.
+ * Credits of cold accounts, which find their stripe busy, are reported to detect hot accounts.
+ *
+ * A multi-leg transaction locks the stripes of all its accounts in ascending order, the same as
+ * a transfer, applies debits first and commits with one journal record. Two legs are a transfer.
+ *
+ * With {@link MvccAccountDAO} the updates of a transaction are committed together under its locks,
+ * so snapshot readers never see a transaction halfway applied.
+ *
+ * {@link AccountAggregates} are updated under the locks of every committed transaction and rebuilt
+ * from the store on construction, "revo.aggregates.top" system property sets the number of top accounts.
+ * Transfers, which change the sum of balances of their accounts, are counted by
+ * "revo_conservation_violations_total"; transfers of hot accounts are not checked.
  */
 public class SimpleTxManager implements TxManager {
 
     private static final long DEFAULT_LOCK_TIMEOUT_MS = 500;
 
-    private final Map<String, ReentrantLock> tx = new ConcurrentHashMap<>();
+    private static final CompletableFuture<Boolean> ACQUIRED = CompletableFuture.completedFuture(true);
+
+    private final StripedLockTable locks;
 
     private final PrivateAccountDAO accountDAO;
 
-    private final long lockTimeout;
+    private final TxJournal journal;
+
+    private final LockStrategy strategy;
+
+    private final Executor executor;
+
+    private final Histogram lockWait;
+
+    private final LongAdder lockTimeouts;
+
+    // Null if accounts are not split
+    private final HotAccountDAO hot;
+
+    // Null if balances are not versioned
+    private final MvccAccountDAO mvcc;
+
+    // Null if balances can not be read
+    private final AccountAggregates aggregates;
 
-    @Inject
     public SimpleTxManager(PrivateAccountDAO accountDAO) {
-        this(accountDAO, DEFAULT_LOCK_TIMEOUT_MS);
+        this(accountDAO, TxJournal.NONE);
+    }
+
+    public SimpleTxManager(PrivateAccountDAO accountDAO, TxJournal journal) {
+        this(accountDAO, journal, new MetricsRegistry());
+    }
+
+    @Inject
+    public SimpleTxManager(PrivateAccountDAO accountDAO, TxJournal journal, MetricsRegistry metrics) {
+        this(accountDAO, journal, DEFAULT_LOCK_TIMEOUT_MS, StripedLockTable.DEFAULT_STRIPES, metrics);
     }
 
     SimpleTxManager(PrivateAccountDAO accountDAO, long lockTimeout) {
+        this(accountDAO, lockTimeout, StripedLockTable.DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param lockStripes number of account lock stripes, rounded up to a power of two
+     */
+    public SimpleTxManager(PrivateAccountDAO accountDAO, long lockTimeout, int lockStripes) {
+        this(accountDAO, TxJournal.NONE, lockTimeout, lockStripes);
+    }
+
+    public SimpleTxManager(PrivateAccountDAO accountDAO, TxJournal journal, long lockTimeout, int lockStripes) {
+        this(accountDAO, journal, lockTimeout, lockStripes, new MetricsRegistry());
+    }
+
+    public SimpleTxManager(PrivateAccountDAO accountDAO, TxJournal journal, long lockTimeout, int lockStripes,
+                           MetricsRegistry metrics) {
+        this(accountDAO, journal, lockTimeout, lockStripes, metrics, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param executor runs async transactions, which waited for a lock
+     */
+    public SimpleTxManager(PrivateAccountDAO accountDAO, TxJournal journal, long lockTimeout, int lockStripes,
+                           MetricsRegistry metrics, Executor executor) {
+        this(accountDAO, journal, LockStrategy.fromSystemProperty(lockTimeout, TimeUnit.MILLISECONDS), lockStripes,
+                metrics, executor);
+    }
+
+    public SimpleTxManager(PrivateAccountDAO accountDAO, TxJournal journal, LockStrategy strategy, int lockStripes,
+                           MetricsRegistry metrics, Executor executor) {
         this.accountDAO = accountDAO;
-        this.lockTimeout = lockTimeout;
+        this.journal = journal;
+        this.strategy = strategy;
+        this.executor = executor;
+        this.locks = new StripedLockTable(lockStripes);
+        this.lockWait = metrics.histogram("revo_lock_wait_seconds", "Account lock acquisition time", 1e9);
+        this.lockTimeouts = metrics.counter("revo_lock_timeouts_total", "Account locks not acquired in time");
+        this.hot = accountDAO instanceof HotAccountDAO ? (HotAccountDAO) accountDAO : null;
+        this.mvcc = accountDAO instanceof MvccAccountDAO ? (MvccAccountDAO) accountDAO : null;
+        this.aggregates = accountDAO instanceof PublicAccountDAO
+                ? new AccountAggregates((PublicAccountDAO) accountDAO, Integer.getInteger("revo.aggregates.top", 100),
+                metrics.counter("revo_conservation_violations_total", "Transfers, which changed the sum of balances"))
+                : null;
+        if (aggregates != null) {
+            aggregates.rebuild();
+        }
+    }
+
+    @Override
+    public AccountAggregates aggregates() {
+        return aggregates;
     }
 
     @Override
     public TxResult transfer(String from, String to, BigDecimal amount) {
         try {
-            if (isNullOrEmpty(from) || !accountDAO.exists(from)) {
-                return TxResult.ERROR_FROM_NOT_FOUND;
+            TxResult error = validate(from, to, amount);
+            if (error != null) {
+                return error;
             }
 
-            if (isNullOrEmpty(to) || !accountDAO.exists(to)) {
-                return TxResult.ERROR_TO_NOT_FOUND;
+            CompletableFuture<Long> durable = new CompletableFuture<>();
+            HotAccountDAO.Slots slots = creditSlots(to);
+            TxResult result = slots == null
+                    ? runTx(from, to, () -> applyTransfer(from, to, amount, durable))
+                    : transferToSlot(from, to, slots, amount, durable);
+
+            if (result == TxResult.SUCCESS && !await(durable)) {
+                return TxResult.ERROR_UNKNOWN;
             }
+            return result;
+        } catch (Throwable e) {
+            return TxResult.ERROR_UNKNOWN;
+        }
+    }
 
-            if (to.equals(from)) {
-                return TxResult.ERROR_SAME_FROM_TO;
+    @Override
+    public TxResult transfer(Map<String, BigDecimal> legs) {
+        try {
+            // Not copied, the caller waits for the result
+            TxResult error = TxLegs.validate(legs, accountDAO::exists, accountDAO::isValidAmount);
+            if (error != null) {
+                return error;
             }
 
-            if (amount == null || isNegative(amount)) {
-                return TxResult.ERROR_INCORRECT_AMOUNT;
+            if (legs.size() == 2) {
+                Map.Entry<String, BigDecimal>[] pair = TxLegs.debitsFirst(legs);
+                return transfer(pair[0].getKey(), pair[1].getKey(), pair[1].getValue());
             }
 
-            return runTx(from, to, () -> {
-                BigDecimal reduce = accountDAO.reduce(from, amount);
-                if (reduce == null) {
-                    return TxResult.ERROR_INSUFFICIENT_AMOUNT;
-                }
-                accountDAO.deposit(to, amount);
-                return TxResult.SUCCESS;
-            });
+            CompletableFuture<Long> durable = new CompletableFuture<>();
+            TxResult result = runTx(stripes(legs), () -> applyTransfer(legs, durable));
+
+            if (result == TxResult.SUCCESS && !await(durable)) {
+                return TxResult.ERROR_UNKNOWN;
+            }
+            return result;
         } catch (Throwable e) {
             return TxResult.ERROR_UNKNOWN;
         }
@@ -75,29 +212,387 @@ public class SimpleTxManager implements TxManager {
     @Override
     public DepositResult deposit(String id, BigDecimal amount) {
         try {
-            if (isNullOrEmpty(id)) {
-                return DepositResult.ERROR_NOT_FOUND;
+            DepositResult error = validate(id, amount);
+            if (error != null) {
+                return error;
             }
 
-            if (amount == null || isNegative(amount)) {
-                return DepositResult.ERROR_INCORRECT_AMOUNT;
+            CompletableFuture<Long> durable = new CompletableFuture<>();
+            HotAccountDAO.Slots slots = creditSlots(id);
+            DepositResult result = slots == null
+                    ? runTx(id, () -> applyDeposit(id, amount, durable))
+                    : depositToSlot(id, slots, lockSlot(slots), amount, durable);
+
+            if (result == DepositResult.SUCCESS && !await(durable)) {
+                return DepositResult.ERROR_UNKNOWN;
             }
+            return result;
+        } catch (Throwable e) {
+            return DepositResult.ERROR_UNKNOWN;
+        }
+    }
+
+    @Override
+    public CompletableFuture<TxResult> transferAsync(String from, String to, BigDecimal amount) {
+        try {
+            TxResult error = validate(from, to, amount);
+            if (error != null) {
+                return CompletableFuture.completedFuture(error);
+            }
+
+            CompletableFuture<Long> durable = new CompletableFuture<>();
+            HotAccountDAO.Slots slots = creditSlots(to);
+            CompletableFuture<TxResult> tx = slots == null
+                    ? runTxAsync(from, to, () -> applyTransfer(from, to, amount, durable))
+                    : transferToSlotAsync(from, to, slots, amount, durable);
+
+            return tx.thenCompose(result -> result == TxResult.SUCCESS
+                            ? durable.handle((sequence, e) -> e == null ? TxResult.SUCCESS : TxResult.ERROR_UNKNOWN)
+                            : CompletableFuture.completedFuture(result))
+                    .exceptionally(e -> TxResult.ERROR_UNKNOWN);
+        } catch (Throwable e) {
+            return CompletableFuture.completedFuture(TxResult.ERROR_UNKNOWN);
+        }
+    }
+
+    @Override
+    public CompletableFuture<TxResult> transferAsync(Map<String, BigDecimal> legs) {
+        try {
+            TxResult error = TxLegs.validate(legs, accountDAO::exists, accountDAO::isValidAmount);
+            if (error != null) {
+                return CompletableFuture.completedFuture(error);
+            }
+
+            if (legs.size() == 2) {
+                Map.Entry<String, BigDecimal>[] pair = TxLegs.debitsFirst(legs);
+                return transferAsync(pair[0].getKey(), pair[1].getKey(), pair[1].getValue());
+            }
+
+            // The transaction may wait for locks after the caller has got the future
+            Map<String, BigDecimal> copy = new HashMap<>(legs);
+            CompletableFuture<Long> durable = new CompletableFuture<>();
+            return runTxAsync(stripes(copy), () -> applyTransfer(copy, durable))
+                    .thenCompose(result -> result == TxResult.SUCCESS
+                            ? durable.handle((sequence, e) -> e == null ? TxResult.SUCCESS : TxResult.ERROR_UNKNOWN)
+                            : CompletableFuture.completedFuture(result))
+                    .exceptionally(e -> TxResult.ERROR_UNKNOWN);
+        } catch (Throwable e) {
+            return CompletableFuture.completedFuture(TxResult.ERROR_UNKNOWN);
+        }
+    }
+
+    @Override
+    public CompletableFuture<DepositResult> depositAsync(String id, BigDecimal amount) {
+        try {
+            DepositResult error = validate(id, amount);
+            if (error != null) {
+                return CompletableFuture.completedFuture(error);
+            }
+
+            CompletableFuture<Long> durable = new CompletableFuture<>();
+            HotAccountDAO.Slots slots = creditSlots(id);
+            CompletableFuture<DepositResult> tx = slots == null
+                    ? runTxAsync(id, () -> applyDeposit(id, amount, durable))
+                    : lockSlotAsync(slots).thenApply(slot -> depositToSlot(id, slots, slot, amount, durable));
+
+            return tx.thenCompose(result -> result == DepositResult.SUCCESS
+                            ? durable.handle((sequence, e) -> e == null ? DepositResult.SUCCESS : DepositResult.ERROR_UNKNOWN)
+                            : CompletableFuture.completedFuture(result))
+                    .exceptionally(e -> DepositResult.ERROR_UNKNOWN);
+        } catch (Throwable e) {
+            return CompletableFuture.completedFuture(DepositResult.ERROR_UNKNOWN);
+        }
+    }
+
+    /**
+     * @return error or null, if the transfer may be applied
+     */
+    private TxResult validate(String from, String to, BigDecimal amount) {
+        if (isNullOrEmpty(from) || !accountDAO.exists(from)) {
+            return TxResult.ERROR_FROM_NOT_FOUND;
+        }
 
-            return runTx(id, () -> {
-                accountDAO.createAndDeposit(id, amount);
-                return DepositResult.SUCCESS;
+        if (isNullOrEmpty(to) || !accountDAO.exists(to)) {
+            return TxResult.ERROR_TO_NOT_FOUND;
+        }
+
+        if (to.equals(from)) {
+            return TxResult.ERROR_SAME_FROM_TO;
+        }
+
+        if (amount == null || isNegative(amount) || !accountDAO.isValidAmount(amount)) {
+            return TxResult.ERROR_INCORRECT_AMOUNT;
+        }
+        return null;
+    }
+
+    /**
+     * @return error or null, if the deposit may be applied
+     */
+    private DepositResult validate(String id, BigDecimal amount) {
+        if (isNullOrEmpty(id)) {
+            return DepositResult.ERROR_NOT_FOUND;
+        }
+
+        if (amount == null || isNegative(amount) || !accountDAO.isValidAmount(amount)) {
+            return DepositResult.ERROR_INCORRECT_AMOUNT;
+        }
+        return null;
+    }
+
+    /**
+     * Runs under the locks of both accounts, balances are changed only if the journal accepts the record
+     */
+    private TxResult applyTransfer(String from, String to, BigDecimal amount, CompletableFuture<Long> durable) {
+        if (!journal.accepts(from, to, amount)) {
+            return TxResult.ERROR_UNKNOWN;
+        }
+        BigDecimal before = aggregates == null || isHot(from) || isHot(to) ? null : aggregates.balances(from, to);
+
+        MvccAccountDAO.Tx tx = begin();
+        try {
+            if (!accountDAO.transfer(from, to, amount)) {
+                return TxResult.ERROR_INSUFFICIENT_AMOUNT;
+            }
+            journal.transfer(from, to, amount, durable);
+        } finally {
+            commit(tx);
+        }
+
+        if (aggregates != null) {
+            aggregates.transferred(from, to, before);
+        }
+        return TxResult.SUCCESS;
+    }
+
+    /**
+     * Runs under the locks of all accounts, balances are changed only if the journal accepts the record
+     */
+    private TxResult applyTransfer(Map<String, BigDecimal> legs, CompletableFuture<Long> durable) {
+        if (!journal.accepts(legs)) {
+            return TxResult.ERROR_UNKNOWN;
+        }
+        BigDecimal before = aggregates == null || isHot(legs.keySet()) ? null : aggregates.balances(legs.keySet());
+
+        MvccAccountDAO.Tx tx = begin();
+        try {
+            Map.Entry<String, BigDecimal>[] sorted = TxLegs.debitsFirst(legs);
+            if (!TxLegs.debit(accountDAO, sorted)) {
+                return TxResult.ERROR_INSUFFICIENT_AMOUNT;
+            }
+            TxLegs.credit(accountDAO, sorted);
+            journal.transfer(legs, durable);
+        } finally {
+            commit(tx);
+        }
+
+        if (aggregates != null) {
+            aggregates.transferred(legs.keySet(), before);
+        }
+        return TxResult.SUCCESS;
+    }
+
+    /**
+     * Runs under the account lock, the balance is changed only if the journal accepts the record
+     */
+    private DepositResult applyDeposit(String id, BigDecimal amount, CompletableFuture<Long> durable) {
+        if (!journal.accepts(null, id, amount)) {
+            return DepositResult.ERROR_UNKNOWN;
+        }
+        boolean created = aggregates != null && !accountDAO.exists(id);
+
+        MvccAccountDAO.Tx tx = begin();
+        try {
+            accountDAO.createAndDeposit(id, amount);
+            journal.deposit(id, amount, durable);
+        } finally {
+            commit(tx);
+        }
+
+        if (aggregates != null) {
+            aggregates.deposited(amount, created);
+            aggregates.updated(id);
+        }
+        return DepositResult.SUCCESS;
+    }
+
+    private boolean isHot(String id) {
+        return hot != null && hot.isHot(id);
+    }
+
+    private boolean isHot(Iterable<String> ids) {
+        if (hot != null) {
+            for (String id : ids) {
+                if (hot.isHot(id)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return transaction of versioned balances, null if they are not versioned
+     */
+    private MvccAccountDAO.Tx begin() {
+        return mvcc == null ? null : mvcc.begin();
+    }
+
+    /**
+     * Commits whatever has been applied, the same as unversioned balances keep it
+     */
+    private void commit(MvccAccountDAO.Tx tx) {
+        if (tx != null) {
+            mvcc.commit(tx);
+        }
+    }
+
+    /**
+     * @return slots of an existing hot account, null to lock the account stripe
+     */
+    private HotAccountDAO.Slots creditSlots(String id) {
+        if (hot == null) {
+            return null;
+        }
+
+        HotAccountDAO.Slots slots = hot.slots(id);
+        if (slots == null) {
+            if (locks.lock(locks.stripe(id)).isLocked()) {
+                hot.contended(id);
+            }
+            return null;
+        }
+
+        // A new account is created under its stripe lock
+        return accountDAO.exists(id) ? slots : null;
+    }
+
+    /**
+     * Takes the amount from the payer under its stripe lock, then credits a slot of the hot account
+     */
+    private TxResult transferToSlot(String from, String to, HotAccountDAO.Slots slots, BigDecimal amount,
+                                    CompletableFuture<Long> durable) {
+        int stripe = locks.stripe(from);
+        if (!lock(stripe)) {
+            return TxResult.ERROR_TIMEOUT;
+        }
+
+        try {
+            if (!journal.accepts(from, to, amount)) {
+                return TxResult.ERROR_UNKNOWN;
+            }
+            if (accountDAO.reduce(from, amount) == null) {
+                return TxResult.ERROR_INSUFFICIENT_AMOUNT;
+            }
+            return creditSlot(from, to, slots, lockSlot(slots), amount, durable);
+        } catch (Throwable e) {
+            return TxResult.ERROR_UNKNOWN;
+        } finally {
+            unlock(stripe);
+        }
+    }
+
+    private CompletableFuture<TxResult> transferToSlotAsync(String from, String to, HotAccountDAO.Slots slots,
+                                                            BigDecimal amount, CompletableFuture<Long> durable) {
+        int stripe = locks.stripe(from);
+
+        return lockAsync(stripe).thenCompose(locked -> {
+            if (!locked) {
+                return CompletableFuture.completedFuture(TxResult.ERROR_TIMEOUT);
+            }
+
+            CompletableFuture<Integer> slot;
+            try {
+                if (!journal.accepts(from, to, amount)) {
+                    unlock(stripe);
+                    return CompletableFuture.completedFuture(TxResult.ERROR_UNKNOWN);
+                }
+                if (accountDAO.reduce(from, amount) == null) {
+                    unlock(stripe);
+                    return CompletableFuture.completedFuture(TxResult.ERROR_INSUFFICIENT_AMOUNT);
+                }
+                slot = lockSlotAsync(slots);
+            } catch (Throwable e) {
+                unlock(stripe);
+                return CompletableFuture.completedFuture(TxResult.ERROR_UNKNOWN);
+            }
+
+            return slot.handle((index, e) -> {
+                try {
+                    if (e != null) {
+                        accountDAO.deposit(from, amount);
+                        return TxResult.ERROR_UNKNOWN;
+                    }
+                    return creditSlot(from, to, slots, index, amount, durable);
+                } finally {
+                    unlock(stripe);
+                }
             });
+        });
+    }
+
+    /**
+     * Runs under the stripe lock of the payer, returns the amount to it if the slot is not locked
+     *
+     * @param slot locked slot, negative if the lock has timed out
+     */
+    private TxResult creditSlot(String from, String to, HotAccountDAO.Slots slots, int slot, BigDecimal amount,
+                                CompletableFuture<Long> durable) {
+        if (slot < 0) {
+            accountDAO.deposit(from, amount);
+            return TxResult.ERROR_TIMEOUT;
+        }
+
+        try {
+            hot.credit(slots, slot, amount);
+            journal.transfer(from, to, amount, durable);
+            if (aggregates != null) {
+                aggregates.updated(from);
+                aggregates.credited(to);
+            }
+            return TxResult.SUCCESS;
+        } catch (Throwable e) {
+            return TxResult.ERROR_UNKNOWN;
+        } finally {
+            slots.lock(slot).unlock();
+        }
+    }
+
+    /**
+     * @param slot locked slot, negative if the lock has timed out
+     */
+    private DepositResult depositToSlot(String id, HotAccountDAO.Slots slots, int slot, BigDecimal amount,
+                                        CompletableFuture<Long> durable) {
+        if (slot < 0) {
+            return DepositResult.ERROR_TIMEOUT;
+        }
+
+        try {
+            if (!journal.accepts(null, id, amount)) {
+                return DepositResult.ERROR_UNKNOWN;
+            }
+            hot.credit(slots, slot, amount);
+            journal.deposit(id, amount, durable);
+            if (aggregates != null) {
+                aggregates.deposited(amount, false);
+                aggregates.credited(id);
+            }
+            return DepositResult.SUCCESS;
         } catch (Throwable e) {
             return DepositResult.ERROR_UNKNOWN;
+        } finally {
+            slots.lock(slot).unlock();
         }
     }
 
     DepositResult runTx(String id, Supplier<DepositResult> func) {
         assert notNullOrEmpty(id);
 
+        int stripe = locks.stripe(id);
+
         boolean locked = false;
         try {
-            locked = lock(id);
+            locked = lock(stripe);
             if (locked) {
                 return func.get();
             }
@@ -105,7 +600,7 @@ public class SimpleTxManager implements TxManager {
             return DepositResult.ERROR_UNKNOWN;
         } finally {
             if (locked) {
-                unlock(id);
+                unlock(stripe);
             }
         }
 
@@ -116,46 +611,391 @@ public class SimpleTxManager implements TxManager {
         assert notNullOrEmpty(from);
         assert notNullOrEmpty(to);
 
-        if (from.compareTo(to) > 0) {
-            return runTx(to, from, func);
-        }
+        return runTx(stripes(from, to), func);
+    }
 
-        boolean lock_from = false;
-        boolean lock_to = false;
+    /**
+     * @param stripes distinct stripes in ascending order
+     */
+    TxResult runTx(int[] stripes, Supplier<TxResult> func) {
+        boolean locked = false;
         try {
-            lock_from = lock(from);
-            if (lock_from) {
-                lock_to = lock(to);
-                if (lock_to) {
-                    return func.get();
-                }
+            locked = lockAll(stripes);
+            if (locked) {
+                return func.get();
             }
         } catch (Exception e) {
             return TxResult.ERROR_UNKNOWN;
         } finally {
-            if (lock_from) {
-                unlock(from);
+            if (locked) {
+                unlockAll(stripes, stripes.length);
             }
+        }
 
-            if (lock_to) {
-                unlock(to);
+        return TxResult.ERROR_TIMEOUT;
+    }
+
+    CompletableFuture<DepositResult> runTxAsync(String id, Supplier<DepositResult> func) {
+        assert notNullOrEmpty(id);
+
+        int stripe = locks.stripe(id);
+
+        return lockAsync(stripe).handle((locked, e) -> {
+            if (e != null || !locked) {
+                return e != null ? DepositResult.ERROR_UNKNOWN : DepositResult.ERROR_TIMEOUT;
+            }
+
+            try {
+                return func.get();
+            } catch (Throwable t) {
+                return DepositResult.ERROR_UNKNOWN;
+            } finally {
+                unlock(stripe);
+            }
+        });
+    }
+
+    CompletableFuture<TxResult> runTxAsync(String from, String to, Supplier<TxResult> func) {
+        assert notNullOrEmpty(from);
+        assert notNullOrEmpty(to);
+
+        return runTxAsync(stripes(from, to), func);
+    }
+
+    /**
+     * @param stripes distinct stripes in ascending order
+     */
+    CompletableFuture<TxResult> runTxAsync(int[] stripes, Supplier<TxResult> func) {
+        return lockAllAsync(stripes, 0, 0).handle((locked, e) -> {
+            if (e != null || !locked) {
+                return e != null ? TxResult.ERROR_UNKNOWN : TxResult.ERROR_TIMEOUT;
+            }
+
+            try {
+                return func.get();
+            } catch (Throwable t) {
+                return TxResult.ERROR_UNKNOWN;
+            } finally {
+                unlockAll(stripes, stripes.length);
+            }
+        });
+    }
+
+    /**
+     * Locks the stripes in ascending order: the first one is waited for up to the timeout, the next ones
+     * within their budgets. If one is not taken, the held ones are released and all are locked again
+     * after a back-off, until the timeout since the first back-off expires.
+     *
+     * @param stripes distinct stripes in ascending order
+     * @return if all stripes are locked
+     */
+    private boolean lockAll(int[] stripes) {
+        long deadline = 0;
+        for (int attempt = 0; ; attempt++) {
+            int locked = 0;
+            while (locked < stripes.length && lock(stripes[locked], wait(stripes[locked], locked, deadline))) {
+                locked++;
+            }
+            if (locked == stripes.length) {
+                return true;
             }
+            unlockAll(stripes, locked);
+
+            long backoff = locked > 0 ? strategy.backoff(attempt) : -1;
+            long now = System.nanoTime();
+            if (deadline == 0) {
+                deadline = now + strategy.timeout();
+            }
+            if (backoff < 0 || now + backoff >= deadline) {
+                lockTimeouts.increment();
+                return false;
+            }
+            LockSupport.parkNanos(backoff);
         }
+    }
 
-        return TxResult.ERROR_TIMEOUT;
+    /**
+     * Same as {@link #lockAll(int[])}, backs off without a thread
+     *
+     * @param deadline 0 before the first back-off
+     */
+    private CompletableFuture<Boolean> lockAllAsync(int[] stripes, int attempt, long deadline) {
+        return lockAsync(stripes, 0, deadline).thenCompose(locked -> {
+            if (locked == stripes.length) {
+                return CompletableFuture.completedFuture(true);
+            }
+            unlockAll(stripes, locked);
+
+            long backoff = locked > 0 ? strategy.backoff(attempt) : -1;
+            long now = System.nanoTime();
+            long end = deadline == 0 ? now + strategy.timeout() : deadline;
+            if (backoff < 0 || now + backoff >= end) {
+                lockTimeouts.increment();
+                return CompletableFuture.completedFuture(false);
+            }
+            return TxLock.delay(backoff, TimeUnit.NANOSECONDS)
+                    .thenComposeAsync(delayed -> lockAllAsync(stripes, attempt + 1, end), executor);
+        });
+    }
+
+    /**
+     * Locks the stripes one by one from the given index, free ones without waiting
+     *
+     * @return completed with the number of locked stripes, less than all if one is not taken in time
+     */
+    private CompletableFuture<Integer> lockAsync(int[] stripes, int from, long deadline) {
+        for (int i = from; i < stripes.length; i++) {
+            int next = i + 1;
+            CompletableFuture<Boolean> locked = lockAsync(locks.lock(stripes[i]), stripes[i],
+                    wait(stripes[i], i, deadline), false);
+            if (!locked.isDone()) {
+                return locked.thenCompose(ok -> ok
+                        ? lockAsync(stripes, next, deadline)
+                        : CompletableFuture.completedFuture(next - 1));
+            }
+            if (!locked.join()) {
+                return CompletableFuture.completedFuture(i);
+            }
+        }
+        return CompletableFuture.completedFuture(stripes.length);
     }
 
-    private boolean lock(String id) {
+    /**
+     * @param held     stripes already held by the transaction
+     * @param deadline end of retries, 0 before the first back-off
+     * @return nanos to wait for the stripe
+     */
+    private long wait(int stripe, int held, long deadline) {
+        long wait = held == 0 ? strategy.timeout() : strategy.budget(stripe);
+        return deadline == 0 ? wait : Math.min(wait, deadline - System.nanoTime());
+    }
+
+    private void unlockAll(int[] stripes, int locked) {
+        while (locked > 0) {
+            unlock(stripes[--locked]);
+        }
+    }
+
+    /**
+     * Stripes (not ids) are locked in ascending order, the same as in multi-leg transactions,
+     * so transactions do not deadlock each other. Both ids may share the same stripe.
+     */
+    private int[] stripes(String from, String to) {
+        int first = locks.stripe(from);
+        int second = locks.stripe(to);
+        if (first == second) {
+            return new int[]{first};
+        }
+        return first < second ? new int[]{first, second} : new int[]{second, first};
+    }
+
+    /**
+     * @return distinct stripes of the accounts in ascending order, the global lock order
+     */
+    private int[] stripes(Map<String, BigDecimal> legs) {
+        int[] stripes = new int[legs.size()];
+        int i = 0;
+        for (String id : legs.keySet()) {
+            stripes[i++] = locks.stripe(id);
+        }
+        Arrays.sort(stripes);
+
+        int distinct = 0;
+        for (int stripe : stripes) {
+            if (distinct == 0 || stripes[distinct - 1] != stripe) {
+                stripes[distinct++] = stripe;
+            }
+        }
+        return distinct == stripes.length ? stripes : Arrays.copyOf(stripes, distinct);
+    }
+
+    /**
+     * Runs function while the account, including all slots of a hot one, is locked,
+     * waits for the locks as long as needed
+     */
+    void locked(String id, Runnable func) {
+        int stripe = locks.stripe(id);
+        HotAccountDAO.Slots slots = hot == null ? null : hot.slots(id);
+
+        locks.lock(stripe).lock();
+        int locked = 0;
         try {
-            ReentrantLock lock = tx.computeIfAbsent(id, i -> new ReentrantLock());
-            return lock.tryLock(lockTimeout, TimeUnit.MILLISECONDS);
+            for (; slots != null && locked < slots.size(); locked++) {
+                slots.lock(locked).lock();
+            }
+            func.run();
+        } finally {
+            while (locked > 0) {
+                slots.lock(--locked).unlock();
+            }
+            unlock(stripe);
+        }
+    }
+
+    /**
+     * Waits for a stripe up to the timeout, while no other one is held
+     */
+    private boolean lock(int stripe) {
+        return counted(lock(stripe, strategy.timeout()));
+    }
+
+    private boolean lock(int stripe, long wait) {
+        TxLock lock = locks.lock(stripe);
+        if (lock.tryLock()) {
+            lockWait.record(0);
+            return true;
+        }
+
+        long start = System.nanoTime();
+        boolean locked = false;
+        try {
+            for (int spins = strategy.spins(stripe); spins > 0 && !locked; spins--) {
+                locked = !lock.isLocked() && lock.tryLock();
+            }
+            return locked || lock.tryLock(wait, TimeUnit.NANOSECONDS);
         } catch (InterruptedException e) {
             return false;
+        } finally {
+            long waited = System.nanoTime() - start;
+            lockWait.record(waited);
+            strategy.waited(stripe, waited);
         }
     }
 
-    private void unlock(String id) {
-        tx.get(id).unlock();
+    /**
+     * Waits for a slot of a hot account up to the timeout
+     */
+    private boolean lock(TxLock lock) {
+        if (lock.tryLock()) {
+            lockWait.record(0);
+            return true;
+        }
+
+        long start = System.nanoTime();
+        try {
+            return counted(lock.tryLock(strategy.timeout(), TimeUnit.NANOSECONDS));
+        } catch (InterruptedException e) {
+            return false;
+        } finally {
+            lockWait.record(System.nanoTime() - start);
+        }
+    }
+
+    private boolean counted(boolean locked) {
+        if (!locked) {
+            lockTimeouts.increment();
+        }
+        return locked;
+    }
+
+    /**
+     * @return completed future if the lock is free, otherwise the future is completed on the executor
+     */
+    private CompletableFuture<Boolean> lockAsync(int stripe) {
+        return lockAsync(locks.lock(stripe), stripe, strategy.timeout(), true);
+    }
+
+    private CompletableFuture<Boolean> lockAsync(TxLock lock) {
+        return lockAsync(lock, -1, strategy.timeout(), true);
+    }
+
+    /**
+     * @param stripe  stripe of the lock, negative for a slot
+     * @param counted if a timeout ends the transaction
+     */
+    private CompletableFuture<Boolean> lockAsync(TxLock lock, int stripe, long wait, boolean counted) {
+        if (lock.tryLock()) {
+            lockWait.record(0);
+            return ACQUIRED;
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<Boolean> waiter = lock.lockAsync(wait, TimeUnit.NANOSECONDS);
+        if (waiter.isDone()) {
+            record(stripe, start, waiter.join() || !counted);
+            return waiter;
+        }
+
+        // Do not run the transaction in the thread, which has released the lock, or in the scheduler
+        return waiter.thenApplyAsync(locked -> {
+            record(stripe, start, locked || !counted);
+            return locked;
+        }, executor);
+    }
+
+    /**
+     * Takes the first free slot from a random one, waits for the random one if all are busy
+     *
+     * @return locked slot, -1 on timeout
+     */
+    private int lockSlot(HotAccountDAO.Slots slots) {
+        int start = freeSlot(slots);
+        if (start >= 0) {
+            lockWait.record(0);
+            return start;
+        }
+
+        int slot = -start - 1;
+        return lock(slots.lock(slot)) ? slot : -1;
+    }
+
+    private CompletableFuture<Integer> lockSlotAsync(HotAccountDAO.Slots slots) {
+        int start = freeSlot(slots);
+        if (start >= 0) {
+            lockWait.record(0);
+            return CompletableFuture.completedFuture(start);
+        }
+
+        int slot = -start - 1;
+        return lockAsync(slots.lock(slot)).thenApply(locked -> locked ? slot : -1);
+    }
+
+    /**
+     * @return locked slot or (-start - 1) if all are busy
+     */
+    private static int freeSlot(HotAccountDAO.Slots slots) {
+        int size = slots.size();
+        int start = ThreadLocalRandom.current().nextInt(size);
+        for (int i = 0; i < size; i++) {
+            int slot = (start + i) % size;
+            if (slots.lock(slot).tryLock()) {
+                return slot;
+            }
+        }
+        return -start - 1;
+    }
+
+    /**
+     * @param locked false to count a timeout
+     */
+    private void record(int stripe, long start, boolean locked) {
+        long waited = System.nanoTime() - start;
+        lockWait.record(waited);
+        if (stripe >= 0) {
+            strategy.waited(stripe, waited);
+        }
+        counted(locked);
+    }
+
+    private void unlock(int stripe) {
+        locks.lock(stripe).unlock();
+    }
+
+    /**
+     * Waits for the journal record outside of account locks, up to the lock timeout
+     *
+     * @return if the record is durable
+     */
+    private boolean await(CompletableFuture<Long> durable) {
+        try {
+            durable.get(strategy.timeout(), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
     }
 
     private static boolean isNegative(BigDecimal amount) {
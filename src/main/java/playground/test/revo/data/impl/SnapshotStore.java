@@ -0,0 +1,470 @@
+package playground.test.revo.data.impl;
+
+import com.google.inject.Inject;
+import playground.test.revo.data.PrivateAccountDAO;
+import playground.test.revo.data.PublicAccountDAO;
+import playground.test.revo.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Binary images of all balances, stored next to {@link FileJournal} segments.
+ *
+ * A snapshot is written while transfers go on: every account is read under its lock together
+ * with the last journal sequence (watermark), so the balance includes exactly the records
+ * of this account up to the watermark. Recovery loads the newest valid snapshot and applies
+ * journal records above the watermark of every account.
+ *
+ * File: header (magic, version, start sequence), records (varint id length, UTF-8 id,
+ * balance, varint watermark - start sequence), trailer (record count, CRC32 of everything before).
+ *
+ * Failed background snapshots and corrupted snapshots skipped by recovery are counted
+ * by "revo_snapshot_failures_total" of {@link MetricsRegistry}.
+ */
+public class SnapshotStore implements AutoCloseable {
+
+    private static final long MAGIC = 0x5245564f534e4150L;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 24;
+
+    private static final int TRAILER_SIZE = 12;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final int MAX_RECORD_SIZE = 1 << 16;
+
+    private static final int MAX_ID_SIZE = 1 << 15;
+
+    private static final int MAX_UNSCALED_SIZE = 1 << 14;
+
+    private static final int KEEP = 2;
+
+    private static final String PREFIX = "snapshot-";
+
+    private static final String SUFFIX = ".snap";
+
+    private final FileJournal journal;
+
+    private final PublicAccountDAO accountDAO;
+
+    private final SimpleTxManager txManager;
+
+    private final long period;
+
+    private final LongAdder writeFailures;
+
+    private final LongAdder corrupted;
+
+    private volatile ScheduledExecutorService scheduler;
+
+    @Inject
+    public SnapshotStore(FileJournal journal, PublicAccountDAO accountDAO, SimpleTxManager txManager,
+                         MetricsRegistry metrics) {
+        this(journal, accountDAO, txManager, Long.getLong("revo.snapshot.period", 300), metrics);
+    }
+
+    public SnapshotStore(FileJournal journal, PublicAccountDAO accountDAO, SimpleTxManager txManager, long period) {
+        this(journal, accountDAO, txManager, period, new MetricsRegistry());
+    }
+
+    /**
+     * @param txManager TX manager, which updates accounts and records them to the journal
+     * @param period    time between background snapshots, seconds; 0 disables them
+     */
+    public SnapshotStore(FileJournal journal, PublicAccountDAO accountDAO, SimpleTxManager txManager, long period,
+                         MetricsRegistry metrics) {
+        this.journal = journal;
+        this.accountDAO = accountDAO;
+        this.txManager = txManager;
+        this.period = period;
+        this.writeFailures = metrics.counter("revo_snapshot_failures_total", "Snapshots not written or skipped",
+                "operation", "write");
+        this.corrupted = metrics.counter("revo_snapshot_failures_total", "Snapshots not written or skipped",
+                "operation", "recover");
+    }
+
+    /**
+     * Starts background snapshots
+     */
+    public synchronized void start() {
+        if (period <= 0 || scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "tx-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                write();
+            } catch (Exception e) {
+                // Retried on the next run, the journal is kept meanwhile
+                writeFailures.increment();
+            }
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Writes snapshot of current balances, removes old snapshots and journal segments
+     *
+     * @return snapshot file
+     */
+    public synchronized Path write() throws IOException {
+        long start = journal.sequence();
+
+        List<Path> snapshots = snapshots();
+        if (!snapshots.isEmpty() && sequence(snapshots.get(snapshots.size() - 1)) == start) {
+            // Nothing happened since the last one
+            return snapshots.get(snapshots.size() - 1);
+        }
+
+        Path file = journal.dir().resolve(name(start));
+        Path tmp = journal.dir().resolve(name(start) + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Writer writer = new Writer(channel);
+            writer.buffer.putLong(MAGIC).putInt(VERSION).putInt(0).putLong(start);
+
+            long count = 0;
+            Row row = new Row();
+            for (String id : accountDAO.allAccounts()) {
+                txManager.locked(id, () -> {
+                    row.balance = accountDAO.balance(id);
+                    row.watermark = journal.sequence();
+                });
+
+                if (row.balance != null) {
+                    writer.write(id, row.balance, row.watermark - start);
+                    count++;
+                }
+            }
+
+            writer.buffer.putLong(count);
+            writer.flush();
+            writer.buffer.putInt((int) writer.crc.getValue());
+            writer.flush();
+
+            // Balances may include records, which are not durable yet
+            journal.sync().get();
+            channel.force(true);
+        } catch (InterruptedException | ExecutionException e) {
+            Files.deleteIfExists(tmp);
+            throw new IOException("Journal is not durable", e);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        cleanup();
+        return file;
+    }
+
+    /**
+     * Loads the newest valid snapshot and applies the journal records after it
+     *
+     * @return number of applied journal records
+     */
+    public long recover(PrivateAccountDAO accountDAO) throws IOException {
+        Map<String, Long> watermarks = new HashMap<>();
+        long start = 0;
+
+        List<Path> snapshots = snapshots();
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            if (verify(snapshots.get(i))) {
+                start = load(snapshots.get(i), accountDAO, watermarks);
+                break;
+            }
+            corrupted.increment();
+        }
+
+        if (start < journal.truncated()) {
+            throw new IllegalStateException("No valid snapshot for journal " + journal.dir());
+        }
+
+        long base = start;
+        return journal.replay(start, record -> record.applyTo(accountDAO, id -> watermarks.getOrDefault(id, base)));
+    }
+
+    /**
+     * Checks snapshot checksum
+     */
+    static boolean verify(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE) {
+                return false;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            CRC32 crc = new CRC32();
+            long position = 0;
+            long end = size - 4;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    return false;
+                }
+                position += read;
+                buffer.flip();
+                crc.update(buffer);
+            }
+
+            buffer.clear();
+            buffer.limit(4);
+            return channel.read(buffer, end) == 4 && buffer.getInt(0) == (int) crc.getValue();
+        }
+    }
+
+    /**
+     * Creates accounts from the snapshot
+     *
+     * @param watermarks filled with watermarks above the start sequence
+     * @return start sequence
+     */
+    static long load(Path file, PrivateAccountDAO accountDAO, Map<String, Long> watermarks) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long end = channel.size() - TRAILER_SIZE;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.limit(0);
+
+            long position = fill(channel, buffer, 0, end);
+            if (buffer.getLong() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            buffer.getInt();
+            long start = buffer.getLong();
+
+            byte[] id = new byte[256];
+            long count = 0;
+            while (true) {
+                if (buffer.remaining() < MAX_RECORD_SIZE) {
+                    position = fill(channel, buffer, position, end);
+                    if (!buffer.hasRemaining()) {
+                        break;
+                    }
+                }
+
+                int length = getVarInt(buffer);
+                if (id.length < length) {
+                    id = new byte[length];
+                }
+                buffer.get(id, 0, length);
+                String account = new String(id, 0, length, StandardCharsets.UTF_8);
+
+                accountDAO.createAndDeposit(account, getDecimal(buffer));
+
+                long watermark = getVarLong(buffer);
+                if (watermark > 0) {
+                    watermarks.put(account, start + watermark);
+                }
+                count++;
+            }
+
+            ByteBuffer trailer = ByteBuffer.allocate(8);
+            channel.read(trailer, end);
+            if (trailer.getLong(0) != count) {
+                throw new IOException("Snapshot is incomplete: " + file);
+            }
+            return start;
+        }
+    }
+
+    private void cleanup() throws IOException {
+        List<Path> snapshots = snapshots();
+        if (snapshots.size() < KEEP) {
+            return;
+        }
+
+        // Journal is kept for the oldest remaining snapshot, in case the newest one is corrupted
+        for (Path snapshot : snapshots.subList(0, snapshots.size() - KEEP)) {
+            Files.delete(snapshot);
+        }
+        journal.truncate(sequence(snapshots.get(snapshots.size() - KEEP)));
+    }
+
+    private List<Path> snapshots() throws IOException {
+        try (Stream<Path> files = Files.list(journal.dir())) {
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static String name(long sequence) {
+        return String.format("%s%020d%s", PREFIX, sequence, SUFFIX);
+    }
+
+    private static long sequence(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Moves unread bytes to the beginning of the buffer and reads more
+     *
+     * @return next position in the file
+     */
+    private static long fill(FileChannel channel, ByteBuffer buffer, long position, long end) throws IOException {
+        buffer.compact();
+        while (buffer.hasRemaining() && position < end) {
+            if (buffer.remaining() > end - position) {
+                buffer.limit(buffer.position() + (int) (end - position));
+            }
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+        buffer.flip();
+        return position;
+    }
+
+    /**
+     * Balance: varint (zigzag scale << 1 | 1 if unscaled value is longer than 63 bits),
+     * then zigzag varint unscaled value or varint length and bytes of it
+     */
+    private static BigDecimal getDecimal(ByteBuffer buffer) {
+        long header = getVarLong(buffer);
+        int scale = (int) unzigzag(header >>> 1);
+
+        if ((header & 1) == 0) {
+            return BigDecimal.valueOf(unzigzag(getVarLong(buffer)), scale);
+        }
+
+        byte[] unscaled = new byte[getVarInt(buffer)];
+        buffer.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+
+    private static int getVarInt(ByteBuffer buffer) {
+        return (int) getVarLong(buffer);
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Balance and watermark of an account, read under account lock
+     */
+    private static final class Row {
+        private BigDecimal balance;
+        private long watermark;
+    }
+
+    /**
+     * Buffered sequential writer, which computes the checksum
+     */
+    private static final class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+
+        private Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void write(String id, BigDecimal balance, long watermark) throws IOException {
+            byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_ID_SIZE) {
+                throw new IOException("Account id is too long: " + bytes.length);
+            }
+
+            if (buffer.remaining() < MAX_RECORD_SIZE) {
+                flush();
+            }
+
+            putVarLong(bytes.length);
+            buffer.put(bytes);
+
+            BigInteger unscaled = balance.unscaledValue();
+            long scale = zigzag(balance.scale());
+            if (unscaled.bitLength() < 64) {
+                putVarLong(scale << 1);
+                putVarLong(zigzag(unscaled.longValue()));
+            } else {
+                byte[] value = unscaled.toByteArray();
+                if (value.length > MAX_UNSCALED_SIZE) {
+                    throw new IOException("Balance is too long: " + id);
+                }
+                putVarLong(scale << 1 | 1);
+                putVarLong(value.length);
+                buffer.put(value);
+            }
+
+            putVarLong(watermark);
+        }
+
+        private void putVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package playground.test.revo.data.impl;
+
+/**
+ * Fixed-size table of locks. Account ids are mapped to stripes by hash,
+ * so the memory footprint does not depend on the number of accounts.
+ *
+ * Several ids may share a stripe: callers have to order stripes (not ids)
+ * to stay deadlock-free, and must not lock the same stripe twice.
+ *
+ * Stripes are {@link TxLock}s, so a transaction may wait for them without blocking a thread.
+ */
+class StripedLockTable {
+    static final int DEFAULT_STRIPES = 4096;
+
+    private static final int MAX_STRIPES = 1 << 30;
+
+    private final TxLock[] locks;
+
+    private final int mask;
+
+    StripedLockTable() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes number of stripes, rounded up to the nearest power of two
+     */
+    StripedLockTable(int stripes) {
+        if (stripes <= 0 || stripes > MAX_STRIPES) {
+            throw new IllegalArgumentException("Incorrect number of stripes: " + stripes);
+        }
+
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) {
+            size <<= 1;
+        }
+
+        this.locks = new TxLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new TxLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * @param id account id
+     * @return stripe index of the account
+     */
+    int stripe(String id) {
+        int h = id.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    TxLock lock(int stripe) {
+        return locks[stripe];
+    }
+
+    int size() {
+        return locks.length;
+    }
+}
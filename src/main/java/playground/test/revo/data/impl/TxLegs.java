@@ -0,0 +1,106 @@
+package playground.test.revo.data.impl;
+
+import playground.test.revo.data.PrivateAccountDAO;
+import playground.test.revo.data.TxManager.TxResult;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static playground.test.revo.util.StringUtils.isNullOrEmpty;
+
+/**
+ * Validation and application of multi-leg transactions, shared by TX managers.
+ * Legs are account id to amount, negative for a debit and positive for a credit.
+ */
+final class TxLegs {
+
+    private TxLegs() {
+    }
+
+    /**
+     * @param exists      if the account exists
+     * @param validAmount if the amount (of any sign) can be stored
+     * @return error or null, if the transaction may be applied
+     */
+    static TxResult validate(Map<String, BigDecimal> legs, Predicate<String> exists, Predicate<BigDecimal> validAmount) {
+        if (legs == null || legs.isEmpty()) {
+            return TxResult.ERROR_INCORRECT_AMOUNT;
+        }
+
+        BigDecimal sum = BigDecimal.ZERO;
+        boolean debit = false;
+        for (BigDecimal amount : legs.values()) {
+            if (amount == null || !validAmount.test(amount.abs())) {
+                return TxResult.ERROR_INCORRECT_AMOUNT;
+            }
+            sum = sum.add(amount);
+            debit |= amount.signum() < 0;
+        }
+
+        // Debits match credits
+        if (!debit || sum.signum() != 0) {
+            return TxResult.ERROR_INCORRECT_AMOUNT;
+        }
+
+        for (Map.Entry<String, BigDecimal> leg : legs.entrySet()) {
+            if (isNullOrEmpty(leg.getKey()) || !exists.test(leg.getKey())) {
+                return leg.getValue().signum() < 0 ? TxResult.ERROR_FROM_NOT_FOUND : TxResult.ERROR_TO_NOT_FOUND;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return legs with debits before credits
+     */
+    @SuppressWarnings("unchecked")
+    static Map.Entry<String, BigDecimal>[] debitsFirst(Map<String, BigDecimal> legs) {
+        Map.Entry<String, BigDecimal>[] sorted = (Map.Entry<String, BigDecimal>[]) new Map.Entry<?, ?>[legs.size()];
+        int debits = 0;
+        int credits = sorted.length;
+        for (Map.Entry<String, BigDecimal> leg : legs.entrySet()) {
+            if (leg.getValue().signum() < 0) {
+                sorted[debits++] = leg;
+            } else {
+                sorted[--credits] = leg;
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Applies all debits or none of them: the ones applied before an insufficient balance are returned
+     *
+     * @param legs legs with debits first
+     * @return false if a balance is not enough
+     */
+    static boolean debit(PrivateAccountDAO accountDAO, Map.Entry<String, BigDecimal>[] legs) {
+        for (int i = 0; i < legs.length && legs[i].getValue().signum() < 0; i++) {
+            if (accountDAO.reduce(legs[i].getKey(), legs[i].getValue().negate()) == null) {
+                while (i-- > 0) {
+                    accountDAO.deposit(legs[i].getKey(), legs[i].getValue().negate());
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns all debits back
+     */
+    static void refund(PrivateAccountDAO accountDAO, Map.Entry<String, BigDecimal>[] legs) {
+        for (int i = 0; i < legs.length && legs[i].getValue().signum() < 0; i++) {
+            accountDAO.deposit(legs[i].getKey(), legs[i].getValue().negate());
+        }
+    }
+
+    static void credit(PrivateAccountDAO accountDAO, Map.Entry<String, BigDecimal>[] legs) {
+        for (Map.Entry<String, BigDecimal> leg : legs) {
+            if (leg.getValue().signum() > 0) {
+                accountDAO.deposit(leg.getKey(), leg.getValue());
+            }
+        }
+    }
+}
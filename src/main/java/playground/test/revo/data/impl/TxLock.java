@@ -0,0 +1,192 @@
+package playground.test.revo.data.impl;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Non-reentrant account lock, which can be waited for by a blocked thread or by a future.
+ *
+ * Waiters are queued in FIFO order and unlock hands the lock over to the first one still waiting,
+ * so a parked request costs a queue entry instead of a thread. Async timeouts are fired by one
+ * shared scheduler thread. A waiter's future is completed either with true (hand-over) or with
+ * false (timeout), whichever comes first, the loser is skipped.
+ *
+ * Like a non-fair ReentrantLock, an unlocked lock may be taken by a newcomer before queued waiters.
+ * Unlike it, the lock may be released by another thread than the one, which took it.
+ */
+final class TxLock {
+    private static final int FREE = 0;
+    private static final int LOCKED = 1;
+    private static final int CONTENDED = 2;
+
+    private static final AtomicIntegerFieldUpdater<TxLock> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(TxLock.class, "state");
+
+    private static final CompletableFuture<Boolean> ACQUIRED = CompletableFuture.completedFuture(true);
+
+    private static final CompletableFuture<Boolean> TIMED_OUT = CompletableFuture.completedFuture(false);
+
+    private static final ScheduledExecutorService TIMEOUTS = timeouts();
+
+    private volatile int state;
+
+    // Guarded by this, created on the first contention
+    private ArrayDeque<CompletableFuture<Boolean>> waiters;
+
+    boolean tryLock() {
+        return state == FREE && STATE.compareAndSet(this, FREE, LOCKED);
+    }
+
+    /**
+     * Blocks the calling thread until the lock is held or the timeout expires
+     */
+    boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        if (tryLock()) {
+            return true;
+        }
+
+        if (timeout <= 0) {
+            return false;
+        }
+
+        CompletableFuture<Boolean> waiter = new CompletableFuture<>();
+        if (!enqueue(waiter)) {
+            return true;
+        }
+
+        try {
+            return waiter.get(timeout, unit);
+        } catch (TimeoutException e) {
+            // Handed over right at the deadline
+            return !waiter.complete(false);
+        } catch (InterruptedException e) {
+            if (!waiter.complete(false)) {
+                unlock();
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Blocks the calling thread until the lock is held
+     */
+    void lock() {
+        if (tryLock()) {
+            return;
+        }
+
+        CompletableFuture<Boolean> waiter = new CompletableFuture<>();
+        if (enqueue(waiter)) {
+            waiter.join();
+        }
+    }
+
+    /**
+     * Never blocks: the future is completed with true once the lock is held, or with false on timeout.
+     * It is already completed if the lock was free. Otherwise it is completed by the thread,
+     * which releases the lock, or by the timeout scheduler thread, so heavy dependent stages
+     * should be run on an executor.
+     */
+    CompletableFuture<Boolean> lockAsync(long timeout, TimeUnit unit) {
+        if (tryLock()) {
+            return ACQUIRED;
+        }
+
+        if (timeout <= 0) {
+            return TIMED_OUT;
+        }
+
+        CompletableFuture<Boolean> waiter = new CompletableFuture<>();
+        if (!enqueue(waiter)) {
+            return ACQUIRED;
+        }
+
+        ScheduledFuture<?> timer = TIMEOUTS.schedule(() -> waiter.complete(false), timeout, unit);
+        waiter.thenRun(() -> timer.cancel(false));
+        return waiter;
+    }
+
+    void unlock() {
+        if (STATE.compareAndSet(this, LOCKED, FREE)) {
+            return;
+        }
+
+        if (state == FREE) {
+            throw new IllegalMonitorStateException("Lock is not held");
+        }
+
+        while (true) {
+            CompletableFuture<Boolean> next;
+            synchronized (this) {
+                next = waiters.poll();
+                if (next == null) {
+                    state = FREE;
+                    return;
+                }
+
+                if (waiters.isEmpty()) {
+                    // The next owner is the last waiter, its unlock may take the fast path
+                    state = LOCKED;
+                }
+            }
+
+            // Outside the monitor: a blocked thread wakes up or dependent stages run here
+            if (next.complete(true)) {
+                return;
+            }
+            // The waiter has timed out, the lock is still ours
+        }
+    }
+
+    boolean isLocked() {
+        return state != FREE;
+    }
+
+    /**
+     * @return future completed by the timeout scheduler thread after the delay
+     */
+    static CompletableFuture<Void> delay(long delay, TimeUnit unit) {
+        CompletableFuture<Void> delayed = new CompletableFuture<>();
+        TIMEOUTS.schedule(() -> delayed.complete(null), delay, unit);
+        return delayed;
+    }
+
+    /**
+     * @return false if the lock was taken instead of queueing the waiter
+     */
+    private synchronized boolean enqueue(CompletableFuture<Boolean> waiter) {
+        while (true) {
+            int current = state;
+            if (current == FREE) {
+                if (STATE.compareAndSet(this, FREE, LOCKED)) {
+                    return false;
+                }
+            } else if (current == CONTENDED || STATE.compareAndSet(this, LOCKED, CONTENDED)) {
+                if (waiters == null) {
+                    waiters = new ArrayDeque<>();
+                }
+                waiters.add(waiter);
+                return true;
+            }
+        }
+    }
+
+    private static ScheduledExecutorService timeouts() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "tx-lock-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+}
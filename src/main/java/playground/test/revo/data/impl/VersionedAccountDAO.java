@@ -0,0 +1,128 @@
+package playground.test.revo.data.impl;
+
+import playground.test.revo.data.PrivateAccountDAO;
+import playground.test.revo.data.PublicAccountDAO;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Account store with versioned balance cells. Every update replaces the cell value
+ * with compare-and-set and retries on conflict, so updates are atomic without locks.
+ */
+public class VersionedAccountDAO implements PublicAccountDAO, PrivateAccountDAO {
+    private final Map<String, AtomicReference<Balance>> cells = new ConcurrentHashMap<>();
+
+    // Ids in natural order for paging, accounts are never removed
+    private final NavigableSet<String> ids = new ConcurrentSkipListSet<>();
+
+    /**
+     * Immutable balance value, version is incremented by every update
+     */
+    static final class Balance {
+        final long version;
+        final BigDecimal amount;
+
+        Balance(long version, BigDecimal amount) {
+            this.version = version;
+            this.amount = amount;
+        }
+    }
+
+    @Override
+    public BigDecimal reduce(String id, BigDecimal amount) {
+        checkPositive(amount);
+
+        AtomicReference<Balance> cell = cells.get(id);
+
+        if (cell == null) {
+            throw new IllegalArgumentException("Account does not exist: " + id);
+        }
+
+        while (true) {
+            Balance current = cell.get();
+            BigDecimal newBalance = current.amount.subtract(amount);
+
+            if (newBalance.compareTo(BigDecimal.ZERO) < 0) {
+                return null;
+            }
+
+            if (cell.compareAndSet(current, new Balance(current.version + 1, newBalance))) {
+                return newBalance;
+            }
+        }
+    }
+
+    @Override
+    public BigDecimal deposit(String id, BigDecimal amount) {
+        checkPositive(amount);
+
+        AtomicReference<Balance> cell = cells.get(id);
+        return cell == null ? null : add(cell, amount);
+    }
+
+    @Override
+    public BigDecimal createAndDeposit(String id, BigDecimal amount) {
+        checkPositive(amount);
+
+        AtomicReference<Balance> cell = cells.putIfAbsent(id, new AtomicReference<>(new Balance(0, amount)));
+        if (cell == null) {
+            ids.add(id);
+            return amount;
+        }
+        return add(cell, amount);
+    }
+
+    @Override
+    public boolean exists(String id) {
+        return cells.containsKey(id);
+    }
+
+    @Override
+    public Collection<String> allAccounts() {
+        return cells.keySet();
+    }
+
+    @Override
+    public Iterator<String> accounts(String after) {
+        return (after == null ? ids : ids.tailSet(after, false)).iterator();
+    }
+
+    @Override
+    public BigDecimal balance(String id) {
+        AtomicReference<Balance> cell = cells.get(id);
+        return cell == null ? null : cell.get().amount;
+    }
+
+    /**
+     * @param id account id
+     * @return current version of the balance cell, -1 if account does not exist
+     */
+    public long version(String id) {
+        AtomicReference<Balance> cell = cells.get(id);
+        return cell == null ? -1 : cell.get().version;
+    }
+
+    private static BigDecimal add(AtomicReference<Balance> cell, BigDecimal amount) {
+        while (true) {
+            Balance current = cell.get();
+            BigDecimal newBalance = current.amount.add(amount);
+
+            if (cell.compareAndSet(current, new Balance(current.version + 1, newBalance))) {
+                return newBalance;
+            }
+        }
+    }
+
+    private static void checkPositive(BigDecimal amount) {
+        if (amount.compareTo(BigDecimal.ZERO) < 0) {
+            throw new IllegalArgumentException("Amount can not be negative");
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package playground.test.revo.metrics;
+
+import playground.test.revo.data.AccountAggregates;
+import playground.test.revo.data.TxManager;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts results and in-flight calls of any {@link TxManager}.
+ * Counters are registered per result up front, so a call only increments adders.
+ */
+public class MeteredTxManager implements TxManager {
+
+    private final TxManager txManager;
+
+    private final LongAdder[] transfers;
+
+    private final LongAdder[] deposits;
+
+    private final LongAdder[] multiLegs;
+
+    private final LongAdder transfersInFlight = new LongAdder();
+
+    private final LongAdder multiLegsInFlight = new LongAdder();
+
+    private final LongAdder depositsInFlight = new LongAdder();
+
+    public MeteredTxManager(TxManager txManager, MetricsRegistry metrics) {
+        this.txManager = txManager;
+
+        transfers = new LongAdder[TxResult.values().length];
+        for (TxResult result : TxResult.values()) {
+            transfers[result.ordinal()] = metrics.counter("revo_tx_results_total", "Transactions by result",
+                    "operation", "transfer", "result", result.name());
+        }
+
+        multiLegs = new LongAdder[TxResult.values().length];
+        for (TxResult result : TxResult.values()) {
+            multiLegs[result.ordinal()] = metrics.counter("revo_tx_results_total", "Transactions by result",
+                    "operation", "multi_leg", "result", result.name());
+        }
+
+        deposits = new LongAdder[DepositResult.values().length];
+        for (DepositResult result : DepositResult.values()) {
+            deposits[result.ordinal()] = metrics.counter("revo_tx_results_total", "Transactions by result",
+                    "operation", "deposit", "result", result.name());
+        }
+
+        metrics.gauge("revo_tx_in_flight", "Transactions being processed",
+                transfersInFlight::sum, "operation", "transfer");
+        metrics.gauge("revo_tx_in_flight", "Transactions being processed",
+                multiLegsInFlight::sum, "operation", "multi_leg");
+        metrics.gauge("revo_tx_in_flight", "Transactions being processed",
+                depositsInFlight::sum, "operation", "deposit");
+    }
+
+    @Override
+    public TxResult transfer(String from, String to, BigDecimal amount) {
+        transfersInFlight.increment();
+        try {
+            TxResult result = txManager.transfer(from, to, amount);
+            if (result != null) {
+                transfers[result.ordinal()].increment();
+            }
+            return result;
+        } finally {
+            transfersInFlight.decrement();
+        }
+    }
+
+    @Override
+    public TxResult transfer(Map<String, BigDecimal> legs) {
+        multiLegsInFlight.increment();
+        try {
+            TxResult result = txManager.transfer(legs);
+            if (result != null) {
+                multiLegs[result.ordinal()].increment();
+            }
+            return result;
+        } finally {
+            multiLegsInFlight.decrement();
+        }
+    }
+
+    @Override
+    public DepositResult deposit(String id, BigDecimal amount) {
+        depositsInFlight.increment();
+        try {
+            DepositResult result = txManager.deposit(id, amount);
+            if (result != null) {
+                deposits[result.ordinal()].increment();
+            }
+            return result;
+        } finally {
+            depositsInFlight.decrement();
+        }
+    }
+
+    @Override
+    public CompletableFuture<TxResult> transferAsync(String from, String to, BigDecimal amount) {
+        transfersInFlight.increment();
+        try {
+            return txManager.transferAsync(from, to, amount).whenComplete((result, e) -> {
+                transfersInFlight.decrement();
+                if (result != null) {
+                    transfers[result.ordinal()].increment();
+                }
+            });
+        } catch (Throwable e) {
+            transfersInFlight.decrement();
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<TxResult> transferAsync(Map<String, BigDecimal> legs) {
+        multiLegsInFlight.increment();
+        try {
+            return txManager.transferAsync(legs).whenComplete((result, e) -> {
+                multiLegsInFlight.decrement();
+                if (result != null) {
+                    multiLegs[result.ordinal()].increment();
+                }
+            });
+        } catch (Throwable e) {
+            multiLegsInFlight.decrement();
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<DepositResult> depositAsync(String id, BigDecimal amount) {
+        depositsInFlight.increment();
+        try {
+            return txManager.depositAsync(id, amount).whenComplete((result, e) -> {
+                depositsInFlight.decrement();
+                if (result != null) {
+                    deposits[result.ordinal()].increment();
+                }
+            });
+        } catch (Throwable e) {
+            depositsInFlight.decrement();
+            throw e;
+        }
+    }
+
+    @Override
+    public AccountAggregates aggregates() {
+        return txManager.aggregates();
+    }
+}
@@ -0,0 +1,228 @@
+package playground.test.revo.metrics;
+
+import playground.test.revo.util.Histogram;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, gauges and histograms exported in Prometheus text format.
+ *
+ * Series are registered once, up front or on first use, and the caller keeps the returned
+ * {@link LongAdder} / {@link Histogram}: recording never touches the registry, so it is
+ * lock-free and allocation-free. Only registration and {@link #write(StringBuilder)} lock.
+ *
+ * Labels are given as name / value pairs: counter("tx_total", "...", "result", "SUCCESS").
+ */
+public class MetricsRegistry {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Histograms export power-of-two buckets up to 2^MAX_BUCKET_BITS - 1
+     */
+    private static final int MAX_BUCKET_BITS = 40;
+
+    /**
+     * Histogram buckets below a microsecond are merged into the first exported one
+     */
+    private static final double MIN_BUCKET = 1e-6;
+
+    private enum Type {
+        COUNTER, GAUGE, HISTOGRAM
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * @return counter of the series, the same one for repeated registrations
+     */
+    public synchronized LongAdder counter(String name, String help, String... labels) {
+        Series series = family(name, help, Type.COUNTER).series(labels(labels));
+        if (series.counter == null) {
+            series.counter = new LongAdder();
+        }
+        return series.counter;
+    }
+
+    /**
+     * @param value current value, called on every scrape
+     */
+    public synchronized void gauge(String name, String help, LongSupplier value, String... labels) {
+        Series series = family(name, help, Type.GAUGE).series(labels(labels));
+        if (series.gauge != null) {
+            throw new IllegalArgumentException("Gauge is already registered: " + name + series.labels);
+        }
+        series.gauge = value;
+    }
+
+    /**
+     * @param scale recorded values are divided by it on export, e.g. 1e9 for nanoseconds to seconds
+     * @return histogram of the series, the same one for repeated registrations
+     */
+    public synchronized Histogram histogram(String name, String help, double scale, String... labels) {
+        Series series = family(name, help, Type.HISTOGRAM, scale).series(labels(labels));
+        if (series.histogram == null) {
+            series.histogram = new Histogram();
+        }
+        return series.histogram;
+    }
+
+    /**
+     * Exports a histogram, which is owned and recorded by someone else
+     */
+    public synchronized void histogram(String name, String help, double scale, Histogram histogram, String... labels) {
+        Series series = family(name, help, Type.HISTOGRAM, scale).series(labels(labels));
+        if (series.histogram != null && series.histogram != histogram) {
+            throw new IllegalArgumentException("Histogram is already registered: " + name + series.labels);
+        }
+        series.histogram = histogram;
+    }
+
+    /**
+     * Appends all series in Prometheus text exposition format
+     */
+    public synchronized void write(StringBuilder out) {
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(escapeHelp(family.help)).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type.name().toLowerCase()).append('\n');
+
+            for (Series series : family.series) {
+                switch (family.type) {
+                    case COUNTER:
+                        sample(out, family.name, series.labels, "", series.counter.sum());
+                        break;
+
+                    case GAUGE:
+                        sample(out, family.name, series.labels, "", series.gauge.getAsLong());
+                        break;
+
+                    case HISTOGRAM:
+                        writeHistogram(out, family, series);
+                        break;
+                }
+            }
+        }
+    }
+
+    private void writeHistogram(StringBuilder out, Family family, Series series) {
+        Histogram histogram = series.histogram;
+        String bucket = family.name + "_bucket";
+
+        // Buckets are read once, so "le" counts are cumulative and +Inf matches _count
+        long count = 0;
+        int bits = 1;
+        for (int i = 0; i < Histogram.buckets(); i++) {
+            count += histogram.bucketCount(i);
+
+            long bound = Histogram.upperBound(i);
+            if (bits <= MAX_BUCKET_BITS && bound == (1L << bits) - 1) {
+                double le = bound / family.scale;
+                if (le >= MIN_BUCKET || family.scale == 1) {
+                    sample(out, bucket, series.labels, "le=\"" + le + "\"", count);
+                }
+                bits++;
+            }
+        }
+
+        sample(out, bucket, series.labels, "le=\"+Inf\"", count);
+        out.append(family.name).append("_sum").append(braces(series.labels, ""))
+                .append(' ').append(histogram.sum() / family.scale).append('\n');
+        sample(out, family.name + "_count", series.labels, "", count);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String extra, long value) {
+        out.append(name).append(braces(labels, extra)).append(' ').append(value).append('\n');
+    }
+
+    private static String braces(String labels, String extra) {
+        if (labels.isEmpty() && extra.isEmpty()) {
+            return "";
+        }
+        if (labels.isEmpty() || extra.isEmpty()) {
+            return "{" + labels + extra + "}";
+        }
+        return "{" + labels + "," + extra + "}";
+    }
+
+    private Family family(String name, String help, Type type) {
+        return family(name, help, type, 1);
+    }
+
+    private Family family(String name, String help, Type type, double scale) {
+        if (!name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*")) {
+            throw new IllegalArgumentException("Incorrect metric name: " + name);
+        }
+
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type, scale));
+        if (family.type != type || family.scale != scale) {
+            throw new IllegalArgumentException("Metric is already registered with another type: " + name);
+        }
+        return family;
+    }
+
+    private static String labels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels should be name / value pairs");
+        }
+
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labels[i]).append("=\"").append(escapeLabel(labels[i + 1])).append('"');
+        }
+        return out.toString();
+    }
+
+    private static String escapeLabel(String value) {
+        return escapeHelp(value).replace("\"", "\\\"");
+    }
+
+    private static String escapeHelp(String value) {
+        return value.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final Type type;
+        private final double scale;
+        private final List<Series> series = new ArrayList<>();
+
+        private Family(String name, String help, Type type, double scale) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.scale = scale;
+        }
+
+        private Series series(String labels) {
+            for (Series existing : series) {
+                if (existing.labels.equals(labels)) {
+                    return existing;
+                }
+            }
+
+            Series created = new Series(labels);
+            series.add(created);
+            return created;
+        }
+    }
+
+    private static final class Series {
+        private final String labels;
+        private LongAdder counter;
+        private LongSupplier gauge;
+        private Histogram histogram;
+
+        private Series(String labels) {
+            this.labels = labels;
+        }
+    }
+}
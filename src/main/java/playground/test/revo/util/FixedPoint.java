@@ -0,0 +1,76 @@
+package playground.test.revo.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Conversion between decimal amounts and scaled long "minor units",
+ * e.g. with scale 2: 12.34 <-> 1234
+ */
+public class FixedPoint {
+    public static final int MAX_SCALE = 18;
+
+    private final int scale;
+
+    private final long factor;
+
+    public FixedPoint(int scale) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("Scale should be in [0, " + MAX_SCALE + "]: " + scale);
+        }
+
+        long factor = 1;
+        for (int i = 0; i < scale; i++) {
+            factor *= 10;
+        }
+
+        this.scale = scale;
+        this.factor = factor;
+    }
+
+    public int scale() {
+        return scale;
+    }
+
+    /**
+     * @param amount decimal amount
+     * @return amount in minor units
+     * @throws ArithmeticException if amount is more precise than the scale or does not fit into long
+     */
+    public long toUnits(BigDecimal amount) {
+        if (amount.scale() == 0) {
+            // Allocation-free for integer amounts
+            return Math.multiplyExact(amount.longValueExact(), factor);
+        }
+        return amount.setScale(scale, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+    }
+
+    /**
+     * @param amount decimal amount
+     * @return true if amount can be converted to minor units without loss
+     */
+    public boolean isValid(BigDecimal amount) {
+        // Not more precise than the scale and fewer than 19 digits in minor units: fits without a conversion
+        if (amount.scale() <= scale && amount.precision() - amount.scale() + scale < 19) {
+            return true;
+        }
+
+        try {
+            toUnits(amount);
+            return true;
+        } catch (ArithmeticException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param units amount in minor units
+     * @return decimal amount without trailing zeros, e.g. 100000 -> 1000, 1050 -> 10.5
+     */
+    public BigDecimal toDecimal(long units) {
+        if (units % factor == 0) {
+            return BigDecimal.valueOf(units / factor);
+        }
+        return BigDecimal.valueOf(units, scale).stripTrailingZeros();
+    }
+}
@@ -0,0 +1,178 @@
+package playground.test.revo.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of results by idempotency key, so a retried request gets the result of the first one
+ * instead of running again.
+ *
+ * Keys are split over segments, each one is an insertion-ordered map under its own lock. A segment
+ * holds at most its share of the capacity and drops the oldest key on overflow, keys also expire
+ * after the TTL. Every key lives the same TTL, so the oldest key of a segment expires first and
+ * expiration only looks at the head, memory stays fixed at any request rate.
+ *
+ * A key is cached once its call starts, so concurrent retries share the in-flight result.
+ */
+public class IdempotencyCache<V> {
+
+    private static final int MAX_SEGMENTS = 64;
+
+    private final List<Segment<V>> segments;
+
+    private final long ttl;
+
+    private final Predicate<? super V> keep;
+
+    private final LongSupplier clock;
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity keys to keep at most
+     * @param keep     if a result is kept, e.g. not a timeout, after which a retry should run again;
+     *                 failed calls are never kept
+     */
+    public IdempotencyCache(int capacity, long ttl, TimeUnit unit, Predicate<? super V> keep) {
+        this(capacity, unit.toNanos(ttl), keep, System::nanoTime);
+    }
+
+    IdempotencyCache(int capacity, long ttlNanos, Predicate<? super V> keep, LongSupplier clock) {
+        if (capacity <= 0 || ttlNanos <= 0) {
+            throw new IllegalArgumentException("Capacity and TTL should be positive");
+        }
+        this.ttl = ttlNanos;
+        this.keep = keep;
+        this.clock = clock;
+
+        int count = Math.min(MAX_SEGMENTS, Integer.highestOneBit(capacity));
+        int perSegment = (capacity + count - 1) / count;
+        segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            segments.add(new Segment<>(perSegment, evictions));
+        }
+    }
+
+    /**
+     * @param request what the key is used for, e.g. the operation and its parameters;
+     *                a key is not shared by different requests
+     * @param call    starts the request, if the key is new or expired
+     * @return result of the first request with the key,
+     * null if the key is already used by another request
+     */
+    public CompletableFuture<V> call(String key, String request, Supplier<CompletableFuture<V>> call) {
+        Segment<V> segment = segment(key);
+        Entry<V> entry;
+        synchronized (segment) {
+            long now = clock.getAsLong();
+            segment.expire(now);
+
+            Entry<V> cached = segment.get(key);
+            if (cached != null) {
+                return cached.request.equals(request) ? cached.result : null;
+            }
+            entry = new Entry<>(request, now + ttl);
+            segment.put(key, entry);
+        }
+
+        CompletableFuture<V> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException | Error e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+
+        result.whenComplete((value, e) -> {
+            // Removed before completion, so a retry after a dropped result runs again
+            if (e != null || !keep.test(value)) {
+                synchronized (segment) {
+                    segment.remove(key, entry);
+                }
+            }
+            if (e != null) {
+                entry.result.completeExceptionally(e);
+            } else {
+                entry.result.complete(value);
+            }
+        });
+        return entry.result;
+    }
+
+    /**
+     * @return keys cached, including expired ones not evicted yet
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return keys dropped on overflow before they expired
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    private Segment<V> segment(String key) {
+        int hash = key.hashCode();
+        return segments.get((hash ^ (hash >>> 16)) & (segments.size() - 1));
+    }
+
+    private static final class Entry<V> {
+        final String request;
+
+        final long expires;
+
+        final CompletableFuture<V> result = new CompletableFuture<>();
+
+        Entry(String request, long expires) {
+            this.request = request;
+            this.expires = expires;
+        }
+    }
+
+    private static final class Segment<V> extends LinkedHashMap<String, Entry<V>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private final LongAdder evictions;
+
+        Segment(int capacity, LongAdder evictions) {
+            super(Math.min(capacity, 1024) * 2);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        void expire(long now) {
+            Iterator<Entry<V>> entries = values().iterator();
+            while (entries.hasNext() && entries.next().expires - now <= 0) {
+                entries.remove();
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
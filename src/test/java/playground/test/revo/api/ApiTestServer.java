@@ -0,0 +1,91 @@
+package playground.test.revo.api;
+
+import io.restassured.RestAssured;
+import io.restassured.parsing.Parser;
+import playground.test.revo.api.v1.ApiV1;
+import playground.test.revo.core.ApiServer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * API server of the tests: API v1 under "api" on a free local port
+ */
+public final class ApiTestServer {
+
+    private ApiTestServer() {
+    }
+
+    public static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            socket.setReuseAddress(true);
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            return 8080;
+        }
+    }
+
+    /**
+     * @return server of the engine selected by "revo.engine", not started
+     */
+    public static ApiServer server() {
+        return server(ApiServer.Engine.fromSystemProperty());
+    }
+
+    /**
+     * @return server of the engine, not started; MAPPED servers get an empty account file each,
+     * as the tests share one JVM and expect an empty store
+     */
+    public static ApiServer server(ApiServer.Engine engine) {
+        if (engine != ApiServer.Engine.MAPPED) {
+            return ApiServer.server(engine);
+        }
+
+        String dataFile = System.getProperty("revo.data.file");
+        try {
+            Path file = Files.createTempFile("accounts", ".dat");
+            file.toFile().deleteOnExit();
+            System.setProperty("revo.data.file", file.toString());
+            return ApiServer.server(engine);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (dataFile == null) {
+                System.clearProperty("revo.data.file");
+            } else {
+                System.setProperty("revo.data.file", dataFile);
+            }
+        }
+    }
+
+    /**
+     * Binds the server to the port with API v1 enabled
+     */
+    public static ApiServer bind(ApiServer server, int port) {
+        return server.bind("localhost", port)
+                .baseApiPath("api")
+                .enableApiV1(ApiV1.prefix());
+    }
+
+    /**
+     * Starts the server on a free port and points RestAssured at it
+     */
+    public static ApiServer start(ApiServer server) {
+        return start(server, freePort());
+    }
+
+    /**
+     * Starts the server on the port and points RestAssured at it
+     */
+    public static ApiServer start(ApiServer server, int port) {
+        RestAssured.port = port;
+        RestAssured.baseURI = "http://127.0.0.1:" + port;
+        RestAssured.defaultParser = Parser.JSON;
+
+        bind(server, port).start();
+        return server;
+    }
+}
@@ -0,0 +1,134 @@
+package playground.test.revo.api.v1;
+
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import playground.test.revo.api.ApiTestServer;
+import playground.test.revo.core.ApiServer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ApiV1AccountListTest {
+
+    private static final int ACCOUNTS = 25;
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    private static ApiServer apiServer;
+
+    private static List<String> expected = new ArrayList<>();
+
+    @BeforeClass
+    public static void before() {
+        apiServer = ApiTestServer.start(ApiTestServer.server());
+
+        for (int i = 0; i < ACCOUNTS; i++) {
+            String id = String.format("list-%02d", i);
+            RestAssured.when().get("/api/v1/deposit/" + id + "/1").then().statusCode(200);
+            expected.add(id);
+        }
+    }
+
+    @AfterClass
+    public static void after() {
+        apiServer.stop();
+    }
+
+    @Test
+    public void testStream() {
+        // The store may have accounts of other tests, MAPPED lists accounts in hash slot order
+        List<String> accounts = own(stream());
+
+        assertEquals(ACCOUNTS, accounts.size());
+        assertEquals(new HashSet<>(expected), new HashSet<>(accounts));
+    }
+
+    @Test
+    public void testPages() {
+        List<String> accounts = new ArrayList<>();
+        int pages = 0;
+
+        String cursor = null;
+        do {
+            JsonPath page = (cursor == null
+                    ? RestAssured.given().queryParam("limit", 10)
+                    : RestAssured.given().queryParam("limit", 10).queryParam("cursor", cursor))
+                    .get("/api/v1/accounts")
+                    .then()
+                    .statusCode(200)
+                    .contentType(ContentType.JSON)
+                    .extract().jsonPath();
+
+            List<String> ids = page.getList("accounts", String.class);
+            assertTrue(ids.size() <= 10);
+            accounts.addAll(ids);
+            cursor = page.getString("next");
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(stream(), accounts);
+        assertEquals(ACCOUNTS, own(accounts).size());
+        assertTrue(pages >= 3);
+    }
+
+    @Test
+    public void testDefaultLimit() {
+        List<String> stream = stream();
+
+        String cursor = RestAssured.given().queryParam("limit", 1)
+                .get("/api/v1/accounts")
+                .then()
+                .statusCode(200)
+                .body("accounts", equalTo(stream.subList(0, 1)))
+                .extract().jsonPath().getString("next");
+
+        int size = Math.min(DEFAULT_PAGE_SIZE, stream.size() - 1);
+        RestAssured.given().queryParam("cursor", cursor)
+                .get("/api/v1/accounts")
+                .then()
+                .statusCode(200)
+                .body("accounts", equalTo(stream.subList(1, 1 + size)))
+                .body("next", size == stream.size() - 1 ? nullValue() : notNullValue());
+    }
+
+    @Test
+    public void testIncorrect() {
+        RestAssured.given().queryParam("limit", 0).get("/api/v1/accounts").then()
+                .statusCode(400)
+                .body("responseCode", equalTo(400));
+        RestAssured.given().queryParam("limit", 1001).get("/api/v1/accounts").then().statusCode(400);
+        RestAssured.given().queryParam("limit", "ten").get("/api/v1/accounts").then().statusCode(400);
+        RestAssured.given().queryParam("cursor", "").get("/api/v1/accounts").then().statusCode(400);
+        RestAssured.given().queryParam("cursor", "not base64!").get("/api/v1/accounts").then()
+                .statusCode(400)
+                .body("cause", equalTo("Incorrect page cursor"));
+    }
+
+    private static List<String> stream() {
+        return RestAssured.when()
+                .get("/api/v1/accounts")
+                .then()
+                .statusCode(200)
+                .contentType(ContentType.JSON)
+                .extract().jsonPath().getList("", String.class);
+    }
+
+    /**
+     * Accounts of this test in the listed order
+     */
+    private static List<String> own(List<String> accounts) {
+        return accounts.stream().filter(id -> id.startsWith("list-")).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,69 @@
+package playground.test.revo.api.v1;
+
+import io.restassured.RestAssured;
+import io.restassured.path.json.JsonPath;
+import io.restassured.path.json.config.JsonPathConfig;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import playground.test.revo.api.ApiTestServer;
+import playground.test.revo.core.ApiServer;
+
+import java.math.BigDecimal;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+
+public class ApiV1AggregatesTest {
+
+    private static ApiServer apiServer;
+
+    @BeforeClass
+    public static void before() {
+        apiServer = ApiTestServer.start(ApiTestServer.server());
+    }
+
+    @AfterClass
+    public static void after() {
+        apiServer.stop();
+    }
+
+    @Test
+    public void testAggregates() {
+        // Not every engine maintains aggregates
+        Assume.assumeTrue(RestAssured.when().get("/api/v1/aggregates").statusCode() == 200);
+
+        // The store may have accounts of other tests, the balances below are larger than theirs
+        JsonPath before = json("/api/v1/aggregates");
+        RestAssured.when().get("/api/v1/deposit/aggregates-1/100000000000").then().statusCode(200);
+        RestAssured.when().get("/api/v1/deposit/aggregates-2/50000000000.5").then().statusCode(200);
+        RestAssured.when().get("/api/v1/transfer/aggregates-1/aggregates-2/30").then().statusCode(200);
+
+        JsonPath after = json("/api/v1/aggregates");
+        assertEquals(before.getInt("violations"), after.getInt("violations"));
+        assertEquals(2, after.getInt("accounts") - before.getInt("accounts"));
+        assertEquals(0, new BigDecimal("150000000000.5").compareTo(
+                new BigDecimal(after.getString("total")).subtract(new BigDecimal(before.getString("total")))));
+
+        JsonPath top = json("/api/v1/aggregates/top?limit=2");
+        assertEquals(2, top.getList("accounts").size());
+        assertEquals("aggregates-1", top.getString("accounts[0].id"));
+        assertEquals("aggregates-2", top.getString("accounts[1].id"));
+        assertEquals(0, new BigDecimal("50000000030.5").compareTo(new BigDecimal(top.getString("accounts[1].balance"))));
+
+        RestAssured.when().get("/api/v1/aggregates/top").then()
+                .statusCode(200)
+                .body("accounts[0].id", equalTo("aggregates-1"));
+        RestAssured.when().get("/api/v1/aggregates/top?limit=0").then().statusCode(400);
+        RestAssured.when().get("/api/v1/aggregates/top?limit=1000000").then().statusCode(400);
+    }
+
+    /**
+     * Numbers are read as BigDecimal, large totals do not fit into a float
+     */
+    private static JsonPath json(String path) {
+        String body = RestAssured.when().get(path).then().statusCode(200).extract().asString();
+        return new JsonPath(body).using(new JsonPathConfig(JsonPathConfig.NumberReturnType.BIG_DECIMAL));
+    }
+}
@@ -0,0 +1,92 @@
+package playground.test.revo.api.v1;
+
+import io.restassured.RestAssured;
+import org.junit.After;
+import org.junit.Test;
+import playground.test.revo.api.ApiTestServer;
+import playground.test.revo.core.ApiServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ApiV1ExecutionTest {
+
+    private static final String RUN = Long.toString(System.currentTimeMillis(), 36);
+
+    private ApiServer apiServer;
+
+    private void start(ApiServer.Execution execution, int workerThreads, int workerQueue) {
+        apiServer = ApiTestServer.start(ApiTestServer.server()
+                .execution(execution)
+                .ioThreads(2)
+                .workerThreads(workerThreads)
+                .workerQueue(workerQueue));
+    }
+
+    @After
+    public void after() {
+        apiServer.stop();
+    }
+
+    @Test
+    public void testIo() {
+        start(ApiServer.Execution.IO, 2, 16);
+        scenario("exec-io-");
+    }
+
+    @Test
+    public void testWorker() {
+        start(ApiServer.Execution.WORKER, 2, 16);
+        scenario("exec-worker-");
+    }
+
+    /**
+     * Ids are unique per run, MAPPED engine keeps accounts of previous runs in the file
+     */
+    private void scenario(String prefix) {
+        String from = prefix + RUN + "-1";
+        String to = prefix + RUN + "-2";
+        RestAssured.when().get("/api/v1/deposit/" + from + "/10").then().statusCode(200);
+        RestAssured.when().get("/api/v1/deposit/" + to + "/10").then().statusCode(200);
+        RestAssured.when().get("/api/v1/transfer/" + from + "/" + to + "/5").then().statusCode(200);
+        RestAssured.when().get("/api/v1/accounts/" + to).then().statusCode(200).body("balance", equalTo(15));
+        RestAssured.when().get("/api/v1/accounts").then().statusCode(200);
+    }
+
+    @Test
+    public void testWorker_QueueFull() throws Exception {
+        start(ApiServer.Execution.WORKER, 1, 1);
+
+        // Batch requests without a body hold the worker thread and the queue slot
+        try (Socket busy = stalledBatch(); Socket queued = stalledBatch()) {
+            Thread.sleep(200);
+            RestAssured.when().get("/api/v1/accounts").then().statusCode(503);
+            assertFalse(busy.isClosed() || queued.isClosed());
+        }
+
+        // Served again, once the stalled requests are gone
+        long deadline = System.currentTimeMillis() + 5000;
+        int status;
+        do {
+            Thread.sleep(50);
+            status = RestAssured.when().get("/api/v1/accounts").statusCode();
+        } while (status != 200 && System.currentTimeMillis() < deadline);
+        assertTrue(status == 200);
+    }
+
+    private Socket stalledBatch() throws IOException {
+        Socket socket = new Socket("127.0.0.1", RestAssured.port);
+        OutputStream out = socket.getOutputStream();
+        out.write(("POST /api/v1/transfers HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Content-Length: 1000\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return socket;
+    }
+}
@@ -0,0 +1,98 @@
+package playground.test.revo.api.v1;
+
+import io.restassured.RestAssured;
+import io.restassured.response.Response;
+import org.junit.After;
+import org.junit.Test;
+import playground.test.revo.api.ApiTestServer;
+import playground.test.revo.core.ApiServer;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertEquals;
+
+public class ApiV1FollowerTest {
+
+    // Stores of the primary and the follower are separate in one process with this engine only
+    private ApiServer primary;
+
+    private ApiServer follower;
+
+    private static String url(int port, String path) {
+        return "http://127.0.0.1:" + port + "/api/v1" + path;
+    }
+
+    @After
+    public void after() {
+        if (follower != null) {
+            follower.stop();
+        }
+        if (primary != null) {
+            primary.stop();
+        }
+    }
+
+    @Test
+    public void testFollower_ServesReplicatedBalances() throws Exception {
+        int primaryPort = ApiTestServer.freePort();
+        primary = ApiTestServer.start(ApiTestServer.server(ApiServer.Engine.SIMPLE).enableReplication(0), primaryPort);
+
+        int followerPort = ApiTestServer.freePort();
+        follower = ApiTestServer.start(ApiTestServer.server(ApiServer.Engine.SIMPLE)
+                .follow("localhost", primary.replicationPort()), followerPort);
+
+        RestAssured.when().get(url(primaryPort, "/deposit/follower-1/100")).then().statusCode(200);
+        RestAssured.when().get(url(primaryPort, "/deposit/follower-2/1")).then().statusCode(200);
+        RestAssured.when().get(url(primaryPort, "/transfer/follower-1/follower-2/30")).then().statusCode(200);
+
+        Response response = awaitBalance(url(followerPort, "/accounts/follower-2"), "31");
+        response.then().header("Replication-Lag", notNullValue());
+        RestAssured.when().get(url(followerPort, "/accounts/follower-1")).then()
+                .statusCode(200)
+                .body("balance", equalTo(70));
+        RestAssured.when().get(url(followerPort, "/accounts")).then()
+                .statusCode(200)
+                .body("size()", equalTo(2));
+
+        // Writes go to the primary
+        RestAssured.when().get(url(followerPort, "/deposit/follower-1/100")).then().statusCode(403);
+        RestAssured.when().get(url(followerPort, "/transfer/follower-1/follower-2/1")).then().statusCode(403);
+        RestAssured.when().get(url(followerPort, "/aggregates")).then().statusCode(404);
+        assertEquals(0, follower.follower().lagRecords());
+    }
+
+    @Test
+    public void testFollower_NotReady() {
+        // Nothing listens on the port of the primary
+        int port = ApiTestServer.freePort();
+        follower = ApiTestServer.start(ApiTestServer.server(ApiServer.Engine.SIMPLE)
+                .follow("localhost", ApiTestServer.freePort())
+                .maxReplicationLag(1000), port);
+
+        RestAssured.when().get(url(port, "/accounts/any")).then()
+                .statusCode(503)
+                .header("Retry-After", notNullValue());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReplication_NotSupported() {
+        ApiServer.server(ApiServer.Engine.SHARDED).enableReplication(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReplication_IncorrectPort() {
+        ApiServer.server(ApiServer.Engine.SIMPLE).enableReplication(-1);
+    }
+
+    private static Response awaitBalance(String url, String balance) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            Response response = RestAssured.when().get(url);
+            if (response.statusCode() == 200 && balance.equals(response.jsonPath().getString("balance"))
+                    || System.currentTimeMillis() > deadline) {
+                return response;
+            }
+            Thread.sleep(10);
+        }
+    }
+}
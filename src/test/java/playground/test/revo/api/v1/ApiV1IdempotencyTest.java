@@ -0,0 +1,129 @@
+package playground.test.revo.api.v1;
+
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.response.ValidatableResponse;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import playground.test.revo.api.ApiTestServer;
+import playground.test.revo.core.ApiServer;
+
+import java.math.BigDecimal;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertEquals;
+
+public class ApiV1IdempotencyTest {
+
+    private static ApiServer apiServer;
+
+    @BeforeClass
+    public static void before() {
+        apiServer = ApiTestServer.start(ApiTestServer.server());
+    }
+
+    @AfterClass
+    public static void after() {
+        apiServer.stop();
+    }
+
+    @Test
+    public void testTransfer_Retried() {
+        get("/api/v1/deposit/retry-1/10", "deposit-retry-1").statusCode(200).header("Idempotent-Replayed", nullValue());
+        get("/api/v1/deposit/retry-1/10", "deposit-retry-1").statusCode(200).header("Idempotent-Replayed", "true");
+        get("/api/v1/deposit/retry-2/0", null).statusCode(200);
+        balance("retry-1", "10");
+
+        for (int i = 0; i < 3; i++) {
+            get("/api/v1/transfer/retry-1/retry-2/4", "transfer-retry")
+                    .statusCode(200)
+                    .body("result", equalTo("SUCCESS"));
+        }
+        balance("retry-1", "6");
+        balance("retry-2", "4");
+
+        // Without a key every request is applied
+        get("/api/v1/transfer/retry-1/retry-2/4", null).statusCode(200);
+        get("/api/v1/transfer/retry-1/retry-2/4", null).statusCode(409);
+        balance("retry-1", "2");
+    }
+
+    @Test
+    public void testTransfer_ErrorReplayed() {
+        get("/api/v1/deposit/retry-3/1", null).statusCode(200);
+        get("/api/v1/deposit/retry-4/0", null).statusCode(200);
+
+        get("/api/v1/transfer/retry-3/retry-4/5", "transfer-insufficient")
+                .statusCode(409)
+                .body("code", equalTo("ERROR_INSUFFICIENT_AMOUNT"));
+
+        // The first result is kept, even if the transfer would succeed now
+        get("/api/v1/deposit/retry-3/10", null).statusCode(200);
+        get("/api/v1/transfer/retry-3/retry-4/5", "transfer-insufficient")
+                .statusCode(409)
+                .header("Idempotent-Replayed", "true");
+        balance("retry-3", "11");
+    }
+
+    @Test
+    public void testDeposit_BalanceReplayed() {
+        get("/api/v1/deposit/retry-8/10", "deposit-balance").statusCode(200);
+        get("/api/v1/deposit/retry-8/5", null).statusCode(200);
+
+        // The balance is the one right after the first request
+        get("/api/v1/deposit/retry-8/10", "deposit-balance")
+                .statusCode(200)
+                .header("Idempotent-Replayed", "true")
+                .body("balance", equalTo(10));
+        balance("retry-8", "15");
+    }
+
+    @Test
+    public void testTransaction_Retried() {
+        get("/api/v1/deposit/retry-5/10", null).statusCode(200);
+        get("/api/v1/deposit/retry-6/0", null).statusCode(200);
+
+        String body = "{\"legs\":[{\"id\":\"retry-5\",\"amount\":-3},{\"id\":\"retry-6\",\"amount\":3}]}";
+        for (int i = 0; i < 2; i++) {
+            RestAssured.given()
+                    .header("Idempotency-Key", "transaction-retry")
+                    .contentType(ContentType.JSON)
+                    .body(body)
+                    .post("/api/v1/transactions")
+                    .then()
+                    .statusCode(200)
+                    .body("result", equalTo("SUCCESS"));
+        }
+        balance("retry-5", "7");
+        balance("retry-6", "3");
+    }
+
+    @Test
+    public void testKeyReused_Incorrect() {
+        get("/api/v1/deposit/retry-7/10", "deposit-reused").statusCode(200);
+        get("/api/v1/deposit/retry-7/20", "deposit-reused")
+                .statusCode(422)
+                .body("responseCode", equalTo(422));
+        get("/api/v1/transfer/retry-7/retry-7/1", "deposit-reused").statusCode(422);
+        balance("retry-7", "10");
+
+        get("/api/v1/deposit/retry-7/10", "").statusCode(400);
+        get("/api/v1/deposit/retry-7/10", new String(new char[256]).replace('\0', 'k')).statusCode(400);
+        balance("retry-7", "10");
+    }
+
+    private static ValidatableResponse get(String path, String key) {
+        return (key == null ? RestAssured.given() : RestAssured.given().header("Idempotency-Key", key))
+                .get(path)
+                .then();
+    }
+
+    private static void balance(String id, String expected) {
+        String balance = RestAssured.when().get("/api/v1/accounts/" + id).then()
+                .statusCode(200)
+                .extract().jsonPath().getString("balance");
+        assertEquals(id, 0, new BigDecimal(expected).compareTo(new BigDecimal(balance)));
+    }
+}
@@ -2,17 +2,15 @@ package playground.test.revo.api.v1;
 
 import io.restassured.RestAssured;
 import io.restassured.http.ContentType;
-import io.restassured.parsing.Parser;
 import org.apache.commons.lang3.RandomUtils;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import playground.test.revo.api.ApiTestServer;
 import playground.test.revo.core.ApiServer;
 import playground.test.revo.data.TxManager;
 
-import java.io.IOException;
-import java.net.ServerSocket;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -24,28 +22,9 @@ public class ApiV1IntegrationTest {
 
     private static ApiServer apiServer;
 
-    private static int getFreePort() {
-        try (ServerSocket socket = new ServerSocket(0)) {
-            socket.setReuseAddress(true);
-            return socket.getLocalPort();
-        } catch (IOException e) {
-            return 8080;
-        }
-    }
-
     @BeforeClass
-    public static void before() throws IOException {
-        int port = getFreePort();
-        RestAssured.port = port;
-        RestAssured.baseURI = "http://127.0.0.1:" + port;
-        RestAssured.defaultParser = Parser.JSON;
-
-        apiServer = ApiServer.server()
-                .bind("localhost", port)
-                .baseApiPath("api")
-                .enableApiV1(ApiV1.prefix());
-
-        apiServer.start();
+    public static void before() {
+        apiServer = ApiTestServer.start(ApiTestServer.server());
     }
 
     @AfterClass
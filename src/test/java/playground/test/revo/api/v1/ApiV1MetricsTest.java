@@ -0,0 +1,53 @@
+package playground.test.revo.api.v1;
+
+import io.restassured.RestAssured;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import playground.test.revo.api.ApiTestServer;
+import playground.test.revo.core.ApiServer;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
+
+public class ApiV1MetricsTest {
+
+    private static ApiServer apiServer;
+
+    @BeforeClass
+    public static void before() {
+        apiServer = ApiTestServer.start(ApiTestServer.server()
+                .enableMetrics("/metrics"));
+    }
+
+    @AfterClass
+    public static void after() {
+        apiServer.stop();
+    }
+
+    @Test
+    public void testMetrics() {
+        RestAssured.when().get("/api/v1/deposit/metrics-1/100").then().statusCode(200);
+        RestAssured.when().get("/api/v1/deposit/metrics-2/100").then().statusCode(200);
+        RestAssured.when().get("/api/v1/transfer/metrics-1/metrics-2/1000").then().statusCode(409);
+        RestAssured.when().get("/api/v1/accounts/metrics-1").then().statusCode(200);
+        RestAssured.when().get("/api/v1/unknown").then().statusCode(404);
+
+        RestAssured.when().get("/metrics").then()
+                .statusCode(200)
+                .header("Content-Type", startsWith("text/plain"))
+                .body(containsString("revo_tx_results_total{operation=\"deposit\",result=\"SUCCESS\"} 2\n"))
+                .body(containsString("revo_tx_results_total{operation=\"transfer\",result=\"ERROR_INSUFFICIENT_AMOUNT\"} 1\n"))
+                .body(containsString("revo_http_request_duration_seconds_count{method=\"GET\",route=\"/deposit/{id}/{amount}\"} 2\n"))
+                .body(containsString("revo_http_request_duration_seconds_count{method=\"GET\",route=\"/accounts/{id}\"} 1\n"))
+                .body(containsString("revo_http_request_duration_seconds_count{method=\"*\",route=\"unmatched\"} 1\n"))
+                .body(containsString("revo_http_requests_in_flight 1\n"));
+
+        // Lock waits exist in engines with account locks only
+        ApiServer.Engine engine = ApiServer.Engine.fromSystemProperty();
+        if (engine != ApiServer.Engine.OPTIMISTIC && engine != ApiServer.Engine.SHARDED) {
+            RestAssured.when().get("/metrics").then()
+                    .body(containsString("# TYPE revo_lock_wait_seconds histogram\n"));
+        }
+    }
+}
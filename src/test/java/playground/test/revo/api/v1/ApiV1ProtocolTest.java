@@ -0,0 +1,266 @@
+package playground.test.revo.api.v1;
+
+import io.undertow.client.ClientCallback;
+import io.undertow.client.ClientConnection;
+import io.undertow.client.ClientExchange;
+import io.undertow.client.ClientRequest;
+import io.undertow.client.UndertowClient;
+import io.undertow.server.DefaultByteBufferPool;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import io.undertow.util.StringReadChannelListener;
+import org.junit.After;
+import org.junit.Test;
+import org.xnio.ChannelListeners;
+import org.xnio.OptionMap;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSinkChannel;
+import playground.test.revo.api.ApiTestServer;
+import playground.test.revo.core.ApiServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ApiV1ProtocolTest {
+
+    private ApiServer apiServer;
+
+    private int port;
+
+    private void start(ApiServer server) {
+        port = ApiTestServer.freePort();
+        apiServer = ApiTestServer.start(server, port);
+    }
+
+    @After
+    public void after() {
+        if (apiServer != null) {
+            apiServer.stop();
+        }
+    }
+
+    @Test
+    public void testHttp2_PriorKnowledge() throws Exception {
+        start(ApiTestServer.server().enableHttp2().maxConcurrentStreams(32));
+
+        XnioWorker worker = Xnio.getInstance().createWorker(OptionMap.EMPTY);
+        DefaultByteBufferPool pool = new DefaultByteBufferPool(false, 8192);
+        try {
+            ClientConnection connection = UndertowClient.getInstance().connect(
+                    new URI("h2c-prior://localhost:" + port), worker, pool, OptionMap.EMPTY).get();
+            try {
+                assertTrue(connection.isMultiplexingSupported());
+
+                // Requests run concurrently over the connection
+                List<String> responses = new CopyOnWriteArrayList<>();
+                CountDownLatch latch = new CountDownLatch(20);
+                connection.getIoThread().execute(() -> {
+                    for (int i = 0; i < 20; i++) {
+                        get(connection, "/api/v1/deposit/h2-" + i + "/10", responses, latch);
+                    }
+                });
+
+                assertTrue(latch.await(10, TimeUnit.SECONDS));
+                assertEquals(20, responses.size());
+                for (String response : responses) {
+                    assertTrue(response, response.startsWith("200 "));
+                }
+            } finally {
+                connection.close();
+            }
+        } finally {
+            worker.shutdown();
+        }
+    }
+
+    @Test
+    public void testHttp2_Upgrade() throws Exception {
+        start(ApiTestServer.server().enableHttp2());
+
+        try (Socket socket = new Socket("localhost", port)) {
+            write(socket, "GET /api/v1/accounts HTTP/1.1\r\nHost: localhost\r\n"
+                    + "Connection: Upgrade, HTTP2-Settings\r\nUpgrade: h2c\r\nHTTP2-Settings: AAMAAABkAAQAAP__\r\n\r\n");
+
+            assertTrue(readLine(socket.getInputStream()).startsWith("HTTP/1.1 101"));
+        }
+    }
+
+    @Test
+    public void testHttp2_NotEnabled() throws Exception {
+        start(ApiTestServer.server());
+
+        try (Socket socket = new Socket("localhost", port)) {
+            write(socket, "GET /api/v1/accounts HTTP/1.1\r\nHost: localhost\r\n"
+                    + "Connection: Upgrade, HTTP2-Settings\r\nUpgrade: h2c\r\nHTTP2-Settings: AAMAAABkAAQAAP__\r\n\r\n");
+
+            // Served as HTTP/1.1
+            assertTrue(readLine(socket.getInputStream()).startsWith("HTTP/1.1 200"));
+        }
+    }
+
+    @Test
+    public void testPipelining() throws Exception {
+        start(ApiTestServer.server().enablePipelining());
+
+        try (Socket socket = new Socket("localhost", port)) {
+            // Sent at once, answered in order
+            write(socket, "GET /api/v1/deposit/pipe-1/10 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /api/v1/deposit/pipe-2/10 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /api/v1/transfer/pipe-1/pipe-2/4 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /api/v1/accounts/pipe-2 HTTP/1.1\r\nHost: localhost\r\n\r\n");
+
+            InputStream in = socket.getInputStream();
+            for (int i = 0; i < 3; i++) {
+                String response = readResponse(in);
+                assertTrue(response, response.startsWith("HTTP/1.1 200"));
+            }
+            String last = readResponse(in);
+            assertTrue(last, last.startsWith("HTTP/1.1 200") && last.contains("\"balance\":14"));
+        }
+    }
+
+    @Test
+    public void testNoRequestTimeout() throws Exception {
+        start(ApiTestServer.server().noRequestTimeout(200).idleTimeout(5000));
+
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            write(socket, "GET /api/v1/accounts HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertTrue(readResponse(in).startsWith("HTTP/1.1 200"));
+
+            // The kept-alive connection is closed without the next request
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxConnections_Incorrect() {
+        ApiTestServer.server().maxConnections(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIdleTimeout_Incorrect() {
+        ApiTestServer.server().idleTimeout(-1);
+    }
+
+    /**
+     * Adds "status body" to the responses, call on the IO thread of the connection
+     */
+    private static void get(ClientConnection connection, String path, List<String> responses, CountDownLatch latch) {
+        ClientRequest request = new ClientRequest().setMethod(Methods.GET).setPath(path);
+        request.getRequestHeaders().put(Headers.HOST, "localhost");
+
+        connection.sendRequest(request, new ClientCallback<ClientExchange>() {
+            @Override
+            public void completed(ClientExchange exchange) {
+                exchange.setResponseListener(new ClientCallback<ClientExchange>() {
+                    @Override
+                    public void completed(ClientExchange result) {
+                        new StringReadChannelListener(connection.getBufferPool()) {
+                            @Override
+                            protected void stringDone(String body) {
+                                responses.add(result.getResponse().getResponseCode() + " " + body);
+                                latch.countDown();
+                            }
+
+                            @Override
+                            protected void error(IOException e) {
+                                latch.countDown();
+                            }
+                        }.setup(result.getResponseChannel());
+                    }
+
+                    @Override
+                    public void failed(IOException e) {
+                        latch.countDown();
+                    }
+                });
+
+                try {
+                    StreamSinkChannel channel = exchange.getRequestChannel();
+                    channel.shutdownWrites();
+                    if (!channel.flush()) {
+                        channel.getWriteSetter().set(ChannelListeners.flushingChannelListener(null, null));
+                        channel.resumeWrites();
+                    }
+                } catch (IOException e) {
+                    latch.countDown();
+                }
+            }
+
+            @Override
+            public void failed(IOException e) {
+                latch.countDown();
+            }
+        });
+    }
+
+    private static void write(Socket socket, String requests) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(requests.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * @return status line, headers and body of a response with Content-Length or chunked
+     */
+    private static String readResponse(InputStream in) throws IOException {
+        StringBuilder response = new StringBuilder();
+        int length = 0;
+        boolean chunked = false;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            response.append(line).append('\n');
+            String header = line.toLowerCase();
+            if (header.startsWith("content-length:")) {
+                length = Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
+            } else if (header.startsWith("transfer-encoding:") && header.contains("chunked")) {
+                chunked = true;
+            }
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (chunked) {
+            int chunk;
+            while ((chunk = Integer.parseInt(readLine(in).trim(), 16)) > 0) {
+                read(in, body, chunk);
+                readLine(in);
+            }
+            readLine(in);
+        } else {
+            read(in, body, length);
+        }
+        return response.append('\n').append(new String(body.toByteArray(), StandardCharsets.UTF_8)).toString();
+    }
+
+    private static void read(InputStream in, ByteArrayOutputStream body, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            body.write(in.read());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package playground.test.revo.api.v1;
+
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.response.ValidatableResponse;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import playground.test.revo.api.ApiTestServer;
+import playground.test.revo.core.ApiServer;
+
+import java.math.BigDecimal;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+
+public class ApiV1TransactionTest {
+
+    private static ApiServer apiServer;
+
+    @BeforeClass
+    public static void before() {
+        apiServer = ApiTestServer.start(ApiTestServer.server());
+    }
+
+    @AfterClass
+    public static void after() {
+        apiServer.stop();
+    }
+
+    @Test
+    public void testPayroll() {
+        deposit("payroll", 100);
+        deposit("employee-1", 0);
+        deposit("employee-2", 0);
+
+        post("{\"legs\":[{\"id\":\"payroll\",\"amount\":-60},"
+                + "{\"id\":\"employee-1\",\"amount\":\"25.5\"},{\"id\":\"employee-2\",\"amount\":34.5}]}")
+                .statusCode(200)
+                .contentType(ContentType.JSON)
+                .body("result", equalTo("SUCCESS"))
+                .body("legs[1].id", equalTo("employee-1"))
+                .body("legs[1].amount", equalTo(25.5f));
+
+        balance("payroll", "40");
+        balance("employee-1", "25.5");
+        balance("employee-2", "34.5");
+    }
+
+    @Test
+    public void testSameAccountLegsSummed() {
+        deposit("fees-1", 10);
+        deposit("fees-2", 0);
+
+        post("{\"legs\":[{\"id\":\"fees-1\",\"amount\":-4},{\"id\":\"fees-1\",\"amount\":-6},"
+                + "{\"id\":\"fees-2\",\"amount\":10}]}")
+                .statusCode(200);
+
+        balance("fees-1", "0");
+        balance("fees-2", "10");
+    }
+
+    @Test
+    public void testInsufficient_NothingApplied() {
+        deposit("split-1", 10);
+        deposit("split-2", 1);
+        deposit("split-3", 0);
+
+        post("{\"legs\":[{\"id\":\"split-1\",\"amount\":-5},{\"id\":\"split-2\",\"amount\":-5},"
+                + "{\"id\":\"split-3\",\"amount\":10}]}")
+                .statusCode(409)
+                .body("code", equalTo("ERROR_INSUFFICIENT_AMOUNT"));
+
+        balance("split-1", "10");
+        balance("split-2", "1");
+        balance("split-3", "0");
+    }
+
+    @Test
+    public void testIncorrect() {
+        deposit("incorrect-1", 10);
+
+        post("not json").statusCode(400).body("responseCode", equalTo(400));
+        post("{}").statusCode(400);
+        post("{\"legs\":[]}").statusCode(400);
+        post("{\"legs\":[{\"id\":\"incorrect-1\"}]}").statusCode(400);
+
+        post("{\"legs\":[{\"id\":\"incorrect-1\",\"amount\":-5},{\"id\":\"unknown\",\"amount\":5}]}")
+                .statusCode(409)
+                .body("code", equalTo("ERROR_TO_NOT_FOUND"));
+        post("{\"legs\":[{\"id\":\"incorrect-1\",\"amount\":-5}]}")
+                .statusCode(409)
+                .body("code", equalTo("ERROR_INCORRECT_AMOUNT"));
+
+        balance("incorrect-1", "10");
+    }
+
+    private static void deposit(String id, int amount) {
+        RestAssured.when().get("/api/v1/deposit/" + id + "/" + amount).then().statusCode(200);
+    }
+
+    private static void balance(String id, String expected) {
+        String balance = RestAssured.when().get("/api/v1/accounts/" + id).then()
+                .statusCode(200)
+                .extract().jsonPath().getString("balance");
+        assertEquals(id, 0, new BigDecimal(expected).compareTo(new BigDecimal(balance)));
+    }
+
+    private static ValidatableResponse post(String body) {
+        return RestAssured.given()
+                .contentType(ContentType.JSON)
+                .body(body)
+                .post("/api/v1/transactions")
+                .then();
+    }
+}
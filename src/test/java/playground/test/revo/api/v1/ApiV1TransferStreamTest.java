@@ -0,0 +1,78 @@
+package playground.test.revo.api.v1;
+
+import io.restassured.RestAssured;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import playground.test.revo.api.ApiTestServer;
+import playground.test.revo.core.ApiServer;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+
+public class ApiV1TransferStreamTest {
+
+    // Ids of this run, MAPPED engine keeps accounts of previous runs in the file
+    private static final String RUN = Long.toString(System.currentTimeMillis(), 36);
+
+    private static final String FROM = "stream-" + RUN + "-1";
+
+    private static final String TO = "stream-" + RUN + "-2";
+
+    private static ApiServer apiServer;
+
+    @BeforeClass
+    public static void before() {
+        apiServer = ApiTestServer.start(ApiTestServer.server());
+    }
+
+    @AfterClass
+    public static void after() {
+        apiServer.stop();
+    }
+
+    @Test
+    public void testBatchTransfer() {
+        RestAssured.when().get("/api/v1/deposit/" + FROM + "/100").then().statusCode(200);
+        RestAssured.when().get("/api/v1/deposit/" + TO + "/100").then().statusCode(200);
+
+        String accounts = "{\"from\":\"" + FROM + "\",\"to\":\"" + TO + "\"";
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            body.append(accounts + ",\"amount\":\"0.1\"}\n");
+        }
+        body.append(accounts + ",\"amount\":\"1\"}\n");
+        body.append("not json\n");
+
+        String response = RestAssured.given()
+                .body(body.toString())
+                .when()
+                .post("/api/v1/transfers")
+                .then()
+                .statusCode(200)
+                .contentType("application/x-ndjson")
+                .extract().asString();
+
+        String[] lines = response.split("\n");
+        assertEquals(1002, lines.length);
+        assertEquals(accounts + ",\"amount\":0.1,\"result\":\"SUCCESS\"}", lines[0]);
+        assertEquals(accounts + ",\"amount\":1,\"result\":\"ERROR_INSUFFICIENT_AMOUNT\"}", lines[1000]);
+        assertEquals("{\"result\":\"ERROR_UNKNOWN\"}", lines[1001]);
+
+        // Compared numerically, FIXED_POINT engine renders integral balances without a fraction
+        assertEquals(0, BigDecimal.ZERO.compareTo(balance(FROM)));
+        assertEquals(0, new BigDecimal(200).compareTo(balance(TO)));
+    }
+
+    private static BigDecimal balance(String id) {
+        return new BigDecimal(RestAssured.when().get("/api/v1/accounts/" + id).then()
+                .statusCode(200)
+                .extract().jsonPath().getString("balance"));
+    }
+
+    @Test
+    public void testBatchTransferGet() {
+        RestAssured.when().get("/api/v1/transfers").then().statusCode(405);
+    }
+}
@@ -0,0 +1,180 @@
+package playground.test.revo.api.v1.handler;
+
+import com.google.gson.Gson;
+import io.undertow.util.StatusCodes;
+import org.junit.Test;
+import playground.test.revo.api.v1.dto.AccountDTO;
+import playground.test.revo.api.v1.dto.AggregatesDTO;
+import playground.test.revo.api.v1.dto.ErrorDTO;
+import playground.test.revo.api.v1.dto.LegDTO;
+import playground.test.revo.api.v1.dto.MultiLegTransactionDTO;
+import playground.test.revo.api.v1.dto.TopAccountsDTO;
+import playground.test.revo.api.v1.dto.TransactionDTO;
+import playground.test.revo.data.TxManager;
+
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JsonEncoderTest {
+
+    private static final Gson gson = new Gson();
+
+    private static final String[] STRINGS = {
+            "",
+            "account-1",
+            "quote\" backslash\\ slash/",
+            "<script>alert('x&y=z')</script>",
+            "\t\b\n\r\f\u0000\u001f\u007f",
+            "line\u2028paragraph\u2029",
+            "\u00e9 \u00df \u00fc \u0800 \u20ac \uffff",
+            "emoji \ud83d\ude00 pair",
+            "lone \ud83d high",
+            "lone \ude00 low",
+            "trailing \ud83d"
+    };
+
+    private static final BigDecimal[] AMOUNTS = {
+            BigDecimal.ZERO,
+            new BigDecimal("1234.56"),
+            new BigDecimal("-0.001"),
+            new BigDecimal("1E+3"),
+            new BigDecimal("1E-10"),
+            new BigDecimal("123456789012345678901234567890.123456789")
+    };
+
+    @Test
+    public void account_SameAsGson() {
+        for (String id : STRINGS) {
+            for (BigDecimal balance : AMOUNTS) {
+                assertSame(AccountDTO.builder().id(id).balance(balance).build(), JsonEncoder::account);
+            }
+        }
+        assertSame(AccountDTO.builder().build(), JsonEncoder::account);
+        assertSame(AccountDTO.builder().balance(BigDecimal.ONE).build(), JsonEncoder::account);
+    }
+
+    @Test
+    public void transaction_SameAsGson() {
+        for (String id : STRINGS) {
+            for (TxManager.TxResult result : TxManager.TxResult.values()) {
+                assertSame(TransactionDTO.builder().from(id).to("b").amount(BigDecimal.TEN).result(result).build(),
+                        JsonEncoder::transaction);
+            }
+        }
+        assertSame(TransactionDTO.builder().build(), JsonEncoder::transaction);
+        assertSame(TransactionDTO.builder().to("b").build(), JsonEncoder::transaction);
+        assertSame(TransactionDTO.builder().amount(new BigDecimal("0.10")).build(), JsonEncoder::transaction);
+        assertSame(TransactionDTO.builder().result(TxManager.TxResult.SUCCESS).build(), JsonEncoder::transaction);
+    }
+
+    @Test
+    public void error_SameAsGson() {
+        for (String id : STRINGS) {
+            assertSame(ErrorDTO.builder().responseCode(StatusCodes.NOT_FOUND).accountId(id)
+                    .cause("Account not found").build(), JsonEncoder::error);
+            assertSame(ErrorDTO.builder().responseCode(StatusCodes.CONFLICT).code(id)
+                    .cause(id).build(), JsonEncoder::error);
+        }
+        for (int code : new int[]{0, 7, 10, 99, 200, 409, 1000, -1, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            assertSame(ErrorDTO.builder().responseCode(code).build(), JsonEncoder::error);
+        }
+    }
+
+    @Test
+    public void multiLegTransaction_SameAsGson() {
+        for (String id : STRINGS) {
+            for (BigDecimal amount : AMOUNTS) {
+                assertSame(MultiLegTransactionDTO.builder()
+                        .legs(Arrays.asList(LegDTO.builder().id(id).amount(amount.negate()).build(),
+                                LegDTO.builder().id("b").amount(amount).build()))
+                        .result(TxManager.TxResult.SUCCESS)
+                        .build(), JsonEncoder::multiLegTransaction);
+            }
+        }
+        assertSame(MultiLegTransactionDTO.builder().build(), JsonEncoder::multiLegTransaction);
+        assertSame(MultiLegTransactionDTO.builder().legs(Collections.emptyList()).build(), JsonEncoder::multiLegTransaction);
+        assertSame(MultiLegTransactionDTO.builder()
+                .legs(Arrays.asList(LegDTO.builder().build(), null, LegDTO.builder().amount(BigDecimal.ONE).build()))
+                .build(), JsonEncoder::multiLegTransaction);
+    }
+
+    @Test
+    public void aggregates_SameAsGson() {
+        for (BigDecimal total : AMOUNTS) {
+            for (long count : new long[]{0, 1, 10, 123456789012L, Long.MAX_VALUE, Long.MIN_VALUE}) {
+                assertSame(AggregatesDTO.builder().total(total).accounts(count).violations(count).build(),
+                        JsonEncoder::aggregates);
+            }
+        }
+        assertSame(AggregatesDTO.builder().build(), JsonEncoder::aggregates);
+    }
+
+    @Test
+    public void topAccounts_SameAsGson() {
+        List<AccountDTO> accounts = new ArrayList<>();
+        for (int i = 0; i < STRINGS.length; i++) {
+            accounts.add(AccountDTO.builder().id(STRINGS[i]).balance(AMOUNTS[i % AMOUNTS.length]).build());
+        }
+        accounts.add(null);
+        assertSame(TopAccountsDTO.builder().accounts(accounts).build(), JsonEncoder::topAccounts);
+        assertSame(TopAccountsDTO.builder().accounts(Collections.emptyList()).build(), JsonEncoder::topAccounts);
+        assertSame(TopAccountsDTO.builder().build(), JsonEncoder::topAccounts);
+    }
+
+    @Test
+    public void strings_SameAsGson() {
+        assertSame(Collections.<String>emptyList(), JsonEncoder::strings);
+        assertSame(Collections.singletonList("a"), JsonEncoder::strings);
+        assertSame(Arrays.asList(STRINGS), JsonEncoder::strings);
+        assertSame(Arrays.asList("a", null, "b"), JsonEncoder::strings);
+    }
+
+    @Test
+    public void encode_ReadOnlyDirect() {
+        ErrorDTO error = ErrorDTO.builder().responseCode(StatusCodes.CONFLICT).cause("Transfer error").build();
+        ByteBuffer buffer = JsonEncoder.encode(error);
+
+        assertTrue(buffer.isReadOnly());
+        assertTrue(buffer.isDirect());
+        assertArrayEquals(gson.toJson(error).getBytes(StandardCharsets.UTF_8), bytes(buffer.duplicate()));
+        assertArrayEquals(bytes(buffer.duplicate()), bytes(buffer.duplicate()));
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void account_Overflow() {
+        JsonEncoder.account(ByteBuffer.allocate(8), AccountDTO.builder().id("account-1").build());
+    }
+
+    @Test
+    public void encode_Grows() {
+        List<String> accounts = Collections.nCopies(1000, "account-\u20ac");
+        ByteBuffer buffer = ApiV1Controller.encode(accounts, JsonEncoder::strings, 16);
+
+        assertArrayEquals(gson.toJson(accounts).getBytes(StandardCharsets.UTF_8), bytes(buffer));
+    }
+
+    private static <T> void assertSame(T value, BiConsumer<ByteBuffer, T> encoder) {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        encoder.accept(buffer, value);
+        buffer.flip();
+
+        String expected = gson.toJson(value);
+        assertArrayEquals(expected, expected.getBytes(StandardCharsets.UTF_8), bytes(buffer));
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,156 @@
+package playground.test.revo.api.v1.handler;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import playground.test.revo.data.TxManager;
+import playground.test.revo.data.impl.InMemoryAccountDAO;
+import playground.test.revo.data.impl.SimpleTxManager;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TransferStreamTest {
+
+    private InMemoryAccountDAO dao;
+
+    private ExecutorService executor;
+
+    private TransferStream stream;
+
+    @Before
+    public void before() {
+        dao = new InMemoryAccountDAO();
+        dao.createAndDeposit("a", BigDecimal.valueOf(10));
+        dao.createAndDeposit("b", BigDecimal.valueOf(10));
+
+        executor = Executors.newFixedThreadPool(4);
+        stream = new TransferStream(new SimpleTxManager(dao), executor, 2, 2);
+    }
+
+    @After
+    public void after() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void run_Ordered() throws IOException {
+        String[] results = run("{\"from\":\"a\",\"to\":\"b\",\"amount\":\"6\"}\n"
+                + "{\"from\":\"a\",\"to\":\"b\",\"amount\":6}\n"
+                + "\n"
+                + "{\"from\":\"b\",\"to\":\"a\",\"amount\":\"16\"}\r\n"
+                + "{\"from\":\"a\",\"to\":\"a\",\"amount\":\"1\"}\n"
+                + "{\"from\":\"x\",\"to\":\"a\",\"amount\":\"1\"}");
+
+        assertEquals(5, results.length);
+        assertResult(results[0], TxManager.TxResult.SUCCESS);
+        assertResult(results[1], TxManager.TxResult.ERROR_INSUFFICIENT_AMOUNT);
+        assertResult(results[2], TxManager.TxResult.SUCCESS);
+        assertResult(results[3], TxManager.TxResult.ERROR_SAME_FROM_TO);
+        assertResult(results[4], TxManager.TxResult.ERROR_FROM_NOT_FOUND);
+
+        assertEquals("a", new Gson().fromJson(results[0], JsonObject.class).get("from").getAsString());
+        assertEquals(0, BigDecimal.valueOf(20).compareTo(dao.balance("a")));
+        assertEquals(0, BigDecimal.ZERO.compareTo(dao.balance("b")));
+    }
+
+    @Test
+    public void run_Malformed() throws IOException {
+        StringBuilder longLine = new StringBuilder("{\"from\":\"");
+        for (int i = 0; i < 70000; i++) {
+            longLine.append('x');
+        }
+        longLine.append("\"}");
+
+        String[] results = run("{\"from\":\n"
+                + "[1, 2]\n"
+                + longLine + "\n"
+                + "{\"from\":\"a\",\"to\":\"b\",\"amount\":\"abc\"}\n"
+                + "{\"from\":\"a\",\"to\":\"b\"}\n"
+                + "{\"from\":\"a\",\"to\":\"b\",\"amount\":\"1\"}\n");
+
+        assertEquals(6, results.length);
+        for (int i = 0; i < 4; i++) {
+            assertResult(results[i], TxManager.TxResult.ERROR_UNKNOWN);
+        }
+        assertResult(results[4], TxManager.TxResult.ERROR_INCORRECT_AMOUNT);
+        assertResult(results[5], TxManager.TxResult.SUCCESS);
+    }
+
+    @Test
+    public void run_Empty() throws IOException {
+        StringWriter out = new StringWriter();
+        assertEquals(0, stream.run(new StringReader(""), out));
+        assertEquals("", out.toString());
+    }
+
+    @Test
+    public void run_Bounded() throws IOException {
+        int[] read = {0};
+        int total = 10000;
+
+        // Hands out one line per call and counts them
+        Reader in = new Reader() {
+            private final String line = "{\"from\":\"a\",\"to\":\"b\",\"amount\":\"0\"}\n";
+            private int position;
+
+            @Override
+            public int read(char[] buffer, int offset, int length) {
+                if (read[0] >= total) {
+                    return -1;
+                }
+                int count = 0;
+                while (count < length && read[0] < total) {
+                    buffer[offset + count++] = line.charAt(position++);
+                    if (position == line.length()) {
+                        position = 0;
+                        read[0]++;
+                        break;
+                    }
+                }
+                return count;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        StringWriter out = new StringWriter() {
+            private int lines;
+
+            @Override
+            public void write(int c) {
+                super.write(c);
+                if (c == '\n') {
+                    // 2 batches of 2 in flight, 1 batch and 1 line being read
+                    assertTrue(read[0] - ++lines <= 2 * 2 + 2 + 1);
+                }
+            }
+        };
+
+        stream = new TransferStream(new SimpleTxManager(dao), executor, 2, 2);
+        assertEquals(total, stream.run(in, out));
+        assertEquals(total, out.toString().split("\n").length);
+    }
+
+    private String[] run(String input) throws IOException {
+        StringWriter out = new StringWriter();
+        stream.run(new StringReader(input), out);
+        return out.toString().split("\n");
+    }
+
+    private static void assertResult(String line, TxManager.TxResult result) {
+        assertEquals(result.toString(), new Gson().fromJson(line, JsonObject.class).get("result").getAsString());
+    }
+}
@@ -0,0 +1,145 @@
+package playground.test.revo.core;
+
+import org.junit.Test;
+import playground.test.revo.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControlTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    private AdmissionControl admission(int limit, int burst, int account, long budgetMs) {
+        return new AdmissionControl(true, limit, burst, account, budgetMs, metrics);
+    }
+
+    private static void assertAdmitted(AdmissionControl admission, AdmissionControl.Ticket ticket) {
+        assertNotSame(admission.serverBusy, ticket);
+        assertNotSame(admission.accountBusy, ticket);
+    }
+
+    @Test
+    public void admit_Burst() {
+        AdmissionControl admission = admission(2, 1, 100, 1000);
+
+        List<AdmissionControl.Ticket> tickets = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            tickets.add(admission.admit("account-" + i, null));
+            assertAdmitted(admission, tickets.get(i));
+        }
+        assertFalse(tickets.get(1).isQueued());
+        assertTrue(tickets.get(2).isQueued());
+        assertSame(admission.serverBusy, admission.admit("account-3", null));
+        assertEquals(2, admission.inFlight());
+        assertEquals(1, admission.queued());
+
+        // The queued request takes the place
+        AtomicBoolean resumed = new AtomicBoolean();
+        tickets.get(2).park(() -> resumed.set(true));
+        admission.complete(tickets.get(0), System.nanoTime());
+        assertTrue(resumed.get());
+        assertFalse(tickets.get(2).isQueued());
+        assertEquals(2, admission.inFlight());
+        assertEquals(0, admission.queued());
+
+        assertTrue(admission.admit("account-3", null).isQueued());
+    }
+
+    @Test
+    public void admit_QueueOrder() {
+        AdmissionControl admission = admission(1, 2, 100, 1000);
+
+        AdmissionControl.Ticket first = admission.admit("a", null);
+        AdmissionControl.Ticket second = admission.admit("b", null);
+        AdmissionControl.Ticket third = admission.admit("c", null);
+        assertTrue(second.isQueued());
+        assertTrue(third.isQueued());
+
+        // Ended before it ran, the place goes to the next one
+        admission.complete(second, System.nanoTime());
+        assertEquals(1, admission.queued());
+        admission.complete(first, System.nanoTime());
+        assertFalse(third.isQueued());
+
+        // Parked after it has left the queue, runs right away
+        AtomicBoolean resumed = new AtomicBoolean();
+        third.park(() -> resumed.set(true));
+        assertTrue(resumed.get());
+
+        admission.complete(third, System.nanoTime());
+        assertEquals(0, admission.inFlight());
+        assertEquals(0, admission.queued());
+    }
+
+    @Test
+    public void admit_Account() {
+        AdmissionControl admission = admission(100, 0, 2, 1000);
+
+        AdmissionControl.Ticket first = admission.admit("a", "b");
+        assertAdmitted(admission, first);
+        assertAdmitted(admission, admission.admit("b", "a"));
+
+        assertSame(admission.accountBusy, admission.admit("a", null));
+        assertSame(admission.accountBusy, admission.admit("c", "b"));
+        assertEquals(2, admission.inFlight());
+
+        // Other accounts are not limited, the same one is counted once
+        assertAdmitted(admission, admission.admit("c", "c"));
+        assertAdmitted(admission, admission.admit("c", null));
+
+        admission.complete(first, System.nanoTime());
+        assertAdmitted(admission, admission.admit("d", "b"));
+        assertEquals(4, admission.inFlight());
+    }
+
+    @Test
+    public void admit_OverBudget() {
+        AdmissionControl admission = admission(1, 100, 100, 10);
+
+        // Requests take a second
+        for (int i = 0; i < 20; i++) {
+            admission.complete(admission.admit("a", null), System.nanoTime() + SECOND);
+        }
+
+        assertAdmitted(admission, admission.admit("a", null));
+        assertSame(admission.serverBusy, admission.admit("b", null));
+        assertTrue(admission.retryAfter() >= 1);
+        assertEquals(1, admission.inFlight());
+    }
+
+    @Test
+    public void limit_Adapts() {
+        AdmissionControl admission = admission(10, 0, 100, 1000);
+
+        // Reached without exceeding the budget
+        List<AdmissionControl.Ticket> tickets = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            tickets.add(admission.admit("account-" + i, null));
+        }
+        assertSame(admission.serverBusy, admission.admit("account-10", null));
+
+        admission.complete(tickets.get(0), System.nanoTime() + SECOND / 5);
+        assertEquals(11, admission.limit());
+
+        // Over the budget in the next window
+        admission.complete(tickets.get(1), System.nanoTime() + 2 * SECOND);
+        assertEquals(10, admission.limit());
+
+        // Once per window
+        admission.complete(tickets.get(2), System.nanoTime() + 2 * SECOND);
+        assertEquals(10, admission.limit());
+        admission.complete(tickets.get(3), System.nanoTime() + 3 * SECOND);
+        assertEquals(9, admission.limit());
+    }
+}
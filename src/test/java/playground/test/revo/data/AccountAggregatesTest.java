@@ -0,0 +1,197 @@
+package playground.test.revo.data;
+
+import org.junit.Before;
+import org.junit.Test;
+import playground.test.revo.data.impl.HotAccountDAO;
+import playground.test.revo.data.impl.InMemoryAccountDAO;
+import playground.test.revo.data.impl.SimpleTxManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+
+public class AccountAggregatesTest {
+
+    private InMemoryAccountDAO dao;
+
+    private SimpleTxManager tx;
+
+    private AccountAggregates aggregates;
+
+    @Before
+    public void before() {
+        dao = new InMemoryAccountDAO();
+        tx = new SimpleTxManager(dao);
+        aggregates = tx.aggregates();
+    }
+
+    @Test
+    public void totalAndCount() {
+        tx.deposit("a", BigDecimal.TEN);
+        tx.deposit("b", BigDecimal.ONE);
+        tx.deposit("a", BigDecimal.ONE);
+        tx.transfer("a", "b", BigDecimal.valueOf(5));
+        tx.transfer("a", "b", BigDecimal.valueOf(100));
+
+        assertEquals(0, BigDecimal.valueOf(12).compareTo(aggregates.total()));
+        assertEquals(2, aggregates.count());
+        assertEquals(0, aggregates.violations());
+    }
+
+    @Test
+    public void rebuild() {
+        dao.createAndDeposit("a", BigDecimal.TEN);
+        dao.createAndDeposit("b", BigDecimal.ONE);
+
+        // Balances were made bypassing the TX manager
+        assertEquals(0, BigDecimal.ZERO.compareTo(aggregates.total()));
+
+        aggregates.rebuild();
+        assertEquals(0, BigDecimal.valueOf(11).compareTo(aggregates.total()));
+        assertEquals(2, aggregates.count());
+        assertEquals("a", aggregates.top(2).get(0).getKey());
+
+        // Constructed with existing balances
+        assertEquals(2, new SimpleTxManager(dao).aggregates().count());
+    }
+
+    @Test
+    public void top_Updated() {
+        for (int i = 0; i < 10; i++) {
+            tx.deposit("account-" + i, BigDecimal.valueOf(i));
+        }
+        assertTop("account-9", "account-8", "account-7");
+
+        tx.transfer("account-9", "account-0", BigDecimal.valueOf(9));
+        tx.transfer("account-8", "account-1", BigDecimal.valueOf(6));
+        assertTop("account-0", "account-1", "account-7");
+    }
+
+    @Test
+    public void top_SameAsSorted() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int accounts = 500;
+        for (int i = 0; i < accounts; i++) {
+            tx.deposit("account-" + i, BigDecimal.valueOf(random.nextInt(1000)));
+        }
+
+        // Top accounts pay the others, so the set is emptied and refilled
+        for (int i = 0; i < 20_000; i++) {
+            String from = "account-" + random.nextInt(accounts);
+            String to = "account-" + random.nextInt(accounts);
+            if (!from.equals(to)) {
+                tx.transfer(from, to, BigDecimal.valueOf(random.nextInt(1, 500)));
+            }
+            if (i % 1000 == 0) {
+                List<Map.Entry<String, BigDecimal>> top = aggregates.top(3);
+                tx.transfer(top.get(0).getKey(), top.get(2).getKey(), top.get(0).getValue());
+                assertSameAsSorted();
+            }
+        }
+        assertSameAsSorted();
+        assertEquals(0, aggregates.violations());
+    }
+
+    @Test
+    public void top_HotAccount() {
+        HotAccountDAO hot = new HotAccountDAO(new InMemoryAccountDAO(), 4, 0);
+        tx = new SimpleTxManager(hot);
+        aggregates = tx.aggregates();
+
+        tx.deposit("payer", BigDecimal.valueOf(100));
+        tx.deposit("hot", BigDecimal.ONE);
+        hot.mark("hot");
+
+        tx.transfer("payer", "hot", BigDecimal.valueOf(50));
+        tx.deposit("hot", BigDecimal.TEN);
+        assertEquals("hot", aggregates.top(1).get(0).getKey());
+        assertEquals(0, BigDecimal.valueOf(61).compareTo(aggregates.top(1).get(0).getValue()));
+        assertEquals(0, BigDecimal.valueOf(111).compareTo(aggregates.total()));
+    }
+
+    @Test(timeout = 30000)
+    public void top_UpdatedWhileRefilled() {
+        AtomicBoolean updated = new AtomicBoolean();
+        InMemoryAccountDAO store = new InMemoryAccountDAO() {
+            @Override
+            public Collection<String> allAccounts() {
+                if (updated.compareAndSet(false, true)) {
+                    // An update of another thread does not wait for the refill
+                    CompletableFuture.runAsync(() -> {
+                        deposit("d", BigDecimal.valueOf(100));
+                        aggregates.updated("d");
+                    }).join();
+                }
+                return super.allAccounts();
+            }
+        };
+        store.createAndDeposit("a", BigDecimal.TEN);
+        store.createAndDeposit("b", BigDecimal.valueOf(9));
+        store.createAndDeposit("c", BigDecimal.valueOf(8));
+        store.createAndDeposit("d", BigDecimal.ONE);
+        aggregates = new AccountAggregates(store, 1, new LongAdder());
+
+        aggregates.rebuild();
+        assertEquals("d", aggregates.top(1).get(0).getKey());
+        assertEquals(0, BigDecimal.valueOf(101).compareTo(aggregates.top(1).get(0).getValue()));
+    }
+
+    @Test
+    public void violation_Counted() {
+        // A store, which loses credits
+        InMemoryAccountDAO broken = new InMemoryAccountDAO() {
+            @Override
+            public BigDecimal deposit(String id, BigDecimal amount) {
+                return balance(id);
+            }
+        };
+        tx = new SimpleTxManager(broken);
+        tx.deposit("a", BigDecimal.TEN);
+        tx.deposit("b", BigDecimal.TEN);
+
+        tx.transfer("a", "b", BigDecimal.ONE);
+        assertEquals(1, tx.aggregates().violations());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void top_IncorrectLimit() {
+        new AccountAggregates(dao, 5, new LongAdder()).top(6);
+    }
+
+    private void assertTop(String... expected) {
+        List<String> top = new ArrayList<>();
+        for (Map.Entry<String, BigDecimal> account : aggregates.top(expected.length)) {
+            top.add(account.getKey());
+        }
+        assertEquals(Arrays.asList(expected), top);
+    }
+
+    private void assertSameAsSorted() {
+        TreeMap<BigDecimal, Integer> balances = new TreeMap<>();
+        for (String id : dao.allAccounts()) {
+            balances.merge(dao.balance(id), 1, Integer::sum);
+        }
+
+        int limit = aggregates.topSize();
+        List<Map.Entry<String, BigDecimal>> top = aggregates.top(limit);
+        assertEquals(limit, top.size());
+
+        int i = 0;
+        for (Map.Entry<BigDecimal, Integer> balance : balances.descendingMap().entrySet()) {
+            for (int n = 0; n < balance.getValue() && i < limit; n++, i++) {
+                assertEquals(0, balance.getKey().compareTo(top.get(i).getValue()));
+                assertEquals(0, balance.getKey().compareTo(dao.balance(top.get(i).getKey())));
+            }
+        }
+    }
+}
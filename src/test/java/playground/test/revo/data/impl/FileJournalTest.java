@@ -0,0 +1,352 @@
+package playground.test.revo.data.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import playground.test.revo.data.TxManager;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileJournalTest {
+
+    private String TEST_1 = "test 1";
+    private String TEST_2 = "test 2";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+
+    private FileJournal journal;
+
+    @Before
+    public void before() throws IOException {
+        dir = folder.newFolder().toPath();
+        journal = new FileJournal(dir, 64, 100);
+    }
+
+    @After
+    public void after() throws IOException {
+        journal.close();
+    }
+
+    @Test
+    public void append_Durable() throws Exception {
+        CompletableFuture<Long> deposit = new CompletableFuture<>();
+        CompletableFuture<Long> transfer = new CompletableFuture<>();
+
+        journal.deposit(TEST_1, BigDecimal.valueOf(10), deposit);
+        journal.transfer(TEST_1, TEST_2, new BigDecimal("2.50"), transfer);
+
+        assertEquals(1L, (long) deposit.get());
+        assertEquals(2L, (long) transfer.get());
+        assertEquals(2L, journal.batchSizes().sum());
+    }
+
+    @Test
+    public void sync_Durable() throws Exception {
+        CompletableFuture<Long> deposit = new CompletableFuture<>();
+        journal.deposit(TEST_1, BigDecimal.ONE, deposit);
+
+        assertEquals(1L, (long) journal.sync().get());
+        assertTrue(deposit.isDone());
+        assertEquals(1, journal.sequence());
+    }
+
+    @Test
+    public void replay_Ok() throws Exception {
+        append();
+        journal.close();
+
+        List<FileJournal.Record> records = new ArrayList<>();
+        journal = new FileJournal(dir, 64, 100);
+        assertEquals(2, journal.replay(0, records::add));
+
+        assertEquals(1, records.get(0).sequence());
+        assertFalse(records.get(0).isTransfer());
+        assertNull(records.get(0).from());
+        assertEquals(TEST_1, records.get(0).to());
+        assertEquals(BigDecimal.valueOf(10), records.get(0).amount());
+
+        assertEquals(2, records.get(1).sequence());
+        assertTrue(records.get(1).isTransfer());
+        assertEquals(TEST_1, records.get(1).from());
+        assertEquals(TEST_2, records.get(1).to());
+        assertEquals(new BigDecimal("2.50"), records.get(1).amount());
+
+        assertEquals(1, journal.replay(1, record -> {
+        }));
+    }
+
+    @Test
+    public void replay_MultiLeg() throws Exception {
+        Map<String, BigDecimal> legs = new LinkedHashMap<>();
+        legs.put(TEST_1, new BigDecimal("-3.50"));
+        legs.put(TEST_2, BigDecimal.ONE);
+        legs.put("test \u20ac", new BigDecimal("2.5"));
+
+        append();
+        CompletableFuture<Long> transfer = new CompletableFuture<>();
+        journal.transfer(legs, transfer);
+        assertEquals(3L, (long) transfer.get());
+        journal.close();
+
+        List<FileJournal.Record> records = new ArrayList<>();
+        journal = new FileJournal(dir, 64, 100);
+        assertEquals(3, journal.replay(0, records::add));
+
+        FileJournal.Record record = records.get(2);
+        assertTrue(record.isMultiLeg());
+        assertFalse(record.isTransfer());
+        assertNull(record.to());
+        assertEquals(legs, record.legs());
+
+        // Credited accounts exist before the records
+        InMemoryAccountDAO dao = new InMemoryAccountDAO();
+        dao.createAndDeposit(TEST_2, BigDecimal.ZERO);
+        dao.createAndDeposit("test \u20ac", BigDecimal.ZERO);
+        assertEquals(3, journal.replay(dao));
+        assertEquals(0, new BigDecimal("4.00").compareTo(dao.balance(TEST_1)));
+        assertEquals(0, new BigDecimal("3.50").compareTo(dao.balance(TEST_2)));
+        assertEquals(0, new BigDecimal("2.5").compareTo(dao.balance("test \u20ac")));
+    }
+
+    @Test
+    public void reopen_ContinueSequence() throws Exception {
+        append();
+        journal.close();
+
+        journal = new FileJournal(dir, 64, 100);
+        assertEquals(2, journal.sequence());
+
+        CompletableFuture<Long> deposit = new CompletableFuture<>();
+        journal.deposit(TEST_2, BigDecimal.ONE, deposit);
+        assertEquals(3L, (long) deposit.get());
+    }
+
+    @Test
+    public void reopen_TornTail() throws Exception {
+        append();
+        journal.close();
+
+        Path segment = segments().get(0);
+        long size = Files.size(segment);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.setLength(size - 3);
+        }
+
+        journal = new FileJournal(dir, 64, 100);
+        assertEquals(1, journal.sequence());
+        assertEquals(1, journal.replay(0, record -> {
+        }));
+        assertTrue(Files.size(segment) < size - 3);
+    }
+
+    @Test
+    public void reopen_Corrupted() throws Exception {
+        append();
+        journal.close();
+
+        Path segment = segments().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xFF);
+        }
+
+        journal = new FileJournal(dir, 64, 100);
+        assertEquals(1, journal.replay(0, record -> {
+        }));
+    }
+
+    @Test
+    public void segments_Roll() throws Exception {
+        journal.close();
+        journal = new FileJournal(dir, 4, 0, 64);
+
+        for (int i = 0; i < 10; i++) {
+            CompletableFuture<Long> deposit = new CompletableFuture<>();
+            journal.deposit(TEST_1, BigDecimal.ONE, deposit);
+            deposit.get();
+        }
+        journal.close();
+
+        assertTrue(segments().size() > 1);
+
+        InMemoryAccountDAO dao = new InMemoryAccountDAO();
+        journal = new FileJournal(dir, 4, 0, 64);
+        assertEquals(10, journal.replay(dao));
+        assertEquals(10, dao.balance(TEST_1).intValue());
+        assertEquals(10, journal.sequence());
+    }
+
+    @Test
+    public void queueFull_Deferred() throws Exception {
+        journal.close();
+        // One record per fsync, the queue holds 64 of them
+        journal = new FileJournal(dir, 1, 0);
+
+        List<CompletableFuture<Long>> durable = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            CompletableFuture<Long> deposit = new CompletableFuture<>();
+            CompletableFuture<Long> transfer = new CompletableFuture<>();
+            journal.deposit(TEST_1, BigDecimal.ONE, deposit);
+            journal.transfer(TEST_1, TEST_2, BigDecimal.ONE, transfer);
+            durable.add(deposit);
+            durable.add(transfer);
+        }
+        for (CompletableFuture<Long> record : durable) {
+            record.get();
+        }
+        assertTrue(journal.deferred() > 0);
+        journal.close();
+
+        // A transfer stored before its deposit would not replay
+        InMemoryAccountDAO dao = new InMemoryAccountDAO();
+        dao.createAndDeposit(TEST_2, BigDecimal.ZERO);
+        journal = new FileJournal(dir, 64, 100);
+        assertEquals(10000, journal.replay(dao));
+        assertEquals(0, BigDecimal.valueOf(5000).compareTo(dao.balance(TEST_2)));
+    }
+
+    @Test
+    public void closed_Fail() throws Exception {
+        journal.close();
+
+        CompletableFuture<Long> deposit = new CompletableFuture<>();
+        journal.deposit(TEST_1, BigDecimal.ONE, deposit);
+        assertTrue(deposit.isCompletedExceptionally());
+
+        journal = new FileJournal(dir, 64, 100);
+    }
+
+    @Test
+    public void closed_BalancesUnchanged() throws Exception {
+        InMemoryAccountDAO dao = new InMemoryAccountDAO();
+        SimpleTxManager tx = new SimpleTxManager(dao, journal, 500, 16);
+        assertEquals(TxManager.DepositResult.SUCCESS, tx.deposit(TEST_1, BigDecimal.TEN));
+        assertEquals(TxManager.DepositResult.SUCCESS, tx.deposit(TEST_2, BigDecimal.TEN));
+        journal.close();
+
+        Map<String, BigDecimal> legs = new LinkedHashMap<>();
+        legs.put(TEST_1, BigDecimal.ONE.negate());
+        legs.put(TEST_2, BigDecimal.ONE);
+        assertEquals(TxManager.DepositResult.ERROR_UNKNOWN, tx.deposit(TEST_1, BigDecimal.ONE));
+        assertEquals(TxManager.TxResult.ERROR_UNKNOWN, tx.transfer(TEST_1, TEST_2, BigDecimal.ONE));
+        assertEquals(TxManager.TxResult.ERROR_UNKNOWN, tx.transfer(legs));
+        assertEquals(TxManager.TxResult.ERROR_UNKNOWN, tx.transferAsync(TEST_1, TEST_2, BigDecimal.ONE).get());
+        assertEquals(0, BigDecimal.TEN.compareTo(dao.balance(TEST_1)));
+        assertEquals(0, BigDecimal.TEN.compareTo(dao.balance(TEST_2)));
+
+        journal = new FileJournal(dir, 64, 100);
+    }
+
+    @Test
+    public void tooLong_BalancesUnchanged() {
+        InMemoryAccountDAO dao = new InMemoryAccountDAO();
+        SimpleTxManager tx = new SimpleTxManager(dao, journal, 500, 16);
+        assertEquals(TxManager.DepositResult.SUCCESS, tx.deposit(TEST_1, BigDecimal.TEN));
+
+        // Above 4096 bits of unscaled value, the record is too long to store
+        BigDecimal huge = new BigDecimal(BigInteger.ONE.shiftLeft(4096), 10);
+        assertEquals(TxManager.DepositResult.ERROR_UNKNOWN, tx.deposit(TEST_1, huge));
+        assertEquals(0, BigDecimal.TEN.compareTo(dao.balance(TEST_1)));
+    }
+
+    @Test
+    public void txManager_Recover() throws Exception {
+        InMemoryAccountDAO dao = new InMemoryAccountDAO();
+        SimpleTxManager tx = new SimpleTxManager(dao, journal, 500, 16);
+
+        int accounts = 8;
+        for (int i = 0; i < accounts; i++) {
+            assertEquals(TxManager.DepositResult.SUCCESS, tx.deposit(String.valueOf(i), BigDecimal.valueOf(100)));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int seed = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        String from = String.valueOf((seed + i) % accounts);
+                        String to = String.valueOf((seed + i * 3 + 1) % accounts);
+                        if (!from.equals(to)) {
+                            TxManager.TxResult result = tx.transfer(from, to, new BigDecimal("0.7"));
+                            assertTrue(result == TxManager.TxResult.SUCCESS
+                                    || result == TxManager.TxResult.ERROR_INSUFFICIENT_AMOUNT);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(journal.batchSizes().max() >= 1);
+        assertTrue(journal.fsyncLatency().count() > 0);
+        journal.close();
+
+        InMemoryAccountDAO recovered = new InMemoryAccountDAO();
+        journal = new FileJournal(dir, 64, 100);
+        journal.replay(recovered);
+
+        for (int i = 0; i < accounts; i++) {
+            String id = String.valueOf(i);
+            assertEquals(0, dao.balance(id).compareTo(recovered.balance(id)));
+        }
+    }
+
+    @Test
+    public void txManager_NotDurable() throws IOException {
+        InMemoryAccountDAO dao = new InMemoryAccountDAO();
+        SimpleTxManager tx = new SimpleTxManager(dao, journal, 500, 16);
+        journal.close();
+
+        assertEquals(TxManager.DepositResult.ERROR_UNKNOWN, tx.deposit(TEST_1, BigDecimal.ONE));
+
+        journal = new FileJournal(dir, 64, 100);
+    }
+
+    private void append() throws ExecutionException, InterruptedException {
+        CompletableFuture<Long> deposit = new CompletableFuture<>();
+        CompletableFuture<Long> transfer = new CompletableFuture<>();
+        journal.deposit(TEST_1, BigDecimal.valueOf(10), deposit);
+        journal.transfer(TEST_1, TEST_2, new BigDecimal("2.50"), transfer);
+        transfer.get();
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> Files.isRegularFile(file)).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package playground.test.revo.data.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+import playground.test.revo.data.TxManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FixedPointAccountDAOTest {
+
+    private FixedPointAccountDAO dao;
+    private String TEST_1 = "test 1";
+    private String TEST_2 = "test 2";
+    private double DELTA = 0.0001;
+
+    @Before
+    public void before() {
+        dao = new FixedPointAccountDAO(2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reduce_Throw_1() {
+        dao.reduce(TEST_1, BigDecimal.valueOf(1.0));
+    }
+
+    @Test
+    public void reduce_Ok() {
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(0.0, dao.reduce(TEST_1, BigDecimal.valueOf(1.0)).doubleValue(), DELTA);
+        assertEquals(null, dao.reduce(TEST_1, BigDecimal.valueOf(1.0)));
+
+        dao.deposit(TEST_1, BigDecimal.valueOf(2.0));
+        assertEquals(1.0, dao.reduce(TEST_1, BigDecimal.valueOf(1.0)).doubleValue(), DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reduce_Throw_2() {
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        dao.reduce(TEST_1, BigDecimal.valueOf(-1.0));
+    }
+
+    @Test
+    public void deposit() {
+        assertEquals(0, dao.allAccounts().size());
+        assertEquals(null, dao.deposit(TEST_1, BigDecimal.valueOf(1.0)));
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(1, dao.allAccounts().size());
+        assertEquals(2.0, dao.deposit(TEST_1, BigDecimal.valueOf(1.0)).doubleValue(), DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deposit_throw() {
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        dao.deposit(TEST_1, BigDecimal.valueOf(-1.0));
+    }
+
+    @Test
+    public void createAndDeposit() {
+        assertEquals(0, dao.allAccounts().size());
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(1, dao.allAccounts().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createAndDeposit_throw() {
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(-1.0));
+    }
+
+    @Test
+    public void allAccounts() {
+        assertEquals(0, dao.allAccounts().size());
+
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(1, dao.allAccounts().size());
+
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(1, dao.allAccounts().size());
+
+        dao.createAndDeposit(new String(TEST_1), BigDecimal.valueOf(1.0));
+        assertEquals(1, dao.allAccounts().size());
+
+        dao.createAndDeposit(TEST_2, BigDecimal.valueOf(1.0));
+        assertEquals(2, dao.allAccounts().size());
+    }
+
+    @Test
+    public void balance() {
+        assertEquals(null, dao.balance(TEST_1));
+
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(1.0, dao.balance(TEST_1).doubleValue(), DELTA);
+
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(2.0));
+        assertEquals(3.0, dao.balance(TEST_1).doubleValue(), DELTA);
+    }
+
+    @Test
+    public void units() {
+        assertEquals(FixedPointAccountDAO.NONE, dao.balanceUnits(TEST_1));
+        assertEquals(FixedPointAccountDAO.NONE, dao.depositUnits(TEST_1, 100));
+
+        assertEquals(150, dao.createAndDepositUnits(TEST_1, 150));
+        assertEquals(250, dao.depositUnits(TEST_1, 100));
+        assertEquals(FixedPointAccountDAO.NONE, dao.reduceUnits(TEST_1, 251));
+        assertEquals(0, dao.reduceUnits(TEST_1, 250));
+
+        dao.createAndDeposit(TEST_2, new BigDecimal("12.34"));
+        assertEquals(1234, dao.balanceUnits(TEST_2));
+        assertEquals("12.34", dao.balance(TEST_2).toString());
+    }
+
+    @Test
+    public void transfer() {
+        dao.createAndDeposit(TEST_1, new BigDecimal("1.50"));
+        dao.createAndDeposit(TEST_2, BigDecimal.ONE);
+
+        assertEquals(true, dao.transfer(TEST_1, TEST_2, new BigDecimal("1.5")));
+        assertEquals(false, dao.transfer(TEST_1, TEST_2, new BigDecimal("0.01")));
+        assertEquals(0, dao.balanceUnits(TEST_1));
+        assertEquals(250, dao.balanceUnits(TEST_2));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void deposit_Overflow() {
+        dao.createAndDepositUnits(TEST_1, Long.MAX_VALUE);
+        dao.depositUnits(TEST_1, 1);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void deposit_TooPrecise() {
+        dao.createAndDeposit(TEST_1, new BigDecimal("0.001"));
+    }
+
+    @Test
+    public void txManager() {
+        SimpleTxManager tx = new SimpleTxManager(dao);
+
+        assertEquals(TxManager.DepositResult.SUCCESS, tx.deposit(TEST_1, new BigDecimal("10.25")));
+        assertEquals(TxManager.DepositResult.SUCCESS, tx.deposit(TEST_2, new BigDecimal("1")));
+        assertEquals(TxManager.DepositResult.ERROR_INCORRECT_AMOUNT, tx.deposit(TEST_1, new BigDecimal("0.001")));
+
+        assertEquals(TxManager.TxResult.ERROR_INCORRECT_AMOUNT, tx.transfer(TEST_1, TEST_2, new BigDecimal("0.125")));
+        assertEquals(TxManager.TxResult.ERROR_INSUFFICIENT_AMOUNT, tx.transfer(TEST_1, TEST_2, new BigDecimal("10.26")));
+        assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(TEST_1, TEST_2, new BigDecimal("10.25")));
+
+        assertEquals(0, dao.balanceUnits(TEST_1));
+        assertEquals(1125, dao.balanceUnits(TEST_2));
+    }
+
+    @Test
+    public void accounts() {
+        assertEquals(Collections.emptyList(), list(dao.accounts(null)));
+
+        dao.createAndDeposit("c", BigDecimal.valueOf(1.0));
+        dao.createAndDeposit("a", BigDecimal.valueOf(1.0));
+        dao.createAndDeposit("b", BigDecimal.valueOf(1.0));
+        dao.createAndDeposit("a", BigDecimal.valueOf(1.0));
+
+        assertEquals(Arrays.asList("a", "b", "c"), list(dao.accounts(null)));
+        assertEquals(Arrays.asList("b", "c"), list(dao.accounts("a")));
+        assertEquals(Collections.singletonList("c"), list(dao.accounts("bb")));
+        assertEquals(Collections.emptyList(), list(dao.accounts("c")));
+    }
+
+    private static List<String> list(Iterator<String> accounts) {
+        List<String> list = new ArrayList<>();
+        accounts.forEachRemaining(list::add);
+        return list;
+    }
+}
@@ -0,0 +1,237 @@
+package playground.test.revo.data.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import playground.test.revo.data.TxJournal;
+import playground.test.revo.data.TxManager;
+import playground.test.revo.metrics.MetricsRegistry;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HotAccountDAOTest {
+
+    private static final String HOT = "hot";
+    private static final String TEST_1 = "test 1";
+
+    private HotAccountDAO dao;
+
+    private ExecutorService executor;
+
+    @Before
+    public void before() {
+        dao = new HotAccountDAO(new InMemoryAccountDAO(), 4, 0);
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void mark() {
+        assertFalse(dao.isHot(HOT));
+        assertTrue(dao.mark(HOT));
+        assertFalse(dao.mark(HOT));
+        assertTrue(dao.isHot(HOT));
+        assertEquals(1, dao.hotAccounts());
+
+        // Not created yet
+        assertNull(dao.balance(HOT));
+        assertFalse(dao.exists(HOT));
+    }
+
+    @Test
+    public void credit_Folded() {
+        dao.createAndDeposit(HOT, BigDecimal.ONE);
+        dao.mark(HOT);
+
+        HotAccountDAO.Slots slots = dao.slots(HOT);
+        assertEquals(4, slots.size());
+
+        for (int i = 0; i < slots.size(); i++) {
+            dao.credit(slots, i, BigDecimal.valueOf(i + 1));
+        }
+
+        assertEquals(0, BigDecimal.valueOf(11).compareTo(dao.balance(HOT)));
+        assertEquals(1, dao.allAccounts().size());
+    }
+
+    @Test
+    public void reduce_Drained() {
+        dao.createAndDeposit(HOT, BigDecimal.ONE);
+        dao.mark(HOT);
+
+        HotAccountDAO.Slots slots = dao.slots(HOT);
+        dao.credit(slots, 1, BigDecimal.valueOf(2));
+        dao.credit(slots, 3, BigDecimal.valueOf(3));
+
+        // Base balance is enough, slots are untouched
+        assertEquals(0, BigDecimal.ZERO.compareTo(dao.reduce(HOT, BigDecimal.ONE)));
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(dao.balance(HOT)));
+
+        // Spills over two slots
+        assertEquals(0, BigDecimal.ONE.compareTo(dao.reduce(HOT, BigDecimal.valueOf(4))));
+        assertEquals(0, BigDecimal.ONE.compareTo(dao.balance(HOT)));
+
+        assertNull(dao.reduce(HOT, BigDecimal.valueOf(2)));
+        assertEquals(0, BigDecimal.ONE.compareTo(dao.balance(HOT)));
+    }
+
+    @Test
+    public void transfer_Drained() {
+        dao.createAndDeposit(HOT, BigDecimal.ONE);
+        dao.createAndDeposit(TEST_1, BigDecimal.ONE);
+        dao.mark(HOT);
+        dao.credit(dao.slots(HOT), 2, BigDecimal.valueOf(2));
+
+        assertTrue(dao.transfer(HOT, TEST_1, BigDecimal.valueOf(3)));
+        assertFalse(dao.transfer(HOT, TEST_1, BigDecimal.ONE));
+        assertEquals(0, BigDecimal.ZERO.compareTo(dao.balance(HOT)));
+        assertEquals(0, BigDecimal.valueOf(4).compareTo(dao.balance(TEST_1)));
+    }
+
+    @Test
+    public void contended() {
+        dao = new HotAccountDAO(new InMemoryAccountDAO(), 4, 3);
+
+        dao.contended(HOT);
+        dao.contended(HOT);
+        assertFalse(dao.isHot(HOT));
+
+        dao.contended(HOT);
+        assertTrue(dao.isHot(HOT));
+    }
+
+    @Test
+    public void transfer_Concurrent() throws Exception {
+        SimpleTxManager tx = new SimpleTxManager(dao, TxJournal.NONE, 5000, 16, new MetricsRegistry(), executor);
+
+        int payers = 16;
+        for (int i = 0; i < payers; i++) {
+            tx.deposit("payer-" + i, BigDecimal.valueOf(1000));
+        }
+        tx.deposit(HOT, BigDecimal.ONE);
+        dao.mark(HOT);
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < payers; i++) {
+            String payer = "payer-" + i;
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 500; j++) {
+                    assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(payer, HOT, BigDecimal.ONE));
+                    if (j % 50 == 0) {
+                        assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(HOT, payer, BigDecimal.ONE));
+                    }
+                    if (j % 100 == 0) {
+                        assertEquals(TxManager.DepositResult.SUCCESS, tx.deposit(HOT, BigDecimal.ONE));
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+
+        // 16 x (500 - 10 back) + 16 x 5 deposits + 1
+        assertEquals(0, BigDecimal.valueOf(payers * 490 + payers * 5 + 1).compareTo(dao.balance(HOT)));
+
+        BigDecimal total = dao.balance(HOT);
+        for (int i = 0; i < payers; i++) {
+            total = total.add(dao.balance("payer-" + i));
+        }
+        assertEquals(0, BigDecimal.valueOf(payers * 1000 + payers * 5 + 1).compareTo(total));
+
+        // Everything may be taken back
+        BigDecimal balance = dao.balance(HOT);
+        assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(HOT, "payer-0", balance));
+        assertEquals(0, BigDecimal.ZERO.compareTo(dao.balance(HOT)));
+    }
+
+    @Test
+    public void transferAsync_Hot() {
+        SimpleTxManager tx = new SimpleTxManager(dao, TxJournal.NONE, 5000, 16, new MetricsRegistry(), executor);
+
+        tx.deposit(TEST_1, BigDecimal.TEN);
+        tx.deposit(HOT, BigDecimal.ONE);
+        dao.mark(HOT);
+
+        List<CompletableFuture<TxManager.TxResult>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            results.add(tx.transferAsync(TEST_1, HOT, BigDecimal.ONE));
+        }
+        for (CompletableFuture<TxManager.TxResult> result : results) {
+            assertEquals(TxManager.TxResult.SUCCESS, result.join());
+        }
+        assertEquals(TxManager.TxResult.ERROR_INSUFFICIENT_AMOUNT, tx.transferAsync(TEST_1, HOT, BigDecimal.ONE).join());
+        assertEquals(TxManager.DepositResult.SUCCESS, tx.depositAsync(HOT, BigDecimal.ONE).join());
+
+        assertEquals(0, BigDecimal.valueOf(12).compareTo(dao.balance(HOT)));
+        assertEquals(TxManager.TxResult.SUCCESS, tx.transferAsync(HOT, TEST_1, BigDecimal.valueOf(12)).join());
+        assertEquals(0, BigDecimal.ZERO.compareTo(dao.balance(HOT)));
+    }
+
+    @Test
+    public void transfer_SlotTimeout() throws Exception {
+        SimpleTxManager tx = new SimpleTxManager(dao, TxJournal.NONE, 50, 16, new MetricsRegistry(), executor);
+
+        tx.deposit(TEST_1, BigDecimal.TEN);
+        tx.deposit(HOT, BigDecimal.ONE);
+        dao.mark(HOT);
+
+        HotAccountDAO.Slots slots = dao.slots(HOT);
+        for (int i = 0; i < slots.size(); i++) {
+            slots.lock(i).lock();
+        }
+        try {
+            assertEquals(TxManager.TxResult.ERROR_TIMEOUT, tx.transfer(TEST_1, HOT, BigDecimal.ONE));
+            assertEquals(TxManager.DepositResult.ERROR_TIMEOUT, tx.deposit(HOT, BigDecimal.ONE));
+            assertEquals(TxManager.TxResult.ERROR_TIMEOUT, tx.transferAsync(TEST_1, HOT, BigDecimal.ONE).join());
+        } finally {
+            for (int i = 0; i < slots.size(); i++) {
+                slots.lock(i).unlock();
+            }
+        }
+
+        // The payer got its money back
+        assertEquals(0, BigDecimal.TEN.compareTo(dao.balance(TEST_1)));
+        assertEquals(0, BigDecimal.ONE.compareTo(dao.balance(HOT)));
+    }
+
+    @Test
+    public void locked_AllSlots() throws Exception {
+        SimpleTxManager tx = new SimpleTxManager(dao, TxJournal.NONE, 50, 16, new MetricsRegistry(), executor);
+
+        tx.deposit(TEST_1, BigDecimal.TEN);
+        tx.deposit(HOT, BigDecimal.ONE);
+        dao.mark(HOT);
+
+        tx.locked(HOT, () -> {
+            HotAccountDAO.Slots slots = dao.slots(HOT);
+            for (int i = 0; i < slots.size(); i++) {
+                assertTrue(slots.lock(i).isLocked());
+            }
+            try {
+                assertEquals(TxManager.TxResult.ERROR_TIMEOUT,
+                        executor.submit(() -> tx.transfer(TEST_1, HOT, BigDecimal.ONE)).get());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(TEST_1, HOT, BigDecimal.ONE));
+    }
+}
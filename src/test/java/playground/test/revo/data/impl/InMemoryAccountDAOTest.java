@@ -4,6 +4,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 
@@ -94,4 +99,25 @@ public class InMemoryAccountDAOTest {
         dao.createAndDeposit(TEST_1, BigDecimal.valueOf(2.0));
         assertEquals(3.0, dao.balance(TEST_1).doubleValue(), DELTA);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void accounts() {
+        assertEquals(Collections.emptyList(), list(dao.accounts(null)));
+
+        dao.createAndDeposit("c", BigDecimal.valueOf(1.0));
+        dao.createAndDeposit("a", BigDecimal.valueOf(1.0));
+        dao.createAndDeposit("b", BigDecimal.valueOf(1.0));
+        dao.createAndDeposit("a", BigDecimal.valueOf(1.0));
+
+        assertEquals(Arrays.asList("a", "b", "c"), list(dao.accounts(null)));
+        assertEquals(Arrays.asList("b", "c"), list(dao.accounts("a")));
+        assertEquals(Collections.singletonList("c"), list(dao.accounts("bb")));
+        assertEquals(Collections.emptyList(), list(dao.accounts("c")));
+    }
+
+    private static List<String> list(Iterator<String> accounts) {
+        List<String> list = new ArrayList<>();
+        accounts.forEachRemaining(list::add);
+        return list;
+    }
+}
@@ -0,0 +1,186 @@
+package playground.test.revo.data.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import playground.test.revo.data.TxJournal;
+import playground.test.revo.data.TxManager;
+import playground.test.revo.metrics.MetricsRegistry;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LockStrategyTest {
+
+    private static final int STRIPES = 16;
+
+    private ExecutorService executor;
+
+    private InMemoryAccountDAO dao;
+
+    // The stripe of the first account is locked before the one of the second
+    private String first;
+
+    private String second;
+
+    @Before
+    public void before() {
+        executor = Executors.newFixedThreadPool(4);
+        dao = new InMemoryAccountDAO();
+
+        StripedLockTable table = new StripedLockTable(STRIPES);
+        for (int i = 0; first == null || second == null; i++) {
+            String id = "account-" + i;
+            if (first == null && table.stripe(id) == 0) {
+                first = id;
+            } else if (second == null && table.stripe(id) == STRIPES - 1) {
+                second = id;
+            }
+        }
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    private SimpleTxManager tx(LockStrategy strategy) {
+        SimpleTxManager tx = new SimpleTxManager(dao, TxJournal.NONE, strategy, STRIPES, new MetricsRegistry(), executor);
+        tx.deposit(first, BigDecimal.TEN);
+        tx.deposit(second, BigDecimal.TEN);
+        return tx;
+    }
+
+    @Test
+    public void adaptive_Budget() {
+        AdaptiveLockStrategy strategy = new AdaptiveLockStrategy(100, TimeUnit.MILLISECONDS);
+        assertEquals(AdaptiveLockStrategy.MIN_BUDGET, strategy.budget(1));
+
+        for (int i = 0; i < 100; i++) {
+            strategy.waited(1, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        assertTrue(strategy.budget(1) > TimeUnit.MICROSECONDS.toNanos(3500));
+        assertEquals(0, strategy.spins(1));
+        assertEquals(AdaptiveLockStrategy.MIN_BUDGET, strategy.budget(2));
+
+        // Never longer than the timeout
+        for (int i = 0; i < 100; i++) {
+            strategy.waited(1, TimeUnit.SECONDS.toNanos(1));
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), strategy.budget(1));
+
+        for (int attempt = 0; attempt < 100; attempt++) {
+            long backoff = strategy.backoff(attempt);
+            assertTrue(backoff >= 0 && backoff <= TimeUnit.MILLISECONDS.toNanos(2));
+        }
+    }
+
+    @Test
+    public void transfer_ReleasesHeldStripe() throws Exception {
+        SimpleTxManager tx = tx(LockStrategy.adaptive(10, TimeUnit.SECONDS));
+
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<TxManager.DepositResult> holder = hold(tx, second, release);
+
+        CompletableFuture<TxManager.TxResult> transfer = CompletableFuture.supplyAsync(
+                () -> tx.transfer(first, second, BigDecimal.ONE), executor);
+
+        // The stripe of the payer is released while the transfer backs off
+        assertEquals(TxManager.DepositResult.SUCCESS, CompletableFuture.supplyAsync(
+                () -> tx.runTx(first, () -> TxManager.DepositResult.SUCCESS), executor).get(5, TimeUnit.SECONDS));
+        assertFalse(transfer.isDone());
+
+        release.countDown();
+        assertEquals(TxManager.DepositResult.SUCCESS, holder.get(5, TimeUnit.SECONDS));
+        assertEquals(TxManager.TxResult.SUCCESS, transfer.get(5, TimeUnit.SECONDS));
+        assertEquals(0, BigDecimal.valueOf(11).compareTo(dao.balance(second)));
+    }
+
+    @Test
+    public void transferAsync_ReleasesHeldStripe() throws Exception {
+        SimpleTxManager tx = tx(LockStrategy.adaptive(10, TimeUnit.SECONDS));
+
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<TxManager.DepositResult> holder = hold(tx, second, release);
+
+        CompletableFuture<TxManager.TxResult> transfer = tx.transferAsync(first, second, BigDecimal.ONE);
+
+        assertEquals(TxManager.DepositResult.SUCCESS, tx.runTxAsync(first, () -> TxManager.DepositResult.SUCCESS)
+                .get(5, TimeUnit.SECONDS));
+        assertFalse(transfer.isDone());
+
+        release.countDown();
+        assertEquals(TxManager.DepositResult.SUCCESS, holder.get(5, TimeUnit.SECONDS));
+        assertEquals(TxManager.TxResult.SUCCESS, transfer.get(5, TimeUnit.SECONDS));
+        assertEquals(0, BigDecimal.valueOf(11).compareTo(dao.balance(second)));
+    }
+
+    @Test
+    public void transfer_Fixed_HoldsStripe() throws Exception {
+        SimpleTxManager tx = tx(LockStrategy.fixed(10, TimeUnit.SECONDS));
+
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<TxManager.DepositResult> holder = hold(tx, second, release);
+
+        CompletableFuture<TxManager.TxResult> transfer = CompletableFuture.supplyAsync(
+                () -> tx.transfer(first, second, BigDecimal.ONE), executor);
+        Thread.sleep(100);
+
+        // Waits for the stripe of the payer until the transfer is done
+        CompletableFuture<TxManager.DepositResult> deposit = CompletableFuture.supplyAsync(
+                () -> tx.runTx(first, () -> TxManager.DepositResult.SUCCESS), executor);
+        Thread.sleep(100);
+        assertFalse(deposit.isDone());
+
+        release.countDown();
+        assertEquals(TxManager.DepositResult.SUCCESS, holder.get(5, TimeUnit.SECONDS));
+        assertEquals(TxManager.TxResult.SUCCESS, transfer.get(5, TimeUnit.SECONDS));
+        assertEquals(TxManager.DepositResult.SUCCESS, deposit.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void transfer_Timeout() {
+        SimpleTxManager tx = tx(LockStrategy.adaptive(50, TimeUnit.MILLISECONDS));
+
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<TxManager.DepositResult> holder = hold(tx, second, release);
+        try {
+            assertEquals(TxManager.TxResult.ERROR_TIMEOUT, tx.transfer(first, second, BigDecimal.ONE));
+            assertEquals(TxManager.TxResult.ERROR_TIMEOUT, tx.transferAsync(first, second, BigDecimal.ONE).join());
+        } finally {
+            release.countDown();
+        }
+        assertEquals(TxManager.DepositResult.SUCCESS, holder.join());
+        assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(first, second, BigDecimal.ONE));
+    }
+
+    /**
+     * Holds the stripe of the account until released
+     */
+    private CompletableFuture<TxManager.DepositResult> hold(SimpleTxManager tx, String id, CountDownLatch release) {
+        CountDownLatch locked = new CountDownLatch(1);
+        CompletableFuture<TxManager.DepositResult> holder = CompletableFuture.supplyAsync(() -> tx.runTx(id, () -> {
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("InterruptedException", e);
+            }
+            return TxManager.DepositResult.SUCCESS;
+        }), executor);
+        try {
+            locked.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("InterruptedException", e);
+        }
+        return holder;
+    }
+}
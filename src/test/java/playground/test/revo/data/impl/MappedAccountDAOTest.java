@@ -0,0 +1,222 @@
+package playground.test.revo.data.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappedAccountDAOTest {
+
+    private MappedAccountDAO dao;
+    private String TEST_1 = "test 1";
+    private String TEST_2 = "test 2";
+    private double DELTA = 0.0001;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+
+    @Before
+    public void before() throws IOException {
+        file = folder.newFolder().toPath().resolve("accounts.dat");
+        dao = new MappedAccountDAO(file, 16, 2);
+    }
+
+    @After
+    public void after() throws IOException {
+        dao.close();
+    }
+
+    @Test
+    public void claimReplica_Once() throws IOException {
+        assertTrue(dao.claimReplica());
+        try (MappedAccountDAO other = new MappedAccountDAO(file, 16, 2)) {
+            assertFalse(other.claimReplica());
+        }
+        assertFalse(dao.claimReplica());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reduce_Throw_1() {
+        dao.reduce(TEST_1, BigDecimal.valueOf(1.0));
+    }
+
+    @Test
+    public void reduce_Ok() {
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(0.0, dao.reduce(TEST_1, BigDecimal.valueOf(1.0)).doubleValue(), DELTA);
+        assertEquals(null, dao.reduce(TEST_1, BigDecimal.valueOf(1.0)));
+
+        dao.deposit(TEST_1, BigDecimal.valueOf(2.0));
+        assertEquals(1.0, dao.reduce(TEST_1, BigDecimal.valueOf(1.0)).doubleValue(), DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reduce_Throw_2() {
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        dao.reduce(TEST_1, BigDecimal.valueOf(-1.0));
+    }
+
+    @Test
+    public void deposit() {
+        assertEquals(0, dao.allAccounts().size());
+        assertEquals(null, dao.deposit(TEST_1, BigDecimal.valueOf(1.0)));
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(1, dao.allAccounts().size());
+        assertEquals(2.0, dao.deposit(TEST_1, BigDecimal.valueOf(1.0)).doubleValue(), DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deposit_throw() {
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        dao.deposit(TEST_1, BigDecimal.valueOf(-1.0));
+    }
+
+    @Test
+    public void createAndDeposit() {
+        assertEquals(0, dao.allAccounts().size());
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(1, dao.allAccounts().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createAndDeposit_throw() {
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(-1.0));
+    }
+
+    @Test
+    public void allAccounts() {
+        assertEquals(0, dao.allAccounts().size());
+
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(1, dao.allAccounts().size());
+
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(1, dao.allAccounts().size());
+
+        dao.createAndDeposit(new String(TEST_1), BigDecimal.valueOf(1.0));
+        assertEquals(1, dao.allAccounts().size());
+
+        dao.createAndDeposit(TEST_2, BigDecimal.valueOf(1.0));
+        assertEquals(2, dao.allAccounts().size());
+    }
+
+    @Test
+    public void balance() {
+        assertEquals(null, dao.balance(TEST_1));
+
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(1.0, dao.balance(TEST_1).doubleValue(), DELTA);
+
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(2.0));
+        assertEquals(3.0, dao.balance(TEST_1).doubleValue(), DELTA);
+    }
+
+    @Test
+    public void reopen() throws IOException {
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(12.5));
+        dao.createAndDeposit(TEST_2, BigDecimal.valueOf(1));
+        dao.reduce(TEST_2, BigDecimal.valueOf(0.25));
+        dao.close();
+
+        dao = new MappedAccountDAO(file, 1024, 2);
+        assertEquals(16, dao.capacity());
+        assertEquals(2, dao.allAccounts().size());
+        assertEquals(1250, dao.balanceUnits(TEST_1));
+        assertEquals(75, dao.balanceUnits(TEST_2));
+        assertEquals(new HashSet<>(Arrays.asList(TEST_1, TEST_2)), new HashSet<>(dao.allAccounts()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void reopen_OtherScale() throws IOException {
+        dao.close();
+        dao = new MappedAccountDAO(file, 16, 4);
+    }
+
+    @Test
+    public void collisions() {
+        // 12 accounts fill 75% of 16 records, probing has to wrap around
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 12; i++) {
+            String id = "account-" + i;
+            ids.add(id);
+            dao.createAndDepositUnits(id, i);
+        }
+
+        for (int i = 0; i < 12; i++) {
+            assertEquals(i, dao.balanceUnits("account-" + i));
+        }
+        assertEquals(false, dao.exists("account-12"));
+        assertEquals(ids, new HashSet<>(dao.allAccounts()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void full() {
+        for (int i = 0; i < 13; i++) {
+            dao.createAndDepositUnits("account-" + i, 1);
+        }
+    }
+
+    @Test
+    public void ids() {
+        String unicode = "\u0441\u0447\u0451\u0442-\uD83D\uDCB0";
+        dao.createAndDepositUnits(unicode, 5);
+        assertEquals(5, dao.balanceUnits(unicode));
+        assertEquals(false, dao.exists("\u0441\u0447\u0451\u0442-"));
+        assertEquals(unicode, dao.allAccounts().iterator().next());
+
+        String longest = new String(new char[MappedAccountDAO.MAX_ID_BYTES]).replace('\0', 'x');
+        dao.createAndDepositUnits(longest, 1);
+        assertEquals(true, dao.exists(longest));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ids_TooLong() {
+        dao.createAndDepositUnits(new String(new char[MappedAccountDAO.MAX_ID_BYTES + 1]).replace('\0', 'x'), 1);
+    }
+
+    @Test
+    public void accounts() {
+        assertEquals(0, list(dao.accounts(null)).size());
+
+        for (int i = 0; i < 10; i++) {
+            dao.createAndDeposit("account-" + i, BigDecimal.valueOf(1.0));
+        }
+
+        List<String> all = list(dao.accounts(null));
+        assertEquals(new ArrayList<>(dao.allAccounts()), all);
+        assertEquals(10, new HashSet<>(all).size());
+
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(all.subList(i + 1, all.size()), list(dao.accounts(all.get(i))));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void accounts_Unknown() {
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        dao.accounts(TEST_2);
+    }
+
+    private static List<String> list(Iterator<String> accounts) {
+        List<String> list = new ArrayList<>();
+        accounts.forEachRemaining(list::add);
+        return list;
+    }
+}
@@ -0,0 +1,178 @@
+package playground.test.revo.data.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import playground.test.revo.data.AccountSnapshot;
+import playground.test.revo.data.TxJournal;
+import playground.test.revo.data.TxManager;
+import playground.test.revo.metrics.MetricsRegistry;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MvccAccountDAOTest {
+
+    private static final String TEST_1 = "test 1";
+    private static final String TEST_2 = "test 2";
+
+    private MvccAccountDAO dao;
+
+    private ExecutorService executor;
+
+    @Before
+    public void before() {
+        dao = new MvccAccountDAO();
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reduce_Throw() {
+        dao.reduce(TEST_1, BigDecimal.ONE);
+    }
+
+    @Test
+    public void reduce_Deposit() {
+        assertNull(dao.deposit(TEST_1, BigDecimal.ONE));
+        assertEquals(0, BigDecimal.ONE.compareTo(dao.createAndDeposit(TEST_1, BigDecimal.ONE)));
+        assertEquals(0, BigDecimal.TEN.compareTo(dao.deposit(TEST_1, BigDecimal.valueOf(9))));
+        assertNull(dao.reduce(TEST_1, BigDecimal.valueOf(11)));
+        assertEquals(0, BigDecimal.ZERO.compareTo(dao.reduce(TEST_1, BigDecimal.TEN)));
+
+        // Every update outside of a transaction is committed right away
+        assertEquals(3, dao.committed());
+        assertEquals(1, dao.allAccounts().size());
+    }
+
+    @Test
+    public void transaction_NotSeenUntilCommitted() {
+        dao.createAndDeposit(TEST_1, BigDecimal.TEN);
+
+        MvccAccountDAO.Tx tx = dao.begin();
+        dao.reduce(TEST_1, BigDecimal.ONE);
+        dao.createAndDeposit(TEST_2, BigDecimal.ONE);
+
+        // Updates are seen by the transaction only
+        assertEquals(0, BigDecimal.TEN.compareTo(dao.balance(TEST_1)));
+        assertNull(dao.balance(TEST_2));
+        assertNull(dao.reduce(TEST_1, BigDecimal.TEN));
+
+        assertEquals(2, dao.commit(tx));
+        assertEquals(0, BigDecimal.valueOf(9).compareTo(dao.balance(TEST_1)));
+        assertEquals(0, BigDecimal.ONE.compareTo(dao.balance(TEST_2)));
+
+        // Nothing updated, nothing committed
+        assertEquals(2, dao.commit(dao.begin()));
+    }
+
+    @Test
+    public void snapshot_Consistent() {
+        dao.createAndDeposit(TEST_1, BigDecimal.TEN);
+
+        try (AccountSnapshot snapshot = dao.snapshot()) {
+            assertEquals(1, snapshot.sequence());
+
+            SimpleTxManager tx = new SimpleTxManager(dao);
+            assertEquals(TxManager.DepositResult.SUCCESS, tx.deposit(TEST_2, BigDecimal.ONE));
+            assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(TEST_1, TEST_2, BigDecimal.valueOf(4)));
+
+            assertEquals(0, BigDecimal.TEN.compareTo(snapshot.balance(TEST_1)));
+            assertNull(snapshot.balance(TEST_2));
+            assertEquals(0, BigDecimal.valueOf(6).compareTo(dao.balance(TEST_1)));
+            assertEquals(0, BigDecimal.valueOf(5).compareTo(dao.balance(TEST_2)));
+        }
+    }
+
+    @Test
+    public void versions_Reclaimed() {
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(100));
+        for (int i = 0; i < 10; i++) {
+            dao.reduce(TEST_1, BigDecimal.ONE);
+        }
+        assertEquals(1, dao.versions(TEST_1));
+
+        AccountSnapshot snapshot = dao.snapshot();
+        for (int i = 0; i < 10; i++) {
+            dao.reduce(TEST_1, BigDecimal.ONE);
+        }
+        // Versions after the snapshot and the one it sees
+        assertEquals(11, dao.versions(TEST_1));
+        assertEquals(0, BigDecimal.valueOf(90).compareTo(snapshot.balance(TEST_1)));
+
+        snapshot.close();
+        dao.reduce(TEST_1, BigDecimal.ONE);
+        assertEquals(1, dao.versions(TEST_1));
+        assertEquals(0, BigDecimal.valueOf(79).compareTo(dao.balance(TEST_1)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void snapshot_Closed() {
+        AccountSnapshot snapshot = dao.snapshot();
+        snapshot.close();
+        snapshot.close();
+        snapshot.balance(TEST_1);
+    }
+
+    @Test
+    public void snapshot_ConcurrentTransfers_TotalKept() throws Exception {
+        SimpleTxManager tx = new SimpleTxManager(dao, TxJournal.NONE, 5000, 16, new MetricsRegistry(), executor);
+
+        int accounts = 32;
+        for (int i = 0; i < accounts; i++) {
+            tx.deposit("account-" + i, BigDecimal.valueOf(1000));
+        }
+        BigDecimal total = BigDecimal.valueOf(accounts * 1000);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            writers.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    String from = "account-" + random.nextInt(accounts);
+                    String to = "account-" + random.nextInt(accounts);
+                    if (!from.equals(to)) {
+                        tx.transfer(from, to, BigDecimal.valueOf(random.nextInt(1, 100)));
+                    }
+                }
+            }));
+        }
+
+        try {
+            for (int i = 0; i < 500; i++) {
+                try (AccountSnapshot snapshot = dao.snapshot()) {
+                    BigDecimal sum = BigDecimal.ZERO;
+                    for (int a = 0; a < accounts; a++) {
+                        sum = sum.add(snapshot.balance("account-" + a));
+                    }
+                    assertEquals(0, total.compareTo(sum));
+                }
+            }
+        } finally {
+            running.set(false);
+            for (Future<?> writer : writers) {
+                writer.get(1, TimeUnit.MINUTES);
+            }
+        }
+
+        // No snapshot is open, old versions are cut by the next update
+        tx.deposit("account-0", BigDecimal.ONE);
+        assertTrue(dao.versions("account-0") <= 2);
+    }
+}
@@ -0,0 +1,183 @@
+package playground.test.revo.data.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+import playground.test.revo.data.PublicAccountDAO;
+import playground.test.revo.data.TxManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static playground.test.revo.data.TxManager.DepositResult.*;
+import static playground.test.revo.data.TxManager.TxResult.ERROR_FROM_NOT_FOUND;
+import static playground.test.revo.data.TxManager.TxResult.ERROR_TO_NOT_FOUND;
+
+public class OptimisticTxManagerTest {
+
+    PublicAccountDAO dao;
+    OptimisticTxManager tx;
+    private String TEST_1 = "test 1";
+    private String TEST_2 = "test 2";
+    private String TEST_3 = "test 3";
+
+    private AtomicBoolean throwException;
+    private AtomicBoolean throwOnDeposit;
+
+    @Before
+    public void before() {
+        this.throwException = new AtomicBoolean(false);
+        this.throwOnDeposit = new AtomicBoolean(false);
+        VersionedAccountDAO versionedAccountDAO = new VersionedAccountDAO() {
+            @Override
+            public BigDecimal reduce(String id, BigDecimal amount) {
+                doThrow(throwException);
+                return super.reduce(id, amount);
+            }
+
+            @Override
+            public BigDecimal deposit(String id, BigDecimal amount) {
+                doThrow(throwException);
+                doThrow(throwOnDeposit);
+                return super.deposit(id, amount);
+            }
+
+            @Override
+            public BigDecimal createAndDeposit(String id, BigDecimal amount) {
+                doThrow(throwException);
+                return super.createAndDeposit(id, amount);
+            }
+
+            private void doThrow(AtomicBoolean flag) {
+                if (flag.get()) {
+                    throw new RuntimeException("test");
+                }
+            }
+        };
+        this.dao = versionedAccountDAO;
+        this.tx = new OptimisticTxManager(versionedAccountDAO);
+    }
+
+    @Test
+    public void deposit() {
+        assertEquals(ERROR_NOT_FOUND, tx.deposit(null, BigDecimal.valueOf(1.0)));
+        assertEquals(ERROR_NOT_FOUND, tx.deposit("", BigDecimal.valueOf(1.0)));
+        assertEquals(ERROR_INCORRECT_AMOUNT, tx.deposit(TEST_1, null));
+        assertEquals(ERROR_INCORRECT_AMOUNT, tx.deposit(TEST_1, BigDecimal.valueOf(-1.0)));
+
+        assertEquals(SUCCESS, tx.deposit(TEST_1, BigDecimal.valueOf(1.0)));
+
+        throwException.set(true);
+        assertEquals(ERROR_UNKNOWN, tx.deposit(TEST_1, BigDecimal.valueOf(1.0)));
+    }
+
+    @Test
+    public void transfer() {
+        tx.deposit(TEST_1, BigDecimal.valueOf(2.0));
+        tx.deposit(TEST_2, BigDecimal.valueOf(2.0));
+
+        assertEquals(ERROR_FROM_NOT_FOUND, tx.transfer(null, TEST_2, BigDecimal.valueOf(-1.0)));
+        assertEquals(ERROR_TO_NOT_FOUND, tx.transfer(TEST_1, null, BigDecimal.valueOf(-1.0)));
+
+        assertEquals(ERROR_FROM_NOT_FOUND, tx.transfer("", TEST_2, BigDecimal.valueOf(-1.0)));
+        assertEquals(ERROR_TO_NOT_FOUND, tx.transfer(TEST_1, "", BigDecimal.valueOf(-1.0)));
+
+        assertEquals(ERROR_FROM_NOT_FOUND, tx.transfer(TEST_3, TEST_2, BigDecimal.valueOf(-1.0)));
+        assertEquals(ERROR_TO_NOT_FOUND, tx.transfer(TEST_1, TEST_3, BigDecimal.valueOf(-1.0)));
+
+        assertEquals(TxManager.TxResult.ERROR_SAME_FROM_TO, tx.transfer(TEST_1, TEST_1, BigDecimal.valueOf(1.0)));
+        assertEquals(TxManager.TxResult.ERROR_SAME_FROM_TO, tx.transfer(TEST_2, TEST_2, BigDecimal.valueOf(1.0)));
+
+        assertEquals(TxManager.TxResult.ERROR_INCORRECT_AMOUNT, tx.transfer(TEST_1, TEST_2, null));
+        assertEquals(TxManager.TxResult.ERROR_INCORRECT_AMOUNT, tx.transfer(TEST_1, TEST_2, BigDecimal.valueOf(-1.0)));
+
+        assertEquals(TxManager.TxResult.ERROR_INSUFFICIENT_AMOUNT, tx.transfer(TEST_1, TEST_2, BigDecimal.valueOf(100.0)));
+        assertEquals(TxManager.TxResult.ERROR_INSUFFICIENT_AMOUNT, tx.transfer(TEST_2, TEST_1, BigDecimal.valueOf(100.0)));
+
+
+        assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(TEST_1, TEST_2, BigDecimal.valueOf(1.0)));
+        assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(TEST_2, TEST_1, BigDecimal.valueOf(1.0)));
+
+        throwException.set(true);
+        assertEquals(TxManager.TxResult.ERROR_UNKNOWN, tx.transfer(TEST_1, TEST_2, BigDecimal.valueOf(1.0)));
+        assertEquals(TxManager.TxResult.ERROR_UNKNOWN, tx.transfer(TEST_2, TEST_1, BigDecimal.valueOf(1.0)));
+    }
+
+    @Test
+    public void transfer_MultiLeg() {
+        tx.deposit(TEST_1, BigDecimal.valueOf(10));
+        tx.deposit(TEST_2, BigDecimal.valueOf(10));
+        tx.deposit(TEST_3, BigDecimal.valueOf(10));
+
+        assertEquals(TxManager.TxResult.ERROR_INCORRECT_AMOUNT,
+                tx.transfer(SimpleTxManagerMultiLegTest.legs(TEST_1, -5, TEST_2, 4)));
+        assertEquals(TxManager.TxResult.ERROR_TO_NOT_FOUND,
+                tx.transfer(SimpleTxManagerMultiLegTest.legs(TEST_1, -5, "unknown", 5)));
+
+        // The second debit is not enough, the first one is returned
+        assertEquals(TxManager.TxResult.ERROR_INSUFFICIENT_AMOUNT,
+                tx.transfer(SimpleTxManagerMultiLegTest.legs(TEST_1, -5, TEST_2, -11, TEST_3, 16)));
+        assertEquals(0, BigDecimal.TEN.compareTo(dao.balance(TEST_1)));
+        assertEquals(0, BigDecimal.TEN.compareTo(dao.balance(TEST_2)));
+
+        assertEquals(TxManager.TxResult.SUCCESS,
+                tx.transfer(SimpleTxManagerMultiLegTest.legs(TEST_1, -5, TEST_2, -10, TEST_3, 15)));
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(dao.balance(TEST_1)));
+        assertEquals(0, BigDecimal.ZERO.compareTo(dao.balance(TEST_2)));
+        assertEquals(0, BigDecimal.valueOf(25).compareTo(dao.balance(TEST_3)));
+    }
+
+    @Test
+    public void transfer_CompensatesFailedCredit() {
+        tx.deposit(TEST_1, BigDecimal.valueOf(2.0));
+        tx.deposit(TEST_2, BigDecimal.valueOf(2.0));
+
+        throwOnDeposit.set(true);
+        assertEquals(TxManager.TxResult.ERROR_UNKNOWN, tx.transfer(TEST_1, TEST_2, BigDecimal.valueOf(1.0)));
+        throwOnDeposit.set(false);
+
+        assertEquals(0, BigDecimal.valueOf(2.0).compareTo(dao.balance(TEST_2)));
+    }
+
+    @Test
+    public void concurrentTransfers() throws Exception {
+        String[] ids = {TEST_1, TEST_2, TEST_3};
+        for (String id : ids) {
+            tx.deposit(id, BigDecimal.valueOf(100));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            workers.add(executor.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    int from = ThreadLocalRandom.current().nextInt(ids.length);
+                    int to = (from + 1 + ThreadLocalRandom.current().nextInt(ids.length - 1)) % ids.length;
+                    TxManager.TxResult result = tx.transfer(ids[from], ids[to], BigDecimal.valueOf(7));
+                    assertNotEquals(TxManager.TxResult.ERROR_UNKNOWN, result);
+                    assertNotEquals(TxManager.TxResult.ERROR_TIMEOUT, result);
+                }
+            }));
+        }
+
+        for (Future<?> worker : workers) {
+            worker.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (String id : ids) {
+            assertEquals(true, dao.balance(id).signum() >= 0);
+            total = total.add(dao.balance(id));
+        }
+        assertEquals(0, BigDecimal.valueOf(300).compareTo(total));
+    }
+}
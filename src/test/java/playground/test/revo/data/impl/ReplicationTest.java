@@ -0,0 +1,263 @@
+package playground.test.revo.data.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import playground.test.revo.data.TxJournal;
+import playground.test.revo.metrics.MetricsRegistry;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.math.BigDecimal;
+import java.net.BindException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicationTest {
+
+    private static final int ACCOUNTS = 32;
+
+    private final InMemoryAccountDAO primaryDAO = new InMemoryAccountDAO();
+
+    private final InMemoryAccountDAO followerDAO = new InMemoryAccountDAO();
+
+    private ReplicationLog log;
+
+    private SimpleTxManager tx;
+
+    private ReplicationPrimary primary;
+
+    private ReplicationFollower follower;
+
+    private ExecutorService executor;
+
+    @Before
+    public void before() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void after() {
+        if (follower != null) {
+            follower.close();
+        }
+        if (primary != null) {
+            primary.close();
+        }
+        executor.shutdownNow();
+    }
+
+    private void startPrimary(int capacity) throws Exception {
+        log = new ReplicationLog(TxJournal.NONE, capacity);
+        tx = new SimpleTxManager(primaryDAO, log, new MetricsRegistry());
+        primary = new ReplicationPrimary(log, primaryDAO, tx, 100, 4096, new MetricsRegistry());
+        primary.start("localhost", 0);
+    }
+
+    private void startFollower() {
+        follower = new ReplicationFollower("localhost", primary.port(), followerDAO, followerDAO, new MetricsRegistry());
+        follower.start();
+    }
+
+    @Test
+    public void log_KeepsRecordsOnceActive() {
+        log = new ReplicationLog(TxJournal.NONE, 3);
+        assertEquals(4, log.capacity());
+
+        CompletableFuture<Long> durable = new CompletableFuture<>();
+        log.deposit("a", BigDecimal.ONE, durable);
+        assertTrue(durable.isDone());
+        assertEquals(0, log.sequence());
+
+        log.activate();
+        log.deposit("a", BigDecimal.TEN, new CompletableFuture<>());
+        log.transfer("a", "b", BigDecimal.ONE, new CompletableFuture<>());
+        assertEquals(2, log.sequence());
+        assertEquals("a", log.get(1).to());
+        assertFalse(log.get(1).isTransfer());
+        assertEquals("b", log.get(2).to());
+        assertTrue(log.time(2) > 0);
+        assertNull(log.get(3));
+
+        // Replaced by records a capacity later
+        Map<String, BigDecimal> legs = new LinkedHashMap<>();
+        legs.put("a", BigDecimal.ONE.negate());
+        legs.put("b", BigDecimal.ONE);
+        for (int i = 0; i < 4; i++) {
+            log.transfer(legs, new CompletableFuture<>());
+        }
+        assertEquals(6, log.sequence());
+        assertNull(log.get(2));
+        assertEquals(-1, log.time(2));
+        assertTrue(log.get(3).isMultiLeg());
+    }
+
+    @Test
+    public void follower_ConvergesUnderConcurrentTransfers() throws Exception {
+        startPrimary(1 << 16);
+
+        // Committed before, seen in the snapshot
+        for (int i = 0; i < ACCOUNTS; i++) {
+            tx.deposit("account-" + i, BigDecimal.valueOf(1000));
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            writers.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    String from = "account-" + random.nextInt(ACCOUNTS);
+                    String to = "account-" + random.nextInt(ACCOUNTS);
+                    if (random.nextInt(10) == 0) {
+                        tx.deposit("account-" + random.nextInt(2 * ACCOUNTS), BigDecimal.valueOf(random.nextInt(1, 10)));
+                    } else if (random.nextInt(10) == 0 && !from.equals(to)) {
+                        Map<String, BigDecimal> legs = new LinkedHashMap<>();
+                        legs.put(from, BigDecimal.valueOf(-2));
+                        legs.put(to, BigDecimal.ONE);
+                        legs.put("account-0", BigDecimal.ONE);
+                        tx.transfer(legs);
+                    } else if (!from.equals(to)) {
+                        tx.transfer(from, to, BigDecimal.valueOf(random.nextInt(1, 100)));
+                    }
+                }
+            }));
+        }
+
+        try {
+            // Joins while transactions are committed
+            Thread.sleep(200);
+            startFollower();
+            Thread.sleep(500);
+        } finally {
+            running.set(false);
+            for (Future<?> writer : writers) {
+                writer.get(1, TimeUnit.MINUTES);
+            }
+        }
+
+        awaitSequence(log.sequence());
+        assertTrue(follower.isReady());
+        assertEquals(0, follower.lagRecords());
+        assertTrue(follower.lagMillis() < 1000);
+        assertSameBalances();
+    }
+
+    @Test
+    public void follower_ResumesFromPrimaryLog() throws Exception {
+        startPrimary(16);
+        tx.deposit("a", BigDecimal.TEN);
+
+        try (Socket socket = new Socket("localhost", primary.port())) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            ByteBuffer hello = ReplicationProtocol.read(in, ByteBuffer.allocate(64));
+            assertEquals(ReplicationProtocol.HELLO, hello.get());
+            long runId = hello.getLong();
+            assertEquals(1, hello.getLong());
+
+            // Right after the record, which it has applied
+            send(socket, runId, 0);
+            ByteBuffer records = ReplicationProtocol.read(in, ByteBuffer.allocate(64));
+            assertEquals(ReplicationProtocol.RECORDS, records.get());
+            assertEquals(1, records.getLong());
+            records.getLong();
+            assertEquals(1, records.getInt());
+            assertEquals(1, records.getLong());
+            records.getLong();
+            assertEquals("a", ReplicationProtocol.getRecord(records, 1).to());
+        }
+
+        // Records of another run, or not kept anymore, are replaced by a snapshot
+        for (int i = 0; i < 20; i++) {
+            tx.deposit("a", BigDecimal.ONE);
+        }
+        for (long applied : new long[]{1, 0}) {
+            try (Socket socket = new Socket("localhost", primary.port())) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                ByteBuffer hello = ReplicationProtocol.read(in, ByteBuffer.allocate(64));
+                hello.get();
+                long runId = hello.getLong();
+
+                send(socket, applied == 0 ? runId + 1 : runId, applied);
+                ByteBuffer snapshot = ReplicationProtocol.read(in, ByteBuffer.allocate(64));
+                assertEquals(ReplicationProtocol.SNAPSHOT, snapshot.get());
+                assertEquals(21, snapshot.getLong());
+            }
+        }
+    }
+
+    @Test
+    public void follower_MatchesAfterPrimaryRestart() throws Exception {
+        startPrimary(1 << 10);
+        tx.deposit("a", BigDecimal.TEN);
+        startFollower();
+        awaitSequence(1);
+
+        // Another run of the primary, the follower is resynchronized
+        int port = primary.port();
+        primary.close();
+        tx.deposit("b", BigDecimal.ONE);
+        tx.transfer("a", "b", BigDecimal.ONE);
+        primary = new ReplicationPrimary(log, primaryDAO, tx, 100, 4096, new MetricsRegistry());
+        // The port is held until the follower closes its side
+        for (long deadline = System.currentTimeMillis() + 5000; primary.port() < 0; ) {
+            try {
+                primary.start("localhost", port);
+            } catch (BindException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+        tx.transfer("b", "a", BigDecimal.valueOf(2));
+
+        awaitSequence(4);
+        assertSameBalances();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void primary_IncorrectBatch() {
+        new ReplicationPrimary(new ReplicationLog(TxJournal.NONE, 16), primaryDAO, new SimpleTxManager(primaryDAO),
+                100, 16, new MetricsRegistry());
+    }
+
+    private static void send(Socket socket, long runId, long applied) throws Exception {
+        ByteBuffer from = ByteBuffer.allocate(ReplicationProtocol.FRAME_HEADER + 16);
+        ReplicationProtocol.begin(from, ReplicationProtocol.FROM);
+        from.putLong(runId).putLong(applied);
+        ReplicationProtocol.end(from, 0);
+        socket.getOutputStream().write(from.array(), 0, from.position());
+    }
+
+    private void awaitSequence(long sequence) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (follower.sequence() < sequence && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(sequence, follower.sequence());
+    }
+
+    private void assertSameBalances() {
+        assertEquals(primaryDAO.allAccounts().size(), followerDAO.allAccounts().size());
+        for (String id : primaryDAO.allAccounts()) {
+            assertEquals(id, 0, primaryDAO.balance(id).compareTo(followerDAO.balance(id)));
+        }
+    }
+}
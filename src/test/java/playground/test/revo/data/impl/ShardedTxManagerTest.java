@@ -0,0 +1,264 @@
+package playground.test.revo.data.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import playground.test.revo.data.PublicAccountDAO;
+import playground.test.revo.data.TxManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static playground.test.revo.data.TxManager.DepositResult.*;
+import static playground.test.revo.data.TxManager.TxResult.ERROR_FROM_NOT_FOUND;
+import static playground.test.revo.data.TxManager.TxResult.ERROR_TO_NOT_FOUND;
+
+public class ShardedTxManagerTest {
+
+    PublicAccountDAO dao;
+    ShardedTxManager tx;
+    private String TEST_1 = "test 1";
+    private String TEST_2 = "test 2";
+    private String TEST_3 = "test 3";
+
+    private AtomicBoolean throwException;
+
+    @Before
+    public void before() {
+        this.throwException = new AtomicBoolean(false);
+        ShardedAccountDAO shardedAccountDAO = new ShardedAccountDAO(4, () -> new InMemoryAccountDAO() {
+            @Override
+            public BigDecimal reduce(String id, BigDecimal amount) {
+                doThrow();
+                return super.reduce(id, amount);
+            }
+
+            @Override
+            public BigDecimal deposit(String id, BigDecimal amount) {
+                doThrow();
+                return super.deposit(id, amount);
+            }
+
+            @Override
+            public BigDecimal createAndDeposit(String id, BigDecimal amount) {
+                doThrow();
+                return super.createAndDeposit(id, amount);
+            }
+
+            private void doThrow() {
+                if (throwException.get()) {
+                    throw new RuntimeException("test");
+                }
+            }
+        });
+        this.dao = shardedAccountDAO;
+        this.tx = new ShardedTxManager(shardedAccountDAO);
+    }
+
+    @After
+    public void after() {
+        tx.close();
+    }
+
+    @Test
+    public void deposit() {
+        assertEquals(ERROR_NOT_FOUND, tx.deposit(null, BigDecimal.valueOf(1.0)));
+        assertEquals(ERROR_NOT_FOUND, tx.deposit("", BigDecimal.valueOf(1.0)));
+        assertEquals(ERROR_INCORRECT_AMOUNT, tx.deposit(TEST_1, null));
+        assertEquals(ERROR_INCORRECT_AMOUNT, tx.deposit(TEST_1, BigDecimal.valueOf(-1.0)));
+
+        assertEquals(SUCCESS, tx.deposit(TEST_1, BigDecimal.valueOf(1.0)));
+
+        throwException.set(true);
+        assertEquals(ERROR_UNKNOWN, tx.deposit(TEST_1, BigDecimal.valueOf(1.0)));
+    }
+
+    @Test
+    public void transfer() {
+        tx.deposit(TEST_1, BigDecimal.valueOf(2.0));
+        tx.deposit(TEST_2, BigDecimal.valueOf(2.0));
+
+        assertEquals(ERROR_FROM_NOT_FOUND, tx.transfer(null, TEST_2, BigDecimal.valueOf(-1.0)));
+        assertEquals(ERROR_TO_NOT_FOUND, tx.transfer(TEST_1, null, BigDecimal.valueOf(-1.0)));
+
+        assertEquals(ERROR_FROM_NOT_FOUND, tx.transfer("", TEST_2, BigDecimal.valueOf(-1.0)));
+        assertEquals(ERROR_TO_NOT_FOUND, tx.transfer(TEST_1, "", BigDecimal.valueOf(-1.0)));
+
+        assertEquals(ERROR_FROM_NOT_FOUND, tx.transfer(TEST_3, TEST_2, BigDecimal.valueOf(-1.0)));
+        assertEquals(ERROR_TO_NOT_FOUND, tx.transfer(TEST_1, TEST_3, BigDecimal.valueOf(-1.0)));
+
+        assertEquals(TxManager.TxResult.ERROR_SAME_FROM_TO, tx.transfer(TEST_1, TEST_1, BigDecimal.valueOf(1.0)));
+        assertEquals(TxManager.TxResult.ERROR_SAME_FROM_TO, tx.transfer(TEST_2, TEST_2, BigDecimal.valueOf(1.0)));
+
+        assertEquals(TxManager.TxResult.ERROR_INCORRECT_AMOUNT, tx.transfer(TEST_1, TEST_2, null));
+        assertEquals(TxManager.TxResult.ERROR_INCORRECT_AMOUNT, tx.transfer(TEST_1, TEST_2, BigDecimal.valueOf(-1.0)));
+
+        assertEquals(TxManager.TxResult.ERROR_INSUFFICIENT_AMOUNT, tx.transfer(TEST_1, TEST_2, BigDecimal.valueOf(100.0)));
+        assertEquals(TxManager.TxResult.ERROR_INSUFFICIENT_AMOUNT, tx.transfer(TEST_2, TEST_1, BigDecimal.valueOf(100.0)));
+
+
+        assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(TEST_1, TEST_2, BigDecimal.valueOf(1.0)));
+        assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(TEST_2, TEST_1, BigDecimal.valueOf(1.0)));
+
+        throwException.set(true);
+        assertEquals(TxManager.TxResult.ERROR_UNKNOWN, tx.transfer(TEST_1, TEST_2, BigDecimal.valueOf(1.0)));
+        assertEquals(TxManager.TxResult.ERROR_UNKNOWN, tx.transfer(TEST_2, TEST_1, BigDecimal.valueOf(1.0)));
+    }
+
+    @Test
+    public void transfer_MultiLeg() {
+        // Accounts of all shards
+        Map<String, BigDecimal> legs = new HashMap<>();
+        for (int i = 0; i < 16; i++) {
+            tx.deposit("multi-" + i, BigDecimal.TEN);
+            legs.put("multi-" + i, BigDecimal.valueOf(i % 2 == 0 ? -10 : 10));
+        }
+
+        assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(legs));
+        for (int i = 0; i < 16; i++) {
+            assertEquals(0, BigDecimal.valueOf(i % 2 == 0 ? 0 : 20).compareTo(dao.balance("multi-" + i)));
+        }
+
+        // Even accounts are empty now, debits of the other shards are returned
+        legs.replaceAll((id, amount) -> amount.negate());
+        legs.put("multi-0", BigDecimal.valueOf(-10));
+        legs.put("multi-2", BigDecimal.valueOf(30));
+        assertEquals(TxManager.TxResult.ERROR_INSUFFICIENT_AMOUNT, tx.transfer(legs));
+        for (int i = 0; i < 16; i++) {
+            assertEquals(0, BigDecimal.valueOf(i % 2 == 0 ? 0 : 20).compareTo(dao.balance("multi-" + i)));
+        }
+
+        legs.remove("multi-0");
+        legs.put("multi-2", BigDecimal.valueOf(20));
+        assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(legs));
+        for (int i = 0; i < 16; i++) {
+            assertEquals(0, BigDecimal.valueOf(i == 0 ? 0 : i == 2 ? 20 : 10).compareTo(dao.balance("multi-" + i)));
+        }
+    }
+
+    @Test
+    public void allAccounts() {
+        assertEquals(0, dao.allAccounts().size());
+
+        for (int i = 0; i < 100; i++) {
+            tx.deposit("account-" + i, BigDecimal.ONE);
+        }
+
+        assertEquals(100, dao.allAccounts().size());
+        assertEquals(100, new ArrayList<>(dao.allAccounts()).size());
+        assertEquals(0, BigDecimal.ONE.compareTo(dao.balance("account-42")));
+    }
+
+    @Test
+    public void accounts() {
+        assertEquals(false, dao.accounts(null).hasNext());
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            tx.deposit("account-" + i, BigDecimal.ONE);
+            expected.add("account-" + i);
+        }
+        Collections.sort(expected);
+
+        List<String> all = new ArrayList<>();
+        dao.accounts(null).forEachRemaining(all::add);
+        assertEquals(expected, all);
+
+        // Resumed page by page
+        List<String> pages = new ArrayList<>();
+        String after = null;
+        while (true) {
+            Iterator<String> accounts = dao.accounts(after);
+            for (int i = 0; i < 7 && accounts.hasNext(); i++) {
+                pages.add(after = accounts.next());
+            }
+            if (!accounts.hasNext()) {
+                break;
+            }
+        }
+        assertEquals(expected, pages);
+    }
+
+    @Test
+    public void concurrentTransfers() throws Exception {
+        // Small queues to exercise backpressure
+        ShardedAccountDAO dao = new ShardedAccountDAO(3);
+        ShardedTxManager tx = new ShardedTxManager(dao, 1000L, 2);
+        try {
+            String[] ids = new String[16];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = "account-" + i;
+                tx.deposit(ids[i], BigDecimal.valueOf(100));
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                workers.add(executor.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        int from = ThreadLocalRandom.current().nextInt(ids.length);
+                        int to = (from + 1 + ThreadLocalRandom.current().nextInt(ids.length - 1)) % ids.length;
+                        TxManager.TxResult result = tx.transfer(ids[from], ids[to], BigDecimal.valueOf(7));
+                        assertNotEquals(TxManager.TxResult.ERROR_UNKNOWN, result);
+                    }
+                }));
+            }
+
+            for (Future<?> worker : workers) {
+                worker.get(30, TimeUnit.SECONDS);
+            }
+            executor.shutdown();
+
+            BigDecimal total = BigDecimal.ZERO;
+            for (String id : ids) {
+                total = total.add(dao.balance(id));
+            }
+            assertEquals(0, BigDecimal.valueOf(1600).compareTo(total));
+        } finally {
+            tx.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void close_CallersAnswered() throws Exception {
+        // Small queues, so callers wait both to queue commands and for their results
+        ShardedAccountDAO dao = new ShardedAccountDAO(2);
+        ShardedTxManager tx = new ShardedTxManager(dao, 1000L, 2);
+        tx.deposit(TEST_1, BigDecimal.valueOf(1000000));
+        tx.deposit(TEST_2, BigDecimal.valueOf(1000000));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            workers.add(executor.submit(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    tx.transfer(TEST_1, TEST_2, BigDecimal.ONE);
+                    tx.transfer(TEST_2, TEST_1, BigDecimal.ONE);
+                }
+            }));
+        }
+
+        Thread.sleep(100);
+        tx.close();
+
+        for (Future<?> worker : workers) {
+            worker.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(ERROR_UNKNOWN, tx.deposit(TEST_3, BigDecimal.ONE));
+    }
+}
@@ -0,0 +1,169 @@
+package playground.test.revo.data.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import playground.test.revo.data.TxJournal;
+import playground.test.revo.data.TxManager;
+import playground.test.revo.metrics.MetricsRegistry;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SimpleTxManagerAsyncTest {
+
+    private static final String TEST_1 = "test 1";
+    private static final String TEST_2 = "test 2";
+
+    private ExecutorService executor;
+
+    private InMemoryAccountDAO dao;
+
+    @Before
+    public void before() {
+        executor = Executors.newFixedThreadPool(2);
+        dao = new InMemoryAccountDAO();
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    private SimpleTxManager tx(long lockTimeout) {
+        return new SimpleTxManager(dao, TxJournal.NONE, lockTimeout, 16, new MetricsRegistry(), executor);
+    }
+
+    @Test
+    public void transferAsync_Uncontended() {
+        SimpleTxManager tx = tx(500);
+
+        assertEquals(TxManager.DepositResult.SUCCESS, tx.depositAsync(TEST_1, BigDecimal.TEN).join());
+        assertEquals(TxManager.DepositResult.SUCCESS, tx.depositAsync(TEST_2, BigDecimal.TEN).join());
+
+        CompletableFuture<TxManager.TxResult> result = tx.transferAsync(TEST_1, TEST_2, BigDecimal.ONE);
+        assertTrue(result.isDone());
+        assertEquals(TxManager.TxResult.SUCCESS, result.join());
+
+        assertEquals(TxManager.TxResult.ERROR_INSUFFICIENT_AMOUNT, tx.transferAsync(TEST_1, TEST_2, BigDecimal.TEN).join());
+        assertEquals(TxManager.TxResult.ERROR_TO_NOT_FOUND, tx.transferAsync(TEST_1, "unknown", BigDecimal.ONE).join());
+        assertEquals(TxManager.DepositResult.ERROR_INCORRECT_AMOUNT, tx.depositAsync(TEST_1, null).join());
+
+        assertEquals(0, BigDecimal.valueOf(9).compareTo(dao.balance(TEST_1)));
+        assertEquals(0, BigDecimal.valueOf(11).compareTo(dao.balance(TEST_2)));
+    }
+
+    @Test
+    public void transferAsync_WaitsWithoutThread() throws Exception {
+        SimpleTxManager tx = tx(10_000);
+        tx.deposit(TEST_1, BigDecimal.TEN);
+        tx.deposit(TEST_2, BigDecimal.TEN);
+
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> tx.runTx(TEST_1, () -> {
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("InterruptedException", e);
+            }
+            return TxManager.DepositResult.SUCCESS;
+        }));
+        holder.start();
+        locked.await();
+
+        // Queued on the lock, the calling thread is free
+        CompletableFuture<TxManager.TxResult> transfer = tx.transferAsync(TEST_1, TEST_2, BigDecimal.ONE);
+        CompletableFuture<TxManager.DepositResult> deposit = tx.depositAsync(TEST_1, BigDecimal.ONE);
+        assertFalse(transfer.isDone());
+        assertFalse(deposit.isDone());
+
+        release.countDown();
+        assertEquals(TxManager.TxResult.SUCCESS, transfer.get(5, TimeUnit.SECONDS));
+        assertEquals(TxManager.DepositResult.SUCCESS, deposit.get(5, TimeUnit.SECONDS));
+        holder.join();
+
+        assertEquals(0, BigDecimal.valueOf(10).compareTo(dao.balance(TEST_1)));
+        assertEquals(0, BigDecimal.valueOf(11).compareTo(dao.balance(TEST_2)));
+    }
+
+    @Test
+    public void transferAsync_Timeout() throws Exception {
+        SimpleTxManager tx = tx(20);
+        tx.deposit(TEST_1, BigDecimal.TEN);
+        tx.deposit(TEST_2, BigDecimal.TEN);
+
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<TxManager.TxResult> holder = CompletableFuture.supplyAsync(() -> tx.runTx(TEST_1, TEST_2, () -> {
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("InterruptedException", e);
+            }
+            return TxManager.TxResult.SUCCESS;
+        }), executor);
+        locked.await();
+
+        List<CompletableFuture<TxManager.TxResult>> waiters = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            waiters.add(tx.transferAsync(TEST_2, TEST_1, BigDecimal.ONE));
+        }
+
+        for (CompletableFuture<TxManager.TxResult> waiter : waiters) {
+            assertEquals(TxManager.TxResult.ERROR_TIMEOUT, waiter.get(5, TimeUnit.SECONDS));
+        }
+
+        release.countDown();
+        assertEquals(TxManager.TxResult.SUCCESS, holder.get(5, TimeUnit.SECONDS));
+        assertEquals(TxManager.TxResult.SUCCESS, tx.transferAsync(TEST_2, TEST_1, BigDecimal.ONE).join());
+    }
+
+    @Test
+    public void transferAsync_ContendedMixedWithSync() throws Exception {
+        SimpleTxManager tx = tx(60_000);
+
+        String[] ids = new String[8];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "account-" + i;
+            tx.deposit(ids[i], BigDecimal.valueOf(100_000));
+        }
+
+        // Thousands of transactions in flight on a two-thread executor, some made by a blocked thread
+        List<CompletableFuture<TxManager.TxResult>> results = new ArrayList<>();
+        Thread sync = new Thread(() -> {
+            for (int j = 0; j < 1000; j++) {
+                assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(ids[j % 8], ids[(j + 3) % 8], BigDecimal.ONE));
+            }
+        });
+        sync.start();
+
+        for (int j = 0; j < 5000; j++) {
+            results.add(tx.transferAsync(ids[j % 8], ids[(j * 5 + 1) % 8], BigDecimal.ONE));
+        }
+
+        for (CompletableFuture<TxManager.TxResult> result : results) {
+            TxManager.TxResult value = result.get(30, TimeUnit.SECONDS);
+            assertTrue(value == TxManager.TxResult.SUCCESS || value == TxManager.TxResult.ERROR_SAME_FROM_TO);
+        }
+        sync.join();
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (String id : ids) {
+            total = total.add(dao.balance(id));
+        }
+        assertEquals(0, BigDecimal.valueOf(800_000).compareTo(total));
+    }
+}
@@ -0,0 +1,233 @@
+package playground.test.revo.data.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import playground.test.revo.data.TxJournal;
+import playground.test.revo.data.TxManager.TxResult;
+import playground.test.revo.metrics.MetricsRegistry;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SimpleTxManagerMultiLegTest {
+
+    private static final String PAYER = "payer";
+    private static final String TEST_1 = "test 1";
+    private static final String TEST_2 = "test 2";
+    private static final String TEST_3 = "test 3";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private InMemoryAccountDAO dao;
+
+    private SimpleTxManager tx;
+
+    private ExecutorService executor;
+
+    @Before
+    public void before() {
+        dao = new InMemoryAccountDAO();
+        executor = Executors.newFixedThreadPool(8);
+        tx = new SimpleTxManager(dao, TxJournal.NONE, 5000, 16, new MetricsRegistry(), executor);
+
+        tx.deposit(PAYER, BigDecimal.valueOf(100));
+        tx.deposit(TEST_1, BigDecimal.TEN);
+        tx.deposit(TEST_2, BigDecimal.TEN);
+        tx.deposit(TEST_3, BigDecimal.TEN);
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void transfer_AllLegs() {
+        assertEquals(TxResult.SUCCESS, tx.transfer(legs(PAYER, -30, TEST_1, 10, TEST_2, 20)));
+
+        assertBalance(70, PAYER);
+        assertBalance(20, TEST_1);
+        assertBalance(30, TEST_2);
+        assertBalance(10, TEST_3);
+
+        // Several debits
+        assertEquals(TxResult.SUCCESS, tx.transfer(legs(TEST_1, -5, TEST_2, -5, TEST_3, 10)));
+        assertBalance(15, TEST_1);
+        assertBalance(25, TEST_2);
+        assertBalance(20, TEST_3);
+    }
+
+    @Test
+    public void transfer_Insufficient_NothingApplied() {
+        // The last debit is not enough, the first ones are returned
+        Map<String, BigDecimal> legs = legs(PAYER, -10, TEST_1, -5, TEST_2, -11, TEST_3, 26);
+        assertEquals(TxResult.ERROR_INSUFFICIENT_AMOUNT, tx.transfer(legs));
+        assertEquals(TxResult.ERROR_INSUFFICIENT_AMOUNT, tx.transferAsync(legs).join());
+
+        assertBalance(100, PAYER);
+        assertBalance(10, TEST_1);
+        assertBalance(10, TEST_2);
+        assertBalance(10, TEST_3);
+    }
+
+    @Test
+    public void transfer_Incorrect() {
+        assertEquals(TxResult.ERROR_INCORRECT_AMOUNT, tx.transfer(null));
+        assertEquals(TxResult.ERROR_INCORRECT_AMOUNT, tx.transfer(new HashMap<>()));
+        // Debits and credits do not match
+        assertEquals(TxResult.ERROR_INCORRECT_AMOUNT, tx.transfer(legs(PAYER, -10, TEST_1, 9)));
+        // No debits
+        assertEquals(TxResult.ERROR_INCORRECT_AMOUNT, tx.transfer(legs(PAYER, 0, TEST_1, 0)));
+
+        Map<String, BigDecimal> legs = legs(PAYER, -1, TEST_1, 1);
+        legs.put(TEST_2, null);
+        assertEquals(TxResult.ERROR_INCORRECT_AMOUNT, tx.transfer(legs));
+
+        assertEquals(TxResult.ERROR_FROM_NOT_FOUND, tx.transfer(legs("unknown", -1, TEST_1, 1)));
+        assertEquals(TxResult.ERROR_TO_NOT_FOUND, tx.transfer(legs(PAYER, -1, "unknown", 1)));
+        assertEquals(TxResult.ERROR_TO_NOT_FOUND, tx.transfer(legs(PAYER, -1, "", 1)));
+
+        assertBalance(100, PAYER);
+        assertBalance(10, TEST_1);
+    }
+
+    @Test
+    public void transfer_Timeout() throws Exception {
+        tx = new SimpleTxManager(dao, TxJournal.NONE, 50, 16, new MetricsRegistry(), executor);
+
+        tx.locked(TEST_2, () -> {
+            try {
+                Map<String, BigDecimal> legs = legs(PAYER, -3, TEST_1, 1, TEST_2, 2);
+                assertEquals(TxResult.ERROR_TIMEOUT, executor.submit(() -> tx.transfer(legs)).get());
+                assertEquals(TxResult.ERROR_TIMEOUT, tx.transferAsync(legs).get());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        // All stripes are released
+        assertEquals(TxResult.SUCCESS, tx.transfer(legs(PAYER, -3, TEST_1, 1, TEST_2, 2)));
+        assertBalance(97, PAYER);
+    }
+
+    @Test
+    public void transferAsync_Waits() throws Exception {
+        List<CompletableFuture<TxResult>> waiting = new ArrayList<>();
+        tx.locked(TEST_3, () -> {
+            waiting.add(tx.transferAsync(legs(PAYER, -3, TEST_1, 1, TEST_3, 2)));
+            assertFalse(waiting.get(0).isDone());
+        });
+
+        assertEquals(TxResult.SUCCESS, waiting.get(0).get(1, TimeUnit.MINUTES));
+        assertBalance(97, PAYER);
+        assertBalance(11, TEST_1);
+        assertBalance(12, TEST_3);
+    }
+
+    @Test
+    public void transfer_Concurrent_NoDeadlock() throws Exception {
+        String[] accounts = {PAYER, TEST_1, TEST_2, TEST_3};
+        for (String id : accounts) {
+            tx.deposit(id, BigDecimal.valueOf(1000));
+        }
+
+        // Not the executor of async transactions, which would be starved by the joins
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int shift = t;
+            futures.add(threads.submit(() -> {
+                for (int i = 0; i < 500; i++) {
+                    // Every thread lists the accounts in a different order
+                    String from = accounts[(shift + i) % accounts.length];
+                    String to1 = accounts[(shift + i + 1) % accounts.length];
+                    String to2 = accounts[(shift + i + 2) % accounts.length];
+                    Map<String, BigDecimal> legs = legs(from, -2, to1, 1, to2, 1);
+
+                    TxResult result = i % 2 == 0 ? tx.transfer(legs) : tx.transferAsync(legs).join();
+                    assertEquals(TxResult.SUCCESS, result);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (String id : accounts) {
+            total = total.add(dao.balance(id));
+        }
+        assertEquals(0, BigDecimal.valueOf(4130).compareTo(total));
+    }
+
+    @Test
+    public void transfer_Journal_Replayed() throws Exception {
+        FileJournal journal = new FileJournal(folder.newFolder().toPath(), 64, 100);
+        try {
+            tx = new SimpleTxManager(dao, journal);
+            assertEquals(TxResult.SUCCESS, tx.transfer(legs(PAYER, -30, TEST_1, 10, TEST_2, 20)));
+            assertEquals(TxResult.ERROR_INSUFFICIENT_AMOUNT, tx.transfer(legs(TEST_3, -11, PAYER, 11)));
+            assertEquals(1, journal.sequence());
+
+            InMemoryAccountDAO replayed = new InMemoryAccountDAO();
+            replayed.createAndDeposit(PAYER, BigDecimal.valueOf(100));
+            replayed.createAndDeposit(TEST_1, BigDecimal.TEN);
+            replayed.createAndDeposit(TEST_2, BigDecimal.TEN);
+            assertEquals(1, journal.replay(replayed));
+
+            for (String id : new String[]{PAYER, TEST_1, TEST_2}) {
+                assertEquals(0, dao.balance(id).compareTo(replayed.balance(id)));
+            }
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void transfer_HotAccount() {
+        HotAccountDAO hot = new HotAccountDAO(new InMemoryAccountDAO(), 4, 0);
+        tx = new SimpleTxManager(hot, TxJournal.NONE, 5000, 16, new MetricsRegistry(), executor);
+
+        tx.deposit(PAYER, BigDecimal.valueOf(100));
+        tx.deposit(TEST_1, BigDecimal.ONE);
+        hot.mark(TEST_1);
+
+        // Credited to a slot, then taken by the multi-leg debit
+        assertEquals(TxResult.SUCCESS, tx.transfer(PAYER, TEST_1, BigDecimal.TEN));
+        assertEquals(TxResult.SUCCESS, tx.transfer(legs(TEST_1, -11, PAYER, 11)));
+
+        assertEquals(0, BigDecimal.ZERO.compareTo(hot.balance(TEST_1)));
+        assertEquals(0, BigDecimal.valueOf(101).compareTo(hot.balance(PAYER)));
+    }
+
+    private void assertBalance(long expected, String id) {
+        assertEquals(id, 0, BigDecimal.valueOf(expected).compareTo(dao.balance(id)));
+    }
+
+    static Map<String, BigDecimal> legs(Object... legs) {
+        Map<String, BigDecimal> map = new HashMap<>();
+        for (int i = 0; i < legs.length; i += 2) {
+            map.put((String) legs[i], BigDecimal.valueOf(((Number) legs[i + 1]).longValue()));
+        }
+        return map;
+    }
+}
@@ -0,0 +1,237 @@
+package playground.test.revo.data.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import playground.test.revo.data.TxManager;
+import playground.test.revo.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotStoreTest {
+
+    private static final int ACCOUNTS = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+
+    private FileJournal journal;
+
+    private InMemoryAccountDAO dao;
+
+    private SimpleTxManager tx;
+
+    private SnapshotStore snapshots;
+
+    private MetricsRegistry metrics;
+
+    @Before
+    public void before() throws IOException {
+        dir = folder.newFolder().toPath();
+        open();
+
+        for (int i = 0; i < ACCOUNTS; i++) {
+            assertEquals(TxManager.DepositResult.SUCCESS, tx.deposit(id(i), BigDecimal.valueOf(100)));
+        }
+    }
+
+    @After
+    public void after() throws IOException {
+        snapshots.close();
+        journal.close();
+    }
+
+    @Test
+    public void recover_SnapshotOnly() throws IOException {
+        Path snapshot = snapshots.write();
+        assertTrue(Files.exists(snapshot));
+
+        assertEquals(0, reopen().recover(dao));
+        assertBalances(100);
+    }
+
+    @Test
+    public void recover_SnapshotAndTail() throws IOException {
+        snapshots.write();
+        assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(id(0), id(1), BigDecimal.TEN));
+        assertEquals(TxManager.DepositResult.SUCCESS, tx.deposit("new", new BigDecimal("0.5")));
+
+        assertEquals(2, reopen().recover(dao));
+        assertEquals(0, BigDecimal.valueOf(90).compareTo(dao.balance(id(0))));
+        assertEquals(0, BigDecimal.valueOf(110).compareTo(dao.balance(id(1))));
+        assertEquals(0, new BigDecimal("0.5").compareTo(dao.balance("new")));
+    }
+
+    @Test
+    public void recover_NoSnapshot() throws IOException {
+        assertEquals(ACCOUNTS, reopen().recover(dao));
+        assertBalances(100);
+    }
+
+    @Test
+    public void write_Unchanged() throws IOException {
+        Path first = snapshots.write();
+        assertEquals(first, snapshots.write());
+    }
+
+    @Test
+    public void write_Concurrent() throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int seed = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; running.get() || i < 200; i++) {
+                        String from = id((seed + i) % ACCOUNTS);
+                        String to = id((seed * 7 + i * 5 + 1) % ACCOUNTS);
+                        if (!from.equals(to)) {
+                            TxManager.TxResult result = tx.transfer(from, to, new BigDecimal("1.5"));
+                            assertTrue(result == TxManager.TxResult.SUCCESS
+                                    || result == TxManager.TxResult.ERROR_INSUFFICIENT_AMOUNT);
+                        }
+                    }
+                }));
+            }
+
+            for (int i = 0; i < 3; i++) {
+                snapshots.write();
+            }
+            running.set(false);
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        InMemoryAccountDAO expected = dao;
+        reopen().recover(dao);
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            assertEquals(0, expected.balance(id(i)).compareTo(dao.balance(id(i))));
+            total = total.add(dao.balance(id(i)));
+        }
+        assertEquals(0, BigDecimal.valueOf(100L * ACCOUNTS).compareTo(total));
+    }
+
+    @Test
+    public void recover_CorruptedNewest() throws IOException {
+        snapshots.write();
+        tx.transfer(id(0), id(1), BigDecimal.TEN);
+        Path newest = snapshots.write();
+        tx.transfer(id(0), id(1), BigDecimal.TEN);
+
+        try (RandomAccessFile file = new RandomAccessFile(newest.toFile(), "rw")) {
+            file.seek(30);
+            int b = file.read();
+            file.seek(30);
+            file.write(b ^ 0xFF);
+        }
+        assertFalse(SnapshotStore.verify(newest));
+
+        assertEquals(2, reopen().recover(dao));
+        assertEquals(0, BigDecimal.valueOf(80).compareTo(dao.balance(id(0))));
+        assertEquals(0, BigDecimal.valueOf(120).compareTo(dao.balance(id(1))));
+        assertEquals(1, metrics.counter("revo_snapshot_failures_total", "", "operation", "recover").sum());
+    }
+
+    @Test
+    public void write_Cleanup() throws IOException {
+        snapshots.close();
+        journal.close();
+        journal = new FileJournal(dir, 16, 0, 64);
+        tx = new SimpleTxManager(dao, journal, 500, 16);
+        snapshots = new SnapshotStore(journal, dao, tx, 0);
+
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 8; j++) {
+                tx.transfer(id(j), id(j + 1), BigDecimal.ONE);
+            }
+            snapshots.write();
+        }
+
+        assertEquals(2, files("snapshot-").size());
+        assertTrue(journal.truncated() > 0);
+
+        InMemoryAccountDAO expected = dao;
+        reopen().recover(dao);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            assertEquals(0, expected.balance(id(i)).compareTo(dao.balance(id(i))));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void recover_Truncated() throws IOException {
+        snapshots.close();
+        journal.close();
+        journal = new FileJournal(dir, 16, 0, 64);
+        tx = new SimpleTxManager(dao, journal, 500, 16);
+        snapshots = new SnapshotStore(journal, dao, tx, 0);
+
+        for (int i = 0; i < 3; i++) {
+            tx.transfer(id(0), id(1), BigDecimal.ONE);
+            snapshots.write();
+        }
+
+        for (Path snapshot : files("snapshot-")) {
+            Files.delete(snapshot);
+        }
+        reopen().recover(dao);
+    }
+
+    private void open() {
+        journal = new FileJournal(dir, 64, 0);
+        dao = new InMemoryAccountDAO();
+        tx = new SimpleTxManager(dao, journal, 500, 16);
+        metrics = new MetricsRegistry();
+        snapshots = new SnapshotStore(journal, dao, tx, 0, metrics);
+    }
+
+    private SnapshotStore reopen() throws IOException {
+        snapshots.close();
+        journal.close();
+        open();
+        return snapshots;
+    }
+
+    private void assertBalances(int balance) {
+        assertEquals(ACCOUNTS, dao.allAccounts().size());
+        for (int i = 0; i < ACCOUNTS; i++) {
+            assertEquals(0, BigDecimal.valueOf(balance).compareTo(dao.balance(id(i))));
+        }
+    }
+
+    private List<Path> files(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix)).collect(Collectors.toList());
+        }
+    }
+
+    private static String id(int i) {
+        return "account " + i;
+    }
+}
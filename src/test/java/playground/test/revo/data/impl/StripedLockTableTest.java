@@ -0,0 +1,129 @@
+package playground.test.revo.data.impl;
+
+import org.junit.Test;
+import playground.test.revo.data.TxManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StripedLockTableTest {
+
+    private String TEST_1 = "test 1";
+    private String TEST_2 = "test 2";
+
+    @Test
+    public void size() {
+        assertEquals(1, new StripedLockTable(1).size());
+        assertEquals(4, new StripedLockTable(3).size());
+        assertEquals(1024, new StripedLockTable(1024).size());
+        assertEquals(StripedLockTable.DEFAULT_STRIPES, new StripedLockTable().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void size_Throw() {
+        new StripedLockTable(0);
+    }
+
+    @Test
+    public void stripe() {
+        StripedLockTable table = new StripedLockTable(16);
+
+        for (int i = 0; i < 1000; i++) {
+            String id = "account-" + i;
+            int stripe = table.stripe(id);
+            assertTrue(stripe >= 0 && stripe < 16);
+            assertEquals(stripe, table.stripe(new String(id)));
+        }
+    }
+
+    @Test
+    public void sameStripeTransfer() {
+        InMemoryAccountDAO dao = new InMemoryAccountDAO();
+        SimpleTxManager tx = new SimpleTxManager(dao, 0L, 1); // every account shares one stripe
+
+        tx.deposit(TEST_1, BigDecimal.valueOf(2.0));
+        tx.deposit(TEST_2, BigDecimal.valueOf(2.0));
+
+        assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(TEST_1, TEST_2, BigDecimal.valueOf(1.0)));
+        assertEquals(TxManager.TxResult.SUCCESS, tx.transfer(TEST_2, TEST_1, BigDecimal.valueOf(3.0)));
+        assertEquals(TxManager.TxResult.ERROR_INSUFFICIENT_AMOUNT, tx.transfer(TEST_2, TEST_1, BigDecimal.valueOf(1.0)));
+
+        assertEquals(4.0, dao.balance(TEST_1).doubleValue(), 0.0001);
+        assertEquals(0.0, dao.balance(TEST_2).doubleValue(), 0.0001);
+    }
+
+    @Test
+    public void sameStripeTimeout() throws Exception {
+        SimpleTxManager tx = new SimpleTxManager(new InMemoryAccountDAO(), 0L, 1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<TxManager.TxResult> holder = executor.submit(() -> tx.runTx(TEST_1, TEST_2, () -> {
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("InterruptedException", e);
+            }
+            return TxManager.TxResult.SUCCESS;
+        }));
+
+        locked.await();
+        assertEquals(TxManager.DepositResult.ERROR_TIMEOUT, tx.runTx("other", () -> TxManager.DepositResult.SUCCESS));
+        release.countDown();
+
+        assertEquals(TxManager.TxResult.SUCCESS, holder.get(1, TimeUnit.SECONDS));
+        assertEquals(TxManager.DepositResult.SUCCESS, tx.runTx("other", () -> TxManager.DepositResult.SUCCESS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void opposingTransfers() throws Exception {
+        // Ids are ordered differently than their stripes, transfers in both directions must not deadlock
+        InMemoryAccountDAO dao = new InMemoryAccountDAO();
+        SimpleTxManager tx = new SimpleTxManager(dao, 1000L, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        String[] ids = new String[8];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "account-" + i;
+            tx.deposit(ids[i], BigDecimal.valueOf(1000));
+        }
+
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int shift = t;
+            workers.add(executor.submit(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    String from = ids[(j + shift) % ids.length];
+                    String to = ids[(j * 3 + shift + 1) % ids.length];
+                    TxManager.TxResult result = tx.transfer(from, to, BigDecimal.ONE);
+                    assertTrue(result == TxManager.TxResult.SUCCESS
+                            || result == TxManager.TxResult.ERROR_SAME_FROM_TO
+                            || result == TxManager.TxResult.ERROR_INSUFFICIENT_AMOUNT);
+                }
+            }));
+        }
+
+        for (Future<?> worker : workers) {
+            worker.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (String id : ids) {
+            total = total.add(dao.balance(id));
+        }
+        assertEquals(0, BigDecimal.valueOf(8000).compareTo(total));
+    }
+}
@@ -0,0 +1,134 @@
+package playground.test.revo.data.impl;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TxLockTest {
+
+    private final TxLock lock = new TxLock();
+
+    @Test
+    public void tryLock_Free() {
+        assertTrue(lock.tryLock());
+        assertFalse(lock.tryLock());
+
+        lock.unlock();
+        assertFalse(lock.isLocked());
+        assertTrue(lock.tryLock());
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void unlock_NotHeld() {
+        lock.unlock();
+    }
+
+    @Test
+    public void lockAsync_HandedOverInOrder() {
+        assertTrue(lock.tryLock());
+
+        CompletableFuture<Boolean> first = lock.lockAsync(1, TimeUnit.MINUTES);
+        CompletableFuture<Boolean> second = lock.lockAsync(1, TimeUnit.MINUTES);
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+
+        lock.unlock();
+        assertTrue(first.join());
+        assertFalse(second.isDone());
+        assertFalse(lock.tryLock());
+
+        lock.unlock();
+        assertTrue(second.join());
+
+        lock.unlock();
+        assertFalse(lock.isLocked());
+    }
+
+    @Test
+    public void lockAsync_Timeout() {
+        assertTrue(lock.tryLock());
+
+        CompletableFuture<Boolean> timedOut = lock.lockAsync(10, TimeUnit.MILLISECONDS);
+        assertFalse(timedOut.join());
+
+        // The timed out waiter is skipped
+        CompletableFuture<Boolean> next = lock.lockAsync(1, TimeUnit.MINUTES);
+        lock.unlock();
+        assertTrue(next.join());
+
+        lock.unlock();
+        assertFalse(lock.isLocked());
+    }
+
+    @Test
+    public void lockAsync_NoWait() {
+        assertTrue(lock.tryLock());
+        assertFalse(lock.lockAsync(0, TimeUnit.MILLISECONDS).join());
+    }
+
+    @Test
+    public void tryLock_BlockedThreadHandedOver() throws Exception {
+        assertTrue(lock.tryLock());
+
+        AtomicBoolean locked = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                locked.set(lock.tryLock(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+            done.countDown();
+        });
+        waiter.start();
+
+        while (waiter.getState() != Thread.State.WAITING && waiter.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+
+        // Released by another thread than the one, which will hold it
+        lock.unlock();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(locked.get());
+
+        lock.unlock();
+        assertFalse(lock.isLocked());
+    }
+
+    @Test
+    public void tryLock_BlockedThreadTimeout() throws Exception {
+        assertTrue(lock.tryLock());
+        assertFalse(lock.tryLock(10, TimeUnit.MILLISECONDS));
+
+        lock.unlock();
+        assertFalse(lock.isLocked());
+    }
+
+    @Test
+    public void lockAsync_Contended() throws Exception {
+        int waiters = 10_000;
+        int[] counter = {0};
+
+        assertTrue(lock.tryLock());
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[waiters];
+        for (int i = 0; i < waiters; i++) {
+            futures[i] = lock.lockAsync(1, TimeUnit.MINUTES).thenRunAsync(() -> {
+                counter[0]++;
+                lock.unlock();
+            });
+        }
+
+        lock.unlock();
+        CompletableFuture.allOf(futures).get(10, TimeUnit.SECONDS);
+
+        assertEquals(waiters, counter[0]);
+        assertFalse(lock.isLocked());
+    }
+}
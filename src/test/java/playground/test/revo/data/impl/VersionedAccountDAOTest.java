@@ -0,0 +1,168 @@
+package playground.test.revo.data.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class VersionedAccountDAOTest {
+
+    private VersionedAccountDAO dao;
+    private String TEST_1 = "test 1";
+    private String TEST_2 = "test 2";
+    private double DELTA = 0.0001;
+
+    @Before
+    public void before() {
+        dao = new VersionedAccountDAO();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reduce_Throw_1() {
+        dao.reduce(TEST_1, BigDecimal.valueOf(1.0));
+    }
+
+    @Test
+    public void reduce_Ok() {
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(0.0, dao.reduce(TEST_1, BigDecimal.valueOf(1.0)).doubleValue(), DELTA);
+        assertEquals(null, dao.reduce(TEST_1, BigDecimal.valueOf(1.0)));
+
+        dao.deposit(TEST_1, BigDecimal.valueOf(2.0));
+        assertEquals(1.0, dao.reduce(TEST_1, BigDecimal.valueOf(1.0)).doubleValue(), DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reduce_Throw_2() {
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        dao.reduce(TEST_1, BigDecimal.valueOf(-1.0));
+    }
+
+    @Test
+    public void deposit() {
+        assertEquals(0, dao.allAccounts().size());
+        assertEquals(null, dao.deposit(TEST_1, BigDecimal.valueOf(1.0)));
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(1, dao.allAccounts().size());
+        assertEquals(2.0, dao.deposit(TEST_1, BigDecimal.valueOf(1.0)).doubleValue(), DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deposit_throw() {
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        dao.deposit(TEST_1, BigDecimal.valueOf(-1.0));
+    }
+
+    @Test
+    public void createAndDeposit() {
+        assertEquals(0, dao.allAccounts().size());
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(1, dao.allAccounts().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createAndDeposit_throw() {
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(-1.0));
+    }
+
+    @Test
+    public void allAccounts() {
+        assertEquals(0, dao.allAccounts().size());
+
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(1, dao.allAccounts().size());
+
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(1, dao.allAccounts().size());
+
+        dao.createAndDeposit(new String(TEST_1), BigDecimal.valueOf(1.0));
+        assertEquals(1, dao.allAccounts().size());
+
+        dao.createAndDeposit(TEST_2, BigDecimal.valueOf(1.0));
+        assertEquals(2, dao.allAccounts().size());
+    }
+
+    @Test
+    public void balance() {
+        assertEquals(null, dao.balance(TEST_1));
+
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(1.0, dao.balance(TEST_1).doubleValue(), DELTA);
+
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(2.0));
+        assertEquals(3.0, dao.balance(TEST_1).doubleValue(), DELTA);
+    }
+
+    @Test
+    public void version() {
+        assertEquals(-1, dao.version(TEST_1));
+
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(2.0));
+        assertEquals(0, dao.version(TEST_1));
+
+        dao.deposit(TEST_1, BigDecimal.valueOf(1.0));
+        dao.reduce(TEST_1, BigDecimal.valueOf(1.0));
+        assertEquals(2, dao.version(TEST_1));
+
+        assertEquals(null, dao.reduce(TEST_1, BigDecimal.valueOf(100.0)));
+        assertEquals(2, dao.version(TEST_1));
+    }
+
+    @Test
+    public void concurrentUpdates() throws Exception {
+        dao.createAndDeposit(TEST_1, BigDecimal.valueOf(1000));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            workers.add(executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    dao.createAndDeposit(TEST_1, BigDecimal.ONE);
+                    dao.reduce(TEST_1, BigDecimal.ONE);
+                    dao.createAndDeposit(TEST_2, BigDecimal.ONE);
+                }
+            }));
+        }
+
+        for (Future<?> worker : workers) {
+            worker.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(1000.0, dao.balance(TEST_1).doubleValue(), DELTA);
+        assertEquals(4000.0, dao.balance(TEST_2).doubleValue(), DELTA);
+        assertEquals(8000, dao.version(TEST_1));
+    }
+
+    @Test
+    public void accounts() {
+        assertEquals(Collections.emptyList(), list(dao.accounts(null)));
+
+        dao.createAndDeposit("c", BigDecimal.valueOf(1.0));
+        dao.createAndDeposit("a", BigDecimal.valueOf(1.0));
+        dao.createAndDeposit("b", BigDecimal.valueOf(1.0));
+        dao.createAndDeposit("a", BigDecimal.valueOf(1.0));
+
+        assertEquals(Arrays.asList("a", "b", "c"), list(dao.accounts(null)));
+        assertEquals(Arrays.asList("b", "c"), list(dao.accounts("a")));
+        assertEquals(Collections.singletonList("c"), list(dao.accounts("bb")));
+        assertEquals(Collections.emptyList(), list(dao.accounts("c")));
+    }
+
+    private static List<String> list(Iterator<String> accounts) {
+        List<String> list = new ArrayList<>();
+        accounts.forEachRemaining(list::add);
+        return list;
+    }
+}
@@ -0,0 +1,61 @@
+package playground.test.revo.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+import playground.test.revo.data.TxJournal;
+import playground.test.revo.data.TxManager;
+import playground.test.revo.data.impl.InMemoryAccountDAO;
+import playground.test.revo.data.impl.SimpleTxManager;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MeteredTxManagerTest {
+
+    private MetricsRegistry metrics;
+
+    private TxManager tx;
+
+    @Before
+    public void before() {
+        metrics = new MetricsRegistry();
+        tx = new MeteredTxManager(new SimpleTxManager(new InMemoryAccountDAO(), TxJournal.NONE, metrics), metrics);
+    }
+
+    private String scrape() {
+        StringBuilder out = new StringBuilder();
+        metrics.write(out);
+        return out.toString();
+    }
+
+    @Test
+    public void results_Counted() {
+        assertEquals(TxManager.DepositResult.SUCCESS, tx.deposit("a", BigDecimal.TEN));
+        assertEquals(TxManager.DepositResult.SUCCESS, tx.deposit("b", BigDecimal.TEN));
+        assertEquals(TxManager.TxResult.SUCCESS, tx.transfer("a", "b", BigDecimal.ONE));
+        assertEquals(TxManager.TxResult.ERROR_INSUFFICIENT_AMOUNT, tx.transfer("a", "b", BigDecimal.valueOf(100)));
+        assertEquals(TxManager.TxResult.ERROR_TO_NOT_FOUND, tx.transfer("a", "c", BigDecimal.ONE));
+
+        String scrape = scrape();
+        assertTrue(scrape.contains("revo_tx_results_total{operation=\"deposit\",result=\"SUCCESS\"} 2\n"));
+        assertTrue(scrape.contains("revo_tx_results_total{operation=\"transfer\",result=\"SUCCESS\"} 1\n"));
+        assertTrue(scrape.contains("revo_tx_results_total{operation=\"transfer\",result=\"ERROR_INSUFFICIENT_AMOUNT\"} 1\n"));
+        assertTrue(scrape.contains("revo_tx_results_total{operation=\"transfer\",result=\"ERROR_TO_NOT_FOUND\"} 1\n"));
+        assertTrue(scrape.contains("revo_tx_results_total{operation=\"transfer\",result=\"ERROR_TIMEOUT\"} 0\n"));
+        assertTrue(scrape.contains("revo_tx_in_flight{operation=\"transfer\"} 0\n"));
+    }
+
+    @Test
+    public void lockWait_Recorded() {
+        tx.deposit("a", BigDecimal.TEN);
+        tx.deposit("b", BigDecimal.TEN);
+        tx.transfer("a", "b", BigDecimal.ONE);
+
+        // 2 deposits lock one stripe each, the transfer locks one or two
+        String scrape = scrape();
+        assertTrue(scrape, scrape.matches("(?s).*revo_lock_wait_seconds_count [34]\n.*"));
+        assertTrue(scrape.contains("revo_lock_timeouts_total 0\n"));
+    }
+}
@@ -0,0 +1,107 @@
+package playground.test.revo.metrics;
+
+import org.junit.Test;
+import playground.test.revo.util.Histogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest {
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    private String scrape() {
+        StringBuilder out = new StringBuilder();
+        metrics.write(out);
+        return out.toString();
+    }
+
+    @Test
+    public void counter_Labels() {
+        metrics.counter("tx_total", "Transactions", "result", "SUCCESS").add(3);
+        metrics.counter("tx_total", "Transactions", "result", "ERROR").increment();
+
+        assertEquals("# HELP tx_total Transactions\n" +
+                "# TYPE tx_total counter\n" +
+                "tx_total{result=\"SUCCESS\"} 3\n" +
+                "tx_total{result=\"ERROR\"} 1\n", scrape());
+    }
+
+    @Test
+    public void counter_SameSeries() {
+        LongAdder first = metrics.counter("tx_total", "Transactions", "result", "SUCCESS");
+        assertSame(first, metrics.counter("tx_total", "Transactions", "result", "SUCCESS"));
+    }
+
+    @Test
+    public void gauge_Value() {
+        metrics.gauge("in_flight", "In flight", () -> 7);
+        assertTrue(scrape().contains("# TYPE in_flight gauge\nin_flight 7\n"));
+    }
+
+    @Test
+    public void label_Escaped() {
+        metrics.counter("c_total", "Counter", "route", "/a\"b\\c\n");
+        assertTrue(scrape().contains("c_total{route=\"/a\\\"b\\\\c\\n\"} 0\n"));
+    }
+
+    @Test
+    public void histogram_Cumulative() {
+        Histogram histogram = metrics.histogram("size", "Sizes", 1, "kind", "test");
+        histogram.record(1);
+        histogram.record(3);
+        histogram.record(100);
+
+        String scrape = scrape();
+        assertTrue(scrape.contains("# TYPE size histogram\n"));
+        assertTrue(scrape.contains("size_bucket{kind=\"test\",le=\"1.0\"} 1\n"));
+        assertTrue(scrape.contains("size_bucket{kind=\"test\",le=\"3.0\"} 2\n"));
+        assertTrue(scrape.contains("size_bucket{kind=\"test\",le=\"63.0\"} 2\n"));
+        assertTrue(scrape.contains("size_bucket{kind=\"test\",le=\"127.0\"} 3\n"));
+        assertTrue(scrape.contains("size_bucket{kind=\"test\",le=\"+Inf\"} 3\n"));
+        assertTrue(scrape.contains("size_sum{kind=\"test\"} 104.0\n"));
+        assertTrue(scrape.contains("size_count{kind=\"test\"} 3\n"));
+    }
+
+    @Test
+    public void histogram_Scaled() {
+        metrics.histogram("latency_seconds", "Latency", 1e9).record(1_500_000);
+
+        String scrape = scrape();
+        assertTrue(scrape.contains("latency_seconds_bucket{le=\"0.001048575\"} 0\n"));
+        assertTrue(scrape.contains("latency_seconds_bucket{le=\"0.002097151\"} 1\n"));
+        assertTrue(scrape.contains("latency_seconds_sum 0.0015\n"));
+
+        // Sub-microsecond buckets are not exported
+        assertTrue(scrape.contains("# TYPE latency_seconds histogram\nlatency_seconds_bucket{le=\"1.023E-6\"} 0\n"));
+    }
+
+    @Test
+    public void histogram_Existing() {
+        Histogram histogram = new Histogram();
+        metrics.histogram("batch", "Batch", 1, histogram);
+        metrics.histogram("batch", "Batch", 1, histogram);
+        histogram.record(5);
+
+        assertTrue(scrape().contains("batch_count 1\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void register_AnotherType() {
+        metrics.counter("metric", "Counter");
+        metrics.gauge("metric", "Gauge", () -> 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void register_IncorrectName() {
+        metrics.counter("bad-name", "Counter");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void register_OddLabels() {
+        metrics.counter("metric", "Counter", "result");
+    }
+}
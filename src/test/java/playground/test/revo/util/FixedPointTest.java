@@ -0,0 +1,56 @@
+package playground.test.revo.util;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+
+public class FixedPointTest {
+
+    private FixedPoint fixedPoint = new FixedPoint(2);
+
+    @Test
+    public void toUnits() {
+        assertEquals(100000, fixedPoint.toUnits(new BigDecimal("1000")));
+        assertEquals(1234, fixedPoint.toUnits(new BigDecimal("12.34")));
+        assertEquals(1230, fixedPoint.toUnits(new BigDecimal("12.3")));
+        assertEquals(1230, fixedPoint.toUnits(new BigDecimal("12.3000")));
+        assertEquals(100000, fixedPoint.toUnits(new BigDecimal("1E+3")));
+        assertEquals(-150, fixedPoint.toUnits(new BigDecimal("-1.5")));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void toUnits_TooPrecise() {
+        fixedPoint.toUnits(new BigDecimal("0.001"));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void toUnits_Overflow() {
+        fixedPoint.toUnits(BigDecimal.valueOf(Long.MAX_VALUE / 10));
+    }
+
+    @Test
+    public void isValid() {
+        assertEquals(true, fixedPoint.isValid(new BigDecimal("0.01")));
+        assertEquals(false, fixedPoint.isValid(new BigDecimal("0.001")));
+        assertEquals(false, fixedPoint.isValid(new BigDecimal("1E+30")));
+        assertEquals(true, fixedPoint.isValid(new BigDecimal("0.010")));
+        assertEquals(true, fixedPoint.isValid(new BigDecimal("9999999999999999.99")));
+        assertEquals(false, fixedPoint.isValid(new BigDecimal("99999999999999999.99")));
+    }
+
+    @Test
+    public void toDecimal() {
+        assertEquals("1000", fixedPoint.toDecimal(100000).toString());
+        assertEquals("10.5", fixedPoint.toDecimal(1050).toString());
+        assertEquals("0.01", fixedPoint.toDecimal(1).toString());
+        assertEquals("0", fixedPoint.toDecimal(0).toString());
+        assertEquals("1234", new FixedPoint(0).toDecimal(1234).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void scale_Throw() {
+        new FixedPoint(FixedPoint.MAX_SCALE + 1);
+    }
+}
@@ -0,0 +1,56 @@
+package playground.test.revo.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void bucket_Bounds() {
+        for (long value : new long[]{0, 1, 15, 16, 17, 100, 1000, 123456789L, Long.MAX_VALUE}) {
+            int bucket = Histogram.bucket(value);
+            assertTrue(bucket < Histogram.buckets());
+            assertTrue(value <= Histogram.upperBound(bucket));
+            assertTrue(bucket == 0 || value > Histogram.upperBound(bucket - 1));
+        }
+    }
+
+    @Test
+    public void bucket_Precision() {
+        for (long value = 1; value < 1_000_000; value = value * 3 / 2 + 1) {
+            long upper = Histogram.upperBound(Histogram.bucket(value));
+            assertTrue(upper - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void percentile_Ok() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(1000, histogram.count());
+        assertEquals(500500, histogram.sum());
+        assertEquals(1000, histogram.max());
+
+        long p50 = histogram.percentile(0.5);
+        assertTrue(p50 >= 500 && p50 <= 500 * 9 / 8);
+        assertEquals(1000, histogram.percentile(1.0));
+    }
+
+    @Test
+    public void percentile_Empty() {
+        assertEquals(0, new Histogram().percentile(0.99));
+    }
+
+    @Test
+    public void record_Negative() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.bucketCount(0));
+        assertEquals(0, histogram.max());
+    }
+}
@@ -0,0 +1,113 @@
+package playground.test.revo.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IdempotencyCacheTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private IdempotencyCache<String> cache(int capacity) {
+        return new IdempotencyCache<>(capacity, 100, result -> !"timeout".equals(result), clock::get);
+    }
+
+    private CompletableFuture<String> call(IdempotencyCache<String> cache, String key, String result) {
+        return cache.call(key, "request", () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture(result);
+        });
+    }
+
+    @Test
+    public void call_Repeated() {
+        IdempotencyCache<String> cache = cache(16);
+
+        assertEquals("first", call(cache, "key", "first").join());
+        assertEquals("first", call(cache, "key", "second").join());
+        assertEquals(1, calls.get());
+
+        assertEquals("other", call(cache, "other key", "other").join());
+        assertEquals(2, calls.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void call_AnotherRequest() {
+        IdempotencyCache<String> cache = cache(16);
+
+        assertEquals("first", call(cache, "key", "first").join());
+        assertNull(cache.call("key", "another request", () -> CompletableFuture.completedFuture("second")));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void call_InFlight_Shared() {
+        IdempotencyCache<String> cache = cache(16);
+
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> result = cache.call("key", "request", () -> first);
+        CompletableFuture<String> retry = call(cache, "key", "second");
+        assertFalse(retry.isDone());
+        assertEquals(0, calls.get());
+
+        first.complete("first");
+        assertSame(result, retry);
+        assertEquals("first", retry.join());
+    }
+
+    @Test
+    public void call_NotKept_RunsAgain() {
+        IdempotencyCache<String> cache = cache(16);
+
+        assertEquals("timeout", call(cache, "key", "timeout").join());
+        assertEquals("second", call(cache, "key", "second").join());
+        assertEquals(2, calls.get());
+
+        CompletableFuture<String> failed = cache.call("failed", "request", () -> {
+            throw new IllegalStateException("test");
+        });
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals("third", call(cache, "failed", "third").join());
+    }
+
+    @Test
+    public void call_Expired() {
+        IdempotencyCache<String> cache = cache(16);
+
+        call(cache, "key", "first");
+        clock.set(99);
+        assertEquals("first", call(cache, "key", "second").join());
+
+        clock.set(100);
+        assertEquals("third", call(cache, "key", "third").join());
+        assertEquals(2, calls.get());
+        assertEquals(0, cache.evictions());
+    }
+
+    @Test
+    public void call_Bounded() {
+        IdempotencyCache<String> cache = cache(64);
+
+        for (int i = 0; i < 10_000; i++) {
+            call(cache, "key-" + i, "result");
+            assertTrue(cache.size() <= 64);
+        }
+        assertEquals(10_000 - cache.size(), cache.evictions());
+
+        // The oldest keys are dropped, the latest ones are kept
+        call(cache, "key-9999", "result");
+        call(cache, "key-0", "result");
+        assertEquals(10_001, calls.get());
+    }
+}